@@ -332,5 +332,12 @@ public class ArchiveSettings {
      * Necessary, when the upload happens by other means than the ArcrepositoryClient.store method.
      */
     public static String READONLY_ARCHIVE_MODE = "settings.archive.bitarchive.readonlyArchiveMode";
+
+    /**
+     * <b>settings.archive.bitarchive.filePoolSize</b>: <br>
+     * The maximum number of idle WARC files the bitarchive keeps open for serving records. Repeated lookups in the
+     * same file reuse the open file instead of opening it again. The value 0 disables the pool.
+     */
+    public static String BITARCHIVE_FILE_POOL_SIZE = "settings.archive.bitarchive.filePoolSize";
     
 }
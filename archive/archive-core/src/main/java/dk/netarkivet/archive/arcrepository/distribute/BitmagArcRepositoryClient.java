@@ -24,6 +24,7 @@ package dk.netarkivet.archive.arcrepository.distribute;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -250,6 +251,28 @@ public class BitmagArcRepositoryClient extends Synchronizer implements ArcReposi
         return bitarchiveRecord;
     }
 
+    /**
+     * Gets the data of a single record out of the ArcRepository. Large records are streamed from the Warc Record
+     * Service while they are read, instead of being retrieved whole first.
+     *
+     * @param arcfile The name of a file containing the desired record.
+     * @param index The offset of the desired record in the file
+     * @return The data of the record.
+     * @throws ArgumentNotValid If the arcfile is null or empty, or the index is negative.
+     * @throws IOFailure If the record could not be retrieved.
+     */
+    @Override
+    public InputStream getRecordData(String arcfile, long index) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNullOrEmpty(arcfile, "arcfile");
+        ArgumentNotValid.checkNotNegative(index, "index");
+        log.debug("Requesting data of record '{}:{}'", arcfile, index);
+        InputStream recordData = warcRecordClient.getRecordStream(arcfile, index);
+        if (recordData == null) {
+            throw new IOFailure("Got null when trying to get record '" + arcfile + ":" + index + "'.");
+        }
+        return recordData;
+    }
+
     /**
      * Synchronously retrieves a file from a bitarchive and places it in a local file. This implementation retrieves the
      * file using bitrepository.org software.
@@ -77,4 +77,26 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      * @return The name of a JDBC driver class
      */
     public abstract String getDriverClassName();
+
+    /**
+     * Create a temporary table for staging the filenames, and possibly checksums, reported by a replica, before they
+     * are reconciled with the file and replicafileinfo tables. The table has three columns filename varchar(300),
+     * checksum varchar(300) and file_id bigint, and no index, as not all databases support indexes on temporary tables.
+     * The table is only visible through the given connection, and its rows are kept at commit. The table should be
+     * disposed of with dropReplicaFileImportTmpTable.
+     *
+     * @param c The DB connection to use.
+     * @return The name of the created table.
+     * @throws SQLException If there is a problem creating the table.
+     */
+    public abstract String getReplicaFileImportTmpTable(Connection c) throws SQLException;
+
+    /**
+     * Dispose of a temporary table created with getReplicaFileImportTmpTable. This can be expected to be called from
+     * within a finally clause, so it mustn't throw exceptions.
+     *
+     * @param c The DB connection to use.
+     * @param tableName The name of the temporary table.
+     */
+    public abstract void dropReplicaFileImportTmpTable(Connection c, String tableName);
 }
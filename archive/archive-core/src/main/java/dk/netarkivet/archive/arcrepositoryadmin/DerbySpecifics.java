@@ -23,9 +23,16 @@
 
 package dk.netarkivet.archive.arcrepositoryadmin;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.DBUtils;
+
 /**
  * Derby-specific implementation of DB methods.
  * <p>
@@ -35,4 +42,33 @@ import org.slf4j.LoggerFactory;
 public abstract class DerbySpecifics extends DBSpecifics {
     /** The log. */
     protected static final Logger log = LoggerFactory.getLogger(DerbySpecifics.class);
+
+    @Override
+    public String getReplicaFileImportTmpTable(Connection c) throws SQLException {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        Statement s = c.createStatement();
+        try {
+            s.execute("DECLARE GLOBAL TEMPORARY TABLE replicafileimport "
+                    + "( filename varchar(300), checksum varchar(300), file_id bigint ) "
+                    + "ON COMMIT PRESERVE ROWS NOT LOGGED");
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+        return "session.replicafileimport";
+    }
+
+    @Override
+    public void dropReplicaFileImportTmpTable(Connection c, String tableName) {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        ArgumentNotValid.checkNotNullOrEmpty(tableName, "String tableName");
+        Statement s = null;
+        try {
+            s = c.createStatement();
+            s.execute("DROP TABLE " + tableName);
+        } catch (SQLException e) {
+            log.warn("Couldn't drop temporary table {}", tableName, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
 }
@@ -25,11 +25,14 @@ package dk.netarkivet.archive.arcrepositoryadmin;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.utils.DBUtils;
 
 public class MySQLSpecifics extends DBSpecifics {
 
@@ -51,4 +54,32 @@ public class MySQLSpecifics extends DBSpecifics {
         return "com.mysql.jdbc.Driver";
     }
 
+    @Override
+    public String getReplicaFileImportTmpTable(Connection c) throws SQLException {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        Statement s = c.createStatement();
+        try {
+            s.execute("CREATE TEMPORARY TABLE replicafileimport "
+                    + "( filename varchar(300), checksum varchar(300), file_id bigint )");
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+        return "replicafileimport";
+    }
+
+    @Override
+    public void dropReplicaFileImportTmpTable(Connection c, String tableName) {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        ArgumentNotValid.checkNotNullOrEmpty(tableName, "String tableName");
+        Statement s = null;
+        try {
+            s = c.createStatement();
+            s.execute("DROP TEMPORARY TABLE " + tableName);
+        } catch (SQLException e) {
+            log.warn("Couldn't drop temporary table {}", tableName, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+        }
+    }
+
 }
@@ -76,11 +76,11 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
     private static ReplicaCacheDatabase instance;
 
     /**
-     * The number of entries between logging in either file list or checksum list. This also controls how often the
-     * database connection is renewed in methods {@link #addChecksumInformation(File, Replica)} and
-     * {@link #addFileListInformation(File, Replica)}, where the operations can take hours, and seems to leak memory.
+     * The number of entries from either file list or checksum list staged in the database in one batch by
+     * {@link #addChecksumInformation(File, Replica)} and {@link #addFileListInformation(File, Replica)}. Progress is
+     * logged after each batch.
      */
-    private final int LOGGING_ENTRY_INTERVAL = 1000;
+    private final int IMPORT_BATCH_SIZE = 10000;
 
     /** Waiting time in seconds before attempting to initialise the database again. */
     private final int WAIT_BEFORE_INIT_RETRY = 30;
@@ -706,11 +706,15 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
     /**
      * Given the output of a checksum job, add the results to the database.
      * <p>
-     * The following fields in the table are updated for each corresponding entry in the replicafileinfo table: <br/>
+     * The entries are staged in a temporary table in batches. Files not known already are then inserted by a few
+     * statements covering all the entries, and the following fields are updated in batches for each corresponding entry
+     * in the replicafileinfo table: <br/>
      * - checksum = the given checksum. <br/>
      * - filelist_status = ok. <br/>
      * - filelist_checkdatetime = now. <br/>
      * - checksum_checkdatetime = now.
+     * <p>
+     * Entries in the replicafileinfo table for the replica, which are missing in the output, are marked as missing.
      *
      * @param checksumOutputFile The output of a checksum job in a file
      * @param replica The replica this checksum job is for.
@@ -726,9 +730,11 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         FileUtils.sortFile(checksumOutputFile, sortedResult);
         final long datasize = FileUtils.countLines(sortedResult);
 
-        Set<Long> missingReplicaRFIs = null;
+        // The temporary table only exists for this connection, so the same connection is used throughout.
         Connection con = ArchiveDBConnection.get();
+        String importTable = null;
         LineIterator lineIterator = null;
+        PreparedStatement statement = null;
         try {
             // Make sure, that the replica exists in the database.
             if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
@@ -740,11 +746,8 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
 
             log.info("Starting processing of {} checksum entries for replica {}", datasize, replica.getId());
 
-            // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should the datastructure
-            // (missingReplicaRFIs) be disk-bound in some way, or optimized
-            // in some way, e.g. using it.unimi.dsi.fastutil.longs.LongArrayList
-            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(replica.getId(), con);
+            importTable = DBSpecifics.getInstance().getReplicaFileImportTmpTable(con);
+            statement = con.prepareStatement("INSERT INTO " + importTable + " (filename, checksum) VALUES (?, ?)");
 
             // Initialize the String iterator
             lineIterator = new LineIterator(new FileReader(sortedResult));
@@ -752,19 +755,9 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
             String lastFilename = "";
             String lastChecksum = "";
 
-            int i = 0;
+            int staged = 0;
             while (lineIterator.hasNext()) {
                 String line = lineIterator.next();
-                // log that it is in progress every so often.
-                if ((i % LOGGING_ENTRY_INTERVAL) == 0) {
-                    log.info("Processed checksum list entry number {} for replica {}", i, replica);
-                    // Close connection, and open another one
-                    // to avoid memory-leak (NAS-2003)
-                    ArchiveDBConnection.release(con);
-                    con = ArchiveDBConnection.get();
-                    log.debug("Databaseconnection has now been renewed");
-                }
-                ++i;
 
                 // parse the input.
                 final KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
@@ -793,27 +786,32 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
                 lastFilename = filename;
                 lastChecksum = checksum;
 
-                // Process the current (filename + checksum) combo for this replica
-                // Remove the returned replicafileinfo guid from the missing entries.
-                missingReplicaRFIs.remove(ReplicaCacheHelpers.processChecksumline(filename, checksum, replica, con));
+                // Stage the current (filename + checksum) combo for this replica
+                statement.setString(1, filename);
+                statement.setString(2, checksum);
+                statement.addBatch();
+                if ((++staged % IMPORT_BATCH_SIZE) == 0) {
+                    statement.executeBatch();
+                    con.commit();
+                    log.info("Staged checksum list entry number {} for replica {}", staged, replica);
+                }
             }
-        } catch (IOException e) {
-            throw new IOFailure("Unable to read checksum entries from file", e);
-        } finally {
-            ArchiveDBConnection.release(con);
-            LineIterator.closeQuietly(lineIterator);
-        }
+            statement.executeBatch();
+            con.commit();
 
-        con = ArchiveDBConnection.get();
-        try {
-            // go through the not found replicafileinfo for this replica to change
-            // their filelist_status to missing.
-            if (missingReplicaRFIs.size() > 0) {
-                log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
+            int newFiles = ReplicaCacheHelpers.insertImportedFilesIntoDB(importTable, con);
+            if (newFiles > 0) {
+                log.info("Inserted {} files from the checksum list for replica '{}' into the database.", newFiles,
+                        replica);
+            }
+            long[] foundRfis = ReplicaCacheHelpers.updateReplicaFileInfoFromImport(importTable, true, replica,
+                    IMPORT_BATCH_SIZE, con);
+
+            // change the filelist_status of the replicafileinfo for this replica, which were not found, to missing.
+            int missing = ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(foundRfis, replica,
+                    IMPORT_BATCH_SIZE, con);
+            if (missing > 0) {
+                log.warn("Found {} missing files for replica '{}'.", missing, replica);
             }
 
             // update the checksum updated date for this replica.
@@ -821,7 +819,15 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
             ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
 
             log.info("Finished processing of {} checksum entries for replica {}", datasize, replica.getId());
+        } catch (IOException e) {
+            throw new IOFailure("Unable to read checksum entries from file", e);
+        } catch (SQLException e) {
+            throw new IOFailure("Unable to add checksum entries for replica '" + replica + "' to the database:\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
         } finally {
+            LineIterator.closeQuietly(lineIterator);
+            DBUtils.closeStatementIfOpen(statement);
+            dropImportTable(con, importTable);
             ArchiveDBConnection.release(con);
         }
     }
@@ -830,8 +836,9 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
      * Method for adding the results from a list of filenames on a replica. This list of filenames should return the
      * list of all the files within the database.
      * <p>
-     * For each file in the FileListJob the following fields are set for the corresponding entry in the replicafileinfo
-     * table: <br/>
+     * The filenames are staged in a temporary table in batches. Files not known already are then inserted by a few
+     * statements covering all the filenames, and for each file in the FileListJob the following fields are set in
+     * batches for the corresponding entry in the replicafileinfo table: <br/>
      * - filelist_status = ok. <br/>
      * - filelist_checkdatetime = now.
      * <p>
@@ -856,9 +863,11 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         FileUtils.sortFile(filelistFile, sortedResult);
         final long datasize = FileUtils.countLines(sortedResult);
 
+        // The temporary table only exists for this connection, so the same connection is used throughout.
         Connection con = ArchiveDBConnection.get();
-        Set<Long> missingReplicaRFIs = null;
+        String importTable = null;
         LineIterator lineIterator = null;
+        PreparedStatement statement = null;
         try {
             // Make sure, that the replica exists in the database.
             if (!ReplicaCacheHelpers.existsReplicaInDB(replica, con)) {
@@ -870,28 +879,16 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
 
             log.info("Starting processing of {} filelist entries for replica {}", datasize, replica.getId());
 
-            // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should this datastructure
-            // (missingReplicaRFIs) be disk-bound in some way.
-            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(replica.getId(), con);
+            importTable = DBSpecifics.getInstance().getReplicaFileImportTmpTable(con);
+            statement = con.prepareStatement("INSERT INTO " + importTable + " (filename) VALUES (?)");
 
             // Initialize String iterator
             lineIterator = new LineIterator(new FileReader(sortedResult));
 
             String lastFileName = "";
-            int i = 0;
+            int staged = 0;
             while (lineIterator.hasNext()) {
                 String file = lineIterator.next();
-                // log that it is in progress every so often.
-                if ((i % LOGGING_ENTRY_INTERVAL) == 0) {
-                    log.info("Processed file list entry number {} for replica {}", i, replica);
-                    // Close connection, and open another one
-                    // to avoid memory-leak (NAS-2003)
-                    ArchiveDBConnection.release(con);
-                    con = ArchiveDBConnection.get();
-                    log.debug("Databaseconnection has now been renewed");
-                }
-                ++i;
 
                 // handle duplicates.
                 if (file.equals(lastFileName)) {
@@ -900,32 +897,66 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
                 }
 
                 lastFileName = file;
-                // Add information for one file, and remove the ReplicaRFI from the
-                // set of missing ones.
-                missingReplicaRFIs.remove(ReplicaCacheHelpers.addFileInformation(file, replica, con));
+                // Stage the file.
+                statement.setString(1, file);
+                statement.addBatch();
+                if ((++staged % IMPORT_BATCH_SIZE) == 0) {
+                    statement.executeBatch();
+                    con.commit();
+                    log.info("Staged file list entry number {} for replica {}", staged, replica);
+                }
             }
+            statement.executeBatch();
+            con.commit();
+
+            int newFiles = ReplicaCacheHelpers.insertImportedFilesIntoDB(importTable, con);
+            if (newFiles > 0) {
+                log.info("Inserted {} files from the file list for replica '{}' into the database.", newFiles,
+                        replica);
+            }
+            long[] foundRfis = ReplicaCacheHelpers.updateReplicaFileInfoFromImport(importTable, false, replica,
+                    IMPORT_BATCH_SIZE, con);
+
+            // change the filelist_status of the replicafileinfo for this replica, which were not found, to missing.
+            int missing = ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(foundRfis, replica,
+                    IMPORT_BATCH_SIZE, con);
+            if (missing > 0) {
+                log.warn("Found {} missing files for replica '{}'.", missing, replica);
+            }
+            // Update the date for filelist update for this replica.
+            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
         } catch (IOException e) {
             throw new IOFailure("Unable to read the filenames from file", e);
+        } catch (SQLException e) {
+            throw new IOFailure("Unable to add the filenames for replica '" + replica + "' to the database:\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
         } finally {
-            ArchiveDBConnection.release(con);
             LineIterator.closeQuietly(lineIterator);
+            DBUtils.closeStatementIfOpen(statement);
+            dropImportTable(con, importTable);
+            ArchiveDBConnection.release(con);
         }
+    }
 
-        con = ArchiveDBConnection.get();
+    /**
+     * Dispose of an import table created with {@link DBSpecifics#getReplicaFileImportTmpTable(Connection)}, after
+     * rolling back any unfinished work. The connection is pooled, so the table must not be left behind. Failures are
+     * logged, but otherwise ignored.
+     *
+     * @param con The connection the table was created with.
+     * @param importTable The name of the table, or null if it was never created.
+     */
+    private void dropImportTable(Connection con, String importTable) {
+        if (importTable == null) {
+            return;
+        }
         try {
-            // go through the not found replicafileinfo for this replica to change
-            // their filelist_status to missing.
-            if (missingReplicaRFIs.size() > 0) {
-                log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
-            }
-            // Update the date for filelist update for this replica.
-            ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
-        } finally {
-            ArchiveDBConnection.release(con);
+            con.rollback();
+            DBSpecifics.getInstance().dropReplicaFileImportTmpTable(con, importTable);
+            con.commit();
+        } catch (SQLException e) {
+            log.warn("Problems dropping the temporary table {}\n{}", importTable,
+                    ExceptionUtils.getSQLExceptionCause(e), e);
         }
     }
 
@@ -28,7 +28,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -300,20 +302,6 @@ public final class ReplicaCacheHelpers {
         }
     }
 
-    /**
-     * Method for retrieving the list of all the replicafileinfo_guids for a specific replica.
-     *
-     * @param replicaId The id for the replica to contain the files.
-     * @param con An open connection to the archiveDatabase.
-     * @return The list of all the replicafileinfo_guid.
-     */
-    protected static Set<Long> retrieveReplicaFileInfoGuidsForReplica(String replicaId, Connection con) {
-        // sql for retrieving the replicafileinfo_guids for the replica.
-        final String sql = "SELECT replicafileinfo_guid FROM replicafileinfo "
-                + "WHERE replica_id = ? ORDER BY replicafileinfo_guid";
-        return DBUtils.selectLongSet(con, sql, replicaId);
-    }
-
     /**
      * Method for retrieving the replica type for a specific replica.
      *
@@ -1177,4 +1165,187 @@ public final class ReplicaCacheHelpers {
         return rfiId;
     }
 
+    /**
+     * Insert the files staged in an import table, which are not already in the file table, into the file table, and
+     * record the file_id of every staged file in the import table. Then create the replicafileinfo entries missing for
+     * any of the staged files, for every replica, as {@link #createReplicaFileInfoEntriesInDB(long, Connection)} does
+     * for a single file.
+     * <p>
+     * All statements are driven by the import table, which has no index, and look up the rows of the other tables by
+     * their indexes.
+     *
+     * @param importTable The name of the import table, as given by {@link DBSpecifics#getReplicaFileImportTmpTable}.
+     * @param con An open connection to the archive database
+     * @return The number of files inserted into the file table.
+     * @throws SQLException If the entries cannot be inserted.
+     */
+    protected static int insertImportedFilesIntoDB(String importTable, Connection con) throws SQLException {
+        PreparedStatement statement = null;
+        try {
+            statement = con.prepareStatement("INSERT INTO file (filename) SELECT i.filename FROM " + importTable
+                    + " i WHERE NOT EXISTS (SELECT 1 FROM file f WHERE f.filename = i.filename)");
+            int insertedFiles = statement.executeUpdate();
+            statement.close();
+
+            statement = con.prepareStatement("UPDATE " + importTable + " SET file_id = (SELECT MIN(f.file_id) "
+                    + "FROM file f WHERE f.filename = " + importTable + ".filename)");
+            statement.executeUpdate();
+            statement.close();
+
+            statement = DBUtils.prepareStatement(con, "INSERT INTO replicafileinfo (file_id, replica_id, "
+                    + "filelist_status, checksum_status, upload_status) SELECT i.file_id, r.replica_id, ?, ?, ? FROM "
+                    + importTable + " i, replica r WHERE NOT EXISTS (SELECT 1 FROM replicafileinfo rfi "
+                    + "WHERE rfi.file_id = i.file_id AND rfi.replica_id = r.replica_id)",
+                    FileListStatus.NO_FILELIST_STATUS.ordinal(), ChecksumStatus.UNKNOWN.ordinal(),
+                    ReplicaStoreState.UNKNOWN_UPLOAD_STATE.ordinal());
+            int insertedRfis = statement.executeUpdate();
+            con.commit();
+            log.debug("Inserted {} files and {} replicafileinfo entries from {}", insertedFiles, insertedRfis,
+                    importTable);
+            return insertedFiles;
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
+    }
+
+    /**
+     * Update the replicafileinfo entries of a replica for all the files staged in an import table, after
+     * {@link #insertImportedFilesIntoDB(String, Connection)}. If checksums are staged, the entries are updated as
+     * {@link #updateReplicaFileInfoChecksum(long, String, Connection)} does for a single entry, and otherwise as
+     * {@link #updateReplicaFileInfoFilelist(long, Connection)} does. The updates are sent in batches of the given
+     * size, and committed together.
+     *
+     * @param importTable The name of the import table, as given by {@link DBSpecifics#getReplicaFileImportTmpTable}.
+     * @param withChecksums Whether checksums are staged in the import table.
+     * @param replica The replica the files were listed on.
+     * @param batchSize The number of updates sent to the database at a time.
+     * @param con An open connection to the archive database
+     * @return The sorted replicafileinfo_guids of the updated entries.
+     * @throws SQLException If the entries cannot be updated.
+     */
+    protected static long[] updateReplicaFileInfoFromImport(String importTable, boolean withChecksums,
+            Replica replica, int batchSize, Connection con) throws SQLException {
+        PreparedStatement select = null;
+        PreparedStatement update = null;
+        try {
+            select = DBUtils.prepareStatement(con, batchSize, "SELECT rfi.replicafileinfo_guid, rfi.checksum, "
+                    + "i.checksum FROM " + importTable + " i, replicafileinfo rfi "
+                    + "WHERE rfi.file_id = i.file_id AND rfi.replica_id = ?", replica.getId());
+            Timestamp now = new Timestamp(Calendar.getInstance().getTimeInMillis());
+            if (withChecksums) {
+                update = con.prepareStatement("UPDATE replicafileinfo SET checksum = ?, upload_status = ?, "
+                        + "filelist_status = ?, checksum_status = ?, checksum_checkdatetime = ?, "
+                        + "filelist_checkdatetime = ? WHERE replicafileinfo_guid = ?");
+                update.setInt(2, ReplicaStoreState.UPLOAD_COMPLETED.ordinal());
+                update.setInt(3, FileListStatus.OK.ordinal());
+                update.setInt(4, ChecksumStatus.UNKNOWN.ordinal());
+                update.setTimestamp(5, now);
+                update.setTimestamp(6, now);
+            } else {
+                update = con.prepareStatement("UPDATE replicafileinfo SET filelist_status = ?, "
+                        + "filelist_checkdatetime = ? WHERE replicafileinfo_guid = ?");
+                update.setInt(1, FileListStatus.OK.ordinal());
+                update.setTimestamp(2, now);
+            }
+
+            long[] guids = new long[batchSize];
+            int count = 0;
+            int changedChecksums = 0;
+            ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                long guid = rs.getLong(1);
+                if (withChecksums) {
+                    String oldChecksum = rs.getString(2);
+                    String checksum = rs.getString(3);
+                    if (oldChecksum != null && !oldChecksum.equals(checksum)) {
+                        ++changedChecksums;
+                    }
+                    update.setString(1, checksum);
+                    update.setLong(7, guid);
+                } else {
+                    update.setLong(3, guid);
+                }
+                update.addBatch();
+                if (count == guids.length) {
+                    guids = Arrays.copyOf(guids, guids.length * 2);
+                }
+                guids[count++] = guid;
+                if ((count % batchSize) == 0) {
+                    update.executeBatch();
+                }
+            }
+            rs.close();
+            update.executeBatch();
+            con.commit();
+
+            if (changedChecksums > 0) {
+                log.warn("Found {} files with changed checksums for replica '{}'.", changedChecksums, replica);
+            }
+            guids = Arrays.copyOf(guids, count);
+            Arrays.sort(guids);
+            return guids;
+        } finally {
+            DBUtils.closeStatementIfOpen(select);
+            DBUtils.closeStatementIfOpen(update);
+        }
+    }
+
+    /**
+     * Mark all the replicafileinfo entries of a replica, which are not among the given ones, as missing, as
+     * {@link #updateReplicaFileInfoMissingFromFilelist(long, Connection)} does for a single entry. The updates are sent
+     * in batches of the given size, and committed together.
+     *
+     * @param foundGuids The sorted replicafileinfo_guids of the entries found on the replica.
+     * @param replica The replica the files were listed on.
+     * @param batchSize The number of updates sent to the database at a time.
+     * @param con An open connection to the archive database
+     * @return The number of replicafileinfo entries marked as missing.
+     * @throws SQLException If the entries cannot be updated.
+     */
+    protected static int updateReplicaFileInfoMissingFromFilelist(long[] foundGuids, Replica replica, int batchSize,
+            Connection con) throws SQLException {
+        PreparedStatement select = null;
+        PreparedStatement update = null;
+        try {
+            select = DBUtils.prepareStatement(con, batchSize, "SELECT replicafileinfo_guid FROM replicafileinfo "
+                    + "WHERE replica_id = ?", replica.getId());
+            update = con.prepareStatement("UPDATE replicafileinfo "
+                    + "SET filelist_status = ?, filelist_checkdatetime = ?, upload_status = ? "
+                    + "WHERE replicafileinfo_guid = ?");
+            update.setInt(1, FileListStatus.MISSING.ordinal());
+            update.setTimestamp(2, new Timestamp(Calendar.getInstance().getTimeInMillis()));
+            update.setInt(3, ReplicaStoreState.UPLOAD_FAILED.ordinal());
+
+            // Find all the missing entries before updating any, as a cursor over a table being updated (e.g. on
+            // Derby) may return updated rows again.
+            long[] missingGuids = new long[batchSize];
+            int missing = 0;
+            ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                long guid = rs.getLong(1);
+                if (Arrays.binarySearch(foundGuids, guid) < 0) {
+                    if (missing == missingGuids.length) {
+                        missingGuids = Arrays.copyOf(missingGuids, missingGuids.length * 2);
+                    }
+                    missingGuids[missing++] = guid;
+                }
+            }
+            rs.close();
+
+            for (int i = 0; i < missing; i++) {
+                update.setLong(4, missingGuids[i]);
+                update.addBatch();
+                if (((i + 1) % batchSize) == 0) {
+                    update.executeBatch();
+                }
+            }
+            update.executeBatch();
+            con.commit();
+            return missing;
+        } finally {
+            DBUtils.closeStatementIfOpen(select);
+            DBUtils.closeStatementIfOpen(update);
+        }
+    }
+
 }
@@ -0,0 +1,428 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A bounded pool of open archive files used for serving records out of the bitarchive. Each pooled file holds an open
+ * FileChannel, from which records are read at their offset. A pooled file is lent out to one caller at a time, so
+ * several threads reading the same archive file each get their own instance.
+ * <p>
+ * ArchiveReaders are not pooled: they can only skip forward, and do not reliably find the next record after having
+ * read the first record of an ARC file.
+ * <p>
+ * Idle files are kept in least-recently-used order, and the least recently used ones are closed when more than the
+ * allowed number are idle. The number of borrows that could reuse an open file (hits) and the number that had to
+ * open the file (misses) are counted, so the pool size can be tuned.
+ */
+final class ArchiveFilePool implements Closeable {
+
+    /** The class logger. */
+    private static final Logger log = LoggerFactory.getLogger(ArchiveFilePool.class);
+
+    /** How many bytes are read to find the header of a WARC record. */
+    static final int WARC_HEADER_READ_SIZE = 16 * 1024;
+
+    /** The maximum number of idle files kept open. */
+    private final int maxIdle;
+
+    /** The idle files for each archive file, in least-recently-used order. Guarded by this. */
+    private final Map<File, Deque<PooledArchiveFile>> idle = new LinkedHashMap<File, Deque<PooledArchiveFile>>(16,
+            0.75f, true);
+
+    /** The total number of idle files. Guarded by this. */
+    private int idleCount;
+
+    /** Whether the pool has been closed. Guarded by this. */
+    private boolean closed;
+
+    /** The number of borrows served by an already open file. */
+    private final LongAdder hits = new LongAdder();
+
+    /** The number of borrows that had to open the file. */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a new pool.
+     *
+     * @param maxIdle The maximum number of idle files kept open. 0 means that files are closed when released.
+     * @throws ArgumentNotValid If maxIdle is negative.
+     */
+    ArchiveFilePool(int maxIdle) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNegative(maxIdle, "int maxIdle");
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Borrow an open archive file. It must be given back with either {@link #release(PooledArchiveFile)} or
+     * {@link #discard(PooledArchiveFile)}.
+     *
+     * @param file The archive file.
+     * @return A pooled file for the archive file.
+     * @throws ArgumentNotValid If file is null.
+     */
+    PooledArchiveFile borrow(File file) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        while (true) {
+            PooledArchiveFile pooled = null;
+            synchronized (this) {
+                Deque<PooledArchiveFile> files = idle.get(file);
+                if (files != null) {
+                    pooled = files.pollFirst();
+                    idleCount--;
+                    if (files.isEmpty()) {
+                        idle.remove(file);
+                    }
+                }
+            }
+            if (pooled == null) {
+                misses.increment();
+                return new PooledArchiveFile(file);
+            }
+            if (pooled.isCurrent()) {
+                hits.increment();
+                return pooled;
+            }
+            // The file has been replaced since it was opened.
+            log.debug("Closing pooled reader for '{}', since the file has changed", file);
+            pooled.close();
+        }
+    }
+
+    /**
+     * Give a borrowed file back to the pool, so it can be reused.
+     *
+     * @param pooled A file returned by {@link #borrow(File)}.
+     */
+    void release(PooledArchiveFile pooled) {
+        ArgumentNotValid.checkNotNull(pooled, "PooledArchiveFile pooled");
+        List<PooledArchiveFile> evicted = new ArrayList<PooledArchiveFile>();
+        synchronized (this) {
+            if (closed || maxIdle == 0) {
+                evicted.add(pooled);
+            } else {
+                Deque<PooledArchiveFile> files = idle.get(pooled.getFile());
+                if (files == null) {
+                    files = new ArrayDeque<PooledArchiveFile>();
+                    idle.put(pooled.getFile(), files);
+                }
+                files.addFirst(pooled);
+                idleCount++;
+                Iterator<Deque<PooledArchiveFile>> eldest = idle.values().iterator();
+                while (idleCount > maxIdle) {
+                    Deque<PooledArchiveFile> eldestFiles = eldest.next();
+                    while (idleCount > maxIdle && !eldestFiles.isEmpty()) {
+                        evicted.add(eldestFiles.pollLast());
+                        idleCount--;
+                    }
+                    if (eldestFiles.isEmpty()) {
+                        eldest.remove();
+                    }
+                }
+            }
+        }
+        for (PooledArchiveFile file : evicted) {
+            file.close();
+        }
+    }
+
+    /**
+     * Close a borrowed file instead of giving it back to the pool, e.g. because reading from it failed.
+     *
+     * @param pooled A file returned by {@link #borrow(File)}.
+     */
+    void discard(PooledArchiveFile pooled) {
+        ArgumentNotValid.checkNotNull(pooled, "PooledArchiveFile pooled");
+        pooled.close();
+    }
+
+    /**
+     * @return The number of borrows served by an already open file.
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of borrows that had to open the file.
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of idle files currently kept open.
+     */
+    synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    /**
+     * Close all idle files. Files that are lent out are closed when they are released.
+     */
+    @Override
+    public void close() {
+        List<PooledArchiveFile> toClose = new ArrayList<PooledArchiveFile>();
+        synchronized (this) {
+            closed = true;
+            for (Deque<PooledArchiveFile> files : idle.values()) {
+                toClose.addAll(files);
+            }
+            idle.clear();
+            idleCount = 0;
+        }
+        for (PooledArchiveFile file : toClose) {
+            file.close();
+        }
+        log.info("Closed archive file pool after {} hits and {} misses", getHits(), getMisses());
+    }
+
+    /**
+     * An archive file with an open FileChannel. It is only used by one thread at a time.
+     */
+    static final class PooledArchiveFile implements Closeable {
+
+        /** The archive file. */
+        private final File file;
+
+        /** The attributes of the file when it was opened, used to detect that it has been replaced. */
+        private final BasicFileAttributes attributes;
+
+        /** The channel for the file, or null if not opened yet. */
+        private FileChannel channel;
+
+        /**
+         * Create a pooled file. The channel is opened when first needed.
+         *
+         * @param file The archive file.
+         */
+        private PooledArchiveFile(File file) {
+            this.file = file;
+            this.attributes = readAttributes(file);
+        }
+
+        /**
+         * @return The archive file.
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * @return A FileChannel for reading the file.
+         * @throws IOException If the channel cannot be opened.
+         */
+        FileChannel getChannel() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        /**
+         * Read the payload of an uncompressed WARC record directly from the file, without going through an
+         * ArchiveReader. Only the WARC header is parsed, and only Content-Length is used from it.
+         *
+         * @param offset The offset of the record in the file.
+         * @param maxLength The largest payload to read.
+         * @return The payload of the record, or null if the record is not an uncompressed WARC record, its header
+         * cannot be parsed, or its payload is larger than maxLength.
+         * @throws IOException If reading the file fails.
+         */
+        byte[] readWarcPayload(long offset, long maxLength) throws IOException {
+            if (!isUncompressedWarc(file)) {
+                return null;
+            }
+            FileChannel in = getChannel();
+            ByteBuffer header = ByteBuffer.allocate(WARC_HEADER_READ_SIZE);
+            readFully(in, header, offset);
+            byte[] bytes = header.array();
+            int headerLength = header.position();
+            if (!startsWith(bytes, headerLength, "WARC/")) {
+                return null;
+            }
+            int headerEnd = indexOfBlankLine(bytes, headerLength);
+            if (headerEnd < 0) {
+                return null;
+            }
+            long contentLength = parseContentLength(new String(bytes, 0, headerEnd, StandardCharsets.ISO_8859_1));
+            if (contentLength < 0 || contentLength > maxLength || contentLength > Integer.MAX_VALUE) {
+                return null;
+            }
+            int payloadStart = headerEnd + 4;
+            byte[] payload = new byte[(int) contentLength];
+            int inHeaderBuffer = (int) Math.min(contentLength, headerLength - payloadStart);
+            System.arraycopy(bytes, payloadStart, payload, 0, inHeaderBuffer);
+            ByteBuffer rest = ByteBuffer.wrap(payload, inHeaderBuffer, payload.length - inHeaderBuffer);
+            readFully(in, rest, offset + payloadStart + inHeaderBuffer);
+            if (rest.hasRemaining()) {
+                // Truncated record. Leave it to the ArchiveReader to deal with.
+                return null;
+            }
+            return payload;
+        }
+
+        /**
+         * @return true if the file on disk is still the file that was opened.
+         */
+        boolean isCurrent() {
+            BasicFileAttributes current = readAttributes(file);
+            if (attributes == null || current == null) {
+                return false;
+            }
+            if (attributes.fileKey() != null && !attributes.fileKey().equals(current.fileKey())) {
+                return false;
+            }
+            return attributes.size() == current.size()
+                    && attributes.lastModifiedTime().equals(current.lastModifiedTime());
+        }
+
+        /**
+         * Close the channel.
+         */
+        @Override
+        public void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                log.warn("Could not close FileChannel for '{}'", file, e);
+            }
+            channel = null;
+        }
+
+        /**
+         * Read the attributes of a file.
+         *
+         * @param file The file.
+         * @return The attributes, or null if they cannot be read.
+         */
+        private static BasicFileAttributes readAttributes(File file) {
+            try {
+                return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                log.debug("Could not read the attributes of '{}'", file, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Fill a buffer from a channel, starting at the given position, until the buffer is full or the end of the file is
+     * reached.
+     *
+     * @param in The channel to read from.
+     * @param buffer The buffer to fill.
+     * @param position The position in the channel to start from.
+     * @throws IOException If reading fails.
+     */
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                return;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Check whether an archive file is an uncompressed WARC file, whose records can be read from a pooled file.
+     *
+     * @param file The archive file.
+     * @return true if the name of the file ends with .warc.
+     */
+    static boolean isUncompressedWarc(File file) {
+        return file.getName().endsWith(".warc");
+    }
+
+    /**
+     * @return true if the first length bytes start with the given ASCII prefix.
+     */
+    private static boolean startsWith(byte[] bytes, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The index of the CRLFCRLF ending a WARC header within the first length bytes, or -1 if there is none.
+     */
+    private static int indexOfBlankLine(byte[] bytes, int length) {
+        for (int i = 0; i + 3 < length; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the Content-Length of a WARC header.
+     *
+     * @param header The WARC header, without the terminating blank line.
+     * @return The Content-Length, or -1 if it is missing or not a number.
+     */
+    static long parseContentLength(String header) {
+        for (String line : header.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                try {
+                    return Long.parseLong(line.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
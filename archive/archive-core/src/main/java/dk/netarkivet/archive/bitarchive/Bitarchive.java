@@ -34,6 +34,9 @@ import org.archive.io.ArchiveRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.archive.bitarchive.ArchiveFilePool.PooledArchiveFile;
+import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
@@ -43,6 +46,7 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
@@ -55,6 +59,12 @@ public class Bitarchive {
     /** Administrative data for the current bitarchive. */
     private BitarchiveAdmin admin;
 
+    /** Open WARC files kept for serving records. */
+    private final ArchiveFilePool filePool;
+
+    /** Records with payloads up to this size are returned in memory rather than as a RemoteFile. */
+    private final long recordLimit;
+
     /** Logging output place. */
     protected static final Logger log = LoggerFactory.getLogger(Bitarchive.class);
 
@@ -70,12 +80,15 @@ public class Bitarchive {
     private Bitarchive() throws PermissionDenied {
         log.debug("Starting bit archive");
         admin = BitarchiveAdmin.getInstance();
+        filePool = new ArchiveFilePool(Settings.getInt(ArchiveSettings.BITARCHIVE_FILE_POOL_SIZE));
+        recordLimit = Settings.getLong(CommonSettings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE);
     }
 
     /**
      * Release all resources allocated by the bitarchive Ensures that all admin data and log data are flushed.
      */
     public void close() {
+        filePool.close();
         admin.close();
         instance = null;
     }
@@ -101,6 +114,8 @@ public class Bitarchive {
             log.debug("Get request for file not on this machine: {}", arcfile);
             return null;
         }
+        PooledArchiveFile pooled = null;
+        boolean reusable = false;
         ArchiveReader arcReader = null;
         ArchiveRecord arc = null;
         try {
@@ -110,9 +125,21 @@ public class Bitarchive {
                         + barc.getSize());
             }
             File in = barc.getFilePath();
-            arcReader = ArchiveReaderFactory.get(in);
-            arc = arcReader.get(index);
-            BitarchiveRecord result = new BitarchiveRecord(arc, arcfile);
+            BitarchiveRecord result = null;
+            if (ArchiveFilePool.isUncompressedWarc(in)) {
+                // Small records in uncompressed WARC files are read directly from a pooled file.
+                pooled = filePool.borrow(in);
+                byte[] payload = pooled.readWarcPayload(index, recordLimit);
+                reusable = true;
+                if (payload != null) {
+                    result = new BitarchiveRecord(arcfile, index, payload);
+                }
+            }
+            if (result == null) {
+                arcReader = ArchiveReaderFactory.get(in);
+                arc = arcReader.get(index);
+                result = new BitarchiveRecord(arc, arcfile);
+            }
 
             // release resources locked
             log.info("GET: Got {} bytes of data from {}:{}", result.getLength(), arcfile, index);
@@ -141,6 +168,14 @@ public class Bitarchive {
             } catch (IOException e) {
                 log.warn("Could not close ARCReader or ARCRecord!", e);
             }
+            if (pooled != null) {
+                if (reusable) {
+                    filePool.release(pooled);
+                } else {
+                    filePool.discard(pooled);
+                }
+                log.debug("GET: file pool hits: {}, misses: {}", filePool.getHits(), filePool.getMisses());
+            }
         }
     }
 
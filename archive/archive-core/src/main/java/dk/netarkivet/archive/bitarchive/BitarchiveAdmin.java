@@ -27,11 +27,21 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -59,8 +69,15 @@ public final class BitarchiveAdmin {
      * Map containing the archive directories and their files. The file must be the CanonicalFile (use
      * getCanonicalFile() before access).
      */
-    private Map<File, List<String>> archivedFiles = Collections
-            .synchronizedMap(new LinkedHashMap<File, List<String>>());
+    private Map<File, Set<String>> archivedFiles = Collections
+            .synchronizedMap(new LinkedHashMap<File, Set<String>>());
+
+    /**
+     * Index from the name of every archived file to the archive directory (the CanonicalFile of the basedir) holding
+     * it. It is kept in step with archivedFiles, so a lookup is a single hash probe instead of a stat() on every
+     * archive directory.
+     */
+    private final Map<String, File> fileIndex = new ConcurrentHashMap<String, File>();
 
     /**
      * Map containing the time for the latest update of the filelist for each archive directory. The file must be the
@@ -120,6 +137,7 @@ public final class BitarchiveAdmin {
         log.info("Requiring at least {} bytes free.", minSpaceRequired);
         log.info("Listening if at least {} bytes free.", minSpaceLeft);
 
+        List<File> basedirs = new ArrayList<File>(filedirnames.length);
         try {
             for (String filedirname : filedirnames) {
                 File basedir = new File(filedirname).getCanonicalFile();
@@ -139,20 +157,75 @@ public final class BitarchiveAdmin {
                 ApplicationUtils.dirMustExist(atticdir);
 
                 // initialise the variables archivedFiles and archiveTime
-                archivedFiles.put(basedir, new ArrayList<String>());
+                archivedFiles.put(basedir, ConcurrentHashMap.<String>newKeySet());
                 archiveTime.put(basedir, 0L);
-                updateFileList(basedir);
-
-                final Long bytesUsedInDir = calculateBytesUsed(basedir);
-                log.info(
-                        "Using bit archive directorys {'{}', '{}', '{}'} under base directory: '{}' with {} bytes of content and {} bytes free. Current number of files archived: {}",
-                        fileDirectoryName, Constants.TEMPORARY_DIRECTORY_NAME,
-                        Constants.ATTIC_DIRECTORY_NAME, basedir, bytesUsedInDir, FileUtils.getBytesFree(basedir),
-                        archivedFiles.get(basedir).size());
+                basedirs.add(basedir);
             }
         } catch (IOException e) {
             throw new IOFailure("Could not retrieve Canonical files.", e);
         }
+        scanArchiveDirs(basedirs);
+    }
+
+    /**
+     * Build the filelists and the filename index for the given archive directories. The directories are normally
+     * separate mounts, so they are scanned in parallel, one thread per directory.
+     *
+     * @param basedirs The canonical basedirs to scan.
+     * @throws IOFailure If the scan is interrupted.
+     */
+    private void scanArchiveDirs(List<File> basedirs) throws IOFailure {
+        if (basedirs.size() <= 1) {
+            for (File basedir : basedirs) {
+                scanArchiveDir(basedir);
+            }
+            return;
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(basedirs.size(), r -> {
+            Thread t = new Thread(r, "BitarchiveAdmin-scan-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> scans = new ArrayList<Future<?>>(basedirs.size());
+            for (final File basedir : basedirs) {
+                scans.add(executor.submit(() -> scanArchiveDir(basedir)));
+            }
+            for (Future<?> scan : scans) {
+                scan.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while scanning the archive directories " + basedirs, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOFailure("Could not scan the archive directories " + basedirs, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Read the filelist of a single archive directory and log its usage.
+     *
+     * @param basedir The canonical basedir to scan.
+     */
+    private void scanArchiveDir(File basedir) {
+        updateFileList(basedir);
+
+        final Long bytesUsedInDir = calculateBytesUsed(basedir);
+        log.info(
+                "Using bit archive directorys {'{}', '{}', '{}'} under base directory: '{}' with {} bytes of content and {} bytes free. Current number of files archived: {}",
+                fileDirectoryName, Constants.TEMPORARY_DIRECTORY_NAME,
+                Constants.ATTIC_DIRECTORY_NAME, basedir, bytesUsedInDir, FileUtils.getBytesFree(basedir),
+                archivedFiles.get(basedir).size());
     }
 
     /**
@@ -171,7 +244,8 @@ public final class BitarchiveAdmin {
     }
 
     /**
-     * Method for updating the filelist for a given basedir.
+     * Method for updating the filelist for a given basedir. Only the difference to the known filelist is applied, so
+     * files that are already known are not stat'ed again.
      *
      * @param basedir The basedir to update the filelist for.
      * @throws ArgumentNotValid If basedir is null or if it not a proper directory.
@@ -205,18 +279,120 @@ public final class BitarchiveAdmin {
             throw new UnknownID("The directory '" + filedir + "' is not an " + " archive directory.");
         }
 
+        // Read the timestamp before listing, so changes made during the listing are picked up by the next check.
+        long lastModified = filedir.lastModified();
         String[] dirContent = filedir.list();
-        List<String> filenames = new ArrayList<String>(dirContent.length);
-        for (String file : dirContent) {
-            // ensure that only files are handled
-            if ((new File(filedir, file)).isFile()) {
-                filenames.add(file);
-            } else {
-                log.warn("The file '{}' in directory {} is not a proper file.", file, filedir.getPath());
+        if (dirContent == null) {
+            throw new IOFailure("Could not list the content of the directory '" + filedir + "'.");
+        }
+        Set<String> filenames = archivedFiles.get(basedir);
+        synchronized (filenames) {
+            Set<String> listed = new HashSet<String>(Arrays.asList(dirContent));
+            for (Iterator<String> it = filenames.iterator(); it.hasNext();) {
+                String file = it.next();
+                if (!listed.contains(file)) {
+                    it.remove();
+                    removeFromIndex(file, basedir);
+                }
+            }
+            for (String file : dirContent) {
+                if (filenames.contains(file)) {
+                    continue;
+                }
+                // ensure that only files are handled
+                if ((new File(filedir, file)).isFile()) {
+                    filenames.add(file);
+                    addToIndex(file, basedir);
+                } else {
+                    log.warn("The file '{}' in directory {} is not a proper file.", file, filedir.getPath());
+                }
             }
         }
-        archivedFiles.put(basedir, filenames);
-        archiveTime.put(basedir, filedir.lastModified());
+        archiveTime.put(basedir, lastModified);
+    }
+
+    /**
+     * Register the archive directory of a file in the filename index. If the file is also known in another archive
+     * directory, the index points to the one that comes first in the settings, as a lookup through the directories in
+     * order would find. This keeps the result independent of the order the directories are scanned in.
+     *
+     * @param arcFileName The name of the file.
+     * @param basedir The canonical basedir holding the file.
+     */
+    private void addToIndex(String arcFileName, File basedir) {
+        fileIndex.compute(arcFileName, (name, existing) -> {
+            if (existing == null || existing.equals(basedir)) {
+                return basedir;
+            }
+            File first = precedes(basedir, existing) ? basedir : existing;
+            log.warn("The file '{}' is found in both '{}' and '{}'. Using the one in '{}'.", name, existing, basedir,
+                    first);
+            return first;
+        });
+    }
+
+    /**
+     * @param basedir1 A canonical basedir.
+     * @param basedir2 Another canonical basedir.
+     * @return Whether basedir1 comes before basedir2 in the settings.
+     */
+    private boolean precedes(File basedir1, File basedir2) {
+        synchronized (archivedFiles) {
+            for (File basedir : archivedFiles.keySet()) {
+                if (basedir.equals(basedir1)) {
+                    return true;
+                }
+                if (basedir.equals(basedir2)) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove the index entry of a file in the given archive directory. If a file with the same name is known in
+     * another archive directory, the index is pointed to that one instead.
+     *
+     * @param arcFileName The name of the file.
+     * @param basedir The canonical basedir that no longer holds the file.
+     */
+    private void removeFromIndex(String arcFileName, File basedir) {
+        if (fileIndex.remove(arcFileName, basedir)) {
+            for (Map.Entry<File, Set<String>> entry : archivedFiles.entrySet()) {
+                if (!entry.getKey().equals(basedir) && entry.getValue().contains(arcFileName)) {
+                    fileIndex.putIfAbsent(arcFileName, entry.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a file from the filelist, e.g. after it has been moved to the attic.
+     *
+     * @param existingFile The file in the bitarchive that has been removed.
+     * @throws ArgumentNotValid If existingFile is null.
+     * @throws IOFailure If it is not possible to retrieve the canonical file for existingFile.
+     */
+    public void removeFromFileList(File existingFile) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(existingFile, "File existingFile");
+        File basedir;
+        try {
+            basedir = existingFile.getCanonicalFile().getParentFile().getParentFile();
+        } catch (IOException e) {
+            throw new IOFailure("Could not retrieve canonical file for '" + existingFile + "'.", e);
+        }
+        String arcFileName = existingFile.getName();
+        Set<String> filenames = basedir == null ? null : archivedFiles.get(basedir);
+        if (filenames == null) {
+            log.debug("The file '{}' is not in a known archive directory.", existingFile);
+            return;
+        }
+        synchronized (filenames) {
+            filenames.remove(arcFileName);
+            removeFromIndex(arcFileName, basedir);
+        }
     }
 
     /**
@@ -322,11 +498,14 @@ public final class BitarchiveAdmin {
         } catch (IOException e) {
             throw new IOFailure("Could not find canonical file for " + basedir.getAbsolutePath(), e);
         }
-        final List<String> fileList = archivedFiles.get(canonicalFile);
+        final Set<String> fileList = archivedFiles.get(canonicalFile);
         if (fileList == null) {
             throw new UnknownID("The directory " + basedir.getAbsolutePath() + " was not found in the map of known directories and files.");
         }
-        fileList.add(arcFileName);
+        synchronized (fileList) {
+            fileList.add(arcFileName);
+            addToIndex(arcFileName, canonicalFile);
+        }
         archiveTime.put(canonicalFile, storagePath.lastModified());
         return storageFile;
     }
@@ -391,7 +570,7 @@ public final class BitarchiveAdmin {
         for (File archivePath : archivedFiles.keySet()) {
             File archiveDir = new File(archivePath, fileDirectoryName);
             if (checkArchiveDir(archiveDir)) {
-                List<String> filesHere = archivedFiles.get(archivePath);
+                Set<String> filesHere = archivedFiles.get(archivePath);
                 for (String filename : filesHere) {
                     files.add(new File(archiveDir, filename));
                 }
@@ -427,25 +606,45 @@ public final class BitarchiveAdmin {
     }
 
     /**
-     * Return the path that a given arc file can be found in.
+     * Return the path that a given arc file can be found in. The file is looked up in the in-memory filename index;
+     * only if it is not found there, or no longer exists where the index says, are the filelists brought up to date
+     * before looking again.
      *
      * @param arcFileName Name of an arc file (with no path)
      * @return A BitarchiveARCFile for the given file, or null if the file does not exist.
      */
     public BitarchiveARCFile lookup(String arcFileName) {
         ArgumentNotValid.checkNotNullOrEmpty(arcFileName, "arcFileName");
-        verifyFilelistUpToDate();
-        for (File archivePath : archivedFiles.keySet()) {
-            File archiveDir = new File(archivePath, fileDirectoryName);
-            if (checkArchiveDir(archiveDir)) {
-                File archiveFile = new File(archiveDir, arcFileName);
-                if (archiveFile.exists()) {
-                    return new BitarchiveARCFile(arcFileName, archiveFile);
-                }
+        BitarchiveARCFile barc = lookupInIndex(arcFileName);
+        if (barc == null) {
+            verifyFilelistUpToDate();
+            barc = lookupInIndex(arcFileName);
+        }
+        if (barc == null) {
+            // the arcfile named "arcFileName" does not exist in this bitarchive.
+            log.trace("The arcfile named '{}' does not exist in this bitarchve", arcFileName);
+        }
+        return barc;
+    }
+
+    /**
+     * Look up a file in the filename index and check that it still exists.
+     *
+     * @param arcFileName Name of an arc file (with no path)
+     * @return A BitarchiveARCFile for the given file, or null if it is not in the index or does not exist.
+     */
+    private BitarchiveARCFile lookupInIndex(String arcFileName) {
+        File archivePath = fileIndex.get(arcFileName);
+        if (archivePath == null) {
+            return null;
+        }
+        File archiveDir = new File(archivePath, fileDirectoryName);
+        if (checkArchiveDir(archiveDir)) {
+            File archiveFile = new File(archiveDir, arcFileName);
+            if (archiveFile.exists()) {
+                return new BitarchiveARCFile(arcFileName, archiveFile);
             }
         }
-        // the arcfile named "arcFileName" does not exist in this bitarchive.
-        log.trace("The arcfile named '{}' does not exist in this bitarchve", arcFileName);
         return null;
     }
 
@@ -520,6 +719,7 @@ public final class BitarchiveAdmin {
     public void close() {
         archivedFiles.clear();
         archiveTime.clear();
+        fileIndex.clear();
         instance = null;
     }
 
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive.distribute;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import dk.netarkivet.common.distribute.ChannelID;
+import dk.netarkivet.common.distribute.MessageCodecs;
+import dk.netarkivet.common.distribute.NetarkivetMessageCodec;
+import dk.netarkivet.common.distribute.RemoteFile;
+
+/**
+ * Binary codec for {@link BatchReplyMessage}, whose list of failed files can be long. The result file is a
+ * {@link RemoteFile} of any implementation, so it is written with Java serialization. Enabled by adding this class to
+ * the setting settings.common.jms.messageCodecs.
+ */
+public class BatchReplyMessageCodec implements NetarkivetMessageCodec<BatchReplyMessage> {
+
+    @Override
+    public Class<BatchReplyMessage> getMessageClass() {
+        return BatchReplyMessage.class;
+    }
+
+    @Override
+    public void writeMessage(BatchReplyMessage msg, DataOutput out) throws IOException {
+        MessageCodecs.writeString(out, msg.getReplyOfId());
+        out.writeInt(msg.getNoOfFilesProcessed());
+        Collection<File> filesFailed = msg.getFilesFailed();
+        out.writeInt(filesFailed.size());
+        for (File file : filesFailed) {
+            MessageCodecs.writeString(out, file.getPath());
+        }
+        MessageCodecs.writeSerializable(out, msg.getResultFile());
+    }
+
+    @Override
+    public BatchReplyMessage readMessage(ChannelID to, ChannelID replyTo, DataInput in) throws IOException {
+        String originatingBatchMsgId = MessageCodecs.readString(in);
+        int filesProcessed = in.readInt();
+        int failedCount = in.readInt();
+        List<File> filesFailed = new ArrayList<File>(failedCount);
+        for (int i = 0; i < failedCount; i++) {
+            filesFailed.add(new File(MessageCodecs.readString(in)));
+        }
+        RemoteFile resultFile = (RemoteFile) MessageCodecs.readSerializable(in);
+        return new BatchReplyMessage(to, replyTo, originatingBatchMsgId, filesProcessed, filesFailed, resultFile);
+    }
+
+}
@@ -338,6 +338,7 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
                 msg.setNotOk(message);
                 return;
             }
+            baa.removeFromFileList(foundFile);
             msg.setFile(moveTo);
 
             log.warn("Removed file '{}' with checksum '{}'", msg.getFileName(), msg.getCheckSum());
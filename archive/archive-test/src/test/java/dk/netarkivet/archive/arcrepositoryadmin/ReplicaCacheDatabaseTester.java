@@ -296,6 +296,52 @@ public class ReplicaCacheDatabaseTester {
         lr.stopRecorder();
     }
 
+    /**
+     * Test that imports of more entries than are staged and updated in one batch give every entry once, and that only
+     * the files left out of a later filelist are counted as missing.
+     */
+    @Test
+    public void testImportMoreThanOneBatch() throws Exception {
+        LogbackRecorder lr = LogbackRecorder.startRecorder();
+        // More than one batch of ReplicaCacheDatabase.IMPORT_BATCH_SIZE entries.
+        final int numberOfFiles = 12000;
+        Replica replica = Replica.getReplicaFromId("ONE");
+        // Files already in the database are missing from the imported lists.
+        int otherFiles = cache.retrieveAllFilenames().size();
+
+        File csFile = new File(TestInfo.TEST_DIR, "checksum_large.out");
+        FileWriter fw = new FileWriter(csFile);
+        for (int i = 0; i < numberOfFiles; i++) {
+            fw.append(String.format("FILE%05d##%010d\n", i, i));
+        }
+        fw.close();
+        cache.addChecksumInformation(csFile, replica);
+        assertEquals("Every file should be found", numberOfFiles, cache.getNumberOfFiles(replica));
+        assertEquals("Only the other files should be missing", otherFiles,
+                cache.getNumberOfMissingFilesInLastUpdate(replica));
+
+        // Leave every third file out of the filelist.
+        File flFile = new File(TestInfo.TEST_DIR, "filelist_large.out");
+        fw = new FileWriter(flFile);
+        int expectedMissing = otherFiles;
+        for (int i = 0; i < numberOfFiles; i++) {
+            if (i % 3 == 0) {
+                ++expectedMissing;
+            } else {
+                fw.append(String.format("FILE%05d\n", i));
+            }
+        }
+        fw.close();
+        cache.addFileListInformation(flFile, replica);
+        assertEquals("The files left out should be missing", expectedMissing,
+                cache.getNumberOfMissingFilesInLastUpdate(replica));
+        assertEquals("The listed files should be found", numberOfFiles + otherFiles - expectedMissing,
+                cache.getNumberOfFiles(replica));
+        lr.assertLogContains("Each missing file should be counted once",
+                "Found " + expectedMissing + " missing files for replica");
+        lr.stopRecorder();
+    }
+
     private File makeTemporaryDuplicateFilelistFile() throws Exception {
         File res = new File(TestInfo.TEST_DIR, "filelist.out");
         FileWriter fw = new FileWriter(res);
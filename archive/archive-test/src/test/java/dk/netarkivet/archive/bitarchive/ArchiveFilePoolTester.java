@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.warc.WARCRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.archive.bitarchive.ArchiveFilePool.PooledArchiveFile;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.warc.WARCUtils;
+
+/**
+ * Unit tests for the ArchiveFilePool.
+ */
+public class ArchiveFilePoolTester {
+    private static final File WORKING_DIR = new File(TestInfo.WORKING_DIR, "filepool");
+    private static final File ARC_FILE = new File(WORKING_DIR, "Upload2.ARC");
+    private static final File WARC_FILE = new File(WORKING_DIR, "NAS-20100909163324-00000-mette.kb.dk.warc");
+
+    private ArchiveFilePool pool;
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(WORKING_DIR);
+        FileUtils.createDir(WORKING_DIR);
+        FileUtils.copyFile(new File(TestInfo.DATA_DIR, "get/existing/filedir/Upload2.ARC"), ARC_FILE);
+        FileUtils.copyFile(new File("tests/dk/netarkivet/archive/tools/data/originals/" + WARC_FILE.getName()),
+                WARC_FILE);
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+        FileUtils.removeRecursively(WORKING_DIR);
+    }
+
+    /**
+     * Test that reading a WARC payload directly from the file gives the same bytes as reading it through an
+     * ArchiveReader.
+     */
+    @Test
+    public void testReadWarcPayload() throws IOException {
+        pool = new ArchiveFilePool(1);
+        PooledArchiveFile pooled = pool.borrow(WARC_FILE);
+        int records = 0;
+        try (ArchiveReader reader = ArchiveReaderFactory.get(WARC_FILE)) {
+            Iterator<ArchiveRecord> it = reader.iterator();
+            while (it.hasNext()) {
+                WARCRecord record = (WARCRecord) it.next();
+                long offset = record.getHeader().getOffset();
+                byte[] expected = WARCUtils.readWARCRecord(record);
+                assertArrayEquals("Payload at offset " + offset + " should be as read by the ArchiveReader", expected,
+                        pooled.readWarcPayload(offset, Long.MAX_VALUE));
+                if (expected.length > 0) {
+                    assertNull("Payload larger than the limit should not be read",
+                            pooled.readWarcPayload(offset, expected.length - 1));
+                }
+                records++;
+            }
+        }
+        assertTrue("Should have read some records", records > 1);
+        pool.release(pooled);
+
+        assertTrue("Should read WARC files directly", ArchiveFilePool.isUncompressedWarc(WARC_FILE));
+        assertFalse("Should not read ARC files directly", ArchiveFilePool.isUncompressedWarc(ARC_FILE));
+        pooled = pool.borrow(ARC_FILE);
+        assertNull("ARC records should not be read directly", pooled.readWarcPayload(0, Long.MAX_VALUE));
+        pool.release(pooled);
+    }
+
+    /**
+     * Test that the pool keeps at most the given number of idle files, and that replaced files are not reused.
+     */
+    @Test
+    public void testEvictionAndReplacedFiles() throws IOException {
+        pool = new ArchiveFilePool(1);
+        PooledArchiveFile arc = pool.borrow(ARC_FILE);
+        PooledArchiveFile arc2 = pool.borrow(ARC_FILE);
+        assertNotSame("Concurrent borrowers should get different instances", arc, arc2);
+        pool.release(arc);
+        pool.release(arc2);
+        assertEquals("Only one idle file should be kept", 1, pool.getIdleCount());
+        assertSame("The most recently released file should be reused", arc2, pool.borrow(ARC_FILE));
+        pool.release(arc2);
+
+        PooledArchiveFile warc = pool.borrow(WARC_FILE);
+        pool.release(warc);
+        assertEquals("Only one idle file should be kept", 1, pool.getIdleCount());
+        assertEquals("The least recently used file should have been evicted", 3, pool.getMisses());
+
+        assertTrue("Should be able to replace file", WARC_FILE.delete());
+        FileUtils.copyFile(ARC_FILE, WARC_FILE);
+        assertNotSame("A replaced file should be opened again", warc, pool.borrow(WARC_FILE));
+        assertEquals("Opening a replaced file is a miss", 4, pool.getMisses());
+    }
+
+    /**
+     * Test that a pool of size 0 never reuses files.
+     */
+    @Test
+    public void testNoPooling() {
+        pool = new ArchiveFilePool(0);
+        PooledArchiveFile arc = pool.borrow(ARC_FILE);
+        pool.release(arc);
+        assertNotSame("Files should not be reused", arc, pool.borrow(ARC_FILE));
+        assertEquals("No files should be idle", 0, pool.getIdleCount());
+        assertEquals("Every borrow is a miss", 2, pool.getMisses());
+    }
+}
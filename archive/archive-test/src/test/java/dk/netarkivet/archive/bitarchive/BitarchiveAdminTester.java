@@ -296,6 +296,65 @@ public class BitarchiveAdminTester {
         assertNull("Should return null on non-existing file", file);
     }
 
+    @Test
+    public void testLookupFollowsChanges() throws Exception {
+        File filedir1 = new File(BA_DIR_1, FILEDIR);
+        File atticdir1 = new File(BA_DIR_1, "atticdir");
+        File file1 = new File(filedir1, "file1");
+        File atticFile = ad.getAtticPath(file1);
+        assertTrue("Should be able to move file to attic", file1.renameTo(atticFile));
+        ad.removeFromFileList(file1);
+        assertNull("Should not find removed file", ad.lookup("file1"));
+        assertEquals("Removed file should not be listed", 3, ad.getFiles().length);
+
+        File tempfile = new File(new File(BA_DIR_1, TEMPDIR), ARC_FILE_NAME);
+        FileUtils.writeBinaryFile(tempfile, "abc".getBytes());
+        File finalfile = ad.moveToStorage(tempfile);
+        BitarchiveARCFile file = ad.lookup(ARC_FILE_NAME);
+        assertNotNull("Should find stored file", file);
+        assertEquals("Should be the stored file", finalfile.getCanonicalPath(), file.getFilePath().getCanonicalPath());
+
+        // Changes made behind the back of the admin are found through the directory timestamps
+        assertTrue("Should be able to delete file", new File(new File(BA_DIR_2, FILEDIR), "file3").delete());
+        assertNull("Should not find deleted file", ad.lookup("file3"));
+        FileUtils.copyFile(new File(atticdir1, "file1"), new File(new File(BA_DIR_2, FILEDIR), "file1"));
+        new File(BA_DIR_2, FILEDIR).setLastModified(System.currentTimeMillis() + 10000L);
+        file = ad.lookup("file1");
+        assertNotNull("Should find file copied into the archive", file);
+        assertEquals("Should be the copied file", new File(new File(BA_DIR_2, FILEDIR), "file1").getCanonicalPath(),
+                file.getFilePath().getCanonicalPath());
+        assertEquals("Should list the current files", 4, ad.getFilesMatching(Pattern.compile(".*")).length);
+    }
+
+    /**
+     * A file found in more than one archive directory is looked up in the first directory in the settings, however the
+     * directories are scanned or updated.
+     */
+    @Test
+    public void testLookupPrefersFirstDirectory() throws Exception {
+        ad.close();
+        File filedir1 = new File(BA_DIR_1, FILEDIR);
+        File filedir2 = new File(BA_DIR_2, FILEDIR);
+        FileUtils.copyFile(new File(filedir2, "file3"), new File(filedir1, "file3"));
+        // The directories are scanned in parallel, so try a few times.
+        for (int i = 0; i < 10; i++) {
+            ad = BitarchiveAdmin.getInstance();
+            assertEquals("Should find the file in the first directory", new File(filedir1, "file3").getCanonicalPath(),
+                    ad.lookup("file3").getFilePath().getCanonicalPath());
+            ad.close();
+        }
+        ad = BitarchiveAdmin.getInstance();
+
+        FileUtils.copyFile(new File(filedir1, "file1"), new File(filedir2, "file1"));
+        ad.updateFileList(BA_DIR_2);
+        assertEquals("Should keep the file in the first directory", new File(filedir1, "file1").getCanonicalPath(),
+                ad.lookup("file1").getFilePath().getCanonicalPath());
+        FileUtils.copyFile(new File(filedir2, "file4"), new File(filedir1, "file4"));
+        ad.updateFileList(BA_DIR_1);
+        assertEquals("Should move to the file in the first directory", new File(filedir1, "file4").getCanonicalPath(),
+                ad.lookup("file4").getFilePath().getCanonicalPath());
+    }
+
     @Test
     public void testGetInstance() throws Exception {
         ad.close();
@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.MessageCodecs;
+import dk.netarkivet.common.distribute.NullRemoteFile;
+
+/**
+ * Unit tests for the class {@link BatchReplyMessageCodec}.
+ */
+public class BatchReplyMessageCodecTester {
+
+    @Test
+    public void testRoundTrip() {
+        BatchReplyMessage msg = new BatchReplyMessage(Channels.getTheRepos(), Channels.getTheBamon(), "ID:batch1", 17,
+                Arrays.asList(new File("failed1.arc"), new File("failed2.warc")), new NullRemoteFile());
+        msg.setNotOk("2 files failed");
+
+        MessageCodecs.register(new BatchReplyMessageCodec());
+        BatchReplyMessage decoded = (BatchReplyMessage) MessageCodecs.decode(MessageCodecs.encode(msg));
+        assertEquals(Channels.getTheRepos(), decoded.getTo());
+        assertEquals(Channels.getTheBamon(), decoded.getReplyTo());
+        assertEquals("ID:batch1", decoded.getReplyOfId());
+        assertEquals(17, decoded.getNoOfFilesProcessed());
+        assertEquals(2, decoded.getFilesFailed().size());
+        assertTrue(decoded.getFilesFailed().contains(new File("failed2.warc")));
+        assertTrue(decoded.getResultFile() instanceof NullRemoteFile);
+        assertEquals("2 files failed", decoded.getErrMsg());
+
+        BatchReplyMessage noResult = (BatchReplyMessage) MessageCodecs.decode(MessageCodecs
+                .encode(new BatchReplyMessage(Channels.getTheRepos(), Channels.getTheBamon(), "ID:batch2", 0, null,
+                        null)));
+        assertNull(noResult.getResultFile());
+        assertTrue(noResult.getFilesFailed().isEmpty());
+    }
+}
@@ -79,6 +79,44 @@ public class CommonSettings {
      */
     public static String JMS_BROKER_RETRIES = "settings.common.jms.retries";
 
+    /**
+     * <b>settings.common.jms.sendSessions</b>: <br>
+     * The maximum number of JMS sessions used for sending messages. Each session has its own cache of message
+     * producers, so this is the number of messages that can be sent concurrently from one application.
+     */
+    public static String JMS_SEND_SESSIONS = "settings.common.jms.sendSessions";
+
+    /**
+     * <b>settings.common.jms.concurrentQueues</b>: <br>
+     * A comma separated list of queues whose listeners are safe to have several messages handled at the same time,
+     * e.g. INDEX_SERVER,ANY_BA. A queue matches if its channel name contains the given name as one or more whole
+     * underscore separated parts. Topics are never consumed concurrently. Empty by default.
+     */
+    public static String JMS_CONCURRENT_QUEUES = "settings.common.jms.concurrentQueues";
+
+    /**
+     * <b>settings.common.jms.consumersPerQueue</b>: <br>
+     * The number of consumers, each on its own JMS session, created for a listener on one of the queues given in
+     * settings.common.jms.concurrentQueues.
+     */
+    public static String JMS_CONSUMERS_PER_QUEUE = "settings.common.jms.consumersPerQueue";
+
+    /**
+     * <b>settings.common.jms.messageCodecs</b>: <br>
+     * A comma separated list of dk.netarkivet.common.distribute.NetarkivetMessageCodec classes. Messages handled by
+     * one of these codecs are sent in a compact binary form instead of with Java serialization. All applications must
+     * have the same codecs, so only add codecs once every application in the installation has been upgraded. Empty by
+     * default.
+     */
+    public static String JMS_MESSAGE_CODECS = "settings.common.jms.messageCodecs";
+
+    /**
+     * <b>settings.common.jms.compressionThreshold</b>: <br>
+     * Messages sent with a codec from settings.common.jms.messageCodecs are compressed when they are larger than this
+     * number of bytes. A negative value disables compression.
+     */
+    public static String JMS_COMPRESSION_THRESHOLD = "settings.common.jms.compressionThreshold";
+
     /**
      * <b>settings.common.http.port</b>: <br>
      * The *unique* (per host) port number that may or may not be used to serve http.
@@ -112,6 +150,13 @@ public class CommonSettings {
      */
     public static String BATCH_DEFAULT_TIMEOUT = "settings.common.batch.defaultBatchTimeout";
 
+    /**
+     * <b>settings.common.batch.threads</b>: <br/>
+     * The number of files processed at once by batchjobs that allow it (see FileBatchJob#isParallelizable()). The files
+     * on each file system get their own share of the threads. The default, 1, processes one file at a time.
+     */
+    public static String BATCH_THREADS = "settings.common.batch.threads";
+
     /**
      * <b>settings.common.monitorregistryClient.class</b>: <br>
      * Which class to use for monitor registry. Must implement the interface
@@ -138,12 +183,41 @@ public class CommonSettings {
      * When using the Unix sort command, by default it stores temporary files in the system temp dir, but if this
      * setting is set to true, then it will be configured to use the common temp dir defined by common.settings.tempDir.
      * By default the value is false (use system temp), which is the legacy behavior. This setting is part of the fix
-     * for Jira issue NAS-1995.
+     * for Jira issue NAS-1995. The setting also selects the directory for the temporary run files of the in-JVM sort
+     * used for CDX files and crawl logs.
      *
      * @see #DIR_COMMONTEMPDIR
      */
     public static String UNIX_SORT_USE_COMMON_TEMP_DIR = "settings.common.unixSort.useCommonTempDir";
 
+    /**
+     * <b>settings.common.cdx.lookup.blockSize</b>: <br>
+     * The number of bytes between the entries in the sparse in-memory index kept for each memory mapped CDX file used
+     * for lookups. Smaller blocks make each lookup touch fewer pages of the file, at the cost of a larger index.
+     */
+    public static String CDX_LOOKUP_BLOCK_SIZE = "settings.common.cdx.lookup.blockSize";
+
+    /**
+     * <b>settings.common.cdx.lookup.maxOpenFiles</b>: <br>
+     * The maximum number of memory mapped CDX files kept open for lookups. When more files are used, the least
+     * recently used one is closed.
+     */
+    public static String CDX_LOOKUP_MAX_OPEN_FILES = "settings.common.cdx.lookup.maxOpenFiles";
+
+    /**
+     * <b>settings.common.sort.memoryBudget</b>: <br>
+     * The number of bytes of lines that all sorts of CDX files and crawl logs in this JVM may hold in memory together.
+     * Files larger than the share of one sort are sorted in runs on disk, which are merged afterwards.
+     */
+    public static String SORT_MEMORY_BUDGET = "settings.common.sort.memoryBudget";
+
+    /**
+     * <b>settings.common.sort.threads</b>: <br>
+     * The number of threads used for sorting CDX files and crawl logs in this JVM. A value of 0 or less means one
+     * thread per available processor.
+     */
+    public static String SORT_THREADS = "settings.common.sort.threads";
+
     /**
      * <b>settings.common.cacheDir</b>: <br>
      * The name of the directory where cache data global to the entire machine can be stored. Various kinds of caches
@@ -745,6 +819,33 @@ public class CommonSettings {
      */
     public static String FILE_RESOLVER_RETRY_WAIT = "settings.common.fileResolver.retryWaitSeconds";
 
+    /**
+     * <b>settings.common.fileResolver.batchThreads</b>: <br>
+     * The number of filenames the REST implementation of FileResolver resolves at the same time, when resolving many
+     * filenames at once. The default is 8.
+     */
+    public static String FILE_RESOLVER_BATCH_THREADS = "settings.common.fileResolver.batchThreads";
+
+    /**
+     * <b>settings.common.fileResolver.cache.maxEntries</b>: <br>
+     * The maximum number of filenames and patterns whose resolution is cached by
+     * {@link dk.netarkivet.common.utils.service.CachingFileResolver}. The default is 10000.
+     */
+    public static String FILE_RESOLVER_CACHE_MAX_ENTRIES = "settings.common.fileResolver.cache.maxEntries";
+
+    /**
+     * <b>settings.common.fileResolver.cache.ttlSeconds</b>: <br>
+     * The number of seconds a filename or pattern that was resolved to one or more files is cached. The default is
+     * 300.
+     */
+    public static String FILE_RESOLVER_CACHE_TTL = "settings.common.fileResolver.cache.ttlSeconds";
+
+    /**
+     * <b>settings.common.fileResolver.cache.negativeTtlSeconds</b>: <br>
+     * The number of seconds a filename or pattern that was resolved to no files is cached. The default is 30.
+     */
+    public static String FILE_RESOLVER_CACHE_NEGATIVE_TTL = "settings.common.fileResolver.cache.negativeTtlSeconds";
+
 
     /**
      * Path to the default truststore used for safe communication over HTTPS with FileResolver
@@ -84,6 +84,8 @@ public final class Constants {
     public static final String ARCDIRECTORY_NAME = "arcs";
     /** The directory name of the heritrix directory with warcfiles. */
     public static final String WARCDIRECTORY_NAME = "warcs";
+    /** The directory name of the heritrix directory with CDX files written while crawling. */
+    public static final String CDXDIRECTORY_NAME = "cdx";
     /**
      * How big a buffer we use for read()/write() operations on InputStream/ OutputStream.
      */
@@ -91,6 +91,27 @@ public class ChannelID implements Serializable {
         this.name = constructName(appPref, replicaId, useNodeId, useAppInstId, isTopic);
     }
 
+    /**
+     * Constructor used for channels with a name that is already known, e.g. when a message is decoded.
+     *
+     * @param name The full name of the channel
+     */
+    private ChannelID(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Get a ChannelID for an already constructed channel name.
+     *
+     * @param name The full name of the channel, as returned by {@link #getName()}
+     * @return A ChannelID with the given name
+     * @throws ArgumentNotValid if name is null or empty
+     */
+    static ChannelID forName(String name) {
+        ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
+        return new ChannelID(name);
+    }
+
     /**
      * Constructs a channel name according to the specifications of channels in the NetarchiveSuite Developer Manual.
      *
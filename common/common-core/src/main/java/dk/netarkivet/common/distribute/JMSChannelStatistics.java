@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput and latency counters for one JMS channel, as seen by one {@link JMSConnection}. Sent messages are timed
+ * from the creation of the JMS message until the producer returns, received messages are timed from the broker
+ * timestamp until the message is unpacked by the listener. All counters are updated without locking.
+ */
+public final class JMSChannelStatistics {
+
+    /** Number of messages sent to the channel. */
+    private final LongAdder sent = new LongAdder();
+    /** Total time spent sending, in nanoseconds. */
+    private final LongAdder sendNanos = new LongAdder();
+    /** Longest time spent sending a single message, in nanoseconds. */
+    private final LongAccumulator maxSendNanos = new LongAccumulator(Math::max, 0L);
+    /** Number of messages received from the channel. */
+    private final LongAdder received = new LongAdder();
+    /** Total time received messages spent between the broker and the listener, in milliseconds. */
+    private final LongAdder deliveryMillis = new LongAdder();
+    /** Longest time a single received message spent between the broker and the listener, in milliseconds. */
+    private final LongAccumulator maxDeliveryMillis = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Record a sent message.
+     *
+     * @param nanos The time spent sending the message, in nanoseconds.
+     */
+    void messageSent(long nanos) {
+        sent.increment();
+        sendNanos.add(nanos);
+        maxSendNanos.accumulate(nanos);
+    }
+
+    /**
+     * Record a received message.
+     *
+     * @param millis The time since the message was handed to the broker, in milliseconds.
+     */
+    void messageReceived(long millis) {
+        received.increment();
+        // Clocks on different machines may disagree slightly
+        long delivery = Math.max(millis, 0L);
+        deliveryMillis.add(delivery);
+        maxDeliveryMillis.accumulate(delivery);
+    }
+
+    /**
+     * @return The number of messages sent to the channel.
+     */
+    public long getMessagesSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return The average time spent sending a message in milliseconds, or 0 if no messages have been sent.
+     */
+    public double getAverageSendMillis() {
+        long count = sent.sum();
+        return count == 0 ? 0 : (double) sendNanos.sum() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return The longest time spent sending a single message, in milliseconds.
+     */
+    public long getMaxSendMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxSendNanos.get());
+    }
+
+    /**
+     * @return The number of messages received from the channel.
+     */
+    public long getMessagesReceived() {
+        return received.sum();
+    }
+
+    /**
+     * @return The average time from a message was handed to the broker until it was received, in milliseconds, or 0 if
+     * no messages have been received.
+     */
+    public double getAverageDeliveryMillis() {
+        long count = received.sum();
+        return count == 0 ? 0 : (double) deliveryMillis.sum() / count;
+    }
+
+    /**
+     * @return The longest time from a single message was handed to the broker until it was received, in milliseconds.
+     */
+    public long getMaxDeliveryMillis() {
+        return maxDeliveryMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sent=%d (avg %.2f ms, max %d ms), received=%d (avg delivery %.2f ms, max %d ms)",
+                getMessagesSent(), getAverageSendMillis(), getMaxSendMillis(), getMessagesReceived(),
+                getAverageDeliveryMillis(), getMaxDeliveryMillis());
+    }
+
+}
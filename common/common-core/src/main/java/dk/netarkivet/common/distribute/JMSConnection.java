@@ -22,12 +22,19 @@
  */
 package dk.netarkivet.common.distribute;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
@@ -42,6 +49,7 @@ import javax.jms.Queue;
 import javax.jms.QueueBrowser;
 import javax.jms.QueueSession;
 import javax.jms.Session;
+import javax.jms.Topic;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,10 +64,13 @@ import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.TimeUtils;
 
 /**
- * Handles the communication with a JMS broker. Note on Thread-safety: the methods and fields of JMSConnection are not
- * accessed by multiple threads (though JMSConnection itself creates threads). Thus no synchronization is needed on
- * methods and fields of JMSConnection. A shutdown hook is also added, which closes the connection. Class JMSConnection
- * is now also a exceptionhandler for the JMS Connections
+ * Handles the communication with a JMS broker. Note on Thread-safety: messages may be sent from several threads at
+ * once. Each sending thread borrows a session with its own message producers from a small pool (see
+ * {@link CommonSettings#JMS_SEND_SESSIONS}), as JMS sessions must not be used by more than one thread at a time.
+ * Listeners on the queues named in {@link CommonSettings#JMS_CONCURRENT_QUEUES} get several consumers, each on its own
+ * session, so these listeners must be able to handle several messages at the same time. All other listeners share one
+ * session and receive one message at a time. A shutdown hook is also added, which closes the connection. Class
+ * JMSConnection is now also a exceptionhandler for the JMS Connections
  */
 public abstract class JMSConnection implements ExceptionListener, CleanupIF {
 
@@ -92,6 +103,32 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     protected final Map<String, MessageListener> listeners = Collections
             .synchronizedMap(new HashMap<String, MessageListener>());
 
+    /**
+     * Map for the extra sessions of listeners with more than one consumer. Each session has one consumer. Uses the same
+     * keys as the consumers map.
+     */
+    private final Map<String, List<Session>> consumerSessions = Collections
+            .synchronizedMap(new HashMap<String, List<Session>>());
+
+    /** Map for the number of consumers wanted for each listener. Uses the same keys as the listeners map. */
+    private final Map<String, Integer> consumerCounts = Collections.synchronizedMap(new HashMap<String, Integer>());
+
+    /** The maximum number of sessions used for sending. */
+    private final int maxSendSessions = Math.max(1, Settings.getInt(CommonSettings.JMS_SEND_SESSIONS));
+
+    /** Send sessions not currently used by any thread. The most recently used session is first. */
+    private final Deque<SendSession> idleSendSessions = new ArrayDeque<SendSession>();
+
+    /** The number of send sessions created on the current connection. Guarded by idleSendSessions. */
+    private int sendSessionCount;
+
+    /** Incremented whenever the connection is closed, so send sessions from an old connection are not reused. */
+    private int connectionGeneration;
+
+    /** Statistics for all channels sent to or received from in this JVM, keyed by channel name. */
+    private static final ConcurrentMap<String, JMSChannelStatistics> channelStatistics =
+            new ConcurrentHashMap<String, JMSChannelStatistics>();
+
     /**
      * Lock for the connection. Locked for read on adding/removing listeners and sending messages. Locked for write when
      * connection, releasing and reconnecting.
@@ -229,7 +266,25 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     public void setListener(ChannelID mq, MessageListener ml) throws IOFailure {
         ArgumentNotValid.checkNotNull(mq, "ChannelID mq");
         ArgumentNotValid.checkNotNull(ml, "MessageListener ml");
-        setListener(mq.getName(), ml);
+        setListener(mq.getName(), ml, getConfiguredConsumerCount(mq.getName()));
+    }
+
+    /**
+     * Method adds a listener to the given queue with the given number of consumers, each on its own session. The
+     * listener will thus be called by up to that many threads at the same time. Topics always get one consumer, as
+     * every consumer on a topic receives all messages.
+     *
+     * @param mq the messagequeue to listen to
+     * @param ml the messagelistener
+     * @param consumerCount the number of consumers for the listener
+     * @throws ArgumentNotValid if consumerCount is not positive
+     * @throws IOFailure if the operation failed.
+     */
+    public void setListener(ChannelID mq, MessageListener ml, int consumerCount) throws IOFailure {
+        ArgumentNotValid.checkNotNull(mq, "ChannelID mq");
+        ArgumentNotValid.checkNotNull(ml, "MessageListener ml");
+        ArgumentNotValid.checkPositive(consumerCount, "int consumerCount");
+        setListener(mq.getName(), ml, consumerCount);
     }
 
     /**
@@ -282,6 +337,15 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
      */
     public abstract QueueSession getQueueSession() throws JMSException;
 
+    /**
+     * Get the statistics for all channels that messages have been sent to or received from in this JVM.
+     *
+     * @return An unmodifiable view of the statistics, keyed by channel name
+     */
+    public static Map<String, JMSChannelStatistics> getChannelStatistics() {
+        return Collections.unmodifiableMap(channelStatistics);
+    }
+
     /**
      * Clean up. Remove close connection, remove shutdown hook and null the instance.
      */
@@ -302,6 +366,8 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
             closeConnection();
             // Clear list of listeners
             listeners.clear();
+            consumerCounts.clear();
+            logChannelStatistics();
             instance = null;
             log.info("Cleanup finished");
         } finally {
@@ -327,18 +393,38 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         session = null;
         consumers.clear();
         producers.clear();
+        consumerSessions.clear();
+        synchronized (idleSendSessions) {
+            idleSendSessions.clear();
+            sendSessionCount = 0;
+            connectionGeneration++;
+            idleSendSessions.notifyAll();
+        }
     }
 
     /**
-     * Unwraps a NetarkivetMessage from an ObjectMessage.
+     * Log the statistics of all channels used by this JVM.
+     */
+    private static void logChannelStatistics() {
+        for (Map.Entry<String, JMSChannelStatistics> entry : channelStatistics.entrySet()) {
+            log.info("JMS statistics for channel '{}': {}", entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Unwraps a NetarkivetMessage from an ObjectMessage, or from a BytesMessage written with a codec registered in
+     * {@link MessageCodecs}.
      *
-     * @param msg a javax.jms.ObjectMessage
+     * @param msg a javax.jms.ObjectMessage or javax.jms.BytesMessage
      * @return a NetarkivetMessage
      * @throws ArgumentNotValid when msg in valid or format of JMS Object message is invalid
      */
     public static NetarkivetMessage unpack(Message msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "msg");
 
+        if (msg instanceof BytesMessage) {
+            return unpackBytes((BytesMessage) msg);
+        }
         ObjectMessage objMsg;
         try {
             objMsg = (ObjectMessage) msg;
@@ -350,8 +436,9 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         NetarkivetMessage netMsg;
         String classname = "Unknown class"; // for error reporting purposes
         try {
-            classname = objMsg.getObject().getClass().getName();
-            netMsg = (NetarkivetMessage) objMsg.getObject();
+            Object payload = objMsg.getObject();
+            classname = payload.getClass().getName();
+            netMsg = (NetarkivetMessage) payload;
             // Note: Id is only updated if the message does not already have an
             // id. On unpack, this means the first time the message is received.
 
@@ -368,10 +455,83 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
             log.warn(message, e);
             throw new ArgumentNotValid(message, e);
         }
+        recordReceived(msg);
+        log.trace("Unpacked message '{}'", netMsg);
+        return netMsg;
+    }
+
+    /**
+     * Decodes a NetarkivetMessage from a BytesMessage.
+     *
+     * @param msg a javax.jms.BytesMessage
+     * @return a NetarkivetMessage
+     * @throws ArgumentNotValid when the content of the message is invalid
+     */
+    private static NetarkivetMessage unpackBytes(BytesMessage msg) throws ArgumentNotValid {
+        NetarkivetMessage netMsg;
+        try {
+            // The same message object may be delivered to several listeners
+            msg.reset();
+            byte[] data = new byte[(int) msg.getBodyLength()];
+            msg.readBytes(data);
+            netMsg = MessageCodecs.decode(data);
+            netMsg.updateId(msg.getJMSMessageID());
+        } catch (ArgumentNotValid e) {
+            log.warn("Message invalid. Unable to decode message", e);
+            throw e;
+        } catch (Exception e) {
+            String message = "Message invalid. Unable to read binary message";
+            log.warn(message, e);
+            throw new ArgumentNotValid(message, e);
+        }
+        recordReceived(msg);
         log.trace("Unpacked message '{}'", netMsg);
         return netMsg;
     }
 
+    /**
+     * Update the statistics of the channel a message was received from. Messages without a timestamp or destination
+     * are not counted.
+     *
+     * @param msg a received message
+     */
+    private static void recordReceived(Message msg) {
+        long timestamp;
+        String channelName;
+        try {
+            timestamp = msg.getJMSTimestamp();
+            Destination destination = msg.getJMSDestination();
+            if (destination instanceof Queue) {
+                channelName = ((Queue) destination).getQueueName();
+            } else if (destination instanceof Topic) {
+                channelName = ((Topic) destination).getTopicName();
+            } else {
+                return;
+            }
+        } catch (Exception e) {
+            // Not all JMS providers set these headers, so the statistics are just skipped
+            log.trace("Unable to read timestamp and destination of message", e);
+            return;
+        }
+        if (timestamp > 0 && channelName != null) {
+            getStatistics(channelName).messageReceived(System.currentTimeMillis() - timestamp);
+        }
+    }
+
+    /**
+     * Get the statistics for a channel, creating them if necessary.
+     *
+     * @param channelName The name of the channel
+     * @return The statistics for the channel
+     */
+    private static JMSChannelStatistics getStatistics(String channelName) {
+        JMSChannelStatistics statistics = channelStatistics.get(channelName);
+        if (statistics == null) {
+            statistics = channelStatistics.computeIfAbsent(channelName, name -> new JMSChannelStatistics());
+        }
+        return statistics;
+    }
+
     /**
      * Submit an ObjectMessage to the destination channel.
      *
@@ -452,21 +612,55 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     }
 
     /**
-     * Helper method for getting the right producer for a queue or topic.
+     * Borrow a session for sending. The first session is the main session of the connection; further sessions are
+     * created when all others are in use, until the configured maximum is reached. After that, this method waits for
+     * a session to be returned.
      *
-     * @param queueName The name of the channel
-     * @return The producer for that channel. A new one is created, if none exists.
-     * @throws JMSException If a new producer cannot be created.
+     * @return A session not used by any other thread. Must be returned with {@link #releaseSendSession(SendSession)}.
+     * @throws JMSException If a new session cannot be created.
+     * @throws IOFailure if no session is available, and reconnect does not help, or if interrupted while waiting.
      */
-    private MessageProducer getProducer(String queueName) throws JMSException {
-        // Check if producer is in cache
-        // If it is not, it is created and stored in cache:
-        MessageProducer producer = producers.get(queueName);
-        if (producer == null) {
-            producer = getSession().createProducer(getDestination(queueName));
-            producers.put(queueName, producer);
+    private SendSession borrowSendSession() throws JMSException {
+        Session mainSession = getSession();
+        synchronized (idleSendSessions) {
+            while (true) {
+                SendSession sendSession = idleSendSessions.pollFirst();
+                if (sendSession != null) {
+                    return sendSession;
+                }
+                if (sendSessionCount == 0) {
+                    sendSessionCount++;
+                    return new SendSession(mainSession, producers, connectionGeneration);
+                }
+                if (sendSessionCount < maxSendSessions && connection != null) {
+                    SendSession created = new SendSession(connection.createSession(false, Session.AUTO_ACKNOWLEDGE),
+                            new HashMap<String, MessageProducer>(), connectionGeneration);
+                    sendSessionCount++;
+                    log.debug("Created JMS send session {} of {}", sendSessionCount, maxSendSessions);
+                    return created;
+                }
+                try {
+                    idleSendSessions.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOFailure("Interrupted while waiting for a JMS session", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a session borrowed with {@link #borrowSendSession()}. Sessions from a closed connection are dropped.
+     *
+     * @param sendSession The session to return
+     */
+    private void releaseSendSession(SendSession sendSession) {
+        synchronized (idleSendSessions) {
+            if (sendSession.generation == connectionGeneration) {
+                idleSendSessions.addFirst(sendSession);
+                idleSendSessions.notify();
+            }
         }
-        return producer;
     }
 
     /**
@@ -549,34 +743,65 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     private void doSend(NetarkivetMessage msg, ChannelID to) throws JMSException {
         connectionLock.readLock().lock();
         try {
-            ObjectMessage message = getSession().createObjectMessage(msg);
-            synchronized (msg) {
-                getProducer(to.getName()).send(message);
-                // Note: Id is only updated if the message does not already have
-                // an id. This ensures that resent messages keep the same ID
-                // TODO Is it always OK for resent messages to keep the same ID
-
-                // FIXME Solution for NAS-2043 doesn't work; rolled back
-                // String randomID = UUID.randomUUID().toString();
-                // msg.updateId(randomID);
-                msg.updateId(message.getJMSMessageID());
-
+            long start = System.nanoTime();
+            SendSession sendSession = borrowSendSession();
+            try {
+                sendJMSMessage(sendSession, msg, to);
+            } finally {
+                releaseSendSession(sendSession);
             }
+            getStatistics(to.getName()).messageSent(System.nanoTime() - start);
         } finally {
             connectionLock.readLock().unlock();
         }
         log.trace("Sent message '{}'", msg.toString());
     }
 
+    /**
+     * Wraps a NetarkivetMessage as a BytesMessage if there is a codec for it, otherwise as an ObjectMessage, and sends
+     * it using the given session.
+     *
+     * @param sendSession the session to send with
+     * @param msg the NetarkivetMessage to be wrapped and send.
+     * @param to the destination topic.
+     * @throws JMSException if message failed to be sent.
+     */
+    private void sendJMSMessage(SendSession sendSession, NetarkivetMessage msg, ChannelID to) throws JMSException {
+        Message message;
+        if (MessageCodecs.getCodec(msg.getClass()) != null) {
+            BytesMessage bytesMessage = sendSession.session.createBytesMessage();
+            bytesMessage.writeBytes(MessageCodecs.encode(msg));
+            message = bytesMessage;
+        } else {
+            message = sendSession.session.createObjectMessage(msg);
+        }
+        synchronized (msg) {
+            sendSession.getProducer(to.getName()).send(message);
+            // Note: Id is only updated if the message does not already have
+            // an id. This ensures that resent messages keep the same ID
+            // TODO Is it always OK for resent messages to keep the same ID
+
+            // FIXME Solution for NAS-2043 doesn't work; rolled back
+            // String randomID = UUID.randomUUID().toString();
+            // msg.updateId(randomID);
+            msg.updateId(message.getJMSMessageID());
+        }
+    }
+
     /**
      * Method adds a listener to the given queue or topic.
      *
      * @param channelName the messagequeue to listen to
      * @param ml the messagelistener
+     * @param consumerCount the number of consumers for the listener. Ignored for topics.
      * @throws IOFailure if the operation failed.
      */
-    private void setListener(String channelName, MessageListener ml) {
-        log.debug("Adding {} as listener to {}", ml.toString(), channelName);
+    private void setListener(String channelName, MessageListener ml, int consumerCount) {
+        if (consumerCount > 1 && Channels.isTopic(channelName)) {
+            log.warn("Topic {} cannot have {} consumers for one listener, using one", channelName, consumerCount);
+            consumerCount = 1;
+        }
+        log.debug("Adding {} as listener to {} with {} consumer(s)", ml.toString(), channelName, consumerCount);
         String errMsg = "JMS-error - could not add Listener to queue/topic: " + channelName;
 
         int tries = 0;
@@ -588,6 +813,7 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
                 connectionLock.readLock().lock();
                 try {
                     getConsumer(channelName, ml).setMessageListener(ml);
+                    addConsumerSessions(channelName, ml, consumerCount);
                 } finally {
                     connectionLock.readLock().unlock();
                 }
@@ -639,6 +865,8 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
                     messageConsumer.close();
                     consumers.remove(getConsumerKey(channelName, ml));
                     listeners.remove(getConsumerKey(channelName, ml));
+                    consumerCounts.remove(getConsumerKey(channelName, ml));
+                    closeConsumerSessions(getConsumerKey(channelName, ml));
                 } finally {
                     connectionLock.readLock().unlock();
                 }
@@ -674,9 +902,116 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         // Add listeners already stored in the consumers map
         log.debug("Re-add listeners");
         for (Map.Entry<String, MessageListener> listener : listeners.entrySet()) {
-            setListener(getChannelName(listener.getKey()), listener.getValue());
+            Integer consumerCount = consumerCounts.get(listener.getKey());
+            setListener(getChannelName(listener.getKey()), listener.getValue(),
+                    consumerCount == null ? 1 : consumerCount);
         }
         log.info("Reconnect successful");
     }
 
+    /**
+     * Add sessions with extra consumers for a listener, until it has the given number of consumers in total. The first
+     * consumer is the one on the main session.
+     *
+     * @param channelName The name of the channel
+     * @param ml The message listener of the consumers
+     * @param consumerCount The wanted number of consumers
+     * @throws JMSException If a session or consumer cannot be created
+     */
+    private void addConsumerSessions(String channelName, MessageListener ml, int consumerCount) throws JMSException {
+        String key = getConsumerKey(channelName, ml);
+        consumerCounts.put(key, consumerCount);
+        if (consumerCount <= 1) {
+            return;
+        }
+        List<Session> sessions = consumerSessions.get(key);
+        if (sessions == null) {
+            sessions = new ArrayList<Session>();
+            consumerSessions.put(key, sessions);
+        }
+        while (sessions.size() < consumerCount - 1) {
+            Session consumerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            consumerSession.createConsumer(getDestination(channelName)).setMessageListener(ml);
+            sessions.add(consumerSession);
+        }
+    }
+
+    /**
+     * Close the extra consumer sessions of a listener, if any. Will ignore trouble, and simply log it.
+     *
+     * @param consumerKey The key of the listener
+     */
+    private void closeConsumerSessions(String consumerKey) {
+        List<Session> sessions = consumerSessions.remove(consumerKey);
+        if (sessions == null) {
+            return;
+        }
+        for (Session consumerSession : sessions) {
+            try {
+                consumerSession.close();
+            } catch (JMSException e) {
+                log.warn("Error closing JMS consumer session for {}", consumerKey, e);
+            }
+        }
+    }
+
+    /**
+     * Get the number of consumers a listener on the given channel should have, according to the settings
+     * {@link CommonSettings#JMS_CONCURRENT_QUEUES} and {@link CommonSettings#JMS_CONSUMERS_PER_QUEUE}.
+     *
+     * @param channelName The name of the channel
+     * @return The number of consumers, 1 if the channel is not set up for concurrent consumption.
+     */
+    static int getConfiguredConsumerCount(String channelName) {
+        String paddedName = "_" + channelName + "_";
+        for (String queue : Settings.get(CommonSettings.JMS_CONCURRENT_QUEUES).split(",")) {
+            queue = queue.trim();
+            if (!queue.isEmpty() && paddedName.contains("_" + queue + "_")) {
+                return Math.max(1, Settings.getInt(CommonSettings.JMS_CONSUMERS_PER_QUEUE));
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * A session used by one sending thread at a time, with its own cache of message producers.
+     */
+    private final class SendSession {
+        /** The session. */
+        private final Session session;
+        /** The producers of this session, keyed by channel name. */
+        private final Map<String, MessageProducer> sessionProducers;
+        /** The connection generation this session belongs to. */
+        private final int generation;
+
+        /**
+         * @param session The session
+         * @param sessionProducers Map for caching the producers of the session
+         * @param generation The current connection generation
+         */
+        private SendSession(Session session, Map<String, MessageProducer> sessionProducers, int generation) {
+            this.session = session;
+            this.sessionProducers = sessionProducers;
+            this.generation = generation;
+        }
+
+        /**
+         * Helper method for getting the right producer for a queue or topic.
+         *
+         * @param queueName The name of the channel
+         * @return The producer for that channel. A new one is created, if none exists.
+         * @throws JMSException If a new producer cannot be created.
+         */
+        private MessageProducer getProducer(String queueName) throws JMSException {
+            // Check if producer is in cache
+            // If it is not, it is created and stored in cache:
+            MessageProducer producer = sessionProducers.get(queueName);
+            if (producer == null) {
+                producer = session.createProducer(getDestination(queueName));
+                sessionProducers.put(queueName, producer);
+            }
+            return producer;
+        }
+    }
+
 }
@@ -0,0 +1,311 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * Registry of the {@link NetarkivetMessageCodec}s used to send messages as compact binary JMS BytesMessages instead of
+ * serialized ObjectMessages. Messages of classes without a codec are still sent as ObjectMessages.
+ * <p>
+ * The codecs named in the setting {@link CommonSettings#JMS_MESSAGE_CODECS} are registered the first time a codec is
+ * looked up. As a message sent with a codec can only be read by applications having the same codec, codecs should only
+ * be configured once all applications in the installation have them.
+ * <p>
+ * An encoded message consists of a format version byte and a flags byte, followed by the payload, which is deflated if
+ * it is larger than {@link CommonSettings#JMS_COMPRESSION_THRESHOLD}. The payload holds the message class name, the
+ * names of the to and replyTo channels, the fields written by the codec and the state kept by NetarkivetMessage.
+ */
+public final class MessageCodecs {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(MessageCodecs.class);
+
+    /** The version of the format written by this class. */
+    static final byte FORMAT_VERSION = 1;
+
+    /** Flag set when the payload is deflated. */
+    private static final byte FLAG_COMPRESSED = 1;
+
+    /** The registered codecs, keyed by message class. */
+    private static final Map<Class<?>, NetarkivetMessageCodec<?>> codecsByClass =
+            new ConcurrentHashMap<Class<?>, NetarkivetMessageCodec<?>>();
+
+    /** The registered codecs, keyed by message class name. */
+    private static final Map<String, NetarkivetMessageCodec<?>> codecsByName =
+            new ConcurrentHashMap<String, NetarkivetMessageCodec<?>>();
+
+    /** Whether the codecs in the settings have been registered. */
+    private static volatile boolean configured;
+
+    /** Payloads larger than this number of bytes are compressed. Negative to never compress. */
+    private static volatile int compressionThreshold = -1;
+
+    /** Utility class, do not instantiate. */
+    private MessageCodecs() {
+    }
+
+    /**
+     * Register a codec, replacing any codec already registered for the same message class.
+     *
+     * @param codec The codec
+     * @throws ArgumentNotValid if codec is null
+     */
+    public static void register(NetarkivetMessageCodec<?> codec) {
+        ArgumentNotValid.checkNotNull(codec, "NetarkivetMessageCodec codec");
+        Class<?> messageClass = codec.getMessageClass();
+        ArgumentNotValid.checkNotNull(messageClass, "Class messageClass");
+        codecsByClass.put(messageClass, codec);
+        codecsByName.put(messageClass.getName(), codec);
+        log.debug("Registered codec {} for {}", codec.getClass().getName(), messageClass.getName());
+    }
+
+    /**
+     * Get the codec for messages of a given class.
+     *
+     * @param messageClass A message class
+     * @return The codec for exactly that class, or null if messages of the class are sent with Java serialization.
+     */
+    public static NetarkivetMessageCodec<?> getCodec(Class<?> messageClass) {
+        configure();
+        return codecsByClass.get(messageClass);
+    }
+
+    /**
+     * Encode a message with the codec registered for its class.
+     *
+     * @param msg The message to encode
+     * @return The encoded message
+     * @throws ArgumentNotValid if msg is null, or no codec is registered for its class
+     * @throws IOFailure if the codec fails
+     */
+    @SuppressWarnings("unchecked")
+    public static byte[] encode(NetarkivetMessage msg) {
+        ArgumentNotValid.checkNotNull(msg, "NetarkivetMessage msg");
+        NetarkivetMessageCodec<NetarkivetMessage> codec = (NetarkivetMessageCodec<NetarkivetMessage>) getCodec(msg
+                .getClass());
+        if (codec == null) {
+            throw new ArgumentNotValid("No codec registered for " + msg.getClass().getName());
+        }
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeUTF(msg.getClass().getName());
+            out.writeUTF(msg.getTo().getName());
+            out.writeUTF(msg.getReplyTo().getName());
+            codec.writeMessage(msg, out);
+            msg.writeState(out);
+            out.flush();
+
+            boolean compress = compressionThreshold >= 0 && payload.size() > compressionThreshold;
+            int expectedSize = compress ? payload.size() / 2 : payload.size() + 2;
+            ByteArrayOutputStream result = new ByteArrayOutputStream(expectedSize);
+            result.write(FORMAT_VERSION);
+            result.write(compress ? FLAG_COMPRESSED : 0);
+            if (compress) {
+                DeflaterOutputStream deflater = new DeflaterOutputStream(result);
+                payload.writeTo(deflater);
+                deflater.finish();
+            } else {
+                payload.writeTo(result);
+            }
+            return result.toByteArray();
+        } catch (IOException e) {
+            throw new IOFailure("Unable to encode " + msg.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Decode a message encoded by {@link #encode(NetarkivetMessage)}.
+     *
+     * @param data The encoded message
+     * @return The decoded message
+     * @throws ArgumentNotValid if data is null, in an unknown format, for a message class without a codec, or invalid
+     */
+    public static NetarkivetMessage decode(byte[] data) {
+        ArgumentNotValid.checkNotNull(data, "byte[] data");
+        if (data.length < 2 || data[0] != FORMAT_VERSION) {
+            throw new ArgumentNotValid("Unknown message format");
+        }
+        String className = "Unknown class"; // for error reporting purposes
+        try {
+            InputStream payload = new ByteArrayInputStream(data, 2, data.length - 2);
+            if ((data[1] & FLAG_COMPRESSED) != 0) {
+                payload = new InflaterInputStream(payload);
+            }
+            DataInputStream in = new DataInputStream(payload);
+            className = in.readUTF();
+            configure();
+            NetarkivetMessageCodec<?> codec = codecsByName.get(className);
+            if (codec == null) {
+                throw new ArgumentNotValid("No codec registered for " + className);
+            }
+            ChannelID to = ChannelID.forName(in.readUTF());
+            ChannelID replyTo = ChannelID.forName(in.readUTF());
+            NetarkivetMessage msg = codec.readMessage(to, replyTo, in);
+            msg.readState(to, replyTo, in);
+            return msg;
+        } catch (IOException e) {
+            throw new ArgumentNotValid("Unable to decode message of class " + className, e);
+        }
+    }
+
+    /**
+     * Write a string which may be null or longer than the limit of {@link DataOutput#writeUTF(String)}.
+     *
+     * @param out The output to write to
+     * @param s The string, or null
+     * @throws IOException If writing fails
+     */
+    public static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param in The input to read from
+     * @return The string, or null
+     * @throws IOException If reading fails
+     */
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write an object with Java serialization. For fields of types that have no schema of their own, like the
+     * implementations of {@link RemoteFile}.
+     *
+     * @param out The output to write to
+     * @param object The object, or null
+     * @throws IOException If writing fails
+     */
+    public static void writeSerializable(DataOutput out, Serializable object) throws IOException {
+        if (object == null) {
+            out.writeInt(-1);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(object);
+        oos.close();
+        out.writeInt(bytes.size());
+        out.write(bytes.toByteArray());
+    }
+
+    /**
+     * Read an object written by {@link #writeSerializable(DataOutput, Serializable)}.
+     *
+     * @param in The input to read from
+     * @return The object, or null
+     * @throws IOException If reading fails, or the class of the object is unknown
+     */
+    public static Serializable readSerializable(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Serializable) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class of serialized field", e);
+        }
+    }
+
+    /**
+     * Register the codecs given in the settings, the first time this is called. Codecs that cannot be loaded are
+     * logged and skipped.
+     */
+    private static void configure() {
+        if (configured) {
+            return;
+        }
+        synchronized (MessageCodecs.class) {
+            if (configured) {
+                return;
+            }
+            compressionThreshold = Settings.getInt(CommonSettings.JMS_COMPRESSION_THRESHOLD);
+            for (String className : Settings.get(CommonSettings.JMS_MESSAGE_CODECS).split(",")) {
+                className = className.trim();
+                if (className.isEmpty()) {
+                    continue;
+                }
+                try {
+                    Class<?> codecClass = Class.forName(className);
+                    register((NetarkivetMessageCodec<?>) codecClass.getDeclaredConstructor().newInstance());
+                } catch (Exception e) {
+                    log.warn("Unable to register message codec '{}'. Its messages are sent with Java serialization",
+                            className, e);
+                }
+            }
+            configured = true;
+        }
+    }
+
+    /**
+     * Forget all registered codecs, so the settings are read again on the next lookup. For tests.
+     */
+    static synchronized void reset() {
+        codecsByClass.clear();
+        codecsByName.clear();
+        configured = false;
+    }
+
+}
@@ -22,6 +22,9 @@
  */
 package dk.netarkivet.common.distribute;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -229,6 +232,37 @@ public abstract class NetarkivetMessage implements Serializable {
         }
     }
 
+    /**
+     * Write the state kept by this class, except the channels, for use by {@link MessageCodecs}.
+     *
+     * @param out The output to write to
+     * @throws IOException If writing fails
+     */
+    synchronized void writeState(DataOutput out) throws IOException {
+        MessageCodecs.writeString(out, id);
+        MessageCodecs.writeString(out, replyOfId);
+        out.writeBoolean(isOk);
+        MessageCodecs.writeString(out, errMsg);
+    }
+
+    /**
+     * Restore the state kept by this class, as written by {@link #writeState(DataOutput)}, for use by
+     * {@link MessageCodecs}.
+     *
+     * @param newTo The channel the message was sent to
+     * @param newReplyTo The channel replies are expected on
+     * @param in The input to read from
+     * @throws IOException If reading fails
+     */
+    synchronized void readState(ChannelID newTo, ChannelID newReplyTo, DataInput in) throws IOException {
+        this.to = newTo;
+        this.replyTo = newReplyTo;
+        this.id = MessageCodecs.readString(in);
+        this.replyOfId = MessageCodecs.readString(in);
+        this.isOk = in.readBoolean();
+        this.errMsg = MessageCodecs.readString(in);
+    }
+
     /**
      * Check, if a given message has been sent yet. If the message has a null id, it hasn't been sent yet.
      *
@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes messages of one NetarkivetMessage class in a compact binary form, used instead of Java serialization when
+ * the codec is registered with {@link MessageCodecs}. A codec only handles the fields of the message class itself; the
+ * channels, id and error state kept by {@link NetarkivetMessage} are encoded by {@link MessageCodecs}.
+ * <p>
+ * The body written by a codec is its schema, and must be read back field by field in the same order. Codecs must be
+ * thread safe and have a public no-argument constructor, so they can be given by class name in the setting
+ * {@link dk.netarkivet.common.CommonSettings#JMS_MESSAGE_CODECS}.
+ *
+ * @param <T> The message class handled by the codec.
+ */
+public interface NetarkivetMessageCodec<T extends NetarkivetMessage> {
+
+    /**
+     * @return The class of messages handled by this codec. Subclasses of it are not handled.
+     */
+    Class<T> getMessageClass();
+
+    /**
+     * Write the fields of a message.
+     *
+     * @param msg The message to write
+     * @param out The output to write to
+     * @throws IOException If writing fails
+     */
+    void writeMessage(T msg, DataOutput out) throws IOException;
+
+    /**
+     * Read the fields written by {@link #writeMessage(NetarkivetMessage, DataOutput)} and create the message. The state
+     * kept by NetarkivetMessage is restored afterwards, so the channels given here are only for constructors that
+     * require them.
+     *
+     * @param to The channel the message was sent to
+     * @param replyTo The channel replies are expected on
+     * @param in The input to read from
+     * @return The decoded message
+     * @throws IOException If reading fails or the input is invalid
+     */
+    T readMessage(ChannelID to, ChannelID replyTo, DataInput in) throws IOException;
+
+}
@@ -25,6 +25,7 @@ package dk.netarkivet.common.distribute.arcrepository;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.List;
 
@@ -167,8 +168,9 @@ public class ARCLookup {
             return null; // key not found
         } else {
         	log.debug("Retrieving record {},{} from archive", key.getFile().getName(), key.getOffset());
-            final BitarchiveRecord bitarchiveRecord = arcRepositoryClient.get(key.getFile().getName(), key.getOffset());
-            if (bitarchiveRecord == null) {
+            final InputStream recordData = arcRepositoryClient.getRecordData(key.getFile().getName(),
+                    key.getOffset());
+            if (recordData == null) {
                 String message = "ARC file '" + key.getFile().getName() + "' mentioned in index file was not found by"
                         + " arc repository. This may mean we have a timeout, or that the index is wrong; or"
                         + " it may mean we have lost a record in the bitarchives.";
@@ -176,7 +178,7 @@ public class ARCLookup {
                 throw new IOFailure(message);
             }
             log.debug("Retrieved record {},{} from archive and returning it as ResultStream", key.getFile().getName(), key.getOffset());
-            return new ResultStream(bitarchiveRecord.getData(), containsHeader);
+            return new ResultStream(recordData, containsHeader);
         }
     }
 
@@ -143,6 +143,26 @@ public class BitarchiveRecord implements Serializable {
         }
     }
 
+    /**
+     * Creates a BitarchiveRecord from the payload of a record that has already been read from the archive file. The
+     * data is always stored in a byte array, so this should only be used for records no longer than
+     * Settings.BITARCHIVE_LIMIT_FOR_RECORD_DATATRANSFER_IN_FILE.
+     *
+     * @param filename The filename of the ArchiveFile
+     * @param offset The offset of the record in the ArchiveFile
+     * @param data The payload of the record
+     */
+    public BitarchiveRecord(String filename, long offset, byte[] data) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNegative(offset, "long offset");
+        ArgumentNotValid.checkNotNull(data, "byte[] data");
+        this.fileName = filename;
+        this.offset = offset;
+        this.length = data.length;
+        this.objectBuffer = data;
+        log.debug("Bytes stored in objectBuffer: {}", objectBuffer.length);
+    }
+
     /**
      * Returns the file that this information was loaded from.
      *
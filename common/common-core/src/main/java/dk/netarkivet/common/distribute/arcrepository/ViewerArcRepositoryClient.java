@@ -23,6 +23,7 @@
 package dk.netarkivet.common.distribute.arcrepository;
 
 import java.io.File;
+import java.io.InputStream;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
@@ -48,6 +49,21 @@ public interface ViewerArcRepositoryClient extends AutoCloseable{
      */
     BitarchiveRecord get(String arcfile, long index) throws ArgumentNotValid;
 
+    /**
+     * Gets the data of a single ARC record out of the ArcRepository, as {@link BitarchiveRecord#getData()} gives it.
+     * Implementations may stream the data from the archive instead of retrieving the whole record first. The stream
+     * should be closed when it has been read.
+     *
+     * @param arcfile The name of a file containing the desired record.
+     * @param index The offset of the desired record in the file
+     * @return The data of the record, or null if request times out or object is not found.
+     * @throws ArgumentNotValid If the get operation failed.
+     */
+    default InputStream getRecordData(String arcfile, long index) throws ArgumentNotValid {
+        BitarchiveRecord bitarchiveRecord = get(arcfile, index);
+        return bitarchiveRecord == null ? null : bitarchiveRecord.getData();
+    }
+
     /**
      * Retrieves a file from an ArcRepository and places it in a local file.
      *
@@ -52,6 +52,8 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.utils.sort.ExternalSorter;
+import dk.netarkivet.common.utils.sort.LineComparators;
 
 /**
  * Misc. handy file utilities.
@@ -598,18 +600,23 @@ public class FileUtils {
     }
 
     /**
-     * Sort a file into another. The current implementation slurps all lines into memory. This will not scale forever.
+     * Sort a file into another. The lines are read as UTF-8 and sorted as strings, in the order of
+     * {@link String#compareTo(String)}, and only as many are held in memory as the budget of the {@link ExternalSorter}
+     * allows.
      *
      * @param unsortedFile A file to sort
      * @param sortedOutput The file to sort into
+     * @throws IOFailure If the file does not exist, or could not be sorted
      */
     public static void makeSortedFile(File unsortedFile, File sortedOutput) {
         ArgumentNotValid.checkNotNull(unsortedFile, "File unsortedFile");
         ArgumentNotValid.checkNotNull(sortedOutput, "File sortedOutput");
-        List<String> lines;
-        lines = readListFromFile(unsortedFile);
-        Collections.sort(lines);
-        writeCollectionToFile(sortedOutput, lines);
+        if (!unsortedFile.exists()) {
+            String errMsg = "File '" + unsortedFile.getAbsolutePath() + "' does not exist";
+            log.warn(errMsg);
+            throw new IOFailure(errMsg);
+        }
+        ExternalSorter.getInstance().sort(unsortedFile, sortedOutput, LineComparators.STRING, getSortTempDir());
     }
 
     /**
@@ -930,11 +937,11 @@ public class FileUtils {
     }
 
     /**
-     * Sort a crawl.log file according to the url.
+     * Sort a crawl.log file according to the url, in the order of <code>LANG=C sort -k 4b</code>.
      *
      * @param file The file containing the unsorted data.
      * @param toFile The file that the sorted data can be put into.
-     * @throws IOFailure if there were errors running the sort process, or if the file does not exist.
+     * @throws IOFailure if there were errors sorting, or if the file does not exist.
      */
     public static void sortCrawlLog(File file, File toFile) {
         ArgumentNotValid.checkNotNull(file, "File file");
@@ -945,30 +952,15 @@ public class FileUtils {
             throw new IOFailure(errMsg);
         }
 
-        File sortTempDir = null;
-        if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
-            sortTempDir = FileUtils.getTempDir();
-            if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
-            }
-        }
-        boolean sortLikeCrawllog = true;
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting crawl log '" + file + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
+        ExternalSorter.getInstance().sort(file, toFile, LineComparators.CRAWL_LOG_URL, getSortTempDir());
     }
 
     /**
-     * Sort a crawl.log file according to the timestamp.
+     * Sort a crawl.log file according to the timestamp, in the order of <code>LANG=C sort</code>.
      *
      * @param file The file containing the unsorted data.
      * @param toFile The file that the sorted data can be put into.
-     * @throws IOFailure if there were errors running the sort process, or if the file does not exist.
+     * @throws IOFailure if there were errors sorting, or if the file does not exist.
      */
     public static void sortCrawlLogOnTimestamp(File file, File toFile) {
         ArgumentNotValid.checkNotNull(file, "File file");
@@ -979,26 +971,11 @@ public class FileUtils {
             throw new IOFailure(errMsg);
         }
 
-        File sortTempDir = null;
-        if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
-            sortTempDir = FileUtils.getTempDir();
-            if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
-            }
-        }
-        boolean sortLikeCrawllog = false;
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting crawl log '" + file + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
+        ExternalSorter.getInstance().sort(file, toFile, LineComparators.WHOLE_LINE, getSortTempDir());
     }
 
     /**
-     * Sort a CDX file according to our standard for CDX file sorting. This method depends on the Unix sort() command.
+     * Sort a CDX file according to our standard for CDX file sorting, which is the order of <code>LANG=C sort</code>.
      *
      * @param file The raw unsorted CDX file.
      * @param toFile The file that the result will be put into.
@@ -1012,27 +989,45 @@ public class FileUtils {
             log.warn(errMsg);
             throw new IOFailure(errMsg);
         }
-        boolean sortLikeCrawllog = false;
-        File sortTempDir = null;
-        if (Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
-            sortTempDir = FileUtils.getTempDir();
-            if (!sortTempDir.isDirectory()) {
-            	log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist", 
-            			sortTempDir.getAbsolutePath());
-            	sortTempDir = null;
-            }
+        ExternalSorter.getInstance().sort(file, toFile, LineComparators.WHOLE_LINE, getSortTempDir());
+    }
 
+    /**
+     * Merge CDX files that are each sorted according to our standard for CDX file sorting into one sorted CDX file.
+     * This streams through the files once, so it is much cheaper than concatenating and sorting them.
+     *
+     * @param files The sorted CDX files, see {@link #isSortedCDX(File)}.
+     * @param toFile The file that the result will be put into.
+     * @throws IOFailure If one of the files does not exist, or the files could not be merged
+     */
+    public static void mergeSortedCDX(List<File> files, File toFile) {
+        ArgumentNotValid.checkNotNull(files, "List<File> files");
+        ArgumentNotValid.checkNotNull(toFile, "File toFile");
+        for (File file : files) {
+            if (!file.exists()) {
+                String errMsg = "The file '" + file.getAbsolutePath() + "' does not exist.";
+                log.warn(errMsg);
+                throw new IOFailure(errMsg);
+            }
         }
-        int error = ProcessUtils.runUnixSort(file, toFile, sortTempDir, sortLikeCrawllog);
-        if (error != 0) {
-            final String errMsg = "Error code " + error + " sorting cdx file '" + file.getAbsolutePath() + "'";
-            log.warn(errMsg);
-            throw new IOFailure(errMsg);
-        }
+        ExternalSorter.getInstance().merge(files, toFile, LineComparators.WHOLE_LINE, getSortTempDir());
     }
 
     /**
-     * Sort a file using UNIX sort.
+     * Check whether a CDX file is sorted according to our standard for CDX file sorting, as done by
+     * {@link #sortCDX(File, File)}.
+     *
+     * @param file The CDX file.
+     * @return true if the file is sorted.
+     * @throws IOFailure If the file could not be read
+     */
+    public static boolean isSortedCDX(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        return ExternalSorter.isSorted(file, LineComparators.WHOLE_LINE);
+    }
+
+    /**
+     * Sort a file in the order of the UNIX sort.
      *
      * @param file the file that you want to sort.
      * @param toFile The destination file.
@@ -1041,6 +1036,25 @@ public class FileUtils {
         sortCDX(file, toFile);
     }
 
+    /**
+     * Get the directory for the temporary files of a sort, as selected by
+     * {@link CommonSettings#UNIX_SORT_USE_COMMON_TEMP_DIR}.
+     *
+     * @return The common temp dir, or null to use the system temp dir.
+     */
+    private static File getSortTempDir() {
+        if (!Settings.getBoolean(CommonSettings.UNIX_SORT_USE_COMMON_TEMP_DIR)) {
+            return null;
+        }
+        File sortTempDir = FileUtils.getTempDir();
+        if (!sortTempDir.isDirectory()) {
+            log.warn("We should be using commontempdir {} in the sort process, but the directory doesn't exist",
+                    sortTempDir.getAbsolutePath());
+            return null;
+        }
+        return sortTempDir;
+    }
+
     /**
      * Creates a new temporary directory with a unique name. This directory will be deleted automatically at the end of
      * the VM (though behaviour if there are files in it is undefined). This method will try a limited number of times
@@ -27,6 +27,9 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +46,10 @@ import dk.netarkivet.common.exceptions.UnknownID;
  * specified by the system property {@link #SETTINGS_FILE_PROPERTY}, multiple files can be separated by
  * {@link File#pathSeparator}, that is ':' on linux and ';' on windows; or if that property is not set, the default
  * location is {@link #DEFAULT_SETTINGS_FILEPATH}.
+ * <p>
+ * Values read from the XML files are cached, so only the first lookup of a key evaluates XPath expressions on the
+ * settings documents. The cache is replaced whenever the settings are changed with {@link #set}, {@link #reload()} or
+ * {@link #addDefaultClasspathSettings(String)}. System properties are checked on every lookup, and are not cached.
  */
 public class Settings {
 
@@ -61,10 +68,17 @@ public class Settings {
      */
     private static final List<SimpleXml> defaultClasspathSettingsXmlList;
 
+    /**
+     * The values looked up in the settings xml files since they were last changed. The cache is replaced, never
+     * cleared, when the settings change, so a lookup racing with a change at worst fills the discarded cache.
+     */
+    private static volatile LookupCache lookupCache;
+
     static {
         // All static initialization in one place
         fileSettingsXmlList = Collections.synchronizedList(new ArrayList<SimpleXml>());
         defaultClasspathSettingsXmlList = Collections.synchronizedList(new ArrayList<SimpleXml>());
+        lookupCache = new LookupCache();
         // Perform an initial loading of the settings.
         reload();
     }
@@ -131,6 +145,25 @@ public class Settings {
             return val;
         }
 
+        LookupCache cache = lookupCache;
+        Optional<String> cached = cache.values.get(key);
+        if (cached == null) {
+            cached = Optional.ofNullable(lookup(key));
+            cache.values.putIfAbsent(key, cached);
+        }
+        if (!cached.isPresent()) {
+            throw new UnknownID("No match for key '" + key + "' in settings");
+        }
+        return cached.get();
+    }
+
+    /**
+     * Look up a setting in the loaded settings xml files, and then in the default settings files from classpath.
+     *
+     * @param key name of the setting to retrieve
+     * @return the retrieved value, or null if no setting loaded matches key
+     */
+    private static String lookup(String key) {
         // Key not in System.properties try loaded data instead
         synchronized (fileSettingsXmlList) {
             for (SimpleXml settingsXml : fileSettingsXmlList) {
@@ -148,7 +181,7 @@ public class Settings {
                 }
             }
         }
-        throw new UnknownID("No match for key '" + key + "' in settings");
+        return null;
     }
 
     /**
@@ -161,8 +194,12 @@ public class Settings {
      */
     public static int getInt(String key) throws UnknownID, ArgumentNotValid {
         String value = get(key);
+        Object parsed = getParsed(key, value);
+        if (parsed instanceof Integer) {
+            return (Integer) parsed;
+        }
         try {
-            return Integer.parseInt(value);
+            return putParsed(key, value, Integer.parseInt(value));
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key
                     + "' could not be parsed as an integer.";
@@ -180,8 +217,12 @@ public class Settings {
      */
     public static long getLong(String key) throws UnknownID, ArgumentNotValid {
         String value = get(key);
+        Object parsed = getParsed(key, value);
+        if (parsed instanceof Long) {
+            return (Long) parsed;
+        }
         try {
-            return Long.parseLong(value);
+            return putParsed(key, value, Long.parseLong(value));
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key + "' could not be parsed as a long.";
             throw new ArgumentNotValid(msg, e);
@@ -198,8 +239,12 @@ public class Settings {
      */
     public static double getDouble(String key) throws UnknownID, ArgumentNotValid {
         String value = get(key);
+        Object parsed = getParsed(key, value);
+        if (parsed instanceof Double) {
+            return (Double) parsed;
+        }
         try {
-            return Double.parseDouble(value);
+            return putParsed(key, value, Double.parseDouble(value));
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key
                     + "' could not be parsed as a double.";
@@ -207,6 +252,36 @@ public class Settings {
         }
     }
 
+    /**
+     * Get the value of a setting parsed by an earlier call of one of the typed getters, if it was parsed from the same
+     * value.
+     *
+     * @param key name of the setting
+     * @param value the current value of the setting
+     * @return the parsed value, or null if the value has not been parsed
+     */
+    private static Object getParsed(String key, String value) {
+        ParsedValue parsed = lookupCache.parsedValues.get(key);
+        if (parsed != null && parsed.value.equals(value)) {
+            return parsed.parsed;
+        }
+        return null;
+    }
+
+    /**
+     * Remember the parsed value of a setting.
+     *
+     * @param key name of the setting
+     * @param value the value that was parsed
+     * @param parsed the parsed value
+     * @param <T> the type of the parsed value
+     * @return the parsed value
+     */
+    private static <T> T putParsed(String key, String value, T parsed) {
+        lookupCache.parsedValues.put(key, new ParsedValue(value, parsed));
+        return parsed;
+    }
+
     /**
      * Gets a setting as a file. This method calls get(key) and then returns the value as a file.
      *
@@ -257,6 +332,26 @@ public class Settings {
         if (fileSettingsXmlList.isEmpty()) {
             System.out.print("The list of loaded data settings is empty. Is this OK?");
         }
+        LookupCache cache = lookupCache;
+        Optional<String[]> cached = cache.lists.get(key);
+        if (cached == null) {
+            cached = Optional.ofNullable(lookupAll(key));
+            cache.lists.putIfAbsent(key, cached);
+        }
+        if (!cached.isPresent()) {
+            throw new UnknownID("No match for key '" + key + "' in settings");
+        }
+        return cached.get().clone();
+    }
+
+    /**
+     * Look up all values of a setting in the loaded settings xml files, and then in the default settings files from
+     * classpath.
+     *
+     * @param key name of the setting to retrieve
+     * @return the retrieved values, or null if no setting loaded matches key
+     */
+    private static String[] lookupAll(String key) {
         // Key not in System.properties try loaded data instead
         synchronized (fileSettingsXmlList) {
             for (SimpleXml settingsXml : fileSettingsXmlList) {
@@ -284,7 +379,7 @@ public class Settings {
                 return result.toArray(new String[result.size()]);
             }
         }
-        throw new UnknownID("No match for key '" + key + "' in settings");
+        return null;
     }
 
     /**
@@ -305,12 +400,15 @@ public class Settings {
         if (fileSettingsXmlList.isEmpty()) {
             fileSettingsXmlList.add(new SimpleXml("settings"));
         }
-        SimpleXml simpleXml = fileSettingsXmlList.get(0);
-        if (simpleXml.hasKey(key)) {
-            simpleXml.update(key, values);
-        } else {
-            simpleXml.add(key, values);
+        synchronized (fileSettingsXmlList) {
+            SimpleXml simpleXml = fileSettingsXmlList.get(0);
+            if (simpleXml.hasKey(key)) {
+                simpleXml.update(key, values);
+            } else {
+                simpleXml.add(key, values);
+            }
         }
+        lookupCache = new LookupCache();
     }
 
     /**
@@ -339,6 +437,7 @@ public class Settings {
             fileSettingsXmlList.clear();
             fileSettingsXmlList.addAll(simpleXmlList);
         }
+        lookupCache = new LookupCache();
     }
 
     /**
@@ -352,6 +451,7 @@ public class Settings {
                 .getResourceAsStream(defaultClasspathSettingsPath);
         if (stream != null) {
             defaultClasspathSettingsXmlList.add(new SimpleXml(stream));
+            lookupCache = new LookupCache();
         } else {
             log.warn("Unable to read the settings file represented by path: '{}'", defaultClasspathSettingsPath);
         }
@@ -399,4 +499,27 @@ public class Settings {
     	return true;
     }
 
+    /** The values looked up in one version of the settings. */
+    private static class LookupCache {
+        /** The values found by {@link #get(String)}, or empty if there is no such setting. */
+        private final ConcurrentMap<String, Optional<String>> values = new ConcurrentHashMap<>();
+        /** The values found by {@link #getAll(String)}, or empty if there is no such setting. */
+        private final ConcurrentMap<String, Optional<String[]>> lists = new ConcurrentHashMap<>();
+        /** The values parsed by the typed getters. */
+        private final ConcurrentMap<String, ParsedValue> parsedValues = new ConcurrentHashMap<>();
+    }
+
+    /** A value of a setting, and the same value parsed as a number. */
+    private static class ParsedValue {
+        /** The value of the setting. */
+        private final String value;
+        /** The parsed value. */
+        private final Object parsed;
+
+        ParsedValue(String value, Object parsed) {
+            this.value = value;
+            this.parsed = parsed;
+        }
+    }
+
 }
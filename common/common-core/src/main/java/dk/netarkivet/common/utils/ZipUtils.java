@@ -28,7 +28,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -148,8 +150,25 @@ public final class ZipUtils {
      * operation is not successful, the directory will not be created.
      */
     public static void gzipFiles(File fromDir, File toDir) {
+        gzipFiles(fromDir, toDir, null, Collections.<String>emptySet());
+    }
+
+    /**
+     * GZip the files in fromDir into toDir like {@link #gzipFiles(File, File)}, except that the files known to be
+     * unchanged since they were gzipped into another directory are not compressed again. Their gzipped versions are
+     * copied from that directory instead.
+     *
+     * @param fromDir An existing directory
+     * @param toDir A directory where gzipped files will be placed. This directory must not previously exist. If the
+     * operation is not successful, the directory will not be created.
+     * @param gzippedDir A directory holding gzipped versions of some of the files, or null if there is none.
+     * @param unchangedFiles The names of the files in fromDir with the same contents as the gzipped files of the same
+     * names (with .gz appended) in gzippedDir.
+     */
+    public static void gzipFiles(File fromDir, File toDir, File gzippedDir, Set<String> unchangedFiles) {
         ArgumentNotValid.checkNotNull(fromDir, "File fromDir");
         ArgumentNotValid.checkNotNull(toDir, "File toDir");
+        ArgumentNotValid.checkNotNull(unchangedFiles, "Set<String> unchangedFiles");
         ArgumentNotValid.checkTrue(fromDir.isDirectory(), "source '" + fromDir + "' must be an existing directory");
         ArgumentNotValid.checkTrue(!toDir.exists(), "destination directory '" + toDir + "' must not exist");
 
@@ -158,7 +177,10 @@ public final class ZipUtils {
             tmpDir = FileUtils.createUniqueTempDir(toDir.getAbsoluteFile().getParentFile(), toDir.getName());
             File[] fromFiles = fromDir.listFiles();
             for (File f : fromFiles) {
-                if (f.isFile()) {
+                File gzipped = gzippedDir == null ? null : new File(gzippedDir, f.getName() + GZIP_SUFFIX);
+                if (f.isFile() && gzipped != null && unchangedFiles.contains(f.getName()) && gzipped.isFile()) {
+                    FileUtils.copyFile(gzipped, new File(tmpDir, gzipped.getName()));
+                } else if (f.isFile()) {
                     gzipFileInto(f, tmpDir);
                 } else {
                     log.trace("Skipping non-file '{}'", f);
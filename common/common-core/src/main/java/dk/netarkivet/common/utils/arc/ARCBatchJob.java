@@ -135,7 +135,9 @@ public abstract class ARCBatchJob extends FileBatchJob {
                         }
                         log.debug("Processing ARCRecord #{} in ARCfile '{}'.", noOfRecordsProcessed, arcFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        synchronized (this) {
+                            ++noOfRecordsProcessed;
+                        }
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
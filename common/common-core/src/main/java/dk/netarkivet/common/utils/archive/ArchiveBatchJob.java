@@ -115,7 +115,9 @@ public abstract class ArchiveBatchJob extends ArchiveBatchJobBase {
                         log.debug("Processing record #{} in archive file '{}'.", noOfRecordsProcessed,
                                 archiveFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        synchronized (this) {
+                            ++noOfRecordsProcessed;
+                        }
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
@@ -23,10 +23,26 @@
 
 package dk.netarkivet.common.utils.batch;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,13 +54,17 @@ import dk.netarkivet.common.utils.Settings;
 
 /**
  * Class for running FileBatchJobs on a set of local files. The constructor takes an array of files to be processed and
- * the run() method takes a FileBatchJob and applies it to each file in turn.
+ * the run() method takes a FileBatchJob and applies it to each file in turn, or to several files at once if the job is
+ * parallelizable.
  */
 public class BatchLocalFiles {
 
     /** The class logger. */
     private static final Logger log = LoggerFactory.getLogger(BatchLocalFiles.class);
 
+    /** The number of files per thread that may be processed ahead of the file whose output is written next. */
+    private static final int PENDING_FILES_PER_THREAD = 4;
+
     /** The list of files to run batch jobs on. */
     private File[] files;
 
@@ -69,7 +89,9 @@ public class BatchLocalFiles {
     }
 
     /**
-     * Run the given job on the files associated with this object.
+     * Run the given job on the files associated with this object. If the job is parallelizable and
+     * {@link CommonSettings#BATCH_THREADS} is more than one, several files are processed at once, see
+     * {@link #processFilesInParallel(FileBatchJob, OutputStream, int)}.
      *
      * @param job - the job to be executed
      * @param os - the OutputStream to which output data is written
@@ -82,37 +104,13 @@ public class BatchLocalFiles {
         job.filesFailed = new HashSet<File>();
         try {
             job.initialize(os);
-            // count the files (used for logging).
-            int fileCount = 0;
-            // the time in milliseconds between the status logging
-            long logInterval = Settings.getLong(CommonSettings.BATCH_LOGGING_INTERVAL);
             // get the time for starting the batchjob (used for logging).
             startTime = new Date().getTime();
-            // Process each file:
-            for (File file : files) {
-                fileCount++;
-                if (job.getFilenamePattern().matcher(file.getName()).matches()) {
-                    long currentTime = new Date().getTime();
-                    // perform logging if necessary.
-                    if (lastLoggingDate + logInterval < currentTime) {
-                        log.info(
-                                "The batchjob '{}' has run for {} seconds and has reached file '{}', which is number {} out of {}",
-                                job.getClass(), (currentTime - startTime) / 1000, file.getName(), fileCount,
-                                files.length);
-                        // set that we have just logged.
-                        lastLoggingDate = currentTime;
-                    }
-                    processFile(job, file, os);
-                }
-
-                // check whether the batchjob should stop.
-                if (Thread.currentThread().isInterrupted()) {
-                    // log and throw an error (not exception, they are caught!)
-                    String errMsg = "The batchjob '" + job.toString() + "' has been interrupted and will terminate!";
-                    log.warn(errMsg);
-                    // TODO make new exception to thrown instead.
-                    throw new BatchTermination(errMsg);
-                }
+            int threads = Settings.getInt(CommonSettings.BATCH_THREADS);
+            if (threads > 1 && job.isParallelizable()) {
+                processFilesInParallel(job, os, threads);
+            } else {
+                processFiles(job, os);
             }
         } catch (Exception e) {
             // TODO Consider adding this initialization exception to the list
@@ -142,6 +140,175 @@ public class BatchLocalFiles {
         }
     }
 
+    /**
+     * Process the files one at a time.
+     *
+     * @param job The job that does the processing
+     * @param os Where to put the output.
+     */
+    private void processFiles(FileBatchJob job, OutputStream os) {
+        // count the files (used for logging).
+        int fileCount = 0;
+        // Process each file:
+        for (File file : files) {
+            fileCount++;
+            if (job.getFilenamePattern().matcher(file.getName()).matches()) {
+                logProgress(job, file, fileCount);
+                processFile(job, file, os);
+            }
+            checkInterrupted(job);
+        }
+    }
+
+    /**
+     * Process the files on a number of threads. The files on each file system are processed by their own pool of
+     * threads, so one busy disk does not hold up the others. The output of each file is buffered, and written to the
+     * given stream in the order of the files once the file is done, so the output is the same as if the files were
+     * processed one at a time. At most {@link #PENDING_FILES_PER_THREAD} files per thread are processed ahead of the
+     * file whose output is written next, to limit the output held in memory.
+     *
+     * @param job The job that does the processing. It must be parallelizable.
+     * @param os Where to put the output.
+     * @param threads The total number of threads to use.
+     * @throws IOException If writing the output fails.
+     */
+    private void processFilesInParallel(final FileBatchJob job, OutputStream os, int threads) throws IOException {
+        Map<Object, List<File>> filesByLane = new HashMap<Object, List<File>>();
+        for (File file : files) {
+            if (job.getFilenamePattern().matcher(file.getName()).matches()) {
+                Object lane = getLane(file);
+                if (!filesByLane.containsKey(lane)) {
+                    filesByLane.put(lane, new ArrayList<File>());
+                }
+                filesByLane.get(lane).add(file);
+            }
+        }
+        int threadsPerLane = Math.max(1, threads / Math.max(1, filesByLane.size()));
+        log.info("Running batchjob '{}' on {} threads for each of {} file systems", job.getClass(), threadsPerLane,
+                filesByLane.size());
+        Map<Object, ExecutorService> executors = new HashMap<Object, ExecutorService>();
+        for (Object lane : filesByLane.keySet()) {
+            executors.put(lane, Executors.newFixedThreadPool(threadsPerLane, new LaneThreadFactory(executors.size())));
+        }
+        Deque<FileTask> pending = new ArrayDeque<FileTask>();
+        int maxPending = threads * PENDING_FILES_PER_THREAD;
+        try {
+            int fileCount = 0;
+            for (final File file : files) {
+                fileCount++;
+                if (job.getFilenamePattern().matcher(file.getName()).matches()) {
+                    logProgress(job, file, fileCount);
+                    Future<FileResult> result = executors.get(getLane(file)).submit(new Callable<FileResult>() {
+                        @Override
+                        public FileResult call() {
+                            ByteArrayOutputStream output = new ByteArrayOutputStream();
+                            boolean success = processFileQuietly(job, file, output);
+                            return new FileResult(success, output);
+                        }
+                    });
+                    pending.add(new FileTask(file, result));
+                    while (pending.size() >= maxPending) {
+                        writeResult(job, pending.poll(), os);
+                    }
+                }
+                checkInterrupted(job);
+            }
+            while (!pending.isEmpty()) {
+                writeResult(job, pending.poll(), os);
+                checkInterrupted(job);
+            }
+        } finally {
+            for (FileTask task : pending) {
+                task.result.cancel(true);
+            }
+            for (ExecutorService executor : executors.values()) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Wait for a file to be processed, then write its output and account for it.
+     *
+     * @param job The job that does the processing
+     * @param task The file and its result.
+     * @param os Where to put the output.
+     * @throws IOException If writing the output fails.
+     * @throws BatchTermination If the thread is interrupted while waiting.
+     */
+    private void writeResult(FileBatchJob job, FileTask task, OutputStream os) throws IOException {
+        FileResult result;
+        try {
+            result = task.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String errMsg = "The batchjob '" + job.toString() + "' has been interrupted and will terminate!";
+            log.warn(errMsg);
+            throw new BatchTermination(errMsg, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            log.warn("Exception while processing file {} with job {}", task.file, job, e.getCause());
+            result = new FileResult(false, new ByteArrayOutputStream());
+        }
+        result.output.writeTo(os);
+        job.noOfFilesProcessed++;
+        if (!result.success) {
+            job.filesFailed.add(task.file);
+        }
+    }
+
+    /**
+     * Find the lane of a file: the file system it is stored on, or its directory if the file system cannot be found.
+     *
+     * @param file A file.
+     * @return An object identifying the lane.
+     */
+    private static Object getLane(File file) {
+        try {
+            return Files.getFileStore(file.toPath());
+        } catch (IOException e) {
+            return file.getAbsoluteFile().getParentFile();
+        }
+    }
+
+    /**
+     * Log the progress of the job, if it is time to do so.
+     *
+     * @param job The job that does the processing
+     * @param file The file about to be processed.
+     * @param fileCount The number of the file.
+     */
+    private void logProgress(FileBatchJob job, File file, int fileCount) {
+        // the time in milliseconds between the status logging
+        long logInterval = Settings.getLong(CommonSettings.BATCH_LOGGING_INTERVAL);
+        long currentTime = new Date().getTime();
+        // perform logging if necessary.
+        if (lastLoggingDate + logInterval < currentTime) {
+            log.info("The batchjob '{}' has run for {} seconds and has reached file '{}', which is number {} out of {}",
+                    job.getClass(), (currentTime - startTime) / 1000, file.getName(), fileCount, files.length);
+            // set that we have just logged.
+            lastLoggingDate = currentTime;
+        }
+    }
+
+    /**
+     * Check whether the batchjob should stop.
+     *
+     * @param job The job that does the processing
+     * @throws BatchTermination If the thread has been interrupted.
+     */
+    private void checkInterrupted(FileBatchJob job) {
+        if (Thread.currentThread().isInterrupted()) {
+            // log and throw an error (not exception, they are caught!)
+            String errMsg = "The batchjob '" + job.toString() + "' has been interrupted and will terminate!";
+            log.warn(errMsg);
+            // TODO make new exception to thrown instead.
+            throw new BatchTermination(errMsg);
+        }
+    }
+
     /**
      * Process a single file.
      *
@@ -150,6 +317,22 @@ public class BatchLocalFiles {
      * @param os Where to put the output.
      */
     private void processFile(FileBatchJob job, final File file, OutputStream os) {
+        boolean success = processFileQuietly(job, file, os);
+        job.noOfFilesProcessed++;
+        if (!success) {
+            job.filesFailed.add(file);
+        }
+    }
+
+    /**
+     * Let the job process a single file, logging any exception.
+     *
+     * @param job The job that does the processing
+     * @param file The file to process
+     * @param os Where to put the output.
+     * @return true if the file was processed successfully.
+     */
+    private static boolean processFileQuietly(FileBatchJob job, File file, OutputStream os) {
         log.trace("Started processing of file '{}'.", file.getAbsolutePath());
         boolean success = false;
         try {
@@ -160,9 +343,51 @@ public class BatchLocalFiles {
             // job.addException(currentFile, currentOffset, outputOffset, e)
             log.warn("Exception while processing file {} with job {}", file, job, e);
         }
-        job.noOfFilesProcessed++;
-        if (!success) {
-            job.filesFailed.add(file);
+        return success;
+    }
+
+    /** A file submitted for processing, and the future result. */
+    private static class FileTask {
+        /** The file. */
+        private final File file;
+        /** The result of processing the file. */
+        private final Future<FileResult> result;
+
+        FileTask(File file, Future<FileResult> result) {
+            this.file = file;
+            this.result = result;
+        }
+    }
+
+    /** The result of processing a file: whether it succeeded, and the output. */
+    private static class FileResult {
+        /** Whether the file was processed successfully. */
+        private final boolean success;
+        /** The output written while processing the file. */
+        private final ByteArrayOutputStream output;
+
+        FileResult(boolean success, ByteArrayOutputStream output) {
+            this.success = success;
+            this.output = output;
+        }
+    }
+
+    /** Creates the daemon threads of the pool of one lane. */
+    private static class LaneThreadFactory implements ThreadFactory {
+        /** The number of the lane. */
+        private final int lane;
+        /** The number of threads created so far. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        LaneThreadFactory(int lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BatchLocalFiles-" + lane + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
         }
     }
 
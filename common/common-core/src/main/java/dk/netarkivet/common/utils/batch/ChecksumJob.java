@@ -86,6 +86,16 @@ public class ChecksumJob extends FileBatchJob {
         return true;
     }
 
+    /**
+     * Files are checksummed independently of each other, so they may be processed in parallel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * Finishing the job requires nothing particular.
      *
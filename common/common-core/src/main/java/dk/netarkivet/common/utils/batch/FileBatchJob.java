@@ -92,6 +92,19 @@ public abstract class FileBatchJob implements Serializable {
      */
     public abstract boolean processFile(File file, OutputStream os);
 
+    /**
+     * Tell whether this job can process several files at once. Jobs that keep no state between files, or guard the
+     * state they keep, may override this to return true. {@link BatchLocalFiles} may then call processFile() from
+     * several threads, each with its own OutputStream, and concatenate the output in the order of the files.
+     * initialize() and finish() are still called once, from the thread running the job. This method is called after
+     * initialize().
+     *
+     * @return true if processFile() may be called concurrently for different files. By default false.
+     */
+    public boolean isParallelizable() {
+        return false;
+    }
+
     /**
      * Finish up the job. This is called after the last process() call. If the initialize() call throws an exception,
      * this will still be called so that any resources allocated can be cleaned up. Implementations should make sure
@@ -215,7 +228,7 @@ public abstract class FileBatchJob implements Serializable {
      * offset could not be found.
      * @param e The exception thrown. This exception must be serializable.
      */
-    protected void addException(File currentFile, long currentOffset, long outputOffset, Exception e) {
+    protected synchronized void addException(File currentFile, long currentOffset, long outputOffset, Exception e) {
         if (!maxExceptionsReached()) {
             exceptions.add(new ExceptionOccurrence(currentFile, currentOffset, outputOffset, e));
         } else {
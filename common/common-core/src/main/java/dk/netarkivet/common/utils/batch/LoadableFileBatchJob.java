@@ -178,6 +178,16 @@ public class LoadableFileBatchJob extends FileBatchJob {
         return loadedJob.processFile(file, os);
     }
 
+    /**
+     * The loaded job decides whether files may be processed in parallel. This is only known after initialize().
+     *
+     * @return true if the loaded job can process several files at once.
+     */
+    @Override
+    public boolean isParallelizable() {
+        return loadedJob != null && loadedJob.isParallelizable();
+    }
+
     /**
      * Finish up the job. This is called after the last process() call.
      *
@@ -164,6 +164,16 @@ public class LoadableJarBatchJob extends FileBatchJob {
         return loadedJob.processFile(file, os);
     }
 
+    /**
+     * The loaded job decides whether files may be processed in parallel. This is only known after initialize().
+     *
+     * @return true if the loaded job can process several files at once.
+     */
+    @Override
+    public boolean isParallelizable() {
+        return loadedJob != null && loadedJob.isParallelizable();
+    }
+
     /**
      * Finish the job. This is called after the last process() call.
      *
@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * A bounded pool of open {@link MappedCDXFile}s, so repeated lookups in the same CDX files do not have to map the files
+ * and build their indexes again. When more than the maximum number of files are open, the least recently used one is
+ * closed. Files that have changed on disk since they were opened are reopened.
+ * <p>
+ * The size of the pool and of the index blocks are given by the settings
+ * {@link CommonSettings#CDX_LOOKUP_MAX_OPEN_FILES} and {@link CommonSettings#CDX_LOOKUP_BLOCK_SIZE}.
+ */
+public class CDXFilePool {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(CDXFilePool.class);
+
+    /** The instance used by CDXReader. */
+    private static CDXFilePool instance;
+
+    /** The block size used for the index of the files we open. */
+    private final int blockSize;
+
+    /** The open files, by absolute path, in least recently used order. */
+    private final Map<String, MappedCDXFile> openFiles;
+
+    /**
+     * Create a pool of open CDX files.
+     *
+     * @param maxOpenFiles The maximum number of files kept open.
+     * @param blockSize The block size used for the index of the files we open.
+     * @throws ArgumentNotValid If either argument is not positive.
+     */
+    CDXFilePool(final int maxOpenFiles, int blockSize) {
+        ArgumentNotValid.checkPositive(maxOpenFiles, "int maxOpenFiles");
+        ArgumentNotValid.checkPositive(blockSize, "int blockSize");
+        this.blockSize = blockSize;
+        this.openFiles = new LinkedHashMap<String, MappedCDXFile>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MappedCDXFile> eldest) {
+                if (size() > maxOpenFiles) {
+                    log.debug("Closing least recently used CDX file {}", eldest.getValue());
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the pool shared by all CDXReaders in this JVM, creating it from the settings if necessary.
+     *
+     * @return The shared CDXFilePool.
+     */
+    public static synchronized CDXFilePool getInstance() {
+        if (instance == null) {
+            instance = new CDXFilePool(Settings.getInt(CommonSettings.CDX_LOOKUP_MAX_OPEN_FILES),
+                    Settings.getInt(CommonSettings.CDX_LOOKUP_BLOCK_SIZE));
+        }
+        return instance;
+    }
+
+    /**
+     * Get an open, up-to-date view of a CDX file. Mapping a new file is done without holding the lock on the pool, so
+     * lookups in other files can proceed meanwhile.
+     *
+     * @param cdxFile A sorted CDX file.
+     * @return A MappedCDXFile for the file.
+     * @throws ArgumentNotValid If cdxFile is null.
+     * @throws dk.netarkivet.common.exceptions.IOFailure If the file cannot be read.
+     */
+    public MappedCDXFile get(File cdxFile) {
+        ArgumentNotValid.checkNotNull(cdxFile, "File cdxFile");
+        String key = cdxFile.getAbsolutePath();
+        synchronized (openFiles) {
+            MappedCDXFile mapped = openFiles.get(key);
+            if (mapped != null) {
+                if (!mapped.isStale()) {
+                    return mapped;
+                }
+                log.debug("CDX file {} has changed since it was opened, reopening", mapped);
+                openFiles.remove(key);
+                mapped.close();
+            }
+        }
+        MappedCDXFile mapped = new MappedCDXFile(cdxFile, blockSize);
+        synchronized (openFiles) {
+            MappedCDXFile other = openFiles.get(key);
+            if (other != null) {
+                if (!other.isStale()) {
+                    // Another thread got here first
+                    mapped.close();
+                    return other;
+                }
+                other.close();
+            }
+            openFiles.put(key, mapped);
+            return mapped;
+        }
+    }
+
+    /**
+     * Close all open files in the pool.
+     */
+    public void clear() {
+        synchronized (openFiles) {
+            for (MappedCDXFile mapped : openFiles.values()) {
+                mapped.close();
+            }
+            openFiles.clear();
+        }
+    }
+
+}
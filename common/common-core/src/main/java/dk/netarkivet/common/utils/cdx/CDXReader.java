@@ -55,6 +55,9 @@ public class CDXReader {
     /** The regular expression that defines separation between fields. */
     static final String SEPARATOR_REGEX = "\\s+";
 
+    /** The open CDX files used for lookups. */
+    private final CDXFilePool filePool = CDXFilePool.getInstance();
+
     /**
      * Create a new CDXReader that reads the given file.
      *
@@ -158,8 +161,8 @@ public class CDXReader {
             String firstBrokenLine = null;
             long numBrokenLines = 0;
             try {
-                CDXLINES: for (String s : BinSearch.getLinesInFile(f, uri)) {
-                    String[] fieldParts = s.split(SEPARATOR_REGEX);
+                CDXLINES: for (String s : filePool.get(f).getLinesStartingWith(uri)) {
+                    String[] fieldParts = splitFields(s);
                     CDXRecord cdxrec;
                     try {
                         cdxrec = new CDXRecord(fieldParts);
@@ -191,4 +194,41 @@ public class CDXReader {
         return null;
     }
 
+    /**
+     * Split a CDX line into fields separated by whitespace. This gives the same result as splitting on
+     * {@link #SEPARATOR_REGEX}, but without the overhead of a regular expression.
+     *
+     * @param line A CDX line.
+     * @return The fields of the line.
+     */
+    static String[] splitFields(String line) {
+        List<String> fields = new ArrayList<String>(8);
+        int length = line.length();
+        int pos = 0;
+        while (true) {
+            int start = pos;
+            while (pos < length && !isSeparator(line.charAt(pos))) {
+                pos++;
+            }
+            fields.add(line.substring(start, pos));
+            while (pos < length && isSeparator(line.charAt(pos))) {
+                pos++;
+            }
+            if (pos == length) {
+                break;
+            }
+        }
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Check whether a character separates fields, i.e. whether it is matched by \s in {@link #SEPARATOR_REGEX}.
+     *
+     * @param c A character.
+     * @return true if c is a whitespace character.
+     */
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
 }
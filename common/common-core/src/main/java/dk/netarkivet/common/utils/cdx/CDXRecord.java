@@ -133,7 +133,7 @@ public class CDXRecord {
      * @param line a CDXline
      */
     public CDXRecord(String line) {
-        this(line.split(CDXReader.SEPARATOR_REGEX));
+        this(CDXReader.splitFields(line));
     }
 
     /**
@@ -25,9 +25,18 @@ package dk.netarkivet.common.utils.cdx;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -85,9 +94,27 @@ public class CDXUtils {
      */
     public static void generateCDX(ArchiveProfile archiveProfile, File archiveFileDirectory, File cdxFileDirectory)
             throws ArgumentNotValid {
+        generateCDX(archiveProfile, archiveFileDirectory, cdxFileDirectory, 1);
+    }
+
+    /**
+     * Applies createCDXRecord() to all ARC/WARC files in a directory, creating one CDX file per ARC/WARC file, as
+     * {@link #generateCDX(ArchiveProfile, File, File)}, but indexing up to the given number of files at once. The
+     * files are indexed independently, so the resulting CDX files do not depend on the number of threads.
+     *
+     * @param archiveProfile archive profile including filters, patterns, etc.
+     * @param archiveFileDirectory A directory with archive files to generate index for
+     * @param cdxFileDirectory A directory to generate CDX files in
+     * @param threads The maximum number of files to index at once.
+     * @throws ArgumentNotValid if any of directories are null or is not an existing directory, or if cdxFileDirectory
+     * is not writable, or if threads is not positive.
+     */
+    public static void generateCDX(ArchiveProfile archiveProfile, File archiveFileDirectory, File cdxFileDirectory,
+            int threads) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(archiveProfile, "ArchiveProfile archiveProfile");
         ArgumentNotValid.checkNotNull(archiveFileDirectory, "File archiveFileDirectory");
         ArgumentNotValid.checkNotNull(cdxFileDirectory, "File cdxFileDirectory");
+        ArgumentNotValid.checkPositive(threads, "int threads");
         if (!archiveFileDirectory.isDirectory() || !archiveFileDirectory.canRead()) {
             throw new ArgumentNotValid("The directory for arc files '" + archiveFileDirectory
                     + "' is not a readable directory");
@@ -96,8 +123,9 @@ public class CDXUtils {
             throw new ArgumentNotValid("The directory for cdx files '" + archiveFileDirectory
                     + "' is not a writable directory");
         }
-        Map<File, Exception> exceptions = new HashMap<File, Exception>();
+        Map<File, Exception> exceptions = new LinkedHashMap<File, Exception>();
         File[] filesToProcess = archiveFileDirectory.listFiles(archiveProfile.filename_filter);
+        Arrays.sort(filesToProcess);
         if (filesToProcess.length == 0) {
             log.warn("Found no related arcfiles to process in the archive dir '{}'.",
                     archiveFileDirectory.getAbsolutePath());
@@ -105,20 +133,17 @@ public class CDXUtils {
             log.debug("Found {} related arcfiles to process in the archive dir '{}'.", filesToProcess.length,
                     archiveFileDirectory.getAbsolutePath());
         }
-        for (File arcfile : filesToProcess) {
-            File cdxfile = new File(cdxFileDirectory, arcfile.getName() + FileUtils.CDX_EXTENSION);
-            try {
-                OutputStream cdxstream = null;
+        if (threads > 1 && filesToProcess.length > 1) {
+            generateCDXInParallel(filesToProcess, cdxFileDirectory, Math.min(threads, filesToProcess.length),
+                    exceptions);
+        } else {
+            for (File arcfile : filesToProcess) {
+                File cdxfile = getCDXFile(arcfile, cdxFileDirectory);
                 try {
-                    cdxstream = new FileOutputStream(cdxfile);
-                    writeCDXInfo(arcfile, cdxstream);
-                } finally {
-                    if (cdxstream != null) {
-                        cdxstream.close();
-                    }
+                    generateCDXFile(arcfile, cdxfile);
+                } catch (Exception e) {
+                    exceptions.put(cdxfile, e);
                 }
-            } catch (Exception e) {
-                exceptions.put(cdxfile, e);
             }
         }
         // Log any errors
@@ -135,4 +160,87 @@ public class CDXUtils {
         }
     }
 
+    /**
+     * Index the given archive files on a pool of threads. Exceptions are collected in the order of the files.
+     *
+     * @param filesToProcess The archive files to index.
+     * @param cdxFileDirectory A directory to generate CDX files in
+     * @param threads The number of threads to use.
+     * @param exceptions Accumulator for the exceptions, by CDX file.
+     */
+    private static void generateCDXInParallel(File[] filesToProcess, final File cdxFileDirectory, int threads,
+            Map<File, Exception> exceptions) {
+        log.debug("Indexing {} archive files on {} threads", filesToProcess.length, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new CDXThreadFactory());
+        try {
+            Map<File, Future<?>> futures = new LinkedHashMap<File, Future<?>>();
+            for (final File arcfile : filesToProcess) {
+                final File cdxfile = getCDXFile(arcfile, cdxFileDirectory);
+                futures.put(cdxfile, executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        generateCDXFile(arcfile, cdxfile);
+                        return null;
+                    }
+                }));
+            }
+            for (Map.Entry<File, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    exceptions.put(future.getKey(), e.getCause() instanceof Exception ? (Exception) e.getCause()
+                            : e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    exceptions.put(future.getKey(), e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the CDX file for an archive file.
+     *
+     * @param arcfile An archive file.
+     * @param cdxFileDirectory The directory of the CDX files.
+     * @return The CDX file, named as the archive file with ".cdx" added.
+     */
+    private static File getCDXFile(File arcfile, File cdxFileDirectory) {
+        return new File(cdxFileDirectory, arcfile.getName() + FileUtils.CDX_EXTENSION);
+    }
+
+    /**
+     * Write the CDX file for one archive file.
+     *
+     * @param arcfile An archive file.
+     * @param cdxfile The CDX file to write.
+     * @throws IOException If the CDX file cannot be written.
+     */
+    private static void generateCDXFile(File arcfile, File cdxfile) throws IOException {
+        OutputStream cdxstream = null;
+        try {
+            cdxstream = new FileOutputStream(cdxfile);
+            writeCDXInfo(arcfile, cdxstream);
+        } finally {
+            if (cdxstream != null) {
+                cdxstream.close();
+            }
+        }
+    }
+
+    /** Creates the daemon threads generating CDX files. */
+    private static class CDXThreadFactory implements ThreadFactory {
+        /** The number of threads created so far. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CDXUtils-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
 }
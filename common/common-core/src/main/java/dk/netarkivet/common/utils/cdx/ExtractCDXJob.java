@@ -143,6 +143,16 @@ public class ExtractCDXJob extends ARCBatchJob {
         printFields(fieldsread, os);
     }
 
+    /**
+     * Each file is indexed on its own, so files may be processed in parallel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * End of the batch job.
      *
@@ -0,0 +1,461 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * A memory mapped view of a sorted CDX file, which can look up all lines starting with a given prefix.
+ * <p>
+ * The file is mapped in chunks, so files larger than 2 GB are handled. When the file is opened, a sparse index is
+ * built holding the start of the first line in every block of <code>blockSize</code> bytes. A lookup bisects this
+ * index in memory and then scans forward from the start of a single block, so only a few pages of the file are touched
+ * per lookup. Lines are compared byte by byte without decoding them, and only the matching lines are turned into
+ * Strings.
+ * <p>
+ * The lines must be sorted in unsigned byte order, which is the order produced by the Unix sort with LANG=C (see
+ * {@link dk.netarkivet.common.utils.FileUtils#sortCDX(File, File)}). Lines are decoded as UTF-8, which includes the
+ * plain ASCII normally found in CDX files.
+ * <p>
+ * Instances are immutable once constructed and may be shared between threads.
+ */
+public class MappedCDXFile implements Closeable {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(MappedCDXFile.class);
+
+    /** The default size of the blocks in the sparse index. */
+    public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+
+    /** The largest chunk of the file we map at a time. Must be a power of two. */
+    static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    /** The maximum number of bytes of a line kept in the sparse index. */
+    private static final int MAX_KEY_LENGTH = 1024;
+
+    /** The file we read from. */
+    private final File file;
+    /** The length of the file when it was mapped. */
+    private final long length;
+    /** The modification time of the file when it was mapped. */
+    private final long lastModified;
+    /** The channel the chunks were mapped from. */
+    private final FileChannel channel;
+    /** The mapped chunks of the file, each of chunkSize bytes except the last. */
+    private final MappedByteBuffer[] chunks;
+    /** log2 of the chunk size, used to find the chunk of an offset. */
+    private final int chunkShift;
+    /** The chunk size minus one, used to find the position of an offset in its chunk. */
+    private final long chunkMask;
+    /** The offset of the first line starting in each block, in increasing order. */
+    private final long[] blockOffsets;
+    /** The first bytes of the first line starting in each block. */
+    private final byte[][] blockKeys;
+    /** Whether the corresponding entry in blockKeys is only a part of its line. */
+    private final boolean[] blockKeyTruncated;
+
+    /**
+     * Map the given CDX file and build its sparse index.
+     *
+     * @param file A sorted CDX file.
+     * @param blockSize The number of bytes between the entries of the sparse index.
+     * @throws ArgumentNotValid If file is null or blockSize is not positive.
+     * @throws IOFailure If the file cannot be read.
+     */
+    public MappedCDXFile(File file, int blockSize) {
+        this(file, blockSize, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Map the given CDX file in chunks of the given size and build its sparse index.
+     *
+     * @param file A sorted CDX file.
+     * @param blockSize The number of bytes between the entries of the sparse index.
+     * @param chunkSize The size of the mapped chunks. Must be a power of two.
+     * @throws ArgumentNotValid If file is null, blockSize is not positive or chunkSize is not a power of two.
+     * @throws IOFailure If the file cannot be read.
+     */
+    MappedCDXFile(File file, int blockSize, int chunkSize) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkPositive(blockSize, "int blockSize");
+        ArgumentNotValid.checkTrue(chunkSize > 0 && Integer.bitCount(chunkSize) == 1, "chunkSize must be a power of two");
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        this.chunkMask = chunkSize - 1;
+        try {
+            channel = new RandomAccessFile(file, "r").getChannel();
+        } catch (IOException e) {
+            String message = "IOException opening file '" + file + "'";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+        try {
+            length = channel.size();
+            int numberOfChunks = (int) ((length + chunkMask) >>> chunkShift);
+            chunks = new MappedByteBuffer[numberOfChunks];
+            for (int i = 0; i < numberOfChunks; i++) {
+                long start = (long) i << chunkShift;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length - start));
+            }
+        } catch (IOException e) {
+            closeChannel();
+            String message = "IOException mapping file '" + file + "'";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+
+        List<Long> offsets = new ArrayList<Long>();
+        List<byte[]> keys = new ArrayList<byte[]>();
+        List<Boolean> truncated = new ArrayList<Boolean>();
+        long blockStart = 0;
+        while (blockStart < length) {
+            long lineStart = findLineStart(blockStart);
+            if (lineStart >= length) {
+                break;
+            }
+            long lineEnd = findContentEnd(lineStart, findLineEnd(lineStart));
+            int keyLength = (int) Math.min(lineEnd - lineStart, MAX_KEY_LENGTH);
+            offsets.add(lineStart);
+            keys.add(readBytes(lineStart, lineStart + keyLength));
+            truncated.add(keyLength < lineEnd - lineStart);
+            // Continue in the block following the one this line starts in, so long lines are only indexed once.
+            blockStart = (lineStart / blockSize + 1) * blockSize;
+        }
+        blockOffsets = new long[offsets.size()];
+        blockKeys = new byte[offsets.size()][];
+        blockKeyTruncated = new boolean[offsets.size()];
+        for (int i = 0; i < blockOffsets.length; i++) {
+            blockOffsets[i] = offsets.get(i);
+            blockKeys[i] = keys.get(i);
+            blockKeyTruncated[i] = truncated.get(i);
+        }
+        log.debug("Mapped CDX file '{}' of {} bytes with {} index entries", file, length, blockOffsets.length);
+    }
+
+    /**
+     * Return the lines in the file that start with the given prefix, in the order they occur in the file. The lines are
+     * read lazily as the iterator advances, and the returned Iterable can be iterated more than once.
+     * <p>
+     * If no matches are found, an empty Iterable is returned.
+     *
+     * @param prefix The line prefix to search for.
+     * @return An Iterable of the lines starting with the prefix.
+     * @throws ArgumentNotValid If prefix is null.
+     */
+    public Iterable<String> getLinesStartingWith(String prefix) {
+        ArgumentNotValid.checkNotNull(prefix, "String prefix");
+        final byte[] pattern = prefix.getBytes(StandardCharsets.UTF_8);
+        final long firstMatching = findFirstMatchingLine(pattern);
+        if (firstMatching == -1) {
+            return Collections.emptyList();
+        }
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new MatchingLinesIterator(firstMatching, pattern);
+            }
+        };
+    }
+
+    /**
+     * Find the offset of the first line starting with the given bytes.
+     *
+     * @param pattern The bytes to look for.
+     * @return The offset of the first matching line, or -1 if there is none.
+     */
+    private long findFirstMatchingLine(byte[] pattern) {
+        // Bisect for the last block whose first line is known to sort before the pattern. Any matching lines start
+        // after the beginning of that block.
+        int low = 0;
+        int high = blockOffsets.length - 1;
+        int lastSmaller = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(mid, pattern) < 0) {
+                lastSmaller = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long pos = lastSmaller == -1 ? 0 : blockOffsets[lastSmaller];
+        while (pos < length) {
+            long lineEnd = findLineEnd(pos);
+            int cmp = compare(pos, findContentEnd(pos, lineEnd), pattern);
+            if (cmp == 0) {
+                return pos;
+            } else if (cmp > 0) {
+                return -1;
+            }
+            pos = lineEnd + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Compare a line in the file with a pattern, looking only at the first pattern.length bytes of the line. This
+     * orders lines in the same way as BinSearch does, only on bytes rather than chars.
+     *
+     * @param start The offset of the first byte in the line.
+     * @param end The offset just after the last byte in the line.
+     * @param pattern The bytes to compare with.
+     * @return 0 if the line starts with the pattern, otherwise a negative or positive value if the line sorts before or
+     * after the pattern.
+     */
+    private int compare(long start, long end, byte[] pattern) {
+        long lineLength = end - start;
+        int n = (int) Math.min(lineLength, pattern.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (byteAt(start + i) & 0xff) - (pattern[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return lineLength < pattern.length ? -1 : 0;
+    }
+
+    /**
+     * Compare the first line of a block with a pattern, in the same way as {@link #compare(long, long, byte[])}. If the
+     * key in the index was too short to decide, 0 is returned, since the line is then not known to sort before the
+     * pattern.
+     *
+     * @param block The index of the block.
+     * @param pattern The bytes to compare with.
+     * @return 0 if the line may start with the pattern, otherwise a negative or positive value if the line sorts before
+     * or after the pattern.
+     */
+    private int compareKey(int block, byte[] pattern) {
+        byte[] key = blockKeys[block];
+        int n = Math.min(key.length, pattern.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (key[i] & 0xff) - (pattern[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return key.length < pattern.length && !blockKeyTruncated[block] ? -1 : 0;
+    }
+
+    /**
+     * Read a single byte from the mapped file.
+     *
+     * @param pos The offset of the byte.
+     * @return The byte at that offset.
+     */
+    private byte byteAt(long pos) {
+        return chunks[(int) (pos >>> chunkShift)].get((int) (pos & chunkMask));
+    }
+
+    /**
+     * Copy a range of the mapped file into a new array.
+     *
+     * @param start The offset of the first byte to copy.
+     * @param end The offset just after the last byte to copy.
+     * @return The bytes in the range.
+     */
+    private byte[] readBytes(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        int chunk = (int) (start >>> chunkShift);
+        if (chunk == (int) ((end - 1) >>> chunkShift)) {
+            chunks[chunk].get((int) (start & chunkMask), bytes);
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = byteAt(start + i);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Find the first line starting at or after the given offset.
+     *
+     * @param pos An offset in the file.
+     * @return The offset where the line starts, or the length of the file if there is no such line.
+     */
+    private long findLineStart(long pos) {
+        if (pos == 0) {
+            return 0;
+        }
+        return Math.min(findLineEnd(pos - 1) + 1, length);
+    }
+
+    /**
+     * Find the newline ending the line that contains the given offset.
+     *
+     * @param pos An offset in the file.
+     * @return The offset of the newline, or the length of the file if the last line has no newline.
+     */
+    private long findLineEnd(long pos) {
+        while (pos < length && byteAt(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Find the end of the contents of a line, excluding a carriage return before the newline, as RandomAccessFile
+     * does when reading lines.
+     *
+     * @param start The offset where the line starts.
+     * @param lineEnd The offset of the newline ending the line.
+     * @return The offset just after the last byte of the contents of the line.
+     */
+    private long findContentEnd(long start, long lineEnd) {
+        if (lineEnd > start && byteAt(lineEnd - 1) == '\r') {
+            return lineEnd - 1;
+        }
+        return lineEnd;
+    }
+
+    /**
+     * Check whether the file has changed since it was mapped, in which case this instance should be discarded.
+     *
+     * @return true if the length or modification time of the file has changed.
+     */
+    public boolean isStale() {
+        return file.length() != length || file.lastModified() != lastModified;
+    }
+
+    /**
+     * @return The file this instance reads from.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of entries in the sparse index.
+     */
+    int getIndexSize() {
+        return blockOffsets.length;
+    }
+
+    /**
+     * Close the underlying file channel. The mapped chunks stay valid until they are garbage collected, so iterators
+     * that are already in use can safely be read to the end.
+     */
+    @Override
+    public void close() {
+        closeChannel();
+    }
+
+    /** Close the underlying channel, logging any errors. */
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("IOException closing file '{}'", file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedCDXFile(" + file + ", " + length + " bytes, " + blockOffsets.length + " index entries)";
+    }
+
+    /**
+     * An iterator over consecutive lines that start with a given pattern. It stops (not skips) at the first line that
+     * does not match.
+     */
+    private class MatchingLinesIterator implements Iterator<String> {
+        /** The bytes all returned lines start with. */
+        private final byte[] pattern;
+        /** The offset of the next line to check. */
+        private long pos;
+        /** The next line to return, if already read. */
+        private String nextLine;
+        /** Whether a non-matching line or the end of the file has been reached. */
+        private boolean finished;
+
+        /**
+         * Create an iterator starting with a line that is known to match.
+         *
+         * @param start The offset of the first matching line.
+         * @param pattern The bytes all returned lines start with.
+         */
+        MatchingLinesIterator(long start, byte[] pattern) {
+            this.pos = start;
+            this.pattern = Arrays.copyOf(pattern, pattern.length);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextLine != null) {
+                return true;
+            }
+            if (finished || pos >= length) {
+                finished = true;
+                return false;
+            }
+            long lineEnd = findLineEnd(pos);
+            long contentEnd = findContentEnd(pos, lineEnd);
+            if (compare(pos, contentEnd, pattern) != 0) {
+                finished = true;
+                return false;
+            }
+            nextLine = new String(readBytes(pos, contentEnd), StandardCharsets.UTF_8);
+            pos = lineEnd + 1;
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = nextLine;
+            nextLine = null;
+            return line;
+        }
+
+        /**
+         * This iterator doesn't support remove.
+         *
+         * @throws UnsupportedOperationException
+         */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -184,6 +184,16 @@ public class WARCExtractCDXJob extends WARCBatchJob {
         printFields(fieldsread, os);
     }
 
+    /**
+     * Each file is indexed on its own, so files may be processed in parallel.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * End of the batch job.
      *
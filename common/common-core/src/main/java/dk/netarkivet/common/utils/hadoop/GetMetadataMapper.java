@@ -6,6 +6,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
@@ -32,12 +37,24 @@ public class GetMetadataMapper extends Mapper<LongWritable, Text, NullWritable,
 
     public static final String URL_PATTERN = "url.pattern";
     public static final String MIME_PATTERN = "mime.pattern";
+    /**
+     * The IDs of the harvest jobs to extract metadata for, comma separated. If set, metadata for several jobs is
+     * extracted in one run, and every output line is prefixed with the ID of the job whose metadata file it came from,
+     * and a tab.
+     */
+    public static final String JOB_IDS = "metadata.job.ids";
+    /** The regular expression suffix of metadata file names, used for finding the job IDs of a file. */
+    public static final String FILENAME_SUFFIX_PATTERN = "metadata.filename.suffix.pattern";
     /** A regular expression object that matches everything. */
     private final Pattern MATCH_ALL_PATTERN = Pattern.compile(".*");
     /** The pattern for matching the urls. */
     private Pattern urlMatcher;
     /** The pattern for the mimetype matcher. */
     private Pattern mimeMatcher;
+    /** The IDs of the jobs to extract metadata for, or null if the output is not keyed by job ID. */
+    private Set<String> jobIDs;
+    /** The regular expression suffix of metadata file names. */
+    private String filenameSuffix;
 
     /**
      * Setup method that is provided by default for a Hadoop Mapper.
@@ -54,6 +71,12 @@ public class GetMetadataMapper extends Mapper<LongWritable, Text, NullWritable,
         urlMatcher = conf.getPattern(URL_PATTERN, MATCH_ALL_PATTERN);
         mimeMatcher = conf.getPattern(MIME_PATTERN, MATCH_ALL_PATTERN);
         log.info("Setting up mapper for urls matching {} and mime-types matching {}.", urlMatcher, mimeMatcher);
+        String ids = conf.get(JOB_IDS);
+        if (ids != null) {
+            jobIDs = new HashSet<>(Arrays.asList(ids.split(",")));
+            filenameSuffix = conf.get(FILENAME_SUFFIX_PATTERN, "");
+            log.info("Output is keyed by the IDs of {} jobs.", jobIDs.size());
+        }
     }
 
     /**
@@ -73,6 +96,14 @@ public class GetMetadataMapper extends Mapper<LongWritable, Text, NullWritable,
                 return;
             }
             Path path = new Path(filePath.toString());
+            List<String> keys = null;
+            if (jobIDs != null) {
+                keys = getJobIDs(path.getName());
+                if (keys.isEmpty()) {
+                    log.warn("File {} does not belong to any of the requested jobs. Skipping it.", path);
+                    return;
+                }
+            }
             path = HadoopFileUtils.replaceWithCachedPathIfEnabled(context, path);
 
             //TEST this but this fs should work for both local and hdfs files
@@ -102,7 +133,7 @@ public class GetMetadataMapper extends Mapper<LongWritable, Text, NullWritable,
                                     && mimeMatcher.matcher(header.getMimetype()).matches();
                             if (recordHeaderMatchesPatterns) {
                                 log.info("Mapper accepting header so writing to output.");
-                                writeRecordMetadataLinesToContext(record, path, context);
+                                writeRecordMetadataLinesToContext(record, path, keys, context);
                             }
                         }
                         log.info("Finished with archive reader");
@@ -125,19 +156,44 @@ public class GetMetadataMapper extends Mapper<LongWritable, Text, NullWritable,
         }
     }
 
+    /**
+     * Find the IDs of the requested jobs that a metadata file belongs to. The file belongs to a job if its name
+     * matches the pattern used for selecting the metadata files of that job alone: (.*-)?ID(-.*)?SUFFIX.
+     *
+     * @param filename The name of the metadata file.
+     * @return The IDs of the jobs, usually just one.
+     */
+    private List<String> getJobIDs(String filename) {
+        List<String> keys = new ArrayList<>(1);
+        for (String token : filename.split("-")) {
+            if (jobIDs.contains(token) && !keys.contains(token)
+                    && filename.matches("(.*-)?" + token + "(-.*)?" + filenameSuffix)) {
+                keys.add(token);
+            }
+        }
+        return keys;
+    }
+
     /**
      * Reads a record line by line and writes the metadata lines to output
      *
      * @param record The current record.
      * @param path Path for the input file the job is run on.
+     * @param keys The job IDs to prefix each line with, or null if the output is not keyed.
      * @param context The mapping context.
      */
-    private void writeRecordMetadataLinesToContext(ArchiveRecordBase record, Path path, Context context)
-            throws IOException {
+    private void writeRecordMetadataLinesToContext(ArchiveRecordBase record, Path path, List<String> keys,
+            Context context) throws IOException {
         int lineCount = 0;
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(record.getInputStream()))) {
             for (String metadataLine = reader.readLine(); metadataLine != null; metadataLine = reader.readLine()) {
-                context.write(NullWritable.get(), new Text(metadataLine));
+                if (keys == null) {
+                    context.write(NullWritable.get(), new Text(metadataLine));
+                } else {
+                    for (String key : keys) {
+                        context.write(NullWritable.get(), new Text(key + "\t" + metadataLine));
+                    }
+                }
                 lineCount++;
             }
             log.info("Mapper written {} lines to output.", lineCount);
@@ -50,6 +50,19 @@ public class CGIRequestBuilder {
         return buildRequest(uri);
     }
 
+    /**
+     * Adds the configurations to communicate with the warc record service (WRS) to the request builder
+     * and builds a request for a given number of bytes.
+     * @param offset The offset in the warc record to read from.
+     * @param length The number of bytes to read.
+     * @return A request to execute against WRS.
+     */
+    public HttpUriRequest buildWRSRequest(long offset, long length) {
+        setWRSTimeoutConfigurations();
+        requestBuilder.addHeader("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        return buildRequest(uri);
+    }
+
     /**
      * Adds the configurations to communicate with the file resolver service to the request builder
      * and builds the request.
@@ -0,0 +1,272 @@
+package dk.netarkivet.common.utils.service;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.SettingsFactory;
+
+/**
+ * A FileResolver that caches the results of another FileResolver, so files that are resolved again and again, e.g.
+ * when showing the files of a job in the GUI, are only looked up once in a while.
+ * <p>
+ * Both filenames and patterns are cached, for {@link CommonSettings#FILE_RESOLVER_CACHE_TTL} seconds if they were
+ * resolved to one or more files, and for {@link CommonSettings#FILE_RESOLVER_CACHE_NEGATIVE_TTL} seconds if they were
+ * not. At most {@link CommonSettings#FILE_RESOLVER_CACHE_MAX_ENTRIES} are cached, dropping the least recently used
+ * first. Threads looking up a filename or pattern that another thread is already looking up wait for its result
+ * instead of looking it up again.
+ */
+public class CachingFileResolver implements FileResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingFileResolver.class);
+
+    /** The instance shared in this JVM. */
+    private static CachingFileResolver instance;
+
+    /** The resolver whose results are cached. */
+    private final FileResolver fileResolver;
+
+    /** The time in milliseconds that results with files are cached. */
+    private final long ttlMillis;
+
+    /** The time in milliseconds that results without files are cached. */
+    private final long negativeTtlMillis;
+
+    /** The cached results by filename or pattern, in the order they were last used. Guarded by itself. */
+    private final LinkedHashMap<String, Entry> cache;
+
+    /** The lookups in progress by filename or pattern. */
+    private final ConcurrentMap<String, CompletableFuture<List<Path>>> lookupsInProgress = new ConcurrentHashMap<>();
+
+    /**
+     * Create a cache of the results of a FileResolver.
+     * @param fileResolver The resolver whose results are cached.
+     * @param maxEntries The maximum number of filenames and patterns cached.
+     * @param ttlMillis The time in milliseconds that results with files are cached.
+     * @param negativeTtlMillis The time in milliseconds that results without files are cached.
+     */
+    public CachingFileResolver(FileResolver fileResolver, final int maxEntries, long ttlMillis,
+            long negativeTtlMillis) {
+        ArgumentNotValid.checkNotNull(fileResolver, "FileResolver fileResolver");
+        ArgumentNotValid.checkPositive(maxEntries, "int maxEntries");
+        ArgumentNotValid.checkNotNegative(ttlMillis, "long ttlMillis");
+        ArgumentNotValid.checkNotNegative(negativeTtlMillis, "long negativeTtlMillis");
+        this.fileResolver = fileResolver;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the cache shared in this JVM of the results of the FileResolver given by
+     * {@link CommonSettings#FILE_RESOLVER_CLASS}.
+     * @return The shared CachingFileResolver.
+     */
+    public static synchronized CachingFileResolver getInstance() {
+        if (instance == null) {
+            FileResolver fileResolver = SettingsFactory.getInstance(CommonSettings.FILE_RESOLVER_CLASS);
+            instance = new CachingFileResolver(fileResolver,
+                    Settings.getInt(CommonSettings.FILE_RESOLVER_CACHE_MAX_ENTRIES),
+                    Settings.getLong(CommonSettings.FILE_RESOLVER_CACHE_TTL) * 1000L,
+                    Settings.getLong(CommonSettings.FILE_RESOLVER_CACHE_NEGATIVE_TTL) * 1000L);
+            log.info("Caching the results of FileResolver {}", fileResolver.getClass().getName());
+        }
+        return instance;
+    }
+
+    @Override public List<Path> getPaths(Pattern filepattern) {
+        ArgumentNotValid.checkNotNull(filepattern, "Pattern filepattern");
+        return lookup(patternKey(filepattern), () -> fileResolver.getPaths(filepattern));
+    }
+
+    @Override public Path getPath(String filename) {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        List<Path> paths = lookup(filenameKey(filename), () -> toList(fileResolver.getPath(filename)));
+        return paths.isEmpty() ? null : paths.get(0);
+    }
+
+    /**
+     * Resolve a number of filenames, passing the ones that are neither cached nor being looked up by other threads to
+     * the cached FileResolver in a single call.
+     * @param filenames The filenames to resolve.
+     * @return A map from each of the filenames to its Path, or to null if the file is not found.
+     */
+    @Override public Map<String, Path> getPaths(Collection<String> filenames) {
+        ArgumentNotValid.checkNotNull(filenames, "Collection<String> filenames");
+        Map<String, CompletableFuture<List<Path>>> lookups = new LinkedHashMap<>();
+        Map<String, CompletableFuture<List<Path>>> ownLookups = new LinkedHashMap<>();
+        for (String filename : filenames) {
+            if (lookups.containsKey(filename)) {
+                continue;
+            }
+            List<Path> cached = getCached(filenameKey(filename));
+            if (cached != null) {
+                lookups.put(filename, CompletableFuture.completedFuture(cached));
+                continue;
+            }
+            CompletableFuture<List<Path>> lookup = new CompletableFuture<>();
+            CompletableFuture<List<Path>> otherLookup = lookupsInProgress.putIfAbsent(filenameKey(filename), lookup);
+            if (otherLookup != null) {
+                lookups.put(filename, otherLookup);
+            } else {
+                lookups.put(filename, lookup);
+                ownLookups.put(filename, lookup);
+            }
+        }
+        if (!ownLookups.isEmpty()) {
+            log.debug("Resolving {} of {} filenames not found in the cache", ownLookups.size(), filenames.size());
+            try {
+                Map<String, Path> resolved = fileResolver.getPaths(new ArrayList<>(ownLookups.keySet()));
+                for (Map.Entry<String, CompletableFuture<List<Path>>> lookup : ownLookups.entrySet()) {
+                    List<Path> paths = toList(resolved.get(lookup.getKey()));
+                    put(filenameKey(lookup.getKey()), paths);
+                    lookup.getValue().complete(paths);
+                }
+            } catch (RuntimeException e) {
+                for (CompletableFuture<List<Path>> lookup : ownLookups.values()) {
+                    lookup.completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                for (Map.Entry<String, CompletableFuture<List<Path>>> lookup : ownLookups.entrySet()) {
+                    lookupsInProgress.remove(filenameKey(lookup.getKey()), lookup.getValue());
+                }
+            }
+        }
+        Map<String, Path> result = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<List<Path>>> lookup : lookups.entrySet()) {
+            List<Path> paths = join(lookup.getValue());
+            result.put(lookup.getKey(), paths.isEmpty() ? null : paths.get(0));
+        }
+        return result;
+    }
+
+    /**
+     * Get the result of a lookup from the cache, or else from a lookup in progress in another thread, or else by
+     * doing the lookup and caching its result.
+     * @param key The key of the lookup in the cache.
+     * @param resolver The lookup to do if necessary.
+     * @return The paths found.
+     */
+    private List<Path> lookup(String key, Supplier<List<Path>> resolver) {
+        List<Path> cached = getCached(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<List<Path>> lookup = new CompletableFuture<>();
+        CompletableFuture<List<Path>> otherLookup = lookupsInProgress.putIfAbsent(key, lookup);
+        if (otherLookup != null) {
+            log.debug("Waiting for another thread to resolve {}", key);
+            return join(otherLookup);
+        }
+        try {
+            List<Path> paths = Collections.unmodifiableList(new ArrayList<>(resolver.get()));
+            put(key, paths);
+            lookup.complete(paths);
+            return paths;
+        } catch (RuntimeException e) {
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            lookupsInProgress.remove(key, lookup);
+        }
+    }
+
+    /**
+     * @param key The key of a lookup in the cache.
+     * @return The cached paths, or null if the lookup is not cached or has expired.
+     */
+    private List<Path> getCached(String key) {
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expires < System.currentTimeMillis()) {
+                cache.remove(key);
+                return null;
+            }
+            return entry.paths;
+        }
+    }
+
+    /**
+     * Cache the result of a lookup.
+     * @param key The key of the lookup in the cache.
+     * @param paths The paths found.
+     */
+    private void put(String key, List<Path> paths) {
+        long expires = System.currentTimeMillis() + (paths.isEmpty() ? negativeTtlMillis : ttlMillis);
+        synchronized (cache) {
+            cache.put(key, new Entry(paths, expires));
+        }
+    }
+
+    /** Remove all cached results. */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Wait for a lookup done by another thread, failing like it did.
+     * @param lookup The lookup.
+     * @return The paths found.
+     */
+    private static List<Path> join(CompletableFuture<List<Path>> lookup) {
+        try {
+            return lookup.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static List<Path> toList(Path path) {
+        return path == null ? Collections.<Path>emptyList() : Collections.singletonList(path);
+    }
+
+    private static String filenameKey(String filename) {
+        return "filename:" + filename;
+    }
+
+    private static String patternKey(Pattern filepattern) {
+        return "pattern:" + filepattern.flags() + ":" + filepattern.pattern();
+    }
+
+    /** A cached result. */
+    private static class Entry {
+        /** The paths found. */
+        private final List<Path> paths;
+        /** The time in milliseconds since the epoch when the entry expires. */
+        private final long expires;
+
+        Entry(List<Path> paths, long expires) {
+            this.paths = paths;
+            this.expires = expires;
+        }
+    }
+}
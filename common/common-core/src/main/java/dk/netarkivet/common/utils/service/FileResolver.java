@@ -1,7 +1,10 @@
 package dk.netarkivet.common.utils.service;
 
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 public interface FileResolver {
@@ -21,4 +24,18 @@ public interface FileResolver {
      */
     Path getPath(String filename);
 
+    /**
+     * Resolve a number of filenames at once, as {@link #getPath(String)} does for a single filename. By default the
+     * filenames are resolved one at a time; implementations should override this if they can do better.
+     * @param filenames The filenames to resolve.
+     * @return A map from each of the filenames to its Path, or to null if the file is not found.
+     */
+    default Map<String, Path> getPaths(Collection<String> filenames) {
+        Map<String, Path> result = new LinkedHashMap<>();
+        for (String filename : filenames) {
+            result.put(filename, getPath(filename));
+        }
+        return result;
+    }
+
 }
@@ -12,7 +12,15 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -38,6 +46,9 @@ public class FileResolverRESTClient implements FileResolver {
     private static final Logger log = LoggerFactory.getLogger(FileResolverRESTClient.class);
     private static final HttpsClientBuilder clientBuilder;
 
+    /** The threads resolving filenames when many filenames are resolved at once, created when first needed. */
+    private static ExecutorService batchExecutor;
+
     static {
         String privateKeyFile = Settings.get(CommonSettings.FILE_RESOLVER_KEYFILE);
         log.info("Building FileResolverRESTClient with private key file: {}", privateKeyFile);
@@ -80,7 +91,9 @@ public class FileResolverRESTClient implements FileResolver {
                     log.debug("FileResolver call on {} gave empty result, retrying.", filepattern);
                     Thread.sleep(retryWaitSeconds*1000L);
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    log.debug("Interrupted while waiting to retry FileResolver call on {}.", filepattern);
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             } else {
                 log.debug("FileResolver call on {} gave non-empty result with {} match(es).", filepattern, results.size());
@@ -133,4 +146,45 @@ public class FileResolverRESTClient implements FileResolver {
             return null;
         }
     }
+
+    /**
+     * Resolve a number of filenames by calling the service for up to
+     * {@link CommonSettings#FILE_RESOLVER_BATCH_THREADS} of them at the same time, as the service resolves one exact
+     * filename per call.
+     * @param filenames The filenames to resolve.
+     * @return A map from each of the filenames to the first Path to a matching file, or to null if no such file is
+     * found.
+     */
+    @Override public Map<String, Path> getPaths(Collection<String> filenames) {
+        Map<String, CompletableFuture<Path>> lookups = new LinkedHashMap<>();
+        ExecutorService executor = getBatchExecutor();
+        for (String filename : filenames) {
+            lookups.put(filename, CompletableFuture.supplyAsync(() -> getPath(filename), executor));
+        }
+        Map<String, Path> result = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<Path>> lookup : lookups.entrySet()) {
+            try {
+                result.put(lookup.getKey(), lookup.getValue().join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    private static synchronized ExecutorService getBatchExecutor() {
+        if (batchExecutor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            batchExecutor = Executors.newFixedThreadPool(Settings.getInt(CommonSettings.FILE_RESOLVER_BATCH_THREADS),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "FileResolver-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return batchExecutor;
+    }
 }
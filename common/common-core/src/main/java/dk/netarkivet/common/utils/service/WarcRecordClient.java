@@ -1,17 +1,34 @@
 package dk.netarkivet.common.utils.service;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.archive.format.warc.WARCConstants;
 import org.archive.io.ArchiveReader;
 import org.archive.io.ArchiveReaderFactory;
 import org.archive.io.ArchiveRecord;
+import org.archive.io.RepositionableInputStream;
+import org.archive.io.arc.ARCRecord;
+import org.archive.io.warc.WARCReaderFactory;
+import org.archive.io.warc.WARCRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,15 +38,44 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.HttpsClientBuilder;
 import dk.netarkivet.common.utils.Settings;
 
+/**
+ * A client for the Warc Record Service, which serves the records of the archive files from a given offset.
+ * <p>
+ * All instances share one HTTPS client with pooled connections, up to {@link CommonSettings#MAX_CONNECTIONS_PER_ROUTE}
+ * at a time. Records of uncompressed WARC files are requested with a bounded range: first the first 64 KB, and if
+ * the record is longer, the exact length given by its header. These responses are read to the end, so their
+ * connections are returned to the pool and reused. For ARC files and compressed files the length of the record in the
+ * file is not known, so the rest of the file is requested and the connection is closed after the record.
+ * <p>
+ * Records can either be fetched whole as BitarchiveRecords, or as a stream of their payload with
+ * {@link #getRecordStream(String, long)}, which does not keep large records in memory or in temporary files.
+ */
 public class WarcRecordClient {
     private static final Logger log = LoggerFactory.getLogger(WarcRecordClient.class);
     private static final HttpsClientBuilder clientBuilder;
+
+    /** The client shared by all instances, using the pooled connections of the clientBuilder. */
+    private static final CloseableHttpClient httpClient;
+
+    /**
+     * Records with payloads up to this number of bytes are read at once, so their connection is released early. This
+     * is also the number of bytes first requested of a record in an uncompressed WARC file.
+     */
+    private static final int SMALL_RECORD_SIZE = 64 * 1024;
+
+    /** The number of bytes ending a WARC record after its content block, two CRLFs. */
+    private static final int WARC_RECORD_END_LENGTH = 4;
+
+    /** The threads fetching records when several records are fetched at once, created when first needed. */
+    private static ExecutorService fetchExecutor;
+
     private final URI baseUri;
     private long offset;
 
     static {
         String privateKeyFile = Settings.get(CommonSettings.WRS_KEYFILE);
         clientBuilder = new HttpsClientBuilder(privateKeyFile);
+        httpClient = clientBuilder.getHttpsClient();
     }
 
     public WarcRecordClient(URI baseUri) {
@@ -61,6 +107,95 @@ public class WarcRecordClient {
         return bitarchiveRecord;
     }
 
+    /**
+     * Retrieves a number of BitarchiveRecords from the same file. The records are fetched concurrently, using up to
+     * {@link CommonSettings#MAX_CONNECTIONS_PER_ROUTE} connections.
+     *
+     * @param arcfileName Name of the arcfile/warcfile to retrieve records from.
+     * @param offsets The offsets of the records in the file.
+     * @return A map from each offset to its record, or to null if the record could not be retrieved.
+     */
+    public Map<Long, BitarchiveRecord> getBitarchiveRecords(String arcfileName, Collection<Long> offsets) {
+        ArgumentNotValid.checkNotNullOrEmpty(arcfileName, "arcfile");
+        ArgumentNotValid.checkNotNull(offsets, "Collection<Long> offsets");
+        Map<Long, CompletableFuture<BitarchiveRecord>> fetches = new LinkedHashMap<>();
+        ExecutorService executor = getFetchExecutor();
+        for (Long index : offsets) {
+            if (!fetches.containsKey(index)) {
+                fetches.put(index, CompletableFuture.supplyAsync(() -> getBitarchiveRecord(arcfileName, index),
+                        executor));
+            }
+        }
+        Map<Long, BitarchiveRecord> records = new LinkedHashMap<>();
+        for (Map.Entry<Long, CompletableFuture<BitarchiveRecord>> fetch : fetches.entrySet()) {
+            records.put(fetch.getKey(), fetch.getValue().join());
+        }
+        return records;
+    }
+
+    /**
+     * Retrieves the payload of a single record from the repository from a given file and offset, as
+     * {@link BitarchiveRecord#getData()} would give it. Small records are read at once, while larger records are
+     * streamed from the service as they are read. The stream must be closed to release its connection. If the
+     * operation fails for any reason, this method returns null.
+     *
+     * @param arcfileName Name of the arcfile/warcfile to retrieve.
+     * @param index offset to fetch specific record from warc or arc file
+     * @return The payload of the record, or null.
+     */
+    public InputStream getRecordStream(String arcfileName, long index) {
+        OpenRecord openRecord = null;
+        try {
+            ArgumentNotValid.checkNotNullOrEmpty(arcfileName, "arcfile");
+            ArgumentNotValid.checkNotNegative(index, "index");
+            log.debug("Requesting stream of record '{}:{}'", arcfileName, index);
+            openRecord = openRecord(new URI(this.getBaseUri().toString() + "/" + arcfileName), index);
+            if (openRecord == null) {
+                return null;
+            }
+            if (openRecord.getPayloadLength() <= SMALL_RECORD_SIZE) {
+                byte[] payload = IOUtils.toByteArray(openRecord.record);
+                openRecord.close();
+                return new ByteArrayInputStream(payload);
+            }
+            final OpenRecord streamedRecord = openRecord;
+            return new FilterInputStream(streamedRecord.record) {
+                /** Whether the payload has been read to the end, so only the end of the record is left. */
+                private boolean atEnd;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    atEnd = (b == -1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    atEnd = (read == -1);
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (atEnd) {
+                        streamedRecord.close();
+                    } else {
+                        // Do not download the rest of the payload just to reuse the connection.
+                        streamedRecord.discard();
+                    }
+                }
+            };
+        } catch (Exception e) {
+            log.error("Failed to retrieve record at offset {} from file {}.", index, arcfileName, e);
+            if (openRecord != null) {
+                openRecord.closeQuietly();
+            }
+            return null;
+        }
+    }
+
     /**
      * Uses WarcRecordClient to call ApacheHttpClient
      *
@@ -72,36 +207,188 @@ public class WarcRecordClient {
      * @throws UnsupportedOperationException is used if method is not implemented
      */
     private BitarchiveRecord fetchBitarchiveRecord(URI uri, long offset) throws Exception {
+        OpenRecord openRecord = openRecord(uri, offset);
+        if (openRecord == null) {
+            return null;
+        }
+        BitarchiveRecord reply;
+        try {
+            reply = new BitarchiveRecord(openRecord.record, openRecord.fileName);
+        } catch (RuntimeException e) {
+            openRecord.closeQuietly();
+            throw e;
+        }
+        openRecord.close();
+        log.debug("reply: " + reply.toString());
+        return reply;
+    }
+
+    /**
+     * Request a record from the service and read its header. Records of uncompressed WARC files are requested with a
+     * bounded range, so the response ends with the record.
+     *
+     * @param uri    Uniform Resource Identifier including base uri and name of file
+     * @param offset offset of the record in the file
+     * @return The record, positioned at the start of its payload, or null if the service did not return it.
+     * @throws IOException if the request or reading the record header fails
+     */
+    private OpenRecord openRecord(URI uri, long offset) throws IOException {
         String fileName = Paths.get(uri.getPath()).getFileName().toString();
         log.debug("fileName: " + fileName);
+        if (!fileName.endsWith(".warc")) {
+            return openRecord(uri, fileName, offset, -1);
+        }
+        OpenRecord openRecord = openRecord(uri, fileName, offset, SMALL_RECORD_SIZE);
+        if (openRecord == null || !openRecord.bounded || openRecord.getWarcRecordLength() <= SMALL_RECORD_SIZE) {
+            return openRecord;
+        }
+        // The record is longer than the first request, so request all of it now its length is known.
+        long recordLength = openRecord.getWarcRecordLength();
+        openRecord.close();
+        return openRecord(uri, fileName, offset, recordLength);
+    }
+
+    /**
+     * Request a number of bytes of a file from the service, and read the header of the record they start with.
+     *
+     * @param uri      Uniform Resource Identifier including base uri and name of file
+     * @param fileName the name of the file
+     * @param offset   offset of the record in the file
+     * @param length   the number of bytes to request, or -1 for the rest of the file
+     * @return The record, positioned at the start of its payload, or null if the service did not return it.
+     * @throws IOException if the request or reading the record header fails
+     */
+    private OpenRecord openRecord(URI uri, String fileName, long offset, long length) throws IOException {
         CGIRequestBuilder requestBuilder = new CGIRequestBuilder(uri);
-        HttpUriRequest request = requestBuilder.buildWRSRequest(offset);
-        CloseableHttpClient closableHttpClient = clientBuilder.getHttpsClient();
+        HttpUriRequest request;
+        if (length < 0) {
+            request = requestBuilder.buildWRSRequest(offset);
+        } else {
+            request = requestBuilder.buildWRSRequest(offset, length);
+        }
 
-        log.debug("Executing request " + request.getRequestLine());
-        try (CloseableHttpResponse httpResponse = closableHttpClient.execute(request)) {
+        log.debug("Executing request " + request.getRequestLine() + " " + request.getFirstHeader("Range"));
+        CloseableHttpResponse httpResponse = httpClient.execute(request);
+        try {
             log.debug("httpResponse status: " + httpResponse.getStatusLine().toString());
-            if (httpResponse.getStatusLine().getStatusCode() != 200) {
-                log.error("Http request error " + httpResponse.getStatusLine().getStatusCode());
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_PARTIAL_CONTENT) {
+                log.error("Http request error " + statusCode);
+                httpResponse.close();
                 return null;
             }
             HttpEntity entity = httpResponse.getEntity();
-            if (entity != null) {
-                //Note that data that comes back from WarcRecordService has been decompressed so to get the
-                //right arc/warc parser from the ArchiveReaderFactory we have to give it the name of the
-                //uncompressed file.
-                final String inflatedName = fileName.replace(".gz", "");
-                InputStream iStr = entity.getContent();
-                boolean atFirst = (offset == 0L);
-                ArchiveReader archiveReader = ArchiveReaderFactory.get(inflatedName, iStr, atFirst);
-                ArchiveRecord archiveRecord = archiveReader.get();
-                BitarchiveRecord reply = new BitarchiveRecord(archiveRecord, fileName);
-                log.debug("reply: " + reply.toString());
-                return reply;
-            } else {
+            if (entity == null) {
                 log.warn("Received null response entity for request for {}, {}", uri, offset);
+                httpResponse.close();
                 return null;
             }
+            // Only read the rest of a response if the service kept to the requested range.
+            boolean bounded = length >= 0 && entity.getContentLength() >= 0 && entity.getContentLength() <= length;
+            //Note that data that comes back from WarcRecordService has been decompressed so to get the
+            //right arc/warc parser from the ArchiveReaderFactory we have to give it the name of the
+            //uncompressed file.
+            final String inflatedName = fileName.replace(".gz", "");
+            InputStream iStr = entity.getContent();
+            ArchiveRecord record;
+            if (WARCReaderFactory.isWARCSuffix(inflatedName)) {
+                // The WARC parser only sets the length of the record header when it can ask the stream for its
+                // position, which the stream of an ArchiveReader cannot answer.
+                record = new WARCRecord(new RepositionableInputStream(iStr), inflatedName, offset, true, false);
+            } else {
+                boolean atFirst = (offset == 0L);
+                ArchiveReader archiveReader = ArchiveReaderFactory.get(inflatedName, iStr, atFirst);
+                record = archiveReader.get();
+            }
+            return new OpenRecord(fileName, record, httpResponse, bounded);
+        } catch (IOException | RuntimeException e) {
+            httpResponse.close();
+            throw e;
+        }
+    }
+
+    private static synchronized ExecutorService getFetchExecutor() {
+        if (fetchExecutor == null) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            fetchExecutor = Executors.newFixedThreadPool(Settings.getInt(CommonSettings.MAX_CONNECTIONS_PER_ROUTE),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "WarcRecordClient-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return fetchExecutor;
+    }
+
+    /** A record being read from a response of the service. */
+    private static class OpenRecord {
+        /** The name of the file the record is from. */
+        private final String fileName;
+        /** The record, positioned at the start of its payload. */
+        private final ArchiveRecord record;
+        /** The response the record is read from. */
+        private final CloseableHttpResponse httpResponse;
+        /** Whether the response ends with the requested range, so it can be read to the end. */
+        private final boolean bounded;
+
+        OpenRecord(String fileName, ArchiveRecord record, CloseableHttpResponse httpResponse, boolean bounded) {
+            this.fileName = fileName;
+            this.record = record;
+            this.httpResponse = httpResponse;
+            this.bounded = bounded;
+        }
+
+        /**
+         * @return The length of the record in an uncompressed WARC file: its header, as measured by the parser, its
+         * content block, as given by the Content-Length field, and the CRLFs ending it.
+         */
+        long getWarcRecordLength() {
+            Object contentLength = record.getHeader().getHeaderValue(WARCConstants.CONTENT_LENGTH);
+            return record.getHeader().getContentBegin() + Long.parseLong(contentLength.toString().trim())
+                    + WARC_RECORD_END_LENGTH;
+        }
+
+        /**
+         * @return The length of the payload of the record, computed as BitarchiveRecord does.
+         */
+        long getPayloadLength() {
+            if (record instanceof ARCRecord) {
+                return record.getHeader().getLength();
+            }
+            return record.getHeader().getLength() - record.getHeader().getContentBegin();
+        }
+
+        /**
+         * Close the response. A bounded response is read to the end first, so its connection is returned to the pool.
+         * Otherwise the service sends the rest of the file after the record, and the connection is closed.
+         *
+         * @throws IOException if reading or closing fails
+         */
+        void close() throws IOException {
+            try {
+                if (bounded) {
+                    EntityUtils.consume(httpResponse.getEntity());
+                }
+            } finally {
+                httpResponse.close();
+            }
+        }
+
+        /**
+         * Close the response and its connection without reading the rest of it.
+         *
+         * @throws IOException if closing fails
+         */
+        void discard() throws IOException {
+            httpResponse.close();
+        }
+
+        void closeQuietly() {
+            try {
+                discard();
+            } catch (IOException e) {
+                log.debug("Failed to close response for record in {}", fileName, e);
+            }
         }
     }
 
@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.sort;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads newline terminated lines from a stream as arrays of bytes, without decoding them. The newline is not part of
+ * the returned lines. A last line without a terminating newline is returned as well.
+ */
+class ByteLineReader implements Closeable {
+
+    /** The stream we read from. */
+    private final InputStream in;
+    /** Our read buffer. */
+    private final byte[] buffer;
+    /** The position of the next unread byte in the buffer. */
+    private int pos;
+    /** The number of valid bytes in the buffer. */
+    private int limit;
+
+    /**
+     * Create a reader for the given stream.
+     *
+     * @param in The stream to read from. It is closed when this reader is closed.
+     * @param bufferSize The size of the read buffer.
+     */
+    ByteLineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Read the next line.
+     *
+     * @return The bytes of the next line, or null at the end of the stream.
+     * @throws IOException If reading fails.
+     */
+    byte[] readLine() throws IOException {
+        byte[] partial = null;
+        int partialLength = 0;
+        while (true) {
+            if (pos == limit) {
+                pos = 0;
+                limit = Math.max(in.read(buffer, 0, buffer.length), 0);
+                if (limit == 0) {
+                    return partial == null ? null : Arrays.copyOf(partial, partialLength);
+                }
+            }
+            int start = pos;
+            while (pos < limit && buffer[pos] != '\n') {
+                pos++;
+            }
+            int length = pos - start;
+            if (pos < limit) {
+                // Found the end of the line
+                pos++;
+                if (partial == null) {
+                    return Arrays.copyOfRange(buffer, start, start + length);
+                }
+                byte[] line = Arrays.copyOf(partial, partialLength + length);
+                System.arraycopy(buffer, start, line, partialLength, length);
+                return line;
+            }
+            if (partial == null) {
+                partial = new byte[Math.max(length * 2, 128)];
+            } else if (partialLength + length > partial.length) {
+                partial = Arrays.copyOf(partial, Math.max((partialLength + length) * 2, partial.length * 2));
+            }
+            System.arraycopy(buffer, start, partial, partialLength, length);
+            partialLength += length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
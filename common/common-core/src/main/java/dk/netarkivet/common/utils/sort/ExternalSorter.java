@@ -0,0 +1,492 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.sort;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * Sorts text files line by line inside the JVM, using an external merge sort.
+ * <p>
+ * The input is read in chunks that fit in memory. Each chunk is sorted on a fork-join pool and written to a temporary
+ * run file while the next chunk is being read, and the runs are finally merged through a {@link LoserTree}. Input
+ * that fits in a single chunk is sorted in memory without temporary files.
+ * <p>
+ * All sorts done through one ExternalSorter share its memory budget and its pool, so the instance returned by
+ * {@link #getInstance()} bounds the memory and threads used for sorting in the whole JVM, however many sorts run at
+ * the same time. Only the lines held in chunks are counted in the budget, not the buffers used while merging.
+ * <p>
+ * Files that are sorted already are combined with {@link #merge}, which streams them through a LoserTree without
+ * sorting again.
+ * <p>
+ * Lines are compared as bytes by pluggable comparators; see {@link LineComparators} for the orders of the Unix sort
+ * used for CDX files and crawl logs. Like the Unix sort, every line in the output is terminated by a newline.
+ */
+public class ExternalSorter {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(ExternalSorter.class);
+
+    /** The estimated memory used per line besides its bytes: the array header and the reference to it. */
+    private static final int LINE_OVERHEAD = 24;
+
+    /** The smallest chunk we sort, regardless of the budget. */
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    /** The largest number of runs merged at a time. More runs are merged in several passes. */
+    static final int MAX_MERGE_FAN_IN = 128;
+
+    /** The size of the buffers used for reading and writing files. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The instance shared in this JVM. */
+    private static ExternalSorter instance;
+
+    /** The memory budget in bytes. */
+    private final long memoryBudget;
+
+    /** The size of each chunk in bytes. */
+    private final long chunkSize;
+
+    /** The part of the memory budget not in use, in kilobytes. */
+    private final Semaphore freeMemoryKb;
+
+    /** The pool used for sorting chunks. */
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a sorter with its own memory budget and pool.
+     *
+     * @param memoryBudget The number of bytes that may be used for lines held in memory by all sorts together.
+     * @param parallelism The number of threads used for sorting chunks.
+     * @throws ArgumentNotValid If an argument is not positive.
+     */
+    public ExternalSorter(long memoryBudget, int parallelism) {
+        ArgumentNotValid.checkPositive(memoryBudget, "long memoryBudget");
+        ArgumentNotValid.checkPositive(parallelism, "int parallelism");
+        this.memoryBudget = memoryBudget;
+        // Allow the chunks being sorted by all threads, plus one being read, to fit in the budget.
+        this.chunkSize = Math.min(memoryBudget, Math.max(MIN_CHUNK_SIZE, memoryBudget / (parallelism + 1)));
+        this.freeMemoryKb = new Semaphore((int) Math.min(Integer.MAX_VALUE, toKb(memoryBudget)), true);
+        // Not the default factory: under a security manager it makes threads without the permission to write runs.
+        this.pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                };
+                thread.setName("ExternalSorter-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * Get the sorter shared in this JVM, configured by the settings {@link CommonSettings#SORT_MEMORY_BUDGET} and
+     * {@link CommonSettings#SORT_THREADS}.
+     *
+     * @return The shared ExternalSorter.
+     */
+    public static synchronized ExternalSorter getInstance() {
+        if (instance == null) {
+            int threads = Settings.getInt(CommonSettings.SORT_THREADS);
+            if (threads <= 0) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            instance = new ExternalSorter(Settings.getLong(CommonSettings.SORT_MEMORY_BUDGET), threads);
+        }
+        return instance;
+    }
+
+    /**
+     * Sort the lines of a file into another file.
+     *
+     * @param file The file to sort.
+     * @param toFile The file to write the sorted lines to. May not be the same as file.
+     * @param order The order to sort the lines in.
+     * @param tempDir The directory for temporary run files, or null to use the system temp dir.
+     * @throws ArgumentNotValid If file, toFile or order is null.
+     * @throws IOFailure If reading, writing or sorting fails.
+     */
+    public void sort(File file, File toFile, Comparator<byte[]> order, File tempDir) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNull(toFile, "File toFile");
+        ArgumentNotValid.checkNotNull(order, "Comparator<byte[]> order");
+        long started = System.currentTimeMillis();
+        List<Future<File>> pendingRuns = new ArrayList<Future<File>>();
+        List<File> tempFiles = new ArrayList<File>();
+        try {
+            try (ByteLineReader in = new ByteLineReader(new FileInputStream(file), BUFFER_SIZE)) {
+                boolean endOfInput = false;
+                while (!endOfInput) {
+                    acquireMemory();
+                    List<byte[]> chunk = new ArrayList<byte[]>();
+                    try {
+                        endOfInput = readChunk(in, chunk);
+                    } catch (IOException | RuntimeException e) {
+                        releaseMemory();
+                        throw e;
+                    }
+                    if (endOfInput && pendingRuns.isEmpty()) {
+                        // Everything fits in memory, so no runs are needed.
+                        try {
+                            writeLines(sortChunk(chunk, order), toFile);
+                        } finally {
+                            releaseMemory();
+                        }
+                        log.debug("Sorted '{}' in memory in {} ms", file, System.currentTimeMillis() - started);
+                        return;
+                    }
+                    pendingRuns.add(pool.submit(new RunWriter(chunk, order, tempDir)));
+                }
+            }
+            List<File> runs = new ArrayList<File>();
+            while (!pendingRuns.isEmpty()) {
+                File run = pendingRuns.remove(0).get();
+                tempFiles.add(run);
+                runs.add(run);
+            }
+            int numberOfRuns = runs.size();
+            mergeInPasses(runs, true, toFile, order, tempDir, tempFiles);
+            log.debug("Sorted '{}' through {} runs in {} ms", file, numberOfRuns,
+                    System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            String msg = "Error sorting file '" + file.getAbsolutePath() + "'";
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
+        } catch (ExecutionException e) {
+            String msg = "Error sorting file '" + file.getAbsolutePath() + "'";
+            log.warn(msg, e.getCause());
+            throw new IOFailure(msg, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String msg = "Interrupted while sorting file '" + file.getAbsolutePath() + "'";
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
+        } finally {
+            // Runs still pending when failing must be finished before their files can be removed.
+            for (Future<File> run : pendingRuns) {
+                try {
+                    tempFiles.add(run.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // A failed run leaves no file behind.
+                }
+            }
+            deleteFiles(tempFiles);
+        }
+    }
+
+    /**
+     * Merge files that are each sorted into one sorted file, in a single streaming pass when there are no more than
+     * {@link #MAX_MERGE_FAN_IN} files. Lines that compare equal are written in the order of the files they come from.
+     * Sorting and merging the parts of a file gives the same result as sorting the whole file, without reading any
+     * line into memory more than once.
+     *
+     * @param files The files to merge, each sorted according to order. They are left untouched.
+     * @param toFile The file to write the merged lines to. May not be one of the files.
+     * @param order The order the files are sorted in.
+     * @param tempDir The directory for temporary files when merging in several passes, or null to use the system temp
+     * dir.
+     * @throws ArgumentNotValid If files, toFile or order is null.
+     * @throws IOFailure If reading or writing fails.
+     */
+    public void merge(List<File> files, File toFile, Comparator<byte[]> order, File tempDir) {
+        ArgumentNotValid.checkNotNull(files, "List<File> files");
+        ArgumentNotValid.checkNotNull(toFile, "File toFile");
+        ArgumentNotValid.checkNotNull(order, "Comparator<byte[]> order");
+        long started = System.currentTimeMillis();
+        List<File> tempFiles = new ArrayList<File>();
+        try {
+            mergeInPasses(files, false, toFile, order, tempDir, tempFiles);
+            log.debug("Merged {} files into '{}' in {} ms", files.size(), toFile,
+                    System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            String msg = "Error merging " + files.size() + " files into '" + toFile.getAbsolutePath() + "'";
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
+        } finally {
+            deleteFiles(tempFiles);
+        }
+    }
+
+    /**
+     * Check whether the lines of a file are sorted.
+     *
+     * @param file The file to check.
+     * @param order The order the lines should be in.
+     * @return true if no line comes after the line following it.
+     * @throws ArgumentNotValid If file or order is null.
+     * @throws IOFailure If reading the file fails.
+     */
+    public static boolean isSorted(File file, Comparator<byte[]> order) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNull(order, "Comparator<byte[]> order");
+        try (ByteLineReader in = new ByteLineReader(new FileInputStream(file), BUFFER_SIZE)) {
+            byte[] previous = in.readLine();
+            byte[] line;
+            while (previous != null && (line = in.readLine()) != null) {
+                if (order.compare(previous, line) > 0) {
+                    return false;
+                }
+                previous = line;
+            }
+            return true;
+        } catch (IOException e) {
+            String msg = "Error reading file '" + file.getAbsolutePath() + "'";
+            log.warn(msg, e);
+            throw new IOFailure(msg, e);
+        }
+    }
+
+    /**
+     * Merge sorted files into a file, first merging groups of them into temporary files as long as there are more than
+     * {@link #MAX_MERGE_FAN_IN}.
+     *
+     * @param files The sorted files.
+     * @param deleteFiles Whether the files may be deleted once merged into a temporary file.
+     * @param toFile The file to write the merged lines to.
+     * @param order The order of the lines.
+     * @param tempDir The directory for temporary files, or null to use the system temp dir.
+     * @param tempFiles A list the temporary files created are added to, so the caller can delete them.
+     * @throws IOException If reading or writing fails.
+     */
+    private static void mergeInPasses(List<File> files, boolean deleteFiles, File toFile, Comparator<byte[]> order,
+            File tempDir, List<File> tempFiles) throws IOException {
+        while (files.size() > MAX_MERGE_FAN_IN) {
+            List<File> mergedFiles = new ArrayList<File>();
+            for (int i = 0; i < files.size(); i += MAX_MERGE_FAN_IN) {
+                List<File> group = files.subList(i, Math.min(files.size(), i + MAX_MERGE_FAN_IN));
+                File merged = File.createTempFile("sort-merge", ".run", tempDir);
+                tempFiles.add(merged);
+                mergedFiles.add(merged);
+                merge(group, merged, order);
+                if (deleteFiles) {
+                    deleteFiles(group);
+                }
+            }
+            files = mergedFiles;
+            deleteFiles = true;
+        }
+        merge(files, toFile, order);
+    }
+
+    /**
+     * Read lines into a chunk until it is full or the input ends.
+     *
+     * @param in The input.
+     * @param chunk The list to add lines to.
+     * @return true if the end of the input was reached.
+     * @throws IOException If reading fails.
+     */
+    private boolean readChunk(ByteLineReader in, List<byte[]> chunk) throws IOException {
+        long size = 0;
+        while (size < chunkSize) {
+            byte[] line = in.readLine();
+            if (line == null) {
+                return true;
+            }
+            chunk.add(line);
+            size += line.length + LINE_OVERHEAD;
+        }
+        return false;
+    }
+
+    /**
+     * Sort a chunk of lines. Called from a thread in the pool, the sort uses the other threads of the pool.
+     *
+     * @param chunk The lines.
+     * @param order The order to sort them in.
+     * @return The sorted lines.
+     */
+    private byte[][] sortChunk(List<byte[]> chunk, final Comparator<byte[]> order) {
+        final byte[][] lines = chunk.toArray(new byte[chunk.size()][]);
+        chunk.clear();
+        if (ForkJoinWorkerThread.class.isInstance(Thread.currentThread())) {
+            Arrays.parallelSort(lines, order);
+        } else {
+            pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Arrays.parallelSort(lines, order);
+                }
+            }).join();
+        }
+        return lines;
+    }
+
+    /**
+     * Merge sorted runs into a file.
+     *
+     * @param runs The sorted runs.
+     * @param toFile The file to write the merged lines to.
+     * @param order The order of the lines.
+     * @throws IOException If reading or writing fails.
+     */
+    private static void merge(List<File> runs, File toFile, Comparator<byte[]> order) throws IOException {
+        List<ByteLineReader> readers = new ArrayList<ByteLineReader>();
+        try {
+            for (File run : runs) {
+                readers.add(new ByteLineReader(new FileInputStream(run), BUFFER_SIZE));
+            }
+            LoserTree tree = new LoserTree(readers, order);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(toFile), BUFFER_SIZE)) {
+                byte[] line;
+                while ((line = tree.next()) != null) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            }
+        } finally {
+            for (ByteLineReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Write lines to a file, each terminated by a newline.
+     *
+     * @param lines The lines to write.
+     * @param toFile The file to write to.
+     * @throws IOException If writing fails.
+     */
+    private static void writeLines(byte[][] lines, File toFile) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(toFile), BUFFER_SIZE)) {
+            for (byte[] line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Delete temporary files.
+     *
+     * @param files The files to delete.
+     */
+    private static void deleteFiles(List<File> files) {
+        for (File f : files) {
+            FileUtils.remove(f);
+        }
+    }
+
+    /**
+     * Wait until the memory for a chunk is available in the budget.
+     *
+     * @throws IOException If interrupted while waiting.
+     */
+    private void acquireMemory() throws IOException {
+        try {
+            freeMemoryKb.acquire((int) toKb(chunkSize));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for memory to sort in", e);
+        }
+    }
+
+    /** Return the memory for a chunk to the budget. */
+    private void releaseMemory() {
+        freeMemoryKb.release((int) toKb(chunkSize));
+    }
+
+    /**
+     * @param bytes A number of bytes.
+     * @return The number of kilobytes, rounded up.
+     */
+    private static long toKb(long bytes) {
+        return (bytes + 1023) / 1024;
+    }
+
+    /**
+     * @return The memory budget in bytes.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sorts a chunk and writes it to a temporary run file, returning its memory to the budget when done.
+     */
+    private class RunWriter implements Callable<File> {
+        /** The lines to sort. */
+        private final List<byte[]> chunk;
+        /** The order to sort them in. */
+        private final Comparator<byte[]> order;
+        /** The directory for the run file, or null for the system temp dir. */
+        private final File tempDir;
+
+        /**
+         * Create a writer for a chunk.
+         *
+         * @param chunk The lines to sort.
+         * @param order The order to sort them in.
+         * @param tempDir The directory for the run file, or null for the system temp dir.
+         */
+        RunWriter(List<byte[]> chunk, Comparator<byte[]> order, File tempDir) {
+            this.chunk = chunk;
+            this.order = order;
+            this.tempDir = tempDir;
+        }
+
+        @Override
+        public File call() throws IOException {
+            try {
+                byte[][] lines = sortChunk(chunk, order);
+                File run = File.createTempFile("sort", ".run", tempDir);
+                try {
+                    writeLines(lines, run);
+                } catch (IOException | RuntimeException e) {
+                    FileUtils.remove(run);
+                    throw e;
+                }
+                return run;
+            } finally {
+                releaseMemory();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Comparators for lines of bytes (without the terminating newline) that reproduce the orderings of the Unix sort
+ * command run with LANG=C, as used for CDX files and crawl logs, and the natural order of Java strings.
+ */
+public final class LineComparators {
+
+    /**
+     * Orders whole lines as unsigned bytes. This is the order of <code>LANG=C sort</code>, used for CDX files and for
+     * sorting crawl logs on their timestamp.
+     */
+    public static final Comparator<byte[]> WHOLE_LINE = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] line1, byte[] line2) {
+            return Arrays.compareUnsigned(line1, line2);
+        }
+    };
+
+    /**
+     * Orders UTF-8 encoded lines as the strings they encode are ordered by {@link String#compareTo(String)}, that is on
+     * their UTF-16 code units. This differs from the order of the bytes only where a character outside the Basic
+     * Multilingual Plane is compared with a character from U+E000 to U+FFFF: the former is encoded as a surrogate
+     * pair, which comes first in UTF-16, but last in UTF-8.
+     */
+    public static final Comparator<byte[]> STRING = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] line1, byte[] line2) {
+            int i = Arrays.mismatch(line1, line2);
+            if (i < 0 || i == line1.length || i == line2.length) {
+                return line1.length - line2.length;
+            }
+            // The lines are equal up to i, so the bytes at i are both first bytes of a character, or both later bytes
+            // of characters with the same first byte.
+            int b1 = line1[i] & 0xff;
+            int b2 = line2[i] & 0xff;
+            if (b1 >= 0xee && b2 >= 0xee && (b1 >= 0xf0) != (b2 >= 0xf0)) {
+                // One starts a character from U+E000 to U+FFFF, the other one outside the Basic Multilingual Plane.
+                return b1 >= 0xf0 ? -1 : 1;
+            }
+            return b1 - b2;
+        }
+    };
+
+    /**
+     * Orders crawl log lines on their URL, the fourth field. This is the order of <code>LANG=C sort -k 4b</code>.
+     */
+    public static final Comparator<byte[]> CRAWL_LOG_URL = fromField(4);
+
+    /** Utility class, do not initialise. */
+    private LineComparators() {
+    }
+
+    /**
+     * Create a comparator ordering lines on the part of the line from the given field to the end of the line, ignoring
+     * leading blanks, like <code>LANG=C sort -k &lt;field&gt;b</code>. As with sort, fields are separated by the
+     * empty string between a non-blank and a blank character, lines with fewer fields have an empty key, and lines with
+     * equal keys are ordered on the whole line.
+     *
+     * @param field The number of the first field in the key, starting from 1.
+     * @return A comparator for the given key.
+     * @throws ArgumentNotValid If field is not positive.
+     */
+    public static Comparator<byte[]> fromField(final int field) {
+        ArgumentNotValid.checkPositive(field, "int field");
+        return new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] line1, byte[] line2) {
+                int cmp = Arrays.compareUnsigned(line1, keyStart(line1, field), line1.length, line2,
+                        keyStart(line2, field), line2.length);
+                if (cmp != 0) {
+                    return cmp;
+                }
+                return Arrays.compareUnsigned(line1, line2);
+            }
+        };
+    }
+
+    /**
+     * Find the start of the key starting with the given field, skipping leading blanks.
+     *
+     * @param line A line.
+     * @param field The number of the first field in the key, starting from 1.
+     * @return The index of the first byte of the key, or the length of the line if the key is empty.
+     */
+    static int keyStart(byte[] line, int field) {
+        int pos = 0;
+        for (int i = 1; i < field; i++) {
+            while (pos < line.length && isBlank(line[pos])) {
+                pos++;
+            }
+            while (pos < line.length && !isBlank(line[pos])) {
+                pos++;
+            }
+        }
+        while (pos < line.length && isBlank(line[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Check whether a byte is blank in the C locale.
+     *
+     * @param b A byte.
+     * @return true if b is a space or a tab.
+     */
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.sort;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Merges a number of sorted sources of lines into one sorted sequence, using a tournament tree of losers. Each line
+ * returned costs about log2(k) comparisons for k sources, and only one line per source is held in memory.
+ * <p>
+ * Lines that compare equal are returned in the order of their sources, so the merge is stable.
+ */
+class LoserTree {
+
+    /** The sorted sources. */
+    private final ByteLineReader[] sources;
+    /** The current line of each source, or null if the source is exhausted. */
+    private final byte[][] heads;
+    /** The order of the lines. */
+    private final Comparator<byte[]> order;
+    /**
+     * The tree. Node 0 holds the source of the overall winner, and the internal nodes 1..k-1 hold the source that lost
+     * the match played at that node. The children of node n are 2n and 2n+1, where the nodes k..2k-1 are the sources.
+     */
+    private final int[] tree;
+
+    /**
+     * Create a tree merging the given sources, reading the first line of each.
+     *
+     * @param sources Sources of lines, each sorted according to order.
+     * @param order The order of the lines.
+     * @throws IOException If reading from a source fails.
+     */
+    LoserTree(List<ByteLineReader> sources, Comparator<byte[]> order) throws IOException {
+        this.sources = sources.toArray(new ByteLineReader[sources.size()]);
+        this.order = order;
+        int k = this.sources.length;
+        this.heads = new byte[k][];
+        for (int i = 0; i < k; i++) {
+            heads[i] = this.sources[i].readLine();
+        }
+        this.tree = new int[Math.max(k, 1)];
+        if (k > 0) {
+            tree[0] = build(1);
+        }
+    }
+
+    /**
+     * Play the matches of the subtree at the given node, storing the losers in the tree.
+     *
+     * @param node A node of the tree.
+     * @return The source that won the subtree.
+     */
+    private int build(int node) {
+        int k = sources.length;
+        if (node >= k) {
+            return node - k;
+        }
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    /**
+     * Return the smallest line not yet returned.
+     *
+     * @return The next line in the merged order, or null if all sources are exhausted.
+     * @throws IOException If reading from a source fails.
+     */
+    byte[] next() throws IOException {
+        if (sources.length == 0) {
+            return null;
+        }
+        int winner = tree[0];
+        byte[] line = heads[winner];
+        if (line == null) {
+            return null;
+        }
+        heads[winner] = sources[winner].readLine();
+        // Replay the matches on the path from the winner's leaf to the root.
+        for (int node = (winner + sources.length) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+        return line;
+    }
+
+    /**
+     * Check whether the current line of one source comes before the current line of another. Exhausted sources come
+     * last, and ties are broken on the index of the source.
+     *
+     * @param source1 The index of one source.
+     * @param source2 The index of another source.
+     * @return true if source1 wins the match.
+     */
+    private boolean beats(int source1, int source2) {
+        if (heads[source1] == null) {
+            return false;
+        }
+        if (heads[source2] == null) {
+            return true;
+        }
+        int cmp = order.compare(heads[source1], heads[source2]);
+        return cmp < 0 || (cmp == 0 && source1 < source2);
+    }
+
+}
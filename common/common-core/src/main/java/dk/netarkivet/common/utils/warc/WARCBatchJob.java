@@ -133,7 +133,9 @@ public abstract class WARCBatchJob extends FileBatchJob {
                         log.debug("Processing WARCRecord #{} in WARCfile '{}'.", noOfRecordsProcessed,
                                 warcFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        synchronized (this) {
+                            ++noOfRecordsProcessed;
+                        }
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
@@ -0,0 +1,405 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package is.hi.bok.deduplicator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A memory mapped, open addressing hash table of the URLs and content digests in a deduplication index, made by
+ * {@link DigestTableWriter}. It answers the lookups of the DeDuplicator without Lucene queries: a lookup hashes the
+ * SHA-1 digest, probes a few fixed width slots in the mapped file and allocates nothing unless it finds a match.
+ * <p>
+ * The file has a header, a heap with the URL, origin and timestamp of each entry, and the slots. Each slot holds the
+ * 20 byte digest, a flag telling how the slot is used, a 64 bit hash of the URL and the offset of the strings in the
+ * heap. Slots are found by linear probing. The first entry for a digest is probed for from a position given by the
+ * digest alone, so a digest can be looked up whatever its URL. The other entries for the digest are probed for from a
+ * position given by both the digest and the URL, so content fetched from many URLs does not fill one long run of
+ * slots. Only the first entry for each pair of digest and URL is kept.
+ */
+public class DigestTable implements Closeable {
+
+    /** The name of the table file in the directory of a deduplication index. */
+    public static final String FILE_NAME = "digesttable.bin";
+
+    /** The length of the digests in the table, that of a SHA-1. */
+    public static final int DIGEST_LENGTH = 20;
+
+    /** The magic number at the start of the file, "NASDGT02". */
+    static final long MAGIC = 0x4e41534447543032L;
+
+    /** The size of the header. */
+    static final int HEADER_SIZE = 64;
+
+    /** The size of a slot. */
+    static final int SLOT_SIZE = 40;
+
+    /** The offset of the flag telling how a slot is used. */
+    static final int FLAG_OFFSET = 20;
+    /** The offset of the hash of the URL in a slot. */
+    static final int URL_HASH_OFFSET = 24;
+    /** The offset of the position of the strings in the heap in a slot. */
+    static final int HEAP_OFFSET = 32;
+
+    /** The flag of an unused slot. */
+    static final byte UNUSED = 0;
+    /** The flag of the first entry for a digest, probed for from the slot given by the digest. */
+    static final byte FIRST_ENTRY = 1;
+    /** The flag of the other entries for a digest, probed for from the slot given by the digest and the URL. */
+    static final byte OTHER_ENTRY = 2;
+
+    /** The number of slots mapped in each buffer, so no slot crosses the boundary of a buffer. */
+    static final int SLOTS_PER_BUFFER = 1 << 24;
+
+    /** The number of heap bytes mapped in each buffer. Strings may cross the boundaries of these. */
+    private static final int HEAP_BYTES_PER_BUFFER = 1 << 30;
+
+    /** The number of entries in the table. */
+    private final long size;
+    /** The number of slots, a power of two. */
+    private final long slotCount;
+    /** The buffers mapping the slots. */
+    private final MappedByteBuffer[] slotBuffers;
+    /** The buffers mapping the heap. */
+    private final MappedByteBuffer[] heapBuffers;
+    /** The length of the heap. */
+    private final long heapLength;
+
+    /**
+     * Open and map a table file.
+     *
+     * @param file A file written by {@link DigestTableWriter}.
+     * @throws IOException If the file cannot be read, or is not a digest table.
+     */
+    public DigestTable(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.BIG_ENDIAN);
+            if (header.getLong(0) != MAGIC) {
+                throw new IOException("The file '" + file + "' is not a digest table");
+            }
+            size = header.getLong(8);
+            slotCount = header.getLong(16);
+            heapLength = header.getLong(24);
+            if (Long.bitCount(slotCount) != 1 || HEADER_SIZE + heapLength + slotCount * SLOT_SIZE != channel.size()) {
+                throw new IOException("The digest table '" + file + "' is truncated or corrupt");
+            }
+            heapBuffers = map(channel, HEADER_SIZE, heapLength, HEAP_BYTES_PER_BUFFER);
+            slotBuffers = map(channel, slotsStart(heapLength), slotCount * SLOT_SIZE,
+                    (long) SLOTS_PER_BUFFER * SLOT_SIZE);
+        }
+    }
+
+    /**
+     * Map a region of a file in buffers of at most the given size.
+     *
+     * @param channel The file.
+     * @param start The start of the region.
+     * @param length The length of the region.
+     * @param bufferSize The size of each buffer.
+     * @return The buffers.
+     * @throws IOException If mapping fails.
+     */
+    private static MappedByteBuffer[] map(FileChannel channel, long start, long length, long bufferSize)
+            throws IOException {
+        MappedByteBuffer[] buffers = new MappedByteBuffer[(int) ((length + bufferSize - 1) / bufferSize)];
+        for (int i = 0; i < buffers.length; i++) {
+            long offset = i * bufferSize;
+            buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + offset,
+                    Math.min(bufferSize, length - offset));
+        }
+        return buffers;
+    }
+
+    /**
+     * @param heapLength The length of the heap.
+     * @return The position of the first slot in the file.
+     */
+    static long slotsStart(long heapLength) {
+        return HEADER_SIZE + heapLength;
+    }
+
+    /**
+     * @return The number of entries in the table.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Find the entry for a digest and URL.
+     *
+     * @param digest The SHA-1 digest of the content.
+     * @param url The URL.
+     * @return The slot of the entry, or -1 if there is none.
+     */
+    public long find(byte[] digest, String url) {
+        if (digest.length != DIGEST_LENGTH) {
+            return -1;
+        }
+        long first = findFirstEntry(digest);
+        if (first < 0) {
+            return -1;
+        }
+        long urlHash = hashURL(url);
+        if (getSlotBuffer(first).getLong(getSlotPosition(first) + URL_HASH_OFFSET) == urlHash
+                && url.equals(getURL(first))) {
+            return first;
+        }
+        long mask = slotCount - 1;
+        for (long slot = entrySlot(digest, urlHash, mask);; slot = (slot + 1) & mask) {
+            MappedByteBuffer buffer = getSlotBuffer(slot);
+            int pos = getSlotPosition(slot);
+            byte flag = buffer.get(pos + FLAG_OFFSET);
+            if (flag == UNUSED) {
+                return -1;
+            }
+            if (flag == OTHER_ENTRY && buffer.getLong(pos + URL_HASH_OFFSET) == urlHash
+                    && digestEquals(buffer, pos, digest) && url.equals(getURL(slot))) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Check whether the table has an entry with the given digest, whatever its URL.
+     *
+     * @param digest The SHA-1 digest of some content.
+     * @return true if an entry has that digest.
+     */
+    public boolean containsDigest(byte[] digest) {
+        return digest.length == DIGEST_LENGTH && findFirstEntry(digest) >= 0;
+    }
+
+    /**
+     * Find the first entry for a digest.
+     *
+     * @param digest A digest of {@link #DIGEST_LENGTH} bytes.
+     * @return The slot of the entry, or -1 if there is none.
+     */
+    private long findFirstEntry(byte[] digest) {
+        long mask = slotCount - 1;
+        for (long slot = firstSlot(digest, mask);; slot = (slot + 1) & mask) {
+            MappedByteBuffer buffer = getSlotBuffer(slot);
+            int pos = getSlotPosition(slot);
+            byte flag = buffer.get(pos + FLAG_OFFSET);
+            if (flag == UNUSED) {
+                return -1;
+            }
+            if (flag == FIRST_ENTRY && digestEquals(buffer, pos, digest)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return The number of slots in the table.
+     */
+    long getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * @param slot A slot.
+     * @return true if the slot holds an entry.
+     */
+    boolean isUsed(long slot) {
+        return getSlotBuffer(slot).get(getSlotPosition(slot) + FLAG_OFFSET) != UNUSED;
+    }
+
+    /**
+     * @param slot A slot.
+     * @return The buffer holding the slot.
+     */
+    private MappedByteBuffer getSlotBuffer(long slot) {
+        return slotBuffers[(int) (slot / SLOTS_PER_BUFFER)];
+    }
+
+    /**
+     * @param slot A slot.
+     * @return The position of the slot in its buffer.
+     */
+    private static int getSlotPosition(long slot) {
+        return (int) (slot % SLOTS_PER_BUFFER) * SLOT_SIZE;
+    }
+
+    /**
+     * @param slot The slot of an entry.
+     * @return The URL of the entry.
+     */
+    public String getURL(long slot) {
+        return readString(getHeapOffset(slot));
+    }
+
+    /**
+     * @param slot The slot of an entry.
+     * @return The origin of the entry, or null if it has none.
+     */
+    public String getOrigin(long slot) {
+        long offset = getHeapOffset(slot);
+        return readString(offset + 4 + getHeapInt(offset));
+    }
+
+    /**
+     * @param slot The slot of an entry.
+     * @return The timestamp of the fetch of the entry, in the format yyyyMMddHHmmssSSS, or null if it is unknown.
+     */
+    public String getTimestamp(long slot) {
+        long offset = getHeapOffset(slot);
+        offset += 4 + getHeapInt(offset);
+        int originLength = getHeapInt(offset);
+        return readString(offset + 4 + Math.max(originLength, 0));
+    }
+
+    /**
+     * @param slot The slot of an entry.
+     * @return The position of the strings of the entry in the heap.
+     */
+    private long getHeapOffset(long slot) {
+        return getSlotBuffer(slot).getLong(getSlotPosition(slot) + HEAP_OFFSET);
+    }
+
+    /**
+     * Read a string from the heap, stored as its length followed by its UTF-8 bytes, or length -1 for null.
+     *
+     * @param offset The position of the string in the heap.
+     * @return The string.
+     */
+    private String readString(long offset) {
+        int length = getHeapInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = getHeapByte(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param offset A position in the heap.
+     * @return The big endian int at that position.
+     */
+    private int getHeapInt(long offset) {
+        return (getHeapByte(offset) & 0xff) << 24 | (getHeapByte(offset + 1) & 0xff) << 16
+                | (getHeapByte(offset + 2) & 0xff) << 8 | (getHeapByte(offset + 3) & 0xff);
+    }
+
+    /**
+     * @param offset A position in the heap.
+     * @return The byte at that position.
+     */
+    private byte getHeapByte(long offset) {
+        return heapBuffers[(int) (offset / HEAP_BYTES_PER_BUFFER)].get((int) (offset % HEAP_BYTES_PER_BUFFER));
+    }
+
+    /**
+     * Compare the digest in a slot with a digest.
+     *
+     * @param buffer The buffer holding the slot.
+     * @param pos The position of the slot in the buffer.
+     * @param digest A digest.
+     * @return true if the digests are equal.
+     */
+    private static boolean digestEquals(MappedByteBuffer buffer, int pos, byte[] digest) {
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (buffer.get(pos + i) != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the slot where probing for a digest starts. SHA-1 digests are uniformly distributed, so their first bytes
+     * serve as the hash.
+     *
+     * @param digest A digest of {@link #DIGEST_LENGTH} bytes.
+     * @param mask The number of slots minus one.
+     * @return The first slot to probe.
+     */
+    static long firstSlot(byte[] digest, long mask) {
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = hash << 8 | (digest[i] & 0xff);
+        }
+        return hash & mask;
+    }
+
+    /**
+     * Get the slot where probing for an entry other than the first for its digest starts. The hash of the digest and
+     * the hash of the URL are combined and mixed with the finalizer of MurmurHash3, so the entries of a digest fetched
+     * from many URLs are spread over the table.
+     *
+     * @param digest A digest of {@link #DIGEST_LENGTH} bytes.
+     * @param urlHash The hash of the URL of the entry, see {@link #hashURL(String)}.
+     * @param mask The number of slots minus one.
+     * @return The first slot to probe.
+     */
+    static long entrySlot(byte[] digest, long urlHash, long mask) {
+        long hash = firstSlot(digest, -1L) ^ urlHash;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash & mask;
+    }
+
+    /**
+     * Hash a URL with 64 bit FNV-1a over its characters.
+     *
+     * @param url A URL.
+     * @return The hash.
+     */
+    static long hashURL(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Release the mapping. The buffers are unmapped when garbage collected, so the table must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < slotBuffers.length; i++) {
+            slotBuffers[i] = null;
+        }
+        for (int i = 0; i < heapBuffers.length; i++) {
+            heapBuffers[i] = null;
+        }
+    }
+
+}
@@ -0,0 +1,345 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package is.hi.bok.deduplicator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.archive.util.Base32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Writes the {@link DigestTable} of a deduplication index made by {@link DigestIndexer}.
+ * <p>
+ * The documents of the index are read once. Their strings are written to the heap of the table file, and their digests,
+ * URL hashes and heap offsets to a temporary file, so the memory used does not depend on the size of the index. The
+ * entries are then inserted in the mapped slots of the table, as described in {@link DigestTable}. Documents whose
+ * digest is not a Base32 encoded SHA-1 are left out, and so are documents with the same digest and URL hash as an
+ * earlier document.
+ */
+public final class DigestTableWriter {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(DigestTableWriter.class);
+
+    /** The size of an entry in the temporary file: digest, URL hash and heap offset. */
+    private static final int ENTRY_SIZE = DigestTable.DIGEST_LENGTH + 8 + 8;
+
+    /** The smallest number of slots in a table. */
+    private static final long MIN_SLOTS = 16;
+
+    /** The size of the buffers used for reading and writing. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Utility class, do not initialise. */
+    private DigestTableWriter() {
+    }
+
+    /**
+     * Write the digest table of a deduplication index.
+     *
+     * @param indexDir The directory of a Lucene index made by DigestIndexer, with the url and digest fields stored.
+     * @param tableFile The table file to write. It is overwritten if it exists.
+     * @return The number of entries in the table.
+     * @throws IOException If the index cannot be read or the table cannot be written.
+     */
+    public static long write(File indexDir, File tableFile) throws IOException {
+        ArgumentNotValid.checkExistsDirectory(indexDir, "File indexDir");
+        ArgumentNotValid.checkNotNull(tableFile, "File tableFile");
+        File entriesFile = File.createTempFile("digesttable", ".entries", tableFile.getAbsoluteFile().getParentFile());
+        try {
+            long entries;
+            try (DataOutputStream heap = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tableFile),
+                    BUFFER_SIZE));
+                    DataOutputStream entryOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                            entriesFile), BUFFER_SIZE))) {
+                heap.write(new byte[DigestTable.HEADER_SIZE]);
+                entries = writeHeapAndEntries(indexDir, heap, entryOut);
+            }
+            long heapLength = tableFile.length() - DigestTable.HEADER_SIZE;
+            long slotCount = Math.max(MIN_SLOTS, Long.highestOneBit(Math.max(entries, 1) * 2 - 1) << 1);
+            long size;
+            try (RandomAccessFile raf = new RandomAccessFile(tableFile, "rw")) {
+                raf.setLength(DigestTable.slotsStart(heapLength) + slotCount * DigestTable.SLOT_SIZE);
+                size = insertEntries(raf.getChannel(), entriesFile, heapLength, slotCount);
+                ByteBuffer header = ByteBuffer.allocate(DigestTable.HEADER_SIZE);
+                header.putLong(DigestTable.MAGIC).putLong(size).putLong(slotCount).putLong(heapLength);
+                header.rewind();
+                raf.getChannel().write(header, 0);
+            }
+            log.info("Wrote digest table '{}' with {} entries from the {} documents of the index '{}'", tableFile,
+                    size, entries, indexDir);
+            return size;
+        } finally {
+            if (!entriesFile.delete()) {
+                log.debug("Could not delete temporary file '{}'", entriesFile);
+            }
+        }
+    }
+
+    /**
+     * Read the live documents of the index, writing their strings to the heap and their entries to the entries file.
+     *
+     * @param indexDir The directory of the index.
+     * @param heap The heap.
+     * @param entryOut The entries file.
+     * @return The number of entries written.
+     * @throws IOException If reading or writing fails.
+     */
+    private static long writeHeapAndEntries(File indexDir, DataOutputStream heap, DataOutputStream entryOut)
+            throws IOException {
+        Set<String> fields = new HashSet<String>(Arrays.asList(DigestIndexer.FIELD_URL, DigestIndexer.FIELD_DIGEST,
+                DigestIndexer.FIELD_TIMESTAMP, DigestIndexer.FIELD_ORIGIN));
+        long heapOffset = 0;
+        long entries = 0;
+        long skipped = 0;
+        try (FSDirectory dir = FSDirectory.open(indexDir); IndexReader reader = DirectoryReader.open(dir)) {
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) {
+                    continue;
+                }
+                Document doc = reader.document(i, fields);
+                String url = doc.get(DigestIndexer.FIELD_URL);
+                byte[] digest = decodeDigest(doc.get(DigestIndexer.FIELD_DIGEST));
+                if (url == null || digest == null) {
+                    skipped++;
+                    continue;
+                }
+                entryOut.write(digest);
+                entryOut.writeLong(DigestTable.hashURL(url));
+                entryOut.writeLong(heapOffset);
+                heapOffset += writeString(heap, url);
+                heapOffset += writeString(heap, doc.get(DigestIndexer.FIELD_ORIGIN));
+                heapOffset += writeString(heap, doc.get(DigestIndexer.FIELD_TIMESTAMP));
+                entries++;
+            }
+        }
+        if (skipped > 0) {
+            log.warn("Left {} documents without a URL or a SHA-1 digest out of the digest table of '{}'", skipped,
+                    indexDir);
+        }
+        return entries;
+    }
+
+    /**
+     * Insert the entries of the entries file in the slots of the table.
+     *
+     * @param channel The table file, with room for the slots after the heap.
+     * @param entriesFile The entries file.
+     * @param heapLength The length of the heap.
+     * @param slotCount The number of slots, a power of two larger than the number of entries.
+     * @return The number of entries inserted.
+     * @throws IOException If reading or writing fails.
+     */
+    private static long insertEntries(FileChannel channel, File entriesFile, long heapLength, long slotCount)
+            throws IOException {
+        long bufferBytes = (long) DigestTable.SLOTS_PER_BUFFER * DigestTable.SLOT_SIZE;
+        long slotBytes = slotCount * DigestTable.SLOT_SIZE;
+        MappedByteBuffer[] slots = new MappedByteBuffer[(int) ((slotBytes + bufferBytes - 1) / bufferBytes)];
+        for (int i = 0; i < slots.length; i++) {
+            long offset = i * bufferBytes;
+            slots[i] = channel.map(FileChannel.MapMode.READ_WRITE, DigestTable.slotsStart(heapLength) + offset,
+                    Math.min(bufferBytes, slotBytes - offset));
+        }
+        long mask = slotCount - 1;
+        long inserted = 0;
+        byte[] digest = new byte[DigestTable.DIGEST_LENGTH];
+        byte[] entry = new byte[ENTRY_SIZE];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entriesFile),
+                BUFFER_SIZE))) {
+            long entries = entriesFile.length() / ENTRY_SIZE;
+            for (long e = 0; e < entries; e++) {
+                in.readFully(entry);
+                ByteBuffer entryBuffer = ByteBuffer.wrap(entry);
+                entryBuffer.get(digest);
+                long urlHash = entryBuffer.getLong();
+                long heapOffset = entryBuffer.getLong();
+                long slot = probe(slots, DigestTable.firstSlot(digest, mask), mask, DigestTable.FIRST_ENTRY, digest,
+                        urlHash, false);
+                byte flag = DigestTable.FIRST_ENTRY;
+                if (getFlag(slots, slot) != DigestTable.UNUSED) {
+                    if (getSlotBuffer(slots, slot).getLong(getSlotPosition(slot) + DigestTable.URL_HASH_OFFSET)
+                            == urlHash) {
+                        // An earlier document for the same URL and content wins, as in a Lucene lookup.
+                        continue;
+                    }
+                    slot = probe(slots, DigestTable.entrySlot(digest, urlHash, mask), mask, DigestTable.OTHER_ENTRY,
+                            digest, urlHash, true);
+                    if (getFlag(slots, slot) != DigestTable.UNUSED) {
+                        continue;
+                    }
+                    flag = DigestTable.OTHER_ENTRY;
+                }
+                MappedByteBuffer buffer = getSlotBuffer(slots, slot);
+                int pos = getSlotPosition(slot);
+                for (int i = 0; i < DigestTable.DIGEST_LENGTH; i++) {
+                    buffer.put(pos + i, digest[i]);
+                }
+                buffer.put(pos + DigestTable.FLAG_OFFSET, flag);
+                buffer.putLong(pos + DigestTable.URL_HASH_OFFSET, urlHash);
+                buffer.putLong(pos + DigestTable.HEAP_OFFSET, heapOffset);
+                inserted++;
+            }
+        }
+        for (MappedByteBuffer buffer : slots) {
+            buffer.force();
+        }
+        return inserted;
+    }
+
+    /**
+     * Probe for an entry with the given flag and digest, and possibly URL hash.
+     *
+     * @param slots The mapped slots.
+     * @param firstSlot The slot to start probing from.
+     * @param mask The number of slots minus one.
+     * @param flag The flag of the entry, {@link DigestTable#FIRST_ENTRY} or {@link DigestTable#OTHER_ENTRY}.
+     * @param digest The digest of the entry.
+     * @param urlHash The hash of the URL of the entry.
+     * @param matchURL Whether the entry must also have the URL hash.
+     * @return The slot of the entry, or the first unused slot if there is none.
+     */
+    private static long probe(MappedByteBuffer[] slots, long firstSlot, long mask, byte flag, byte[] digest,
+            long urlHash, boolean matchURL) {
+        for (long slot = firstSlot;; slot = (slot + 1) & mask) {
+            byte slotFlag = getFlag(slots, slot);
+            if (slotFlag == DigestTable.UNUSED) {
+                return slot;
+            }
+            MappedByteBuffer buffer = getSlotBuffer(slots, slot);
+            int pos = getSlotPosition(slot);
+            if (slotFlag == flag && sameDigest(buffer, pos, digest)
+                    && (!matchURL || buffer.getLong(pos + DigestTable.URL_HASH_OFFSET) == urlHash)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @param slots The mapped slots.
+     * @param slot A slot.
+     * @return The flag of the slot.
+     */
+    private static byte getFlag(MappedByteBuffer[] slots, long slot) {
+        return getSlotBuffer(slots, slot).get(getSlotPosition(slot) + DigestTable.FLAG_OFFSET);
+    }
+
+    /**
+     * @param slots The mapped slots.
+     * @param slot A slot.
+     * @return The buffer holding the slot.
+     */
+    private static MappedByteBuffer getSlotBuffer(MappedByteBuffer[] slots, long slot) {
+        return slots[(int) (slot / DigestTable.SLOTS_PER_BUFFER)];
+    }
+
+    /**
+     * @param slot A slot.
+     * @return The position of the slot in its buffer.
+     */
+    private static int getSlotPosition(long slot) {
+        return (int) (slot % DigestTable.SLOTS_PER_BUFFER) * DigestTable.SLOT_SIZE;
+    }
+
+    /**
+     * Compare the digest in a slot with a digest.
+     *
+     * @param buffer The buffer holding the slot.
+     * @param pos The position of the slot in the buffer.
+     * @param digest A digest.
+     * @return true if the digests are equal.
+     */
+    private static boolean sameDigest(MappedByteBuffer buffer, int pos, byte[] digest) {
+        for (int i = 0; i < DigestTable.DIGEST_LENGTH; i++) {
+            if (buffer.get(pos + i) != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a string to the heap as its length followed by its UTF-8 bytes, or -1 if it is null.
+     *
+     * @param heap The heap.
+     * @param s A string or null.
+     * @return The number of bytes written.
+     * @throws IOException If writing fails.
+     */
+    private static int writeString(DataOutputStream heap, String s) throws IOException {
+        if (s == null) {
+            heap.writeInt(-1);
+            return 4;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        heap.writeInt(bytes.length);
+        heap.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    /**
+     * Decode a digest as stored in the index, a Base32 encoded SHA-1, possibly prefixed with "sha1:".
+     *
+     * @param value The value of the digest field.
+     * @return The bytes of the digest, or null if the value is not a Base32 encoded SHA-1.
+     */
+    static byte[] decodeDigest(String value) {
+        if (value == null) {
+            return null;
+        }
+        String encoded = value.startsWith("sha1:") ? value.substring("sha1:".length()) : value;
+        if (encoded.length() != 32) {
+            return null;
+        }
+        try {
+            return Base32.decode(encoded);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package dk.netarkivet.common.utils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.service.CachingFileResolver;
+import dk.netarkivet.common.utils.service.FileResolver;
+
+public class CachingFileResolverTester {
+    CountingFileResolver countingResolver = new CountingFileResolver("a.warc", "b.warc");
+
+    /** Repeated lookups of filenames and patterns, found or not, should only reach the cached resolver once. */
+    @Test
+    public void testLookupsAreCached() {
+        FileResolver fileResolver = new CachingFileResolver(countingResolver, 100, 60000, 60000);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(Paths.get("/files/a.warc"), fileResolver.getPath("a.warc"));
+            Assert.assertNull(fileResolver.getPath("c.warc"));
+            Assert.assertEquals(2, fileResolver.getPaths(Pattern.compile(".*\\.warc")).size());
+        }
+        Assert.assertEquals(1, countingResolver.calls("a.warc"));
+        Assert.assertEquals(1, countingResolver.calls("c.warc"));
+        Assert.assertEquals(1, countingResolver.calls(".*\\.warc"));
+    }
+
+    /** Expired lookups should be done again, and negative results may expire sooner than positive ones. */
+    @Test
+    public void testLookupsExpire() throws InterruptedException {
+        FileResolver fileResolver = new CachingFileResolver(countingResolver, 100, 60000, 0);
+        fileResolver.getPath("a.warc");
+        fileResolver.getPath("c.warc");
+        Thread.sleep(5);
+        fileResolver.getPath("a.warc");
+        fileResolver.getPath("c.warc");
+        Assert.assertEquals(1, countingResolver.calls("a.warc"));
+        Assert.assertEquals(2, countingResolver.calls("c.warc"));
+    }
+
+    /** The least recently used lookups should be dropped when the cache is full. */
+    @Test
+    public void testCacheIsBounded() {
+        FileResolver fileResolver = new CachingFileResolver(countingResolver, 2, 60000, 60000);
+        fileResolver.getPath("a.warc");
+        fileResolver.getPath("b.warc");
+        fileResolver.getPath("a.warc");
+        fileResolver.getPath("c.warc");
+        fileResolver.getPath("a.warc");
+        fileResolver.getPath("b.warc");
+        Assert.assertEquals(1, countingResolver.calls("a.warc"));
+        Assert.assertEquals(2, countingResolver.calls("b.warc"));
+    }
+
+    /** Only the filenames not cached should be passed on, in one batch. */
+    @Test
+    public void testBatchLookup() {
+        FileResolver fileResolver = new CachingFileResolver(countingResolver, 100, 60000, 60000);
+        fileResolver.getPath("a.warc");
+        Map<String, Path> paths = fileResolver.getPaths(Arrays.asList("a.warc", "b.warc", "c.warc", "b.warc"));
+        Assert.assertEquals(Arrays.asList("a.warc", "b.warc", "c.warc"), Arrays.asList(paths.keySet().toArray()));
+        Assert.assertEquals(Paths.get("/files/b.warc"), paths.get("b.warc"));
+        Assert.assertNull(paths.get("c.warc"));
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("b.warc", "c.warc")), countingResolver.batches);
+        fileResolver.getPaths(Arrays.asList("a.warc", "b.warc", "c.warc"));
+        Assert.assertEquals(1, countingResolver.batches.size());
+    }
+
+    /** Concurrent lookups of the same filename should be collapsed into one. */
+    @Test
+    public void testConcurrentLookupsAreCollapsed() throws Exception {
+        countingResolver.latch = new CountDownLatch(1);
+        FileResolver fileResolver = new CachingFileResolver(countingResolver, 100, 60000, 60000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] lookups = new Future<?>[4];
+            for (int i = 0; i < lookups.length; i++) {
+                lookups[i] = executor.submit(() -> fileResolver.getPath("a.warc"));
+            }
+            Thread.sleep(100);
+            countingResolver.latch.countDown();
+            for (Future<?> lookup : lookups) {
+                Assert.assertEquals(Paths.get("/files/a.warc"), lookup.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, countingResolver.calls("a.warc"));
+    }
+
+    /** A FileResolver resolving a fixed set of files, counting the lookups of each filename and pattern. */
+    private static class CountingFileResolver implements FileResolver {
+        final List<String> files;
+        final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        final List<List<String>> batches = new ArrayList<>();
+        CountDownLatch latch;
+
+        CountingFileResolver(String... files) {
+            this.files = Arrays.asList(files);
+        }
+
+        int calls(String key) {
+            AtomicInteger count = calls.get(key);
+            return count == null ? 0 : count.get();
+        }
+
+        private void count(String key) {
+            calls.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override public List<Path> getPaths(Pattern filepattern) {
+            count(filepattern.pattern());
+            List<Path> paths = new ArrayList<>();
+            for (String file : files) {
+                if (filepattern.matcher(file).matches()) {
+                    paths.add(Paths.get("/files", file));
+                }
+            }
+            return paths;
+        }
+
+        @Override public Path getPath(String filename) {
+            count(filename);
+            return files.contains(filename) ? Paths.get("/files", filename) : null;
+        }
+
+        @Override public Map<String, Path> getPaths(Collection<String> filenames) {
+            batches.add(new ArrayList<>(filenames));
+            return FileResolver.super.getPaths(filenames);
+        }
+    }
+}
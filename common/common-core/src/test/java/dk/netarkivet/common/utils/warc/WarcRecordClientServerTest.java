@@ -0,0 +1,338 @@
+package dk.netarkivet.common.utils.warc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.service.WarcRecordClient;
+
+/**
+ * Tests of {@link WarcRecordClient} against an in-process HTTPS server, which serves the byte ranges of a WARC file
+ * as the Warc Record Service does.
+ */
+public class WarcRecordClientServerTest {
+
+    private static final String WARC_NAME = "1-1-20181105140044-00000-test.warc";
+    private static final String COMPRESSED_NAME = WARC_NAME + ".gz";
+    private static final String TRUSTSTORE_PASSWORD = "changeit";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private static File workingDir;
+    private static File warcFile;
+    private static HttpsServer server;
+    private static ExecutorService serverExecutor;
+    private static WarcRecordClient client;
+
+    /** The offsets of the records in the WARC file: a warcinfo record, a small, a large and a small resource. */
+    private static long[] offsets;
+    /** The length of each record in the WARC file. */
+    private static long[] lengths;
+
+    /** The Range headers received, in order. */
+    private static final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+    /** The client ports of the requests received, one for each connection used. */
+    private static final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        workingDir = Files.createTempDirectory("WarcRecordClientServerTest").toFile();
+        warcFile = new File(workingDir, WARC_NAME);
+        writeWarcFile();
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        X509Certificate certificate = makeCertificate(keyPair);
+
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("localhost", certificate);
+        File trustStoreFile = new File(workingDir, "truststore");
+        try (OutputStream out = new FileOutputStream(trustStoreFile)) {
+            trustStore.store(out, TRUSTSTORE_PASSWORD.toCharArray());
+        }
+        Settings.set(CommonSettings.ACCESS_TRUSTSTORE_PATH, trustStoreFile.getAbsolutePath());
+        Settings.set(CommonSettings.TRUSTSTORE_PASSWORD, TRUSTSTORE_PASSWORD);
+        // No client certificate.
+        Settings.set(CommonSettings.WRS_KEYFILE, "");
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("localhost", keyPair.getPrivate(), TRUSTSTORE_PASSWORD.toCharArray(),
+                new Certificate[] {certificate});
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, TRUSTSTORE_PASSWORD.toCharArray());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        server = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.createContext("/wrs/", WarcRecordClientServerTest::serveRange);
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+        client = new WarcRecordClient(new URI("https://localhost:" + server.getAddress().getPort() + "/wrs"));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        FileUtils.removeRecursively(workingDir);
+        Settings.reload();
+    }
+
+    @Before
+    public void setUp() {
+        ranges.clear();
+        clientPorts.clear();
+    }
+
+    /**
+     * A record shorter than the first range is read from one bounded response.
+     */
+    @Test
+    public void testGetSmallRecord() throws Exception {
+        BitarchiveRecord record = client.getBitarchiveRecord(WARC_NAME, offsets[1]);
+        assertSameData(1, record);
+        assertEquals(Arrays.asList(range(offsets[1], 64 * 1024)), ranges);
+    }
+
+    /**
+     * A record longer than the first range is requested again with its exact length, over the same connection.
+     */
+    @Test
+    public void testGetLargeRecord() throws Exception {
+        assertTrue("The test record should be larger than the first range", lengths[2] > 64 * 1024);
+        BitarchiveRecord record = client.getBitarchiveRecord(WARC_NAME, offsets[2]);
+        assertSameData(2, record);
+        assertEquals(Arrays.asList(range(offsets[2], 64 * 1024), range(offsets[2], lengths[2])), ranges);
+        assertEquals("The connection should be reused", 1, clientPorts.size());
+    }
+
+    /**
+     * The second range of a large record ends with the last byte before the next record, whatever the client read of
+     * the first response while parsing the record header.
+     */
+    @Test
+    public void testLargeRecordRangeEndsBeforeNextRecord() throws Exception {
+        assertSameData(2, client.getBitarchiveRecord(WARC_NAME, offsets[2]));
+        assertSameData(3, client.getBitarchiveRecord(WARC_NAME, offsets[3]));
+        assertEquals(Arrays.asList("bytes=" + offsets[2] + "-" + (offsets[2] + 64 * 1024 - 1),
+                "bytes=" + offsets[2] + "-" + (offsets[3] - 1),
+                "bytes=" + offsets[3] + "-" + (offsets[3] + 64 * 1024 - 1)), ranges);
+    }
+
+    @Test
+    public void testGetRecordStream() throws Exception {
+        for (int i = 1; i < offsets.length; ++i) {
+            try (InputStream in = client.getRecordStream(WARC_NAME, offsets[i])) {
+                assertNotNull(in);
+                assertArrayEquals("Record " + i, expectedData(i), IOUtils.toByteArray(in));
+            }
+        }
+        assertEquals("The connection should be reused", 1, clientPorts.size());
+    }
+
+    /**
+     * A large record stream closed before its end is not read to the end, so its connection is not reused.
+     */
+    @Test
+    public void testRecordStreamClosedEarly() throws Exception {
+        try (InputStream in = client.getRecordStream(WARC_NAME, offsets[2])) {
+            assertEquals(expectedData(2)[0], in.read());
+        }
+        assertSameData(1, client.getBitarchiveRecord(WARC_NAME, offsets[1]));
+        assertEquals("A new connection should be used after the stream closed early", 2, clientPorts.size());
+    }
+
+    @Test
+    public void testGetBitarchiveRecords() throws Exception {
+        List<Long> requested = new ArrayList<Long>();
+        for (long offset : offsets) {
+            requested.add(offset);
+        }
+        requested.add(offsets[1]);
+        Map<Long, BitarchiveRecord> records = client.getBitarchiveRecords(WARC_NAME, requested);
+        assertEquals("Expect one record per offset", offsets.length, records.size());
+        for (int i = 1; i < offsets.length; ++i) {
+            assertSameData(i, records.get(offsets[i]));
+        }
+        assertNotNull(records.get(0L));
+        assertNull("A record that cannot be read should map to null",
+                client.getBitarchiveRecords(WARC_NAME, Arrays.asList(offsets[1] + 1)).get(offsets[1] + 1));
+    }
+
+    /**
+     * The length of a record in a compressed file is not known, so the rest of the file is requested, and the
+     * connection is closed after the record.
+     */
+    @Test
+    public void testCompressedFileRequestsRestOfFile() throws Exception {
+        for (int i = 0; i < 2; ++i) {
+            try (InputStream in = client.getRecordStream(COMPRESSED_NAME, offsets[1])) {
+                assertArrayEquals(expectedData(1), IOUtils.toByteArray(in));
+            }
+        }
+        assertEquals(Arrays.asList("bytes=" + offsets[1] + "-", "bytes=" + offsets[1] + "-"), ranges);
+        assertEquals("Each request should use a new connection", 2, clientPorts.size());
+    }
+
+    private static void assertSameData(int i, BitarchiveRecord record) throws IOException {
+        assertNotNull("Record " + i, record);
+        assertArrayEquals("Record " + i, expectedData(i), IOUtils.toByteArray(record.getData()));
+    }
+
+    /** @return the data of a record, as a BitarchiveRecord read directly from the file gives it. */
+    private static byte[] expectedData(int i) throws IOException {
+        try (ArchiveReader reader = ArchiveReaderFactory.get(warcFile)) {
+            BitarchiveRecord record = new BitarchiveRecord(reader.get(offsets[i]), WARC_NAME);
+            return IOUtils.toByteArray(record.getData());
+        }
+    }
+
+    private static String range(long offset, long length) {
+        return "bytes=" + offset + "-" + (offset + length - 1);
+    }
+
+    /**
+     * Serve a byte range of the WARC file, as the Warc Record Service does. The compressed file name gets the
+     * uncompressed records, as the service inflates them.
+     */
+    private static void serveRange(HttpExchange exchange) throws IOException {
+        try {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.add(range);
+            String name = exchange.getRequestURI().getPath().substring("/wrs/".length());
+            Matcher matcher = RANGE.matcher(range);
+            if (!(name.equals(WARC_NAME) || name.equals(COMPRESSED_NAME)) || !matcher.matches()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            long from = Long.parseLong(matcher.group(1));
+            long to = matcher.group(2).isEmpty() ? warcFile.length() - 1
+                    : Math.min(Long.parseLong(matcher.group(2)), warcFile.length() - 1);
+            byte[] bytes = new byte[(int) (to - from + 1)];
+            try (RandomAccessFile raf = new RandomAccessFile(warcFile, "r")) {
+                raf.seek(from);
+                raf.readFully(bytes);
+            }
+            exchange.sendResponseHeaders(206, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            } catch (IOException e) {
+                // The client closed the connection before the end of the range.
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Write a warcinfo record followed by resource records of 1 KB, 200 KB and 1 KB. */
+    private static void writeWarcFile() throws IOException {
+        int[] blockSizes = {0, 1024, 200 * 1024, 1024};
+        offsets = new long[blockSizes.length];
+        lengths = new long[blockSizes.length];
+        ByteArrayOutputStream warc = new ByteArrayOutputStream();
+        for (int i = 0; i < blockSizes.length; ++i) {
+            byte[] block;
+            String header;
+            if (i == 0) {
+                block = "software: WarcRecordClientServerTest\r\n".getBytes(StandardCharsets.US_ASCII);
+                header = "WARC-Type: warcinfo\r\n" + "WARC-Filename: " + WARC_NAME + "\r\n"
+                        + "Content-Type: application/warc-fields\r\n";
+            } else {
+                block = new byte[blockSizes[i]];
+                for (int j = 0; j < block.length; ++j) {
+                    block[j] = (byte) ('a' + (i + j) % 26);
+                }
+                header = "WARC-Type: resource\r\n" + "WARC-Target-URI: http://netarkivet.dk/" + i + "\r\n"
+                        + "Content-Type: text/plain\r\n";
+            }
+            byte[] record = ("WARC/1.0\r\n" + header
+                    + "WARC-Date: 2018-11-05T14:00:44Z\r\n"
+                    + "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n"
+                    + "Content-Length: " + block.length + "\r\n"
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            offsets[i] = warc.size();
+            warc.write(record);
+            warc.write(block);
+            warc.write("\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            lengths[i] = warc.size() - offsets[i];
+        }
+        FileUtils.writeBinaryFile(warcFile, warc.toByteArray());
+    }
+
+    private static X509Certificate makeCertificate(KeyPair keyPair) throws Exception {
+        X500Name name = new X500Name("CN=localhost");
+        long now = System.currentTimeMillis();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+                new Date(now - 60 * 1000L), new Date(now + 24 * 60 * 60 * 1000L), name, keyPair.getPublic());
+        builder.addExtension(Extension.subjectAlternativeName, false,
+                new GeneralNames(new GeneralName(GeneralName.dNSName, "localhost")));
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+    }
+
+}
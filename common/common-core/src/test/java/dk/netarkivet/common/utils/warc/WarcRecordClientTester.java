@@ -1,5 +1,7 @@
 package dk.netarkivet.common.utils.warc;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -9,8 +11,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 import org.archive.io.ArchiveReader;
@@ -97,6 +102,34 @@ public class WarcRecordClientTester {
         }
     }
 
+    // the streamed record data should be the same as the data of the BitarchiveRecord
+    @Test
+    public void testGetRecordStream() throws Exception {
+        String filename = "10-4-20161218234343407-00000-kb-test-har-003.kb.dk.warc.gz";
+        URI HOST = new URI("http://localhost:8883/cgi-bin2/py1.cgi");
+        long offset = 3442L;
+        WarcRecordClient warcRecordClient = new WarcRecordClient(HOST);
+        BitarchiveRecord bitarchiveRecord = warcRecordClient.getBitarchiveRecord(filename, offset);
+        try (InputStream recordStream = warcRecordClient.getRecordStream(filename, offset)) {
+            assertNotNull("Expect non null record stream", recordStream);
+            assertArrayEquals("Expect the same data as the BitarchiveRecord",
+                    IOUtils.toByteArray(bitarchiveRecord.getData()), IOUtils.toByteArray(recordStream));
+        }
+    }
+
+    @Test
+    public void testGetBitarchiveRecords() throws Exception {
+        String filename = "10-4-20161218234343407-00000-kb-test-har-003.kb.dk.warc.gz";
+        URI HOST = new URI("http://localhost:8883/cgi-bin2/py1.cgi");
+        WarcRecordClient warcRecordClient = new WarcRecordClient(HOST);
+        Map<Long, BitarchiveRecord> records = warcRecordClient.getBitarchiveRecords(filename,
+                Arrays.asList(0L, 3442L, 3442L));
+        assertEquals("Expect one record per offset", 2, records.size());
+        for (BitarchiveRecord bitarchiveRecord : records.values()) {
+            assertNotNull("Expect non null record", bitarchiveRecord);
+        }
+    }
+
     //@Test
     public void testPosBuildingBitarchiveRecord6() throws Exception {
         String filename = "2-2-20060731110420-00000-sb-test-har-001.statsbiblioteket.dk.arc";
@@ -23,6 +23,7 @@
 
 package dk.netarkivet.common.distribute;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -289,7 +290,7 @@ public class JMSConnectionMockupMQ extends JMSConnection {
         }
 
         public BytesMessage createBytesMessage() throws JMSException {
-            throw new NotImplementedException("Not implemented");
+            return new TestBytesMessage();
         }
 
         public MessageProducer createProducer(Destination destination) throws JMSException {
@@ -341,7 +342,7 @@ public class JMSConnectionMockupMQ extends JMSConnection {
         }
 
         public void close() throws JMSException {
-            throw new NotImplementedException("Not implemented");
+            // Consumers are closed individually in the mockup
         }
 
         public void recover() throws JMSException {
@@ -816,6 +817,145 @@ public class JMSConnectionMockupMQ extends JMSConnection {
 
     } // end WrappedMessage
 
+    /**
+     * A BytesMessage for messages encoded with a codec. It is also a TestObjectMessage, so tests inspecting sent
+     * messages can get the decoded message with getObject().
+     */
+    public static class TestBytesMessage extends TestObjectMessage implements BytesMessage {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private int readPosition;
+
+        public TestBytesMessage() {
+            super(null);
+        }
+
+        public Serializable getObject() throws JMSException {
+            return MessageCodecs.decode(written.toByteArray());
+        }
+
+        public long getBodyLength() throws JMSException {
+            return written.size();
+        }
+
+        public int readBytes(byte[] bytes) throws JMSException {
+            byte[] data = written.toByteArray();
+            if (readPosition >= data.length) {
+                return -1;
+            }
+            int length = Math.min(bytes.length, data.length - readPosition);
+            System.arraycopy(data, readPosition, bytes, 0, length);
+            readPosition += length;
+            return length;
+        }
+
+        public void writeBytes(byte[] bytes) throws JMSException {
+            written.write(bytes, 0, bytes.length);
+        }
+
+        public void writeBytes(byte[] bytes, int offset, int length) throws JMSException {
+            written.write(bytes, offset, length);
+        }
+
+        public void reset() throws JMSException {
+            readPosition = 0;
+        }
+
+        // Empty implementation in methods - require to be implemented by the
+        // javax.jms.BytesMessage interface
+
+        public boolean readBoolean() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public byte readByte() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public int readUnsignedByte() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public short readShort() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public int readUnsignedShort() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public char readChar() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public int readInt() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public long readLong() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public float readFloat() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public double readDouble() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public String readUTF() throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public int readBytes(byte[] bytes, int length) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeBoolean(boolean b) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeByte(byte b) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeShort(short i) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeChar(char c) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeInt(int i) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeLong(long l) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeFloat(float v) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeDouble(double v) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeUTF(String s) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public void writeObject(Object o) throws JMSException {
+            throw new NotImplementedException("Empty implementation - dummy method");
+        }
+
+        public String toString() {
+            return "TestBytesMessage: " + written.size() + " bytes";
+        }
+    }
+
     protected static class CallOnMessageThread extends Thread {
         private final MessageListener listener;
         private final TestObjectMessage msg;
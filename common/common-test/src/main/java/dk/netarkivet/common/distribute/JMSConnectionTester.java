@@ -31,7 +31,10 @@ import static org.junit.Assert.fail;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 
 import javax.jms.Destination;
@@ -304,6 +307,97 @@ public class JMSConnectionTester {
         assertNotNull("Message should now have an id", msg.getID());
     }
 
+    /**
+     * Tests that messages sent from several threads at once are all sent, and counted in the channel statistics.
+     */
+    @Test
+    public void testConcurrentSends() throws Exception {
+        Settings.set(CommonSettings.JMS_BROKER_CLASS, "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
+        final JMSConnection con = JMSConnectionFactory.getInstance();
+        con.initConnection();
+        final ChannelID sendChannel = Channels.getTheRepos();
+        JMSChannelStatistics before = JMSConnection.getChannelStatistics().get(sendChannel.getName());
+        long sentBefore = before == null ? 0 : before.getMessagesSent();
+
+        final int threadCount = 8;
+        final int messagesPerThread = 25;
+        final List<NetarkivetMessage> sent = Collections.synchronizedList(new ArrayList<NetarkivetMessage>());
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int threadNo = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < messagesPerThread; j++) {
+                        NetarkivetMessage msg = new TestMessage(sendChannel, Channels.getTheBamon(), threadNo + "-" + j);
+                        con.send(msg);
+                        sent.add(msg);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("All messages should have been sent", threadCount * messagesPerThread, sent.size());
+        for (NetarkivetMessage msg : sent) {
+            assertNotNull("Message should now have an id", msg.getID());
+        }
+        assertEquals("All sent messages should be counted", sentBefore + threadCount * messagesPerThread,
+                JMSConnection.getChannelStatistics().get(sendChannel.getName()).getMessagesSent());
+    }
+
+    /**
+     * Tests that only the queues named in the settings get several consumers.
+     */
+    @Test
+    public void testConfiguredConsumerCount() {
+        Settings.set(CommonSettings.JMS_CONCURRENT_QUEUES, "INDEX_SERVER, ANY_BA");
+        Settings.set(CommonSettings.JMS_CONSUMERS_PER_QUEUE, "3");
+        assertEquals("The index server queue should be consumed concurrently", 3,
+                JMSConnection.getConfiguredConsumerCount(Channels.getTheIndexServer().getName()));
+        assertEquals("The bitarchive queue should be consumed concurrently", 3,
+                JMSConnection.getConfiguredConsumerCount(Channels.getAnyBa().getName()));
+        assertEquals("Other queues should have one consumer", 1,
+                JMSConnection.getConfiguredConsumerCount(Channels.getTheRepos().getName()));
+        assertEquals("Names should only match whole parts of the channel name", 1,
+                JMSConnection.getConfiguredConsumerCount("TEST_COMMON_INDEX_SERVERS"));
+
+        Settings.set(CommonSettings.JMS_CONCURRENT_QUEUES, "");
+        assertEquals("No queues should be consumed concurrently by default", 1,
+                JMSConnection.getConfiguredConsumerCount(Channels.getTheIndexServer().getName()));
+    }
+
+    /**
+     * Tests that a listener with several consumers receives messages, and can be removed again.
+     */
+    @Test
+    public void testSetListenerWithSeveralConsumers() throws Exception {
+        Settings.set(CommonSettings.JMS_BROKER_CLASS, "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
+        JMSConnectionMockupMQ con = (JMSConnectionMockupMQ) JMSConnectionFactory.getInstance();
+        ChannelID channel = Channels.getTheIndexServer();
+        final List<NetarkivetMessage> received = Collections.synchronizedList(new ArrayList<NetarkivetMessage>());
+        MessageListener listener = new MessageListener() {
+            public void onMessage(Message message) {
+                received.add(JMSConnection.unpack(message));
+            }
+        };
+
+        con.setListener(channel, listener, 3);
+        assertEquals("Consumer on the main session should be registered", listener,
+                con.consumers.get(channel.getName() + "##" + listener).getMessageListener());
+        for (int i = 0; i < 10; i++) {
+            con.send(new TestMessage(channel, Channels.getTheBamon(), "msg" + i));
+        }
+        con.waitForConcurrentTasksToFinish();
+        assertEquals("All messages should be received", 10, received.size());
+
+        con.removeListener(channel, listener);
+        assertTrue("No listeners should be left on the channel", con.getListeners(channel).isEmpty());
+        assertFalse("Consumer should be removed", con.consumers.containsKey(channel.getName() + "##" + listener));
+    }
+
     @Test
     public void testSetListener() throws JMSException, NoSuchFieldException, IllegalAccessException {
         Settings.set(CommonSettings.JMS_BROKER_CLASS, "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
@@ -0,0 +1,230 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.MockupJMS;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Tests the binary encoding of messages with codecs.
+ */
+@SuppressWarnings({"serial"})
+public class MessageCodecsTester {
+    private static final ChannelID toQ = Channels.getTheRepos();
+    private static final ChannelID replyToQ = Channels.getTheBamon();
+
+    ReloadSettings rs = new ReloadSettings();
+    MockupJMS mj = new MockupJMS();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        mj.setUp();
+        Settings.set(CommonSettings.JMS_COMPRESSION_THRESHOLD, "1024");
+        MessageCodecs.reset();
+        MessageCodecs.register(new CodecTestMessageCodec());
+    }
+
+    @After
+    public void tearDown() {
+        MessageCodecs.reset();
+        mj.tearDown();
+        rs.tearDown();
+    }
+
+    /**
+     * Test that the fields of the message, its channels, id and error state survive encoding.
+     */
+    @Test
+    public void testRoundTrip() {
+        CodecTestMessage msg = new CodecTestMessage(toQ, replyToQ, "some text", 42L);
+        msg.updateId("ID:1");
+        msg.setNotOk("first error");
+        msg.setNotOk("second error");
+
+        byte[] data = MessageCodecs.encode(msg);
+        assertEquals("Small messages should not be compressed", 0, data[1]);
+        CodecTestMessage decoded = (CodecTestMessage) MessageCodecs.decode(data);
+        assertEquals("Text should survive", "some text", decoded.text);
+        assertEquals("Number should survive", 42L, decoded.number);
+        assertEquals("To should survive", toQ, decoded.getTo());
+        assertEquals("ReplyTo should survive", replyToQ, decoded.getReplyTo());
+        assertEquals("Id should survive", "ID:1", decoded.getID());
+        assertEquals("ReplyOfId should survive", "ID:1", decoded.getReplyOfId());
+        assertFalse("Error state should survive", decoded.isOk());
+        assertEquals("Error message should survive", msg.getErrMsg(), decoded.getErrMsg());
+
+        CodecTestMessage unsent = (CodecTestMessage) MessageCodecs.decode(MessageCodecs.encode(new CodecTestMessage(
+                toQ, replyToQ, null, 0L)));
+        assertFalse("Unsent message should still be unsent", unsent.hasBeenSent());
+        assertTrue("Message should be ok", unsent.isOk());
+        assertNull("Null text should survive", unsent.text);
+    }
+
+    /**
+     * Test that large messages are compressed, and that the binary form is smaller than Java serialization.
+     */
+    @Test
+    public void testCompressionAndSize() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("http://www.netarkivet.dk/page").append(i).append('\n');
+        }
+        CodecTestMessage msg = new CodecTestMessage(toQ, replyToQ, text.toString(), 1L);
+        byte[] data = MessageCodecs.encode(msg);
+        assertEquals("Large messages should be compressed", 1, data[1]);
+        assertEquals("Text should survive compression", text.toString(),
+                ((CodecTestMessage) MessageCodecs.decode(data)).text);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+            oos.writeObject(msg);
+        }
+        assertTrue("Binary form should be smaller than Java serialization, but was " + data.length + " vs "
+                + serialized.size(), data.length < serialized.size());
+
+        Settings.set(CommonSettings.JMS_COMPRESSION_THRESHOLD, "-1");
+        MessageCodecs.reset();
+        MessageCodecs.register(new CodecTestMessageCodec());
+        assertEquals("Compression should be disabled", 0, MessageCodecs.encode(msg)[1]);
+    }
+
+    /**
+     * Test that invalid or unknown content is rejected.
+     */
+    @Test
+    public void testInvalidInput() {
+        byte[] data = MessageCodecs.encode(new CodecTestMessage(toQ, replyToQ, "text", 1L));
+        MessageCodecs.reset();
+        try {
+            MessageCodecs.decode(data);
+            fail("Should not decode message without a codec");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+        try {
+            MessageCodecs.decode(new byte[] {99, 0, 1, 2});
+            fail("Should not decode unknown format");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+        try {
+            MessageCodecs.encode(new CodecTestMessage(toQ, replyToQ, "text", 1L));
+            fail("Should not encode message without a codec");
+        } catch (ArgumentNotValid e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test that codecs are registered from the settings, and that unknown codecs are skipped.
+     */
+    @Test
+    public void testCodecsFromSettings() {
+        MessageCodecs.reset();
+        assertNull("No codecs should be registered by default", MessageCodecs.getCodec(CodecTestMessage.class));
+
+        Settings.set(CommonSettings.JMS_MESSAGE_CODECS, "dk.netarkivet.common.distribute.NoSuchCodec, "
+                + CodecTestMessageCodec.class.getName());
+        MessageCodecs.reset();
+        assertNotNull("Codec should be registered from settings", MessageCodecs.getCodec(CodecTestMessage.class));
+    }
+
+    /**
+     * Test that messages with a codec are sent as BytesMessages and unpacked by the listener.
+     */
+    @Test
+    public void testSendWithCodec() {
+        JMSConnectionMockupMQ con = (JMSConnectionMockupMQ) JMSConnectionFactory.getInstance();
+        final List<NetarkivetMessage> received = Collections.synchronizedList(new ArrayList<NetarkivetMessage>());
+        MessageListener listener = new MessageListener() {
+            public void onMessage(Message message) {
+                received.add(JMSConnection.unpack(message));
+            }
+        };
+        con.setListener(toQ, listener);
+        CodecTestMessage msg = new CodecTestMessage(toQ, replyToQ, "sent text", 7L);
+        con.send(msg);
+        con.waitForConcurrentTasksToFinish();
+
+        assertEquals("Should receive the message", 1, received.size());
+        CodecTestMessage decoded = (CodecTestMessage) received.get(0);
+        assertEquals("Text should survive", "sent text", decoded.text);
+        assertEquals("Received message should have the id of the sent message", msg.getID(), decoded.getID());
+        con.removeListener(toQ, listener);
+    }
+
+    /** A message with a codec. */
+    static class CodecTestMessage extends NetarkivetMessage {
+        final String text;
+        final long number;
+
+        CodecTestMessage(ChannelID to, ChannelID replyTo, String text, long number) {
+            super(to, replyTo);
+            this.text = text;
+            this.number = number;
+        }
+    }
+
+    /** The codec for CodecTestMessage. */
+    public static class CodecTestMessageCodec implements NetarkivetMessageCodec<CodecTestMessage> {
+        public Class<CodecTestMessage> getMessageClass() {
+            return CodecTestMessage.class;
+        }
+
+        public void writeMessage(CodecTestMessage msg, DataOutput out) throws IOException {
+            MessageCodecs.writeString(out, msg.text);
+            out.writeLong(msg.number);
+        }
+
+        public CodecTestMessage readMessage(ChannelID to, ChannelID replyTo, DataInput in) throws IOException {
+            return new CodecTestMessage(to, replyTo, MessageCodecs.readString(in), in.readLong());
+        }
+    }
+}
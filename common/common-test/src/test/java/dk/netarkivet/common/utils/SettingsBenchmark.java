@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import dk.netarkivet.common.CommonSettings;
+
+/**
+ * Microbenchmark of settings lookups from many threads at once, as done per record or per file by batch jobs. The
+ * cached lookups of {@link Settings} are compared with the lookup done before caching: evaluating XPath expressions on
+ * the settings document while holding a lock.
+ * <p>
+ * Run with e.g. 16 threads:
+ *
+ * <pre>
+ * java -cp ... dk.netarkivet.common.utils.SettingsBenchmark -t 16
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class SettingsBenchmark {
+
+    /** The setting looked up. */
+    private static final String KEY = CommonSettings.BATCH_LOGGING_INTERVAL;
+
+    /** The default common settings file in classpath. */
+    private static final String DEFAULT_SETTINGS_CLASSPATH = "dk/netarkivet/common/settings.xml";
+
+    /** The default common settings, as loaded by Settings. */
+    private SimpleXml settingsXml;
+
+    /** Load the settings. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        settingsXml = new SimpleXml(Thread.currentThread().getContextClassLoader()
+                .getResourceAsStream(DEFAULT_SETTINGS_CLASSPATH));
+        // Make sure the default settings are loaded by Settings too.
+        Settings.get(CommonSettings.ENVIRONMENT_NAME);
+    }
+
+    /**
+     * Look up a setting with Settings.
+     *
+     * @return The value.
+     */
+    @Benchmark
+    public String cachedGet() {
+        return Settings.get(KEY);
+    }
+
+    /**
+     * Look up a setting and parse it with Settings.
+     *
+     * @return The parsed value.
+     */
+    @Benchmark
+    public long cachedGetLong() {
+        return Settings.getLong(KEY);
+    }
+
+    /**
+     * Look up a setting the way Settings did before caching.
+     *
+     * @return The value.
+     */
+    @Benchmark
+    public String synchronizedXPathGet() {
+        String val = System.getProperty(KEY);
+        if (val != null) {
+            return val;
+        }
+        synchronized (settingsXml) {
+            if (settingsXml.hasKey(KEY)) {
+                return settingsXml.getString(KEY);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Look up a setting and parse it the way Settings did before caching.
+     *
+     * @return The parsed value.
+     */
+    @Benchmark
+    public long synchronizedXPathGetLong() {
+        return Long.parseLong(synchronizedXPathGet());
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args JMH command line options, e.g. the number of threads.
+     * @throws CommandLineOptionException If the options cannot be parsed.
+     * @throws RunnerException If the benchmark fails.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(SettingsBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+
+}
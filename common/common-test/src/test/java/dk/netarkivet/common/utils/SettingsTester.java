@@ -176,6 +176,39 @@ public class SettingsTester {
         assertEquals("Did not return set value: ", Settings.getLong(key), val);
     }
 
+    /**
+     * Test that cached values, missing keys and parsed values are forgotten when the settings change.
+     */
+    @Test
+    public void testCachedValuesFollowChanges() {
+        String key = "settings.for.test.purposes6";
+        try {
+            Settings.get(key);
+            fail("Should throw UnknownID for invented key " + key);
+        } catch (UnknownID e) {
+            // expected
+        }
+        Settings.set(key, "1");
+        assertEquals("Should see the value set after a failed lookup", 1, Settings.getInt(key));
+        Settings.set(key, "2");
+        assertEquals("Should see the value set after a lookup", 2, Settings.getInt(key));
+        assertEquals("Should see the value set after a lookup", "2", Settings.getAll(key)[0]);
+        System.setProperty(key, "3");
+        try {
+            assertEquals("System properties should override cached values", 3, Settings.getInt(key));
+        } finally {
+            System.clearProperty(key);
+        }
+        assertEquals("Should see the value set when the property is removed", 2, Settings.getInt(key));
+        Settings.reload();
+        try {
+            Settings.get(key);
+            fail("Should forget the value set on reload");
+        } catch (UnknownID e) {
+            // expected
+        }
+    }
+
     /**
      * Test that getLong fails when value cannot be parsed as long
      */
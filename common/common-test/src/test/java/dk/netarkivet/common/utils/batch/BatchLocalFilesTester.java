@@ -27,14 +27,21 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
 /**
  * Unit test for BatchLocalFiles.
  */
@@ -61,8 +68,11 @@ public class BatchLocalFilesTester {
     // Output stream for batch job
     OutputStream os;
 
+    ReloadSettings rs = new ReloadSettings();
+
     @Before
     public void setUp() throws Exception {
+        rs.setUp();
         initialized = 0;
         processed = 0;
         finished = 0;
@@ -74,6 +84,11 @@ public class BatchLocalFilesTester {
         os = new ByteArrayOutputStream();
     }
 
+    @After
+    public void tearDown() {
+        rs.tearDown();
+    }
+
     /**
      * Tests ordinary, non-failing execution of a batch job.
      */
@@ -201,6 +216,80 @@ public class BatchLocalFilesTester {
         assertEquals(1, finished);
     }
 
+    /**
+     * Verify that a parallelizable job run on several threads gives the output of a sequential run, in the order of the
+     * files, and that processed and failed files are counted correctly.
+     */
+    @Test
+    public void testParallelRun() throws IOException {
+        File[] manyFiles = new File[30];
+        for (int i = 0; i < manyFiles.length; i++) {
+            manyFiles[i] = testFiles[i % FILES];
+        }
+        ByteArrayOutputStream sequentialOutput = new ByteArrayOutputStream();
+        ParallelTestJob sequentialJob = new ParallelTestJob();
+        new BatchLocalFiles(manyFiles).run(sequentialJob, sequentialOutput);
+
+        Settings.set(CommonSettings.BATCH_THREADS, "4");
+        ByteArrayOutputStream parallelOutput = new ByteArrayOutputStream();
+        ParallelTestJob parallelJob = new ParallelTestJob();
+        new BatchLocalFiles(manyFiles).run(parallelJob, parallelOutput);
+
+        assertEquals("Parallel output should equal sequential output", sequentialOutput.toString(),
+                parallelOutput.toString());
+        assertTrue("Output should contain the 'initialize' and 'finish' lines",
+                parallelOutput.toString().startsWith("initialize\n") && parallelOutput.toString().endsWith("finish\n"));
+        assertEquals("Should count all files", manyFiles.length, parallelJob.getNoOfFilesProcessed());
+        assertEquals("Should process all files", manyFiles.length, parallelJob.calls.get());
+        assertEquals("Files failing or throwing exceptions should be failed",
+                new HashSet<File>(Arrays.asList(testFiles[1], testFiles[2])),
+                new HashSet<File>(parallelJob.getFilesFailed()));
+    }
+
+    /**
+     * A parallelizable job writing a line per file, failing on the second test file and throwing an exception on the
+     * third.
+     */
+    private class ParallelTestJob extends FileBatchJob {
+        /** The number of processFile calls. */
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public void initialize(OutputStream os) {
+            write(os, "initialize");
+        }
+
+        public boolean processFile(File file, OutputStream os) {
+            int call = calls.incrementAndGet();
+            try {
+                Thread.sleep(call % 3 * 5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            write(os, "start " + file.getName());
+            if (file.equals(testFiles[2])) {
+                throw new RuntimeException("testParallelRun");
+            }
+            write(os, "end " + file.getName());
+            return !file.equals(testFiles[1]);
+        }
+
+        public void finish(OutputStream os) {
+            write(os, "finish");
+        }
+
+        public boolean isParallelizable() {
+            return true;
+        }
+
+        private void write(OutputStream os, String line) {
+            try {
+                os.write((line + "\n").getBytes());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * A very simple FileBatchJob that simply counts relevant method calls in the parents class's designated fields.
      */
@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Microbenchmark comparing lookups per second in a large sorted CDX file with {@link BinSearch} and with
+ * {@link MappedCDXFile}.
+ * <p>
+ * By default a sorted CDX file of <code>sizeMb</code> megabytes is generated in the temp dir for the run. An existing
+ * sorted CDX file can be used instead by giving its path as the <code>cdxFile</code> parameter, e.g.
+ *
+ * <pre>
+ * java -cp ... dk.netarkivet.common.utils.cdx.CDXLookupBenchmark -p cdxFile=/data/index/all.cdx -t 8
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CDXLookupBenchmark {
+
+    /** The number of URIs looked up at random. */
+    private static final int NUMBER_OF_SAMPLES = 100000;
+
+    /** An existing sorted CDX file to use. If empty, a file is generated. */
+    @Param("")
+    public String cdxFile;
+
+    /** The size of the generated CDX file in megabytes. */
+    @Param("2048")
+    public int sizeMb;
+
+    /** The block size of the index of the mapped file. */
+    @Param("16384")
+    public int blockSize;
+
+    /** The file looked up in. */
+    private File file;
+    /** Whether the file was generated, and should be removed afterwards. */
+    private boolean generated;
+    /** URIs occurring in the file. */
+    private String[] uris;
+    /** The mapped file. */
+    private MappedCDXFile mapped;
+
+    /**
+     * Generate or open the CDX file and pick URIs to look up.
+     *
+     * @throws IOException If the file cannot be written or read.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (cdxFile.isEmpty()) {
+            file = File.createTempFile("CDXLookupBenchmark", ".cdx");
+            generated = true;
+            generateSortedCDX(file, sizeMb * 1024L * 1024L);
+        } else {
+            file = new File(cdxFile);
+        }
+        uris = sampleURIs(file, NUMBER_OF_SAMPLES);
+        mapped = new MappedCDXFile(file, blockSize);
+    }
+
+    /** Close and remove the CDX file. */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mapped.close();
+        if (generated) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Look up a random URI with BinSearch.
+     *
+     * @return The number of lines found.
+     */
+    @Benchmark
+    public int binSearch() {
+        return count(BinSearch.getLinesInFile(file, randomURI()));
+    }
+
+    /**
+     * Look up a random URI in the memory mapped file.
+     *
+     * @return The number of lines found.
+     */
+    @Benchmark
+    public int mappedCDXFile() {
+        return count(mapped.getLinesStartingWith(randomURI()));
+    }
+
+    /** @return One of the sampled URIs, followed by the field separator. */
+    private String randomURI() {
+        return uris[ThreadLocalRandom.current().nextInt(uris.length)];
+    }
+
+    /**
+     * Count the lines of an Iterable, reading them all.
+     *
+     * @param lines Some lines.
+     * @return The number of lines.
+     */
+    private static int count(Iterable<String> lines) {
+        int count = 0;
+        for (Iterator<String> it = lines.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Write a CDX file with increasing URIs until it has at least the given size.
+     *
+     * @param file The file to write.
+     * @param size The minimum size of the file in bytes.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void generateSortedCDX(File file, long size) throws IOException {
+        Random random = new Random(42);
+        long written = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.US_ASCII), 1 << 20)) {
+            for (long domain = 0; written < size; domain++) {
+                int pages = 1 + random.nextInt(50);
+                for (int page = 0; page < pages; page++) {
+                    String line = String.format("http://www.domain%010d.dk/page%05d.html 10.0.%d.%d "
+                            + "20181001120000 text/html %d 1-1-20181001120000-%05d-sb-prod-har-001.warc %d\n",
+                            domain, page, random.nextInt(256), random.nextInt(256), random.nextInt(100000),
+                            domain % 100000, random.nextInt(Integer.MAX_VALUE));
+                    out.write(line);
+                    written += line.length();
+                }
+            }
+        }
+    }
+
+    /**
+     * Pick the URIs of lines at random offsets in a CDX file.
+     *
+     * @param file A CDX file.
+     * @param count The number of URIs to pick.
+     * @return The URIs, each followed by a space so only that URI is matched.
+     * @throws IOException If the file cannot be read.
+     */
+    private static String[] sampleURIs(File file, int count) throws IOException {
+        String[] result = new String[count];
+        Random random = new Random(4711);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            for (int i = 0; i < count; i++) {
+                String line;
+                do {
+                    in.seek((long) (random.nextDouble() * in.length()));
+                    in.readLine();
+                    line = in.readLine();
+                } while (line == null);
+                result[i] = line.substring(0, line.indexOf(' ') + 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args JMH command line options, e.g. parameters or the number of threads.
+     * @throws CommandLineOptionException If the options cannot be parsed.
+     * @throws RunnerException If the benchmark fails.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(CDXLookupBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+
+}
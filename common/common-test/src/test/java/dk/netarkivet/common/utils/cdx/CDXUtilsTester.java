@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.archive.ArchiveProfile;
+
+/**
+ * Unit tests for the CDXUtils class.
+ */
+public class CDXUtilsTester {
+
+    private File sequentialDir;
+    private File parallelDir;
+
+    @Before
+    public void setUp() throws IOException {
+        sequentialDir = Files.createTempDirectory("CDXUtilsTester-sequential").toFile();
+        parallelDir = Files.createTempDirectory("CDXUtilsTester-parallel").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(sequentialDir);
+        FileUtils.removeRecursively(parallelDir);
+    }
+
+    /**
+     * Test that indexing the files on several threads gives the same CDX files as indexing one file at a time.
+     */
+    @Test
+    public void testGenerateCDXInParallel() {
+        CDXUtils.generateCDX(ArchiveProfile.WARC_PROFILE, TestInfo.WARC_DIR, sequentialDir);
+        CDXUtils.generateCDX(ArchiveProfile.WARC_PROFILE, TestInfo.WARC_DIR, parallelDir, 3);
+
+        String[] names = sequentialDir.list();
+        assertEquals("Should generate a CDX file per WARC file", 3, names.length);
+        for (String name : names) {
+            File sequentialFile = new File(sequentialDir, name);
+            File parallelFile = new File(parallelDir, name);
+            assertTrue("Should also generate " + name + " on several threads", parallelFile.isFile());
+            assertTrue("Should index some records in " + name, sequentialFile.length() > 0);
+            assertArrayEquals("Should generate the same index for " + name,
+                    FileUtils.readListFromFile(sequentialFile).toArray(),
+                    FileUtils.readListFromFile(parallelFile).toArray());
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.IteratorUtils;
+
+/**
+ * Unit tests for the MappedCDXFile and CDXFilePool classes.
+ */
+public class MappedCDXFileTester {
+
+    /**
+     * Test that lookups give the same lines as BinSearch, also when the index blocks are tiny and lines cross the
+     * boundaries between mapped chunks.
+     */
+    @Test
+    public void testSameResultsAsBinSearch() {
+        for (File file : new File[] {TestInfo.CDX_FILE1, TestInfo.CDX_FILE2, TestInfo.SORTED_CDX_FILE}) {
+            Set<String> prefixes = new LinkedHashSet<String>(Arrays.asList("http://fnord/", "http://xenophile.dk/",
+                    "dns:101", "~", " "));
+            for (String line : FileUtils.readListFromFile(file)) {
+                for (int prefixLength : new int[] {1, 10, 25, line.indexOf(' '), line.length()}) {
+                    prefixes.add(line.substring(0, Math.min(Math.max(prefixLength, 0), line.length())));
+                }
+            }
+            MappedCDXFile[] mappedFiles = new MappedCDXFile[] {new MappedCDXFile(file, 64, 128),
+                    new MappedCDXFile(file, 1000, 4096), new MappedCDXFile(file, MappedCDXFile.DEFAULT_BLOCK_SIZE)};
+            for (String prefix : prefixes) {
+                List<String> expected = findLines(file, prefix);
+                for (MappedCDXFile mapped : mappedFiles) {
+                    assertEquals("Should find the same lines for '" + prefix + "' in " + mapped, expected,
+                            IteratorUtils.toList(mapped.getLinesStartingWith(prefix).iterator()));
+                }
+            }
+            for (MappedCDXFile mapped : mappedFiles) {
+                mapped.close();
+            }
+        }
+    }
+
+    /**
+     * Test that the sparse index has the expected number of entries and that lookups in an empty file work.
+     */
+    @Test
+    public void testIndexSize() {
+        MappedCDXFile mapped = new MappedCDXFile(TestInfo.CDX_FILE1, (int) TestInfo.CDX_FILE1.length() + 1);
+        assertEquals("Should have one index entry when the block is larger than the file", 1, mapped.getIndexSize());
+        mapped = new MappedCDXFile(TestInfo.CDX_FILE1, 1);
+        assertEquals("Should have one index entry per line with one byte blocks",
+                FileUtils.readListFromFile(TestInfo.CDX_FILE1).size(), mapped.getIndexSize());
+
+        mapped = new MappedCDXFile(TestInfo.CDX_FILE3, 64);
+        assertEquals("Should have no index entries for an empty file", 0, mapped.getIndexSize());
+        assertFalse("Should find nothing in an empty file", mapped.getLinesStartingWith("http://").iterator()
+                .hasNext());
+    }
+
+    /**
+     * Test that the Iterable returned can be reused.
+     */
+    @Test
+    public void testIterableReuse() {
+        Iterable<String> lines = new MappedCDXFile(TestInfo.CDX_FILE1, 256).getLinesStartingWith("http://server-dk.");
+        assertEquals("Should get 5 lines for server-dk", 5, IteratorUtils.toList(lines.iterator()).size());
+        assertEquals("Should get the same amount second time around", 5, IteratorUtils.toList(lines.iterator())
+                .size());
+    }
+
+    /**
+     * Test that the pool reuses open files and reopens files that have changed.
+     */
+    @Test
+    public void testPool() throws Exception {
+        File dir = new File(TestInfo.CDX_DIR, "pool");
+        FileUtils.createDir(dir);
+        try {
+            File cdx = new File(dir, "pooled.cdx");
+            FileUtils.copyFile(TestInfo.CDX_FILE1, cdx);
+            CDXFilePool pool = new CDXFilePool(1, 256);
+            MappedCDXFile mapped = pool.get(cdx);
+            assertSame("Should reuse the open file", mapped, pool.get(cdx));
+            MappedCDXFile other = pool.get(TestInfo.CDX_FILE2);
+            assertSame("Should keep the most recently used file", other, pool.get(TestInfo.CDX_FILE2));
+
+            MappedCDXFile reopened = pool.get(cdx);
+            assertFalse("Should have reopened the evicted file", mapped == reopened);
+            FileUtils.copyFile(TestInfo.CDX_FILE2, cdx);
+            assertTrue("File should be stale after changing", reopened.isStale());
+            MappedCDXFile changed = pool.get(cdx);
+            assertFalse("Should have reopened the changed file", reopened == changed);
+            assertEquals("Should find the lines of the new contents", findLines(TestInfo.CDX_FILE2, "http://"),
+                    IteratorUtils.toList(changed.getLinesStartingWith("http://").iterator()));
+            pool.clear();
+        } finally {
+            FileUtils.removeRecursively(dir);
+        }
+    }
+
+    /**
+     * Test that fields are split in the same way as with the regular expression.
+     */
+    @Test
+    public void testSplitFields() {
+        for (String line : new String[] {"a b  c\td", " a b", "a b ", "", "single", "x \t\r\n y"}) {
+            assertArrayEquals("Should split '" + line + "' like the regular expression",
+                    line.split(CDXReader.SEPARATOR_REGEX), CDXReader.splitFields(line));
+        }
+    }
+
+    /**
+     * Test that lines with non-ASCII characters are found and decoded as UTF-8. BinSearch cannot do this (see the
+     * ignored BinSearchTester.failingTestGetLinesInFileDanish).
+     */
+    @Test
+    public void testGetLinesDanish() {
+        MappedCDXFile mapped = new MappedCDXFile(TestInfo.CDX_FILE1, 256);
+        List<String> danish = IteratorUtils.toList(mapped.getLinesStartingWith("http://download.macromedia.com/påb/")
+                .iterator());
+        assertEquals("Should get just the one line", 1, danish.size());
+        assertTrue("Should have read the danish line correctly",
+                danish.get(0).startsWith("http://download.macromedia.com/påb/"));
+    }
+
+    /**
+     * Find lines with BinSearch. Since BinSearch reads each byte as a character, the prefix is given to it as its UTF-8
+     * bytes, and the lines found are decoded as UTF-8 afterwards.
+     *
+     * @param file The file to search in
+     * @param prefix The prefix to look for.
+     * @return The matching lines.
+     */
+    private static List<String> findLines(File file, String prefix) {
+        List<String> lines = new ArrayList<String>();
+        String bytePrefix = new String(prefix.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        for (String line : BinSearch.getLinesInFile(file, bytePrefix)) {
+            lines.add(new String(line.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.sort;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.ProcessUtils;
+
+/**
+ * Unit tests for the ExternalSorter and the classes it uses.
+ */
+public class ExternalSorterTester {
+
+    /** Directory for the files of the tests. */
+    private File workingDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("ExternalSorterTester").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(workingDir);
+    }
+
+    /**
+     * Test that files are sorted exactly like the Unix sort does, both in memory and through runs, also when the runs
+     * must be merged in several passes.
+     */
+    @Test
+    public void testSameOrderAsUnixSort() throws IOException {
+        File input = new File(workingDir, "input");
+        Files.write(input.toPath(), generateLines(new Random(42), 3000));
+        File expectedWholeLine = new File(workingDir, "expected-whole-line");
+        assertEquals("Unix sort should succeed", 0, ProcessUtils.runUnixSort(input, expectedWholeLine, null, false));
+        File expectedCrawlLog = new File(workingDir, "expected-crawl-log");
+        assertEquals("Unix sort should succeed", 0, ProcessUtils.runUnixSort(input, expectedCrawlLog, null, true));
+
+        // The budgets give a single chunk, a few runs, and more runs than can be merged at once.
+        for (long budget : new long[] {64 * 1024 * 1024, 100 * 1024, 1024}) {
+            ExternalSorter sorter = new ExternalSorter(budget, 3);
+            File output = new File(workingDir, "output");
+            sorter.sort(input, output, LineComparators.WHOLE_LINE, workingDir);
+            assertFileEquals("Whole lines should be sorted like the Unix sort with budget " + budget,
+                    expectedWholeLine, output);
+            sorter.sort(input, output, LineComparators.CRAWL_LOG_URL, workingDir);
+            assertFileEquals("Crawl log lines should be sorted like the Unix sort with budget " + budget,
+                    expectedCrawlLog, output);
+        }
+        assertEquals("Only the input, expected and output files should be left", 4, workingDir.list().length);
+    }
+
+    /**
+     * Test that empty files and files without a final newline are sorted.
+     */
+    @Test
+    public void testEmptyAndUnterminatedFiles() throws IOException {
+        ExternalSorter sorter = new ExternalSorter(1024, 2);
+        File input = new File(workingDir, "input");
+        File output = new File(workingDir, "output");
+        Files.write(input.toPath(), new byte[0]);
+        sorter.sort(input, output, LineComparators.WHOLE_LINE, null);
+        assertEquals("An empty file should give an empty file", 0, output.length());
+
+        Files.write(input.toPath(), "b\nc\na".getBytes(StandardCharsets.US_ASCII));
+        sorter.sort(input, output, LineComparators.WHOLE_LINE, null);
+        assertEquals("The last line should be terminated", "a\nb\nc\n",
+                new String(Files.readAllBytes(output.toPath()), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Test that sorting a missing file fails with an IOFailure.
+     */
+    @Test
+    public void testMissingFile() {
+        try {
+            new ExternalSorter(1024, 1).sort(new File(workingDir, "missing"), new File(workingDir, "output"),
+                    LineComparators.WHOLE_LINE, null);
+            fail("Sorting a missing file should fail");
+        } catch (IOFailure e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that merging sorted parts of a file gives the same result as sorting the whole file, also when there are
+     * more parts than can be merged at once, and that the parts are left untouched.
+     */
+    @Test
+    public void testMergeSortedFiles() throws IOException {
+        ExternalSorter sorter = new ExternalSorter(64 * 1024 * 1024, 2);
+        File input = new File(workingDir, "input");
+        Files.write(input.toPath(), generateLines(new Random(43), 3000));
+        File expected = new File(workingDir, "expected");
+        sorter.sort(input, expected, LineComparators.WHOLE_LINE, null);
+        assertTrue("The sorted file should be sorted", ExternalSorter.isSorted(expected, LineComparators.WHOLE_LINE));
+
+        for (int numberOfParts : new int[] {0, 1, 5, ExternalSorter.MAX_MERGE_FAN_IN * 2 + 1}) {
+            File partsDir = new File(workingDir, "parts-" + numberOfParts);
+            partsDir.mkdir();
+            List<File> parts = new ArrayList<File>();
+            List<String> lines = Files.readAllLines(input.toPath(), StandardCharsets.ISO_8859_1);
+            for (int i = 0; i < numberOfParts; i++) {
+                File unsortedPart = new File(partsDir, "unsorted-" + i);
+                int from = lines.size() * i / numberOfParts;
+                int to = lines.size() * (i + 1) / numberOfParts;
+                Files.write(unsortedPart.toPath(), lines.subList(from, to), StandardCharsets.ISO_8859_1);
+                File part = new File(partsDir, "part-" + i);
+                sorter.sort(unsortedPart, part, LineComparators.WHOLE_LINE, null);
+                FileUtils.remove(unsortedPart);
+                parts.add(part);
+            }
+            File output = new File(workingDir, "output-" + numberOfParts);
+            sorter.merge(parts, output, LineComparators.WHOLE_LINE, partsDir);
+            if (numberOfParts == 0) {
+                assertEquals("Merging no files should give an empty file", 0, output.length());
+            } else {
+                assertFileEquals("Merging " + numberOfParts + " sorted parts should give the sorted file", expected,
+                        output);
+            }
+            assertEquals("Only the parts should be left", numberOfParts, partsDir.list().length);
+        }
+        assertFalse("The input should not be sorted", ExternalSorter.isSorted(input, LineComparators.WHOLE_LINE));
+    }
+
+    /**
+     * Test that the crawl log order uses the fourth field, skipping leading blanks, and orders on the whole line when
+     * the keys are equal.
+     */
+    @Test
+    public void testCrawlLogOrder() {
+        Comparator<byte[]> order = LineComparators.CRAWL_LOG_URL;
+        assertEquals("Key should skip three fields and the blanks before the fourth", 8,
+                LineComparators.keyStart(bytes(" a b\tc  d e"), 4));
+        assertEquals("Lines with fewer fields should have an empty key", 3, LineComparators.keyStart(bytes("a b"), 4));
+        assertEquals("Fourth fields should be compared", -1,
+                Integer.signum(order.compare(bytes("3 2 1 a"), bytes("1 2 3 b"))));
+        assertEquals("Equal keys should be ordered on the whole line", 1,
+                Integer.signum(order.compare(bytes("3 2 1 a"), bytes("1 2 3 a"))));
+        assertEquals("Bytes should be compared unsigned", -1,
+                Integer.signum(order.compare(bytes("1 2 3 a"), "1 2 3 æ".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * Test that the string order is the order of {@link String#compareTo(String)}, also for characters outside the Basic
+     * Multilingual Plane, and that files sorted by {@link FileUtils#makeSortedFile(File, File)} are in that order.
+     */
+    @Test
+    public void testStringOrder() throws IOException {
+        String[] alphabet = {"a", "b", "A", " ", "\u00e6", "\u0800", "\ue000", "\uffef", "\ud83d\ude00", "\ud800\udc00"};
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                line.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            lines.add(line.toString());
+        }
+        for (int i = 1; i < lines.size(); i++) {
+            String s1 = lines.get(i - 1);
+            String s2 = lines.get(i);
+            assertEquals("Should order '" + s1 + "' and '" + s2 + "' like strings", Integer.signum(s1.compareTo(s2)),
+                    Integer.signum(LineComparators.STRING.compare(s1.getBytes(StandardCharsets.UTF_8),
+                            s2.getBytes(StandardCharsets.UTF_8))));
+        }
+
+        File input = new File(workingDir, "input");
+        Files.write(input.toPath(), lines, StandardCharsets.UTF_8);
+        File output = new File(workingDir, "output");
+        FileUtils.makeSortedFile(input, output);
+        List<String> expected = new ArrayList<String>(lines);
+        Collections.sort(expected);
+        assertEquals("Should sort the file like strings", expected,
+                Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that the loser tree merges any number of sources, returning equal lines in the order of their sources.
+     */
+    @Test
+    public void testLoserTree() throws IOException {
+        Comparator<byte[]> firstByte = new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] line1, byte[] line2) {
+                return Integer.compare(line1[0], line2[0]);
+            }
+        };
+        for (int k = 0; k <= 9; k++) {
+            List<ByteLineReader> sources = new ArrayList<ByteLineReader>();
+            List<String> expected = new ArrayList<String>();
+            for (char c = 'a'; c <= 'e'; c++) {
+                for (int source = 0; source < k; source++) {
+                    if ((c + source) % 3 != 0) {
+                        expected.add(c + Integer.toString(source));
+                    }
+                }
+            }
+            for (int source = 0; source < k; source++) {
+                StringBuilder lines = new StringBuilder();
+                for (char c = 'a'; c <= 'e'; c++) {
+                    if ((c + source) % 3 != 0) {
+                        lines.append(c).append(source).append('\n');
+                    }
+                }
+                sources.add(new ByteLineReader(new ByteArrayInputStream(bytes(lines.toString())), 3));
+            }
+            LoserTree tree = new LoserTree(sources, firstByte);
+            List<String> merged = new ArrayList<String>();
+            byte[] line;
+            while ((line = tree.next()) != null) {
+                merged.add(new String(line, StandardCharsets.US_ASCII));
+            }
+            assertEquals("Merging " + k + " sources should be stable", expected, merged);
+            assertNull("An exhausted tree should stay exhausted", tree.next());
+        }
+    }
+
+    /**
+     * Test that lines longer than the read buffer are read whole.
+     */
+    @Test
+    public void testByteLineReader() throws IOException {
+        ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(bytes("\nabcdefghij\nxyz")), 4);
+        assertArrayEquals("Should read an empty line", new byte[0], reader.readLine());
+        assertArrayEquals("Should read a line longer than the buffer", bytes("abcdefghij"), reader.readLine());
+        assertArrayEquals("Should read an unterminated line", bytes("xyz"), reader.readLine());
+        assertNull("Should be at the end", reader.readLine());
+        reader.close();
+    }
+
+    /**
+     * Generate crawl log like lines with blanks, equal keys, short lines and non-ASCII bytes.
+     *
+     * @param random The source of randomness.
+     * @param count The number of lines.
+     * @return The lines, each terminated by a newline.
+     */
+    private static byte[] generateLines(Random random, int count) {
+        byte[] alphabet = bytes("abcAB01/.:-  \t\u007f");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            int length = random.nextInt(10) == 0 ? random.nextInt(4) : 10 + random.nextInt(60);
+            for (int j = 0; j < length; j++) {
+                if (random.nextInt(20) == 0) {
+                    out.write(0x80 + random.nextInt(0x80));
+                } else {
+                    out.write(alphabet[random.nextInt(alphabet.length)]);
+                }
+            }
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void assertFileEquals(String message, File expected, File actual) throws IOException {
+        assertEquals(message, Arrays.asList(new String(Files.readAllBytes(expected.toPath()),
+                StandardCharsets.ISO_8859_1).split("\n", -1)), Arrays.asList(new String(
+                Files.readAllBytes(actual.toPath()), StandardCharsets.ISO_8859_1).split("\n", -1)));
+    }
+
+}
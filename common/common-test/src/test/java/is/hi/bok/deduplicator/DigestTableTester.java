@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package is.hi.bok.deduplicator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.archive.util.Base32;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the DigestTable and the DigestTableWriter.
+ */
+public class DigestTableTester {
+
+    /** Directory for the files of the tests. */
+    private File workingDir;
+    /** The directory of the index. */
+    private File indexDir;
+    /** The table file. */
+    private File tableFile;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("DigestTableTester").toFile();
+        indexDir = new File(workingDir, "index");
+        tableFile = new File(indexDir, DigestTable.FILE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(workingDir);
+    }
+
+    /**
+     * Test that every document of the index is found by its digest and URL, with the stored fields of the document.
+     */
+    @Test
+    public void testFindsAllDocuments() throws Exception {
+        List<CrawlDataItem> items = new ArrayList<CrawlDataItem>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(new CrawlDataItem("http://www.example.org/page" + i + ".html", sha1("content" + i),
+                    String.format("20181001%09d", i), null, "text/html", "1-1-20181001-00001.warc," + i * 1000
+                            + ",20181001120000", false));
+        }
+        writeIndex(items);
+        assertEquals("All documents should be in the table", 1000, DigestTableWriter.write(indexDir, tableFile));
+
+        try (DigestTable table = new DigestTable(tableFile)) {
+            assertEquals("The table should have an entry per document", 1000, table.size());
+            for (CrawlDataItem item : items) {
+                byte[] digest = Base32.decode(item.getContentDigest());
+                long slot = table.find(digest, item.getURL());
+                assertTrue("Should find " + item.getURL(), slot >= 0);
+                assertEquals(item.getURL(), table.getURL(slot));
+                assertEquals(item.getOrigin(), table.getOrigin(slot));
+                assertEquals(item.getTimestamp(), table.getTimestamp(slot));
+                assertTrue(table.containsDigest(digest));
+                assertEquals("Should not find the digest with another URL", -1,
+                        table.find(digest, item.getURL() + "?other"));
+            }
+            byte[] unknown = Base32.decode(sha1("unknown content"));
+            assertFalse("Should not find an unknown digest", table.containsDigest(unknown));
+            assertEquals(-1, table.find(unknown, "http://www.example.org/page1.html"));
+            assertEquals("Digests of the wrong length should not be found", -1,
+                    table.find(new byte[16], "http://www.example.org/page1.html"));
+        }
+    }
+
+    /**
+     * Test that mirrors and several fetches of a URL are kept apart, that only the first document for a digest and URL
+     * is kept, and that documents without a SHA-1 digest are left out.
+     */
+    @Test
+    public void testDuplicatesAndMissingValues() throws Exception {
+        String digest1 = sha1("content1");
+        String digest2 = sha1("content2");
+        List<CrawlDataItem> items = new ArrayList<CrawlDataItem>();
+        items.add(new CrawlDataItem("http://a.example.org/", digest1, "20180101000000000", null, "text/html", "first",
+                false));
+        items.add(new CrawlDataItem("http://b.example.org/", digest1, "20180102000000000", null, "text/html", null,
+                false));
+        items.add(new CrawlDataItem("http://a.example.org/", digest2, "20180103000000000", null, "text/html",
+                "third", false));
+        items.add(new CrawlDataItem("http://a.example.org/", digest1, "20180104000000000", null, "text/html",
+                "fourth", false));
+        items.add(new CrawlDataItem("http://c.example.org/", "not a digest", "20180105000000000", null,
+                "text/html", "fifth", false));
+        writeIndex(items);
+        assertEquals("Repeated and invalid digests should be left out", 3,
+                DigestTableWriter.write(indexDir, tableFile));
+
+        try (DigestTable table = new DigestTable(tableFile)) {
+            long slot = table.find(Base32.decode(digest1), "http://a.example.org/");
+            assertEquals("The first document should be kept", "first", table.getOrigin(slot));
+            assertEquals("20180101000000000", table.getTimestamp(slot));
+            slot = table.find(Base32.decode(digest1), "http://b.example.org/");
+            assertEquals("http://b.example.org/", table.getURL(slot));
+            assertEquals("A missing origin should be the default origin", "", table.getOrigin(slot));
+            slot = table.find(Base32.decode(digest2), "http://a.example.org/");
+            assertEquals("third", table.getOrigin(slot));
+        }
+    }
+
+    /**
+     * Test that the entries of content fetched from many URLs are found, and are spread over the table rather than
+     * filling one long run of slots that every lookup of the digest would probe.
+     */
+    @Test
+    public void testManyURLsWithOneDigest() throws Exception {
+        String sharedDigest = sha1("shared content");
+        List<CrawlDataItem> items = new ArrayList<CrawlDataItem>();
+        for (int i = 0; i < 2000; i++) {
+            items.add(new CrawlDataItem("http://www.example.org/shared" + i + ".html", sharedDigest,
+                    String.format("20181001%09d", i), null, "text/html", "shared" + i, false));
+            if (i % 2 == 0) {
+                items.add(new CrawlDataItem("http://www.example.org/page" + i + ".html", sha1("content" + i),
+                        String.format("20181002%09d", i), null, "text/html", "page" + i, false));
+            }
+        }
+        writeIndex(items);
+        assertEquals("All documents should be in the table", 3000, DigestTableWriter.write(indexDir, tableFile));
+
+        try (DigestTable table = new DigestTable(tableFile)) {
+            for (CrawlDataItem item : items) {
+                byte[] digest = Base32.decode(item.getContentDigest());
+                long slot = table.find(digest, item.getURL());
+                assertTrue("Should find " + item.getURL(), slot >= 0);
+                assertEquals(item.getURL(), table.getURL(slot));
+                assertEquals(item.getOrigin(), table.getOrigin(slot));
+                assertTrue(table.containsDigest(digest));
+            }
+            assertEquals("Should not find the shared digest with another URL", -1,
+                    table.find(Base32.decode(sharedDigest), "http://www.example.org/other.html"));
+
+            int longestRun = 0;
+            int run = 0;
+            for (long slot = 0; slot < table.getSlotCount(); slot++) {
+                run = table.isUsed(slot) ? run + 1 : 0;
+                longestRun = Math.max(longestRun, run);
+            }
+            assertTrue("The entries should not fill a long run of slots, but found " + longestRun + " in a row",
+                    longestRun < 100);
+        }
+    }
+
+    /**
+     * Test that an empty index gives an empty table, and that other files are not taken for tables.
+     */
+    @Test
+    public void testEmptyAndInvalidTables() throws Exception {
+        writeIndex(new ArrayList<CrawlDataItem>());
+        assertEquals(0, DigestTableWriter.write(indexDir, tableFile));
+        try (DigestTable table = new DigestTable(tableFile)) {
+            assertEquals(0, table.size());
+            assertFalse(table.containsDigest(Base32.decode(sha1("content"))));
+        }
+
+        File notATable = new File(workingDir, "not-a-table");
+        Files.write(notATable.toPath(), new byte[DigestTable.HEADER_SIZE * 2]);
+        try {
+            new DigestTable(notATable).close();
+            fail("Should not open a file which is not a digest table");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Write a deduplication index of the given items, like the index server does.
+     *
+     * @param items The items to index.
+     * @throws IOException If writing the index fails.
+     */
+    private void writeIndex(List<CrawlDataItem> items) throws IOException {
+        DigestIndexer indexer = new DigestIndexer(indexDir.getAbsolutePath(), DigestIndexer.MODE_BOTH, false, true,
+                true, false);
+        indexer.writeToIndex(new ListIterator(items), "^text/.*", false, "", false);
+        indexer.close();
+    }
+
+    /**
+     * @param content Some content.
+     * @return The Base32 encoded SHA-1 digest of the content, as written in crawl logs.
+     */
+    private static String sha1(String content) throws NoSuchAlgorithmException {
+        return Base32.encode(MessageDigest.getInstance("SHA-1").digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** A CrawlDataIterator over a list of items. */
+    private static class ListIterator extends CrawlDataIterator {
+
+        /** The items not yet returned. */
+        private final Iterator<CrawlDataItem> items;
+
+        ListIterator(List<CrawlDataItem> items) {
+            super("list");
+            this.items = items.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return items.hasNext();
+        }
+
+        @Override
+        public CrawlDataItem next() {
+            return items.next();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getSourceType() {
+            return "List of items";
+        }
+    }
+
+}
@@ -43,6 +43,7 @@ import dk.netarkivet.harvester.datamodel.HarvestChannel;
 import dk.netarkivet.harvester.datamodel.HarvestChannelDAO;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
+import dk.netarkivet.harvester.scheduler.jobgen.JobGenerationProgress;
 import dk.netarkivet.harvester.scheduler.jobgen.JobGenerator;
 import dk.netarkivet.harvester.scheduler.jobgen.JobGeneratorFactory;
 
@@ -73,6 +74,12 @@ public class HarvestJobGenerator implements ComponentLifeCycle {
      */
     protected static Map<Long, Long> schedulingStartedMap = Collections.synchronizedMap(new HashMap<Long, Long>());
 
+    /**
+     * The progress of the job generation for the harvestdefinitions currently being scheduled.
+     */
+    protected static Map<Long, JobGenerationProgress> progressMap = Collections
+            .synchronizedMap(new HashMap<Long, JobGenerationProgress>());
+
     /** The executor used to schedule the generator jobs. */
     private PeriodicTaskExecutor genExec;
 
@@ -106,6 +113,16 @@ public class HarvestJobGenerator implements ComponentLifeCycle {
         }
     }
 
+    /**
+     * Get the progress of the job generation for a harvestdefinition.
+     *
+     * @param harvestId the ID of a harvestdefinition.
+     * @return the progress, or null if no jobs are being generated for the harvestdefinition.
+     */
+    public static JobGenerationProgress getJobGenerationProgress(Long harvestId) {
+        return progressMap.get(harvestId);
+    }
+
     /**
      * Contains the functionality for the individual JobGenerations.
      */
@@ -242,10 +259,12 @@ public class HarvestJobGenerator implements ComponentLifeCycle {
             public void run() {
                 try {
                     JobGenerator jobGen = JobGeneratorFactory.getInstance();
-                    int jobsMade = jobGen.generateJobs(harvestDefinition);
+                    JobGenerationProgress progress = new JobGenerationProgress();
+                    progressMap.put(id, progress);
+                    int jobsMade = jobGen.generateJobs(harvestDefinition, progress);
                     if (jobsMade > 0) {
-                        log.info("Created {} jobs for harvest definition ({})", jobsMade,
-                                harvestDefinition.getName());
+                        log.info("Created {} jobs for harvest definition ({}): {}", jobsMade,
+                                harvestDefinition.getName(), progress);
                     } else {
                         String msg = "No jobs created for harvest definition '"
                                 + harvestDefinition.getName()
@@ -281,6 +300,7 @@ public class HarvestJobGenerator implements ComponentLifeCycle {
                 harvestDefinitionsBeingScheduled.remove(id);
                 schedulingStartedMap.remove(id);
                 threadMap.remove(id);
+                progressMap.remove(id);
                 log.debug("Removed HD #{}({}) from list of harvestdefinitions to be scheduled. "
                                 + "Harvestdefinitions still to be scheduled: {}", id, harvestDefinition.getName(),
                         harvestDefinitionsBeingScheduled);
@@ -123,6 +123,9 @@ public class HarvestSchedulerMonitorServer
                 } else {
                     log.info("Job #{} succesfully completed", jobID);
                 }
+                if (!cmsg.getPostProcessingTimings().isEmpty()) {
+                    log.info("Job #{} post-processing took (ms): {}", jobID, cmsg.getPostProcessingTimings());
+                }
                 job.setStatus(newStatus);
                 job.appendHarvestErrors(cmsg.getHarvestErrors());
                 job.appendHarvestErrorDetails(cmsg.getHarvestErrorDetails());
@@ -28,11 +28,22 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.NotImplementedException;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.Constants;
@@ -43,8 +54,10 @@ import dk.netarkivet.harvester.datamodel.HarvestChannel;
 import dk.netarkivet.harvester.datamodel.HarvestChannelDAO;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
 import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
+import dk.netarkivet.harvester.datamodel.HarvestExpectations;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.PartialHarvest;
 import dk.netarkivet.harvester.datamodel.Schedule;
 import dk.netarkivet.harvester.datamodel.SeedList;
@@ -57,7 +70,10 @@ import dk.netarkivet.harvester.datamodel.eav.EAV;
  * <p>
  * The base algorithm iterates over domain configurations within the harvest definition, and according to the
  * configuration ({@link HarvesterSettings#JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE}, constitutes a subset of domain
- * configurations from which one or more jobs will be generated.
+ * configurations from which one or more jobs will be generated. The expected sizes of the configurations are taken from
+ * {@link HarvestExpectations}, which is brought up to date before each harvest definition is processed. Job generators
+ * whose subsets can be packed independently of each other may have them packed in parallel, see
+ * {@link HarvesterSettings#JOBGEN_PACKER_THREADS}.
  */
 abstract class AbstractJobGenerator implements JobGenerator {
 
@@ -72,37 +88,48 @@ abstract class AbstractJobGenerator implements JobGenerator {
     /** Is deduplication enabled or disabled in the settings? */
     private final boolean DEDUPLICATION_ENABLED = Settings.getBoolean(HarvesterSettings.DEDUPLICATION_ENABLED);
 
+    /** How many threads pack subsets of domain configurations into jobs at the same time. */
+    private final int PACKER_THREADS = Settings.getInt(HarvesterSettings.JOBGEN_PACKER_THREADS);
+
     @Override
     public int generateJobs(HarvestDefinition harvest) {
+        return generateJobs(harvest, new JobGenerationProgress());
+    }
+
+    @Override
+    public int generateJobs(HarvestDefinition harvest, JobGenerationProgress progress) {
         log.info("Generating jobs for harvestdefinition #{} using class '{}'", harvest.getOid(), this.getClass());
         int jobsMade = 0;
+        final HarvestExpectations expectations = HarvestExpectations.refresh();
         final Iterator<DomainConfiguration> domainConfigurations = harvest.getDomainConfigurations();
-        log.info("Now ready to iterate over the domainConfigurations for harvestdefinition #{}", harvest.getOid());
-        harvest.setNumEvents(harvest.getNumEvents() + 1);
-        if (harvest.isSnapShot()) {
-            HarvestDefinitionDAO.getInstance().update(harvest);
-        }
-        while (domainConfigurations.hasNext()) {
-            List<DomainConfiguration> subset = new ArrayList<DomainConfiguration>();
-            while (domainConfigurations.hasNext() && subset.size() < DOMAIN_CONFIG_SUBSET_SIZE) {
-                subset.add(domainConfigurations.next());
+        try {
+            log.info("Now ready to iterate over the domainConfigurations for harvestdefinition #{}", harvest.getOid());
+            harvest.setNumEvents(harvest.getNumEvents() + 1);
+            if (harvest.isSnapShot()) {
+                HarvestDefinitionDAO.getInstance().update(harvest);
             }
-
-            final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
-                    harvest);
-            log.trace("Sorting domains with instance of " + domainConfigurationSubsetComparator.getClass().getName());
-            Collections.sort(subset, domainConfigurationSubsetComparator);
-            log.trace("{} domainconfigs now sorted and ready to processing for harvest #{}", subset.size(),
-                    harvest.getOid());
-            if (subset.size() == 0) {
-                log.warn("Processing a domain config subset of zero size for HD #{}.", harvest.getOid());
-            }
-            jobsMade += processDomainConfigurationSubset(harvest, subset.iterator());
-            if (jobsMade == 0) {
-                log.warn("Created 0 jobs for HD #{} from domain cfg subset size {}.", harvest.getOid(), subset.size());
+            if (PACKER_THREADS > 1 && isSubsetPackingIndependent()) {
+                jobsMade = generateJobsInParallel(harvest, domainConfigurations, expectations, progress);
             } else {
-                log.info("Now created {} jobs for HD #{} from domain cfg subset size {}.", jobsMade, harvest.getOid(), subset.size());
+                while (domainConfigurations.hasNext()) {
+                    List<DomainConfiguration> subset = readSubset(harvest, domainConfigurations, expectations,
+                            progress);
+                    sortSubset(harvest, subset);
+                    int subsetJobs = processDomainConfigurationSubset(harvest, subset.iterator());
+                    progress.subsetPacked();
+                    progress.jobsCreated(subsetJobs);
+                    jobsMade += subsetJobs;
+                    if (jobsMade == 0) {
+                        log.warn("Created 0 jobs for HD #{} from domain cfg subset size {}.", harvest.getOid(),
+                                subset.size());
+                    } else {
+                        log.info("Now created {} jobs for HD #{} from domain cfg subset size {}.", jobsMade,
+                                harvest.getOid(), subset.size());
+                    }
+                }
             }
+        } finally {
+            close(harvest, domainConfigurations);
         }
 
         if (!harvest.isSnapShot()) {
@@ -138,6 +165,214 @@ abstract class AbstractJobGenerator implements JobGenerator {
         return jobsMade;
     }
 
+    /**
+     * Release the resources held by the domain configurations of a harvest, such as the database cursor over the
+     * configurations of a snapshot harvest, whether or not all of them were read.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfigurations the configurations of the harvest.
+     */
+    private static void close(HarvestDefinition harvest, Iterator<DomainConfiguration> domainConfigurations) {
+        if (domainConfigurations instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) domainConfigurations).close();
+            } catch (Exception e) {
+                log.warn("Failed to close the domain configurations of harvestdefinition #{}", harvest.getOid(), e);
+            }
+        }
+    }
+
+    /**
+     * Read the next subset of at most {@link #DOMAIN_CONFIG_SUBSET_SIZE} domain configurations, and apply the harvest
+     * expectations to them.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfigurations the remaining configurations of the harvest.
+     * @param expectations the harvest expectations of the configurations.
+     * @param progress the progress of the job generation.
+     * @return the configurations read.
+     */
+    private List<DomainConfiguration> readSubset(HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfigurations, HarvestExpectations expectations,
+            JobGenerationProgress progress) {
+        List<DomainConfiguration> subset = new ArrayList<DomainConfiguration>();
+        while (domainConfigurations.hasNext() && subset.size() < DOMAIN_CONFIG_SUBSET_SIZE) {
+            DomainConfiguration cfg = domainConfigurations.next();
+            expectations.applyTo(cfg);
+            subset.add(cfg);
+        }
+        if (subset.size() == 0) {
+            log.warn("Processing a domain config subset of zero size for HD #{}.", harvest.getOid());
+        }
+        progress.subsetRead(subset.size());
+        return subset;
+    }
+
+    /**
+     * Sort a subset of domain configurations with the comparator of this job generator.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param subset the configurations to sort.
+     */
+    private void sortSubset(HarvestDefinition harvest, List<DomainConfiguration> subset) {
+        final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
+                harvest);
+        log.trace("Sorting domains with instance of " + domainConfigurationSubsetComparator.getClass().getName());
+        Collections.sort(subset, domainConfigurationSubsetComparator);
+        log.trace("{} domainconfigs now sorted and ready to processing for harvest #{}", subset.size(),
+                harvest.getOid());
+    }
+
+    /**
+     * Generate the jobs in a pipeline: this thread reads the subsets of domain configurations, a pool of
+     * {@link HarvesterSettings#JOBGEN_PACKER_THREADS} threads sorts and packs them into jobs, and a single thread
+     * creates the jobs of each subset in persistent storage, in the order the subsets were read. At most two subsets per
+     * packer thread are read ahead of the jobs created.
+     * <p>
+     * As in the sequential case, the jobs of the subsets before a subset that fails to be packed or created are kept,
+     * and no jobs are created for the subsets after it: no more subsets are read, and the pending subsets are
+     * cancelled before the failure is rethrown. The progress only counts the subsets whose jobs were created. The
+     * caller closes the configurations that were not read.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfigurations the configurations of the harvest.
+     * @param expectations the harvest expectations of the configurations.
+     * @param progress the progress of the job generation.
+     * @return the number of jobs created.
+     * @throws IOFailure if interrupted while waiting for the jobs to be packed or created.
+     */
+    private int generateJobsInParallel(final HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfigurations, HarvestExpectations expectations,
+            final JobGenerationProgress progress) {
+        log.info("Packing jobs for harvestdefinition #{} in {} threads", harvest.getOid(), PACKER_THREADS);
+        final String threadName = "JobGeneratorTask-" + harvest.getOid();
+        ExecutorService packers = Executors.newFixedThreadPool(PACKER_THREADS, new JobGeneratorThreadFactory(
+                threadName + "-packer"));
+        ExecutorService writer = Executors.newSingleThreadExecutor(new JobGeneratorThreadFactory(threadName
+                + "-writer"));
+        final Semaphore subsetsInProgress = new Semaphore(2 * PACKER_THREADS);
+        final JobDAO dao = JobDAO.getInstance();
+        // The first failure to pack or create the jobs of a subset. Once set, no more jobs are packed or created.
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Future<Integer>> created = new ArrayList<Future<Integer>>();
+        int jobsMade = 0;
+        try {
+            while (domainConfigurations.hasNext() && failure.get() == null) {
+                final List<DomainConfiguration> subset = readSubset(harvest, domainConfigurations, expectations,
+                        progress);
+                subsetsInProgress.acquire();
+                if (failure.get() != null) {
+                    break;
+                }
+                final Future<List<Job>> packed = packers.submit(new Callable<List<Job>>() {
+                    @Override
+                    public List<Job> call() {
+                        if (failure.get() != null) {
+                            return Collections.emptyList();
+                        }
+                        sortSubset(harvest, subset);
+                        return packDomainConfigurationSubset(harvest, subset.iterator());
+                    }
+                });
+                created.add(writer.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        try {
+                            // The jobs are created one subset at a time, so no jobs of later subsets are created
+                            // once a subset has failed.
+                            if (failure.get() != null) {
+                                return 0;
+                            }
+                            List<Job> jobs = packed.get();
+                            dao.create(jobs);
+                            // Counted here, so only the subsets whose jobs were created are counted.
+                            progress.subsetPacked();
+                            progress.jobsCreated(jobs.size());
+                            log.info("Created {} jobs for HD #{} from domain cfg subset size {}. Progress: {}",
+                                    jobs.size(), harvest.getOid(), subset.size(), progress);
+                            return jobs.size();
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                            throw t;
+                        } finally {
+                            subsetsInProgress.release();
+                        }
+                    }
+                }));
+                jobsMade += getJobsCreated(created, false);
+            }
+            if (failure.get() == null) {
+                jobsMade += getJobsCreated(created, true);
+            }
+            if (failure.get() != null) {
+                // The subsets before the failing one are done, as the writer creates the jobs in order.
+                jobsMade += getJobsCreated(created, false);
+                for (Future<Integer> subsetCreated : created) {
+                    subsetCreated.cancel(false);
+                }
+                log.warn("Stopped generating jobs for harvestdefinition #{} after {} jobs. Progress: {}",
+                        harvest.getOid(), jobsMade, progress);
+                throw unwrap(failure.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while generating jobs for harvestdefinition #" + harvest.getOid(), e);
+        } finally {
+            packers.shutdownNow();
+            writer.shutdownNow();
+        }
+        return jobsMade;
+    }
+
+    /**
+     * Count the jobs created for the subsets that are done, and remove them from the given list. Stops at the first
+     * subset that failed, leaving it and the subsets after it in the list.
+     *
+     * @param created the results of creating the jobs of each subset, in the order the subsets were read.
+     * @param wait whether to wait for the subsets that are not done yet.
+     * @return the number of jobs created for the subsets removed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static int getJobsCreated(List<Future<Integer>> created, boolean wait) throws InterruptedException {
+        int jobsCreated = 0;
+        Iterator<Future<Integer>> iterator = created.iterator();
+        while (iterator.hasNext()) {
+            Future<Integer> subsetCreated = iterator.next();
+            if (!wait && !subsetCreated.isDone()) {
+                continue;
+            }
+            try {
+                jobsCreated += subsetCreated.get();
+                iterator.remove();
+            } catch (ExecutionException e) {
+                // The failure has been recorded by the writer, and is rethrown by the caller.
+                break;
+            }
+        }
+        return jobsCreated;
+    }
+
+    /**
+     * Find the exception to rethrow for a failure to pack or create the jobs of a subset.
+     *
+     * @param failure the exception thrown while packing or creating the jobs.
+     * @return the underlying runtime exception, or an {@link IOFailure} wrapping a checked exception.
+     * @throws Error if the underlying failure is an error.
+     */
+    private static RuntimeException unwrap(Throwable failure) {
+        Throwable cause = failure;
+        while (cause instanceof ExecutionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOFailure("Failed to generate jobs", cause);
+    }
+
     /**
      * Instantiates a new job.
      *
@@ -189,6 +424,33 @@ abstract class AbstractJobGenerator implements JobGenerator {
     protected abstract int processDomainConfigurationSubset(HarvestDefinition harvest,
             Iterator<DomainConfiguration> domainConfSubset);
 
+    /**
+     * Tells whether the subsets of domain configurations can be packed into jobs independently of each other. If so,
+     * and {@link HarvesterSettings#JOBGEN_PACKER_THREADS} is more than 1, the subsets are packed in parallel with
+     * {@link #packDomainConfigurationSubset(HarvestDefinition, Iterator)} instead of being processed one at a time with
+     * {@link #processDomainConfigurationSubset(HarvestDefinition, Iterator)}. By default they cannot.
+     *
+     * @return true if the subsets can be packed in parallel.
+     */
+    protected boolean isSubsetPackingIndependent() {
+        return false;
+    }
+
+    /**
+     * Pack a sorted collection of configurations into new jobs without creating them in persistent storage. Must be
+     * thread-safe, and is only called if {@link #isSubsetPackingIndependent()} returns true.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfSubset the configurations to use to create the jobs
+     * @return The jobs, in the order they should be created
+     * @throws NotImplementedException if the subsets cannot be packed independently.
+     */
+    protected List<Job> packDomainConfigurationSubset(HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfSubset) {
+        throw new NotImplementedException("The job generator " + getClass().getName()
+                + " cannot pack subsets of domain configurations independently");
+    }
+
     @Override
     public boolean canAccept(Job job, DomainConfiguration cfg, DomainConfiguration previousCfg) {
         log.trace("Comparing current cfg {} with previous cfg {} when adding configs to HD #{}", cfg, previousCfg, job.getOrigHarvestDefinitionID());
@@ -298,4 +560,26 @@ abstract class AbstractJobGenerator implements JobGenerator {
         orderXMLdoc.insertCrawlerTraps(focused.getName(), focused.getCrawlerTraps());
         return orderXMLdoc;
     }
+
+    /**
+     * Names the threads packing and creating jobs for a harvest definition. The threads are daemon threads, so they do
+     * not keep the scheduler alive.
+     */
+    private static class JobGeneratorThreadFactory implements ThreadFactory {
+        /** The prefix of the thread names. */
+        private final String name;
+        /** The number of threads created so far. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        JobGeneratorThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
@@ -22,8 +22,10 @@
  */
 package dk.netarkivet.harvester.scheduler.jobgen;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -154,10 +156,38 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
     @Override
     protected int processDomainConfigurationSubset(HarvestDefinition harvest,
             Iterator<DomainConfiguration> domainConfSubset) {
-        int jobsMade = 0;
+        List<Job> jobs = packDomainConfigurationSubset(harvest, domainConfSubset);
+        JobDAO.getInstance().create(jobs);
+        if (!jobs.isEmpty()) {
+            log.debug("Created {} jobs for harvest #{}", jobs.size(), harvest.getOid());
+        }
+        return jobs.size();
+    }
+
+    /**
+     * The jobs of each subset are packed from that subset alone, so the subsets can be packed in parallel.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean isSubsetPackingIndependent() {
+        return true;
+    }
+
+    /**
+     * Pack a collection of configurations into new jobs, filling each job with consecutive configurations until the next
+     * one is not accepted.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfSubset the configurations to use to create the jobs
+     * @return The jobs, in the order they should be created
+     */
+    @Override
+    protected List<Job> packDomainConfigurationSubset(HarvestDefinition harvest,
+            Iterator<DomainConfiguration> domainConfSubset) {
+        List<Job> jobs = new ArrayList<Job>();
         Job job = null;
         log.debug("Adding domainconfigs with the same order.xml for harvest #{}", harvest.getOid());
-        JobDAO dao = JobDAO.getInstance();
         DomainConfiguration previousDomainConf = null;
         while (domainConfSubset.hasNext()) {
             DomainConfiguration cfg = domainConfSubset.next();
@@ -175,9 +205,8 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
             
             if ((job == null) || (!canAccept(job, cfg, previousDomainConf))) {
                 if (job != null) {
-                    // If we're done with a job, write it out
-                    ++jobsMade;
-                    dao.create(job);
+                    // If we're done with a job, it is ready to be written out
+                    jobs.add(job);
                 }
                 job = getNewJob(harvest, cfg);
                 log.trace("Created new job for harvest #{} to add configuration {} for domain {}", harvest.getOid(),
@@ -191,9 +220,8 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
             previousDomainConf = cfg;
         }
         if (job != null) {
-            ++jobsMade;
             editJobOrderXml(job);
-            dao.create(job);
+            jobs.add(job);
             if (log.isTraceEnabled()) {
                 log.trace("Generated job: '{}'", job.toString());
                 StringBuilder logMsg = new StringBuilder("Job configurationsDomain:");
@@ -202,9 +230,8 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
                 }
                 log.trace(logMsg.toString());
             }
-            log.debug("Created {} jobs for harvest #{}", jobsMade, harvest.getOid());
         }
-        return jobsMade;
+        return jobs;
     }
 
 
@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.scheduler.jobgen;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of the job generation for one harvest definition. The counters are updated by the threads reading,
+ * packing and storing the jobs, and can be read at any time while the jobs are being generated.
+ */
+public class JobGenerationProgress {
+
+    /** The time the job generation started, in milliseconds since the epoch. */
+    private final long startTime = System.currentTimeMillis();
+
+    /** The number of domain configurations read. */
+    private final AtomicLong configurationsRead = new AtomicLong();
+
+    /** The number of domain configuration subsets read. */
+    private final AtomicLong subsetsRead = new AtomicLong();
+
+    /** The number of domain configuration subsets packed into jobs. */
+    private final AtomicLong subsetsPacked = new AtomicLong();
+
+    /** The number of jobs created in persistent storage. */
+    private final AtomicLong jobsCreated = new AtomicLong();
+
+    /**
+     * Register that a subset of domain configurations has been read.
+     *
+     * @param size the number of configurations in the subset.
+     */
+    void subsetRead(int size) {
+        configurationsRead.addAndGet(size);
+        subsetsRead.incrementAndGet();
+    }
+
+    /** Register that a subset of domain configurations has been packed into jobs. */
+    void subsetPacked() {
+        subsetsPacked.incrementAndGet();
+    }
+
+    /**
+     * Register that jobs have been created in persistent storage.
+     *
+     * @param count the number of jobs created.
+     */
+    void jobsCreated(int count) {
+        jobsCreated.addAndGet(count);
+    }
+
+    /** @return the time the job generation started, in milliseconds since the epoch. */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /** @return the number of domain configurations read so far. */
+    public long getConfigurationsRead() {
+        return configurationsRead.get();
+    }
+
+    /** @return the number of domain configuration subsets read so far. */
+    public long getSubsetsRead() {
+        return subsetsRead.get();
+    }
+
+    /** @return the number of domain configuration subsets packed into jobs so far. */
+    public long getSubsetsPacked() {
+        return subsetsPacked.get();
+    }
+
+    /** @return the number of jobs created so far. */
+    public long getJobsCreated() {
+        return jobsCreated.get();
+    }
+
+    /** @return the number of domain configurations read per second since the job generation started. */
+    public double getConfigurationsPerSecond() {
+        long elapsed = Math.max(1L, System.currentTimeMillis() - startTime);
+        return getConfigurationsRead() * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d configurations in %d subsets read (%.1f/s), %d subsets packed, %d jobs created",
+                getConfigurationsRead(), getSubsetsRead(), getConfigurationsPerSecond(), getSubsetsPacked(),
+                getJobsCreated());
+    }
+
+}
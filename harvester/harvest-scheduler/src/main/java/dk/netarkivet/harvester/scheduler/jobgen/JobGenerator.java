@@ -42,6 +42,18 @@ public interface JobGenerator {
      */
     int generateJobs(HarvestDefinition harvest);
 
+    /**
+     * Generates a series of jobs for the given harvest definition, reporting the progress as it goes. By default the
+     * progress is not reported.
+     *
+     * @param harvest the harvest definition to process.
+     * @param progress the progress to update while the jobs are generated.
+     * @return the number of jobs that were generated.
+     */
+    default int generateJobs(HarvestDefinition harvest, JobGenerationProgress progress) {
+        return generateJobs(harvest);
+    }
+
     /**
      * Tests if a configuration fits into this Job. First tests if it's the right type of order-template and bytelimit,
      * and whether the bytelimit is right for the job. The Job limits are compared against the configuration estimates
@@ -221,6 +221,31 @@ public class HarvesterSettings {
      * Default value is false.
      */
     public static String USE_ALTERNATE_SNAPSHOT_JOBGENERATION_METHOD = "settings.harvester.scheduler.jobGen.useAlternateSnapshotJobgenerationMethod";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.snapshotFetchSize</b>: <br>
+     * The number of default domain configurations read from the database at a time when generating jobs for a
+     * snapshot harvest. It is used both as JDBC fetch size for the cursor over the configurations and as the number of
+     * configurations whose seedlists, passwords and history are read by each batched query. Default value is 1000.
+     */
+    public static String JOBGEN_SNAPSHOT_FETCH_SIZE = "settings.harvester.scheduler.jobGen.snapshotFetchSize";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.expectationSnapshotFile</b>: <br>
+     * A file where the job generator saves the harvest expectations of all domain configurations, read from the harvest
+     * history, so they need not be read from the whole history again when the scheduler is restarted. If empty, which
+     * is the default, the expectations are not saved.
+     */
+    public static String JOBGEN_EXPECTATIONS_SNAPSHOT_FILE = "settings.harvester.scheduler.jobGen.expectationSnapshotFile";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.packerThreads</b>: <br>
+     * The number of threads packing subsets of domain configurations into jobs at the same time. While they pack, the
+     * next subsets are read from the database, and a single thread stores the packed jobs. This is only used by job
+     * generators whose subsets can be packed independently of each other, i.e. the DefaultJobGenerator. Default value
+     * is 1, which packs the subsets one at a time in the thread generating the jobs.
+     */
+    public static String JOBGEN_PACKER_THREADS = "settings.harvester.scheduler.jobGen.packerThreads";
     
     /**
      * <b>settings.harvester.scheduler.jobtimeouttime</b>:<br />
@@ -282,6 +307,26 @@ public class HarvesterSettings {
      */
     public static String ALLOW_UPLOAD_FAILURES = "settings.harvester.harvesting.allowUploadFailures";
 
+    /**
+     * <b>settings.harvester.harvesting.postProcessing.cdxThreads</b>: <br>
+     * The number of archive files indexed at once when the CDX files for the metadata file are generated after a
+     * harvest. The default is 1, i.e. one file at a time.
+     */
+    public static String POSTPROCESSING_CDX_THREADS = "settings.harvester.harvesting.postProcessing.cdxThreads";
+
+    /**
+     * <b>settings.harvester.harvesting.postProcessing.uploadThreads</b>: <br>
+     * The number of files uploaded to the archive at once after a harvest. The default is 1, i.e. one file at a time.
+     */
+    public static String POSTPROCESSING_UPLOAD_THREADS = "settings.harvester.harvesting.postProcessing.uploadThreads";
+
+    /**
+     * <b>settings.harvester.harvesting.postProcessing.uploadRetries</b>: <br>
+     * The number of times the upload of a file is retried after a harvest, before the file is counted as failed. This
+     * is on top of any retries done by the arcrepository client. The default is 0.
+     */
+    public static String POSTPROCESSING_UPLOAD_RETRIES = "settings.harvester.harvesting.postProcessing.uploadRetries";
+
     /**
      * <b>settings.harvester.monitor.refreshInterval</b>:<br>
      * Time interval in seconds after which the harvest monitor pages will be automatically refreshed.
@@ -313,6 +358,21 @@ public class HarvesterSettings {
      */
     public static String HARVEST_MONITOR_DISPLAYED_FRONTIER_QUEUE_SIZE = "settings.harvester.monitor.displayedFrontierQueuesSize";
 
+    /**
+     * <b>settings.harvester.monitor.jobStatusCacheTime</b>:<br>
+     * Time interval in seconds a job status is cached by the harvest monitor before it is read again from the DB. The
+     * cached status is updated when the job ends, so this only bounds how long status changes made by other
+     * applications go unnoticed. Default value is 1 minute.
+     */
+    public static String HARVEST_MONITOR_JOB_STATUS_CACHE_TIME = "settings.harvester.monitor.jobStatusCacheTime";
+
+    /**
+     * <b>settings.harvester.monitor.progressStoreInterval</b>:<br>
+     * Time interval in seconds during which the progress messages of running jobs are collected before the last one of
+     * each job is stored in the DB. 0 means that every message is stored when received. Default value is 2 seconds.
+     */
+    public static String HARVEST_MONITOR_PROGRESS_STORE_INTERVAL = "settings.harvester.monitor.progressStoreInterval";
+
     /**
      * <b>settings.harvester.harvesting.heritrix.crawlLoopWaitTime</b>:<br>
      * Time interval in seconds to wait during a crawl loop in the harvest controller. Default value is 20 seconds.
@@ -729,6 +789,38 @@ public class HarvesterSettings {
      */
     public static String INDEXSERVER_INDEXING_LOOKFORDATAINOTHERBITARCHIVEREPLICAS = "settings.harvester.indexserver.lookfordataInAllBitarchiveReplicas";
 
+    /**
+     * <b>settings.harvester.indexserver.digestTable</b>: <br>
+     * Setting for whether or not a deduplication index shall be shipped with a memory mapped table of its URLs and
+     * content digests, which the DeDuplicator can use for exact matches instead of Lucene queries. The default is
+     * false.
+     */
+    public static String INDEXSERVER_INDEXING_DIGEST_TABLE = "settings.harvester.indexserver.digestTable";
+
+    /**
+     * <b>settings.harvester.indexserver.maxJobsPerExtraction</b>: <br>
+     * Setting for how many jobs the metadata of may be extracted by a single Hadoop job, when the index server caches
+     * data for several jobs at once. A value of 1 or less extracts the metadata of each job by a Hadoop job of its
+     * own. Only used with the Hadoop backend. The default is 500.
+     */
+    public static String INDEXSERVER_INDEXING_MAX_JOBS_PER_EXTRACTION = "settings.harvester.indexserver.maxJobsPerExtraction";
+
+    /**
+     * <b>settings.harvester.indexserver.cacheFillThreads</b>: <br>
+     * Setting for how many threads the index server may use for fetching the data of jobs not found in its caches, when
+     * the data for several jobs is needed. The threads are shared by all the caches of the index server. A value of 1
+     * or less fetches the data for one job at a time. The default is 4.
+     */
+    public static String INDEXSERVER_INDEXING_CACHE_FILL_THREADS = "settings.harvester.indexserver.cacheFillThreads";
+
+    /**
+     * <b>settings.harvester.indexserver.subIndexMaxAgeDays</b>: <br>
+     * Setting for how many days the index server keeps the stored index of a single job after it was last used for
+     * assembling a deduplication index. Older ones are removed, and the job is indexed again from its crawl log if it
+     * is needed later. A value of 0 or less keeps them forever. The default is 30.
+     */
+    public static String INDEXSERVER_INDEXING_SUBINDEX_MAX_AGE_DAYS = "settings.harvester.indexserver.subIndexMaxAgeDays";
+
     /***************************/
     /* History settings migrated from old Viewerproxy settings. */
     /***************************/
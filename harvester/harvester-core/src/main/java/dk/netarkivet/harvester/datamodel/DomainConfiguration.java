@@ -81,6 +81,9 @@ public class DomainConfiguration implements Named {
     /** This configurations EAV attributes and attribute types. */
     private List<AttributeAndType> attributesAndTypes;
 
+    /** Expectations used instead of the domain history during job generation, or null. */
+    private HarvestExpectations harvestExpectations;
+
     /**
      * How many objects should be harvested in a harvest to trust that our expected size of objects is less than the
      * default number.
@@ -348,12 +351,43 @@ public class DomainConfiguration implements Named {
      * @return The expected number of objects.
      */
     public long getExpectedNumberOfObjects(long objectLimit, long byteLimit) {
-        long prevresultfactor = Settings.getLong(HarvesterSettings.ERRORFACTOR_PERMITTED_PREVRESULT);
+        if (harvestExpectations != null && id != null) {
+            int index = harvestExpectations.indexOf(id);
+            if (index >= 0) {
+                log.trace("Getting expectation, using harvest expectations for configuration '{}'", cfgToString(this));
+                return getExpectedNumberOfObjects(objectLimit, byteLimit, true,
+                        harvestExpectations.getCountObjectRetrieved(index),
+                        harvestExpectations.getSizeDataRetrieved(index), harvestExpectations.getStopReason(index));
+            }
+        }
         HarvestInfo best = DomainHistory.getBestHarvestInfoExpectation(configName, this.domainhistory);
 
         log.trace("Getting expectation, using domain info '{}' for configuration '{}'", best, cfgToString(this));
 
-        long expectedObjectSize = getExpectedBytesPerObject(best);
+        if (best == null) {
+            return getExpectedNumberOfObjects(objectLimit, byteLimit, false, 0L, 0L, null);
+        }
+        return getExpectedNumberOfObjects(objectLimit, byteLimit, true, best.getCountObjectRetrieved(),
+                best.getSizeDataRetrieved(), best.getStopReason());
+    }
+
+    /**
+     * Gets the expectation for how many objects a harvest using this configuration will retrieve, given the best
+     * previous harvest.
+     *
+     * @param objectLimit The maximum limit, or Constants.HERITRIX_MAXOBJECTS_INFINITY for no limit.
+     * @param byteLimit The maximum number of bytes that will be used as limit in the harvest.
+     * @param harvested Whether the configuration has been harvested before. If not, the following are ignored.
+     * @param bestObjectCount The number of objects retrieved by the best previous harvest.
+     * @param bestByteCount The number of bytes retrieved by the best previous harvest.
+     * @param bestStopReason The stop reason of the best previous harvest.
+     * @return The expected number of objects.
+     */
+    private long getExpectedNumberOfObjects(long objectLimit, long byteLimit, boolean harvested,
+            long bestObjectCount, long bestByteCount, StopReason bestStopReason) {
+        long prevresultfactor = Settings.getLong(HarvesterSettings.ERRORFACTOR_PERMITTED_PREVRESULT);
+
+        long expectedObjectSize = getExpectedBytesPerObject(bestObjectCount, bestByteCount);
         // The maximum number of objects that the maxBytes or MAX_DOMAIN_SIZE
         // setting gives.
         long maximum;
@@ -368,16 +402,16 @@ public class DomainConfiguration implements Named {
         log.trace("Initial maximum: {}", maximum);
         // get last number of objects harvested
         long minimum;
-        if (best != null) {
-            minimum = best.getCountObjectRetrieved();
+        if (harvested) {
+            minimum = bestObjectCount;
         } else {
             minimum = NumberUtils.minInf(Constants.HERITRIX_MAXOBJECTS_INFINITY, maxObjects);
         }
         log.trace("Initial minimum: {}", minimum);
         // Calculate the expected number of objects we will harvest.
         long expectation;
-        if (best != null) {
-            if (best.getStopReason() == StopReason.DOWNLOAD_COMPLETE && maximum != -1) {
+        if (harvested) {
+            if (bestStopReason == StopReason.DOWNLOAD_COMPLETE && maximum != -1) {
                 // We set the expectation, so our harvest will exceed the
                 // expectation at most <factor> times if the domain is a lot
                 // larger than our best guess.
@@ -441,18 +475,17 @@ public class DomainConfiguration implements Named {
      * from previous harvests to calculate the harvest, but we only accept a low estimate if the number of harvested
      * objects is greater than the setting MIN_OBJECTS_TO_TRUST_SMALL_EXPECTATION.
      *
-     * @param bestInfo The best (newest complete or biggest, as per getBestHarvestInfoExpectation()) harvest info we
-     * have for the domain.
+     * @param bestObjectCount The number of objects retrieved by the best (newest complete or biggest, as per
+     * getBestHarvestInfoExpectation()) harvest we have for the domain, or 0 if never harvested.
+     * @param bestByteCount The number of bytes retrieved by that harvest.
      * @return How large we expect the average object to be. This number will be >= MIN_EXPECTATION (unless nothing is
      * harvested and is EXPECTED_AVERAGE_BYTES_PER_OBJECT <= 0).
      */
-    private long getExpectedBytesPerObject(HarvestInfo bestInfo) {
+    private long getExpectedBytesPerObject(long bestObjectCount, long bestByteCount) {
         long defaultExpectation = Settings.getLong(HarvesterSettings.EXPECTED_AVERAGE_BYTES_PER_OBJECT);
-        if (bestInfo != null && bestInfo.getCountObjectRetrieved() > 0) {
-            long expectation = Math.max(MIN_EXPECTATION,
-                    bestInfo.getSizeDataRetrieved() / bestInfo.getCountObjectRetrieved());
-            if (expectation < defaultExpectation
-                    && bestInfo.getCountObjectRetrieved() < MIN_OBJECTS_TO_TRUST_SMALL_EXPECTATION) {
+        if (bestObjectCount > 0) {
+            long expectation = Math.max(MIN_EXPECTATION, bestByteCount / bestObjectCount);
+            if (expectation < defaultExpectation && bestObjectCount < MIN_OBJECTS_TO_TRUST_SMALL_EXPECTATION) {
                 return defaultExpectation;
             }
             return expectation;
@@ -588,6 +621,15 @@ public class DomainConfiguration implements Named {
         this.domainhistory = newDomainhistory;
     }
 
+    /**
+     * Use the given expectations instead of the domain history when calculating the expected number of objects.
+     *
+     * @param harvestExpectations The expectations, or null to use the domain history.
+     */
+    void setHarvestExpectations(HarvestExpectations harvestExpectations) {
+        this.harvestExpectations = harvestExpectations;
+    }
+
     /**
      * Change the name of configuration to the given configName.
      * @param configName a new name for this configuration.
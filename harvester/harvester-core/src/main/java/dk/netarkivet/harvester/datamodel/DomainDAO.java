@@ -191,6 +191,19 @@ public abstract class DomainDAO implements DAO, Iterable<Domain> {
      */
     public abstract Iterator<Domain> getAllDomainsInSnapshotHarvestOrder();
 
+    /**
+     * Gets the default configurations of all domains that are not aliases, in the order expected by snapshot harvest
+     * job generation, that is configurations with attributes first, then order by template name, then byte limit
+     * (descending), then domain name.
+     * <p>
+     * Unlike {@link #getAllDomainsInSnapshotHarvestOrder()}, the domains are not read in full: the configurations are
+     * streamed from the database without their harvest history, which job generation reads through
+     * {@link HarvestExpectations}.
+     *
+     * @return Iterator of the default configurations of all domains that are not aliases.
+     */
+    public abstract Iterator<DomainConfiguration> getSnapshotDomainConfigurations();
+
     /**
      * Reset the singleton. Only for use in tests! TODO remove this, no test methods in business classes!
      */
@@ -36,10 +36,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -52,7 +54,9 @@ import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.DomainUtils;
 import dk.netarkivet.common.utils.FilterIterator;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValue;
@@ -1014,7 +1018,7 @@ public class DomainDBDAO extends DomainDAO {
      * @return a SeedList based on ResultSet entry.
      * @throws SQLException if unable to get data from database
      */
-    private SeedList getSeedListFromResultset(ResultSet res) throws SQLException {
+    static SeedList getSeedListFromResultset(ResultSet res) throws SQLException {
         final long seedlistId = res.getLong(1);
         final String seedlistName = res.getString(2);
         String seedlistComments = res.getString(3);
@@ -1114,13 +1118,8 @@ public class DomainDBDAO extends DomainDAO {
                         + " WHERE domains.defaultconfig=configurations.config_id"
                         + " AND configurations.config_id=eav_attribute.entity_id");
                 log.info("Retrieved all {} domains used for Snapshot harvesting that has attributes for their default configs", domainNamesWithAttributes.size());
-                domainNames = domainNames.stream().filter(DomainUtils::isValidDomainName).collect(Collectors.toList());
-                //  Remove the content of domainNamesWithAttributes from domainNames
-                domainNames.removeAll(domainNamesWithAttributes);
-                log.info("Removed all {} domains with attributes from the total list, reducing total-list to {}", domainNamesWithAttributes.size(), domainNames.size());
-                // Add the remainder of domainNames to domainNamesWithAttributes, so the domain configs with attributes will be handled first.
-                domainNamesWithAttributes.addAll(domainNames);
-                log.info("Remainder of total list merged with list of domains w/ attributes is size {}", domainNamesWithAttributes.size()); 
+                domainNamesWithAttributes = orderAttributesFirst(domainNames, domainNamesWithAttributes);
+                log.info("Total list merged with list of domains w/ attributes is size {}", domainNamesWithAttributes.size());
             } else {
                 log.info("Starting a select of all domains harvested in previous snapshot harvest #{}", hid);
                 domainNames = DBUtils.selectStringList(c, "SELECT DISTINCT domains.name"
@@ -1143,13 +1142,8 @@ public class DomainDBDAO extends DomainDAO {
                         + " AND historyinfo.harvest_id=" + hid
                         );
                 log.info("Retrieved all {} domains harvested in previous snapshot harvest that has attributes for their default configs", domainNamesWithAttributes.size());
-                domainNames = domainNames.stream().filter(DomainUtils::isValidDomainName).collect(Collectors.toList());
-                //  Remove the content of domainNamesWithAttributes from domainNames
-                domainNames.removeAll(domainNamesWithAttributes);
-                log.info("Removed all {} domains with attributes from the total list, reducing total-list to {}", domainNamesWithAttributes.size(), domainNames.size());
-                // Add the remainder of domainNames to domainNamesWithAttributes, so the domain configs with attributes will be handled first.
-                domainNamesWithAttributes.addAll(domainNames);
-                log.info("Remainder of total list merged with list of domains w/ attributes is size {}", domainNamesWithAttributes.size());   
+                domainNamesWithAttributes = orderAttributesFirst(domainNames, domainNamesWithAttributes);
+                log.info("Total list merged with list of domains w/ attributes is size {}", domainNamesWithAttributes.size());
             }
 
             return new FilterIterator<String, Domain>(domainNamesWithAttributes.iterator()) {
@@ -1162,6 +1156,31 @@ public class DomainDBDAO extends DomainDAO {
         }   
     }
 
+    /**
+     * Merge the names of all domains with the names of the domains whose default configuration has attributes, so the
+     * domains with attributes come first. Invalid domain names are left out of the remainder.
+     *
+     * @param domainNames The names of all domains, in order.
+     * @param domainNamesWithAttributes The names of the domains with attributes.
+     * @return The domain names with attributes, followed by the remaining domain names in their original order.
+     */
+    private static List<String> orderAttributesFirst(List<String> domainNames, List<String> domainNamesWithAttributes) {
+        Set<String> withAttributes = new HashSet<String>(domainNamesWithAttributes);
+        List<String> result = new ArrayList<String>(domainNames.size() + withAttributes.size());
+        result.addAll(domainNamesWithAttributes);
+        for (String name : domainNames) {
+            if (!withAttributes.contains(name) && DomainUtils.isValidDomainName(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<DomainConfiguration> getSnapshotDomainConfigurations() {
+        return new SnapshotDomainConfigurationIterator(Settings.getInt(HarvesterSettings.JOBGEN_SNAPSHOT_FETCH_SIZE));
+    }
+
     @Override
     public List<String> getDomains(String glob) {
         ArgumentNotValid.checkNotNullOrEmpty(glob, "glob");
@@ -228,6 +228,23 @@ public final class HarvestDBConnection {
         }
     }
 
+    /**
+     * Get the number of connections taken from the pool and not yet released.
+     *
+     * @return the number of busy connections, or 0 if the pool has not been initialized.
+     * @throws IOFailure if the pool status cannot be queried.
+     */
+    public static synchronized int getNumBusyConnections() {
+        if (dataSource == null) {
+            return 0;
+        }
+        try {
+            return dataSource.getNumBusyConnections();
+        } catch (SQLException e) {
+            throw new IOFailure("Could not query pool status", e);
+        }
+    }
+
     /**
      * Helper method to return a connection to the pool.
      *
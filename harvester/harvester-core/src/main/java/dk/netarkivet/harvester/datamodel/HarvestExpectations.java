@@ -0,0 +1,454 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * The best harvest expectation of every domain configuration with a harvest history, as used by
+ * {@link DomainConfiguration#getExpectedNumberOfObjects(long, long)} during job generation.
+ * <p>
+ * For each configuration this holds the object count, byte count and stop reason of the harvest that
+ * {@link DomainHistory#getBestHarvestInfoExpectation(String, DomainHistory)} would choose from the history of the
+ * domain, in arrays sorted by configuration id. It is read in one pass over the historyinfo table, instead of reading
+ * the history of every domain on its own, and is brought up to date by reading only the history added since.
+ * <p>
+ * If {@link HarvesterSettings#JOBGEN_EXPECTATIONS_SNAPSHOT_FILE} is set, the expectations are saved to that file
+ * whenever they change, and read from it when the scheduler starts.
+ * <p>
+ * Instances are immutable; {@link #refresh()} returns a new instance when the history has changed.
+ */
+public final class HarvestExpectations {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(HarvestExpectations.class);
+
+    /** The version of the snapshot file format. */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /** The expectations last returned by {@link #refresh()}. */
+    private static HarvestExpectations current;
+
+    /** The largest historyinfo_id included. */
+    private final long lastHistoryId;
+    /** The sorted ids of the configurations. */
+    private final long[] configIds;
+    /** The object count of the best harvest of each configuration. */
+    private final long[] objectCounts;
+    /** The byte count of the best harvest of each configuration. */
+    private final long[] byteCounts;
+    /** The stop reason number of the best harvest of each configuration. */
+    private final byte[] stopReasons;
+
+    /**
+     * Create expectations from the given arrays, which are not copied.
+     *
+     * @param lastHistoryId The largest historyinfo_id included.
+     * @param configIds The sorted ids of the configurations.
+     * @param objectCounts The object counts of the best harvests.
+     * @param byteCounts The byte counts of the best harvests.
+     * @param stopReasons The stop reason numbers of the best harvests.
+     */
+    private HarvestExpectations(long lastHistoryId, long[] configIds, long[] objectCounts, long[] byteCounts,
+            byte[] stopReasons) {
+        this.lastHistoryId = lastHistoryId;
+        this.configIds = configIds;
+        this.objectCounts = objectCounts;
+        this.byteCounts = byteCounts;
+        this.stopReasons = stopReasons;
+    }
+
+    /**
+     * Bring the expectations up to date with the harvest history in the database, and return them. The first call
+     * reads the snapshot file if there is one, and otherwise the whole history.
+     *
+     * @return The up to date expectations.
+     * @throws IOFailure If the history cannot be read.
+     */
+    public static synchronized HarvestExpectations refresh() {
+        String snapshotPath = Settings.get(HarvesterSettings.JOBGEN_EXPECTATIONS_SNAPSHOT_FILE);
+        File snapshot = snapshotPath.isEmpty() ? null : new File(snapshotPath);
+        HarvestExpectations previous = current;
+        if (previous == null && snapshot != null && snapshot.isFile()) {
+            try {
+                previous = read(snapshot);
+                log.info("Read harvest expectations of {} configurations from '{}'", previous.size(), snapshot);
+            } catch (IOException e) {
+                log.warn("Unable to read harvest expectations from '{}'. Reading the whole harvest history instead",
+                        snapshot, e);
+            }
+        }
+        Connection c = HarvestDBConnection.get();
+        try {
+            if (previous != null) {
+                Long maxHistoryId = DBUtils.selectLongValue(c, "SELECT MAX(historyinfo_id) FROM historyinfo");
+                if (maxHistoryId == null ? previous.size() > 0 : maxHistoryId < previous.lastHistoryId) {
+                    // The history has been replaced, e.g. by restoring the database
+                    log.info("Harvest history is older than the harvest expectations. Reading the whole history");
+                    previous = null;
+                }
+            }
+            current = load(c, previous, Settings.getInt(HarvesterSettings.JOBGEN_SNAPSHOT_FETCH_SIZE));
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+        if (snapshot != null && current != previous) {
+            try {
+                current.write(snapshot);
+            } catch (IOException e) {
+                log.warn("Unable to save harvest expectations to '{}'", snapshot, e);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Forget the expectations, so the next {@link #refresh()} reads them again. Only for use in tests.
+     */
+    public static synchronized void reset() {
+        current = null;
+    }
+
+    /**
+     * Read the harvest history added after the given expectations, and combine it with them.
+     * <p>
+     * History added later is assumed to be of later harvests, which is the case when it is added as jobs finish.
+     *
+     * @param c A connection to the harvest database.
+     * @param previous Earlier expectations, or null to read the whole history.
+     * @param fetchSize The JDBC fetch size to read the history with.
+     * @return The combined expectations, or previous itself if no history has been added.
+     * @throws IOFailure If the history cannot be read.
+     */
+    static HarvestExpectations load(Connection c, HarvestExpectations previous, int fetchSize) {
+        ArgumentNotValid.checkNotNull(c, "Connection c");
+        long after = previous == null ? Long.MIN_VALUE : previous.lastHistoryId;
+        long started = System.currentTimeMillis();
+        HarvestExpectations added;
+        boolean autoCommit = true;
+        PreparedStatement s = null;
+        try {
+            autoCommit = c.getAutoCommit();
+            s = DBUtils.prepareStatement(c, fetchSize, "SELECT historyinfo_id, config_id, objectcount, bytecount,"
+                    + " stopreason FROM historyinfo WHERE historyinfo_id > ?"
+                    + " ORDER BY config_id, harvest_time DESC, harvest_id DESC", after);
+            added = fold(s.executeQuery(), after);
+            c.commit();
+        } catch (SQLException e) {
+            throw new IOFailure("Error reading the harvest history after historyinfo_id " + after + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            try {
+                c.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                log.warn("Unable to restore auto-commit", e);
+            }
+        }
+        if (previous == null) {
+            log.info("Read harvest expectations of {} configurations in {} ms", added.size(),
+                    System.currentTimeMillis() - started);
+            return added;
+        }
+        if (added.size() == 0) {
+            return previous;
+        }
+        HarvestExpectations merged = previous.merge(added);
+        log.info("Updated harvest expectations with {} configurations in {} ms, now {} configurations",
+                added.size(), System.currentTimeMillis() - started, merged.size());
+        return merged;
+    }
+
+    /**
+     * Choose the best harvest of each configuration like
+     * {@link DomainHistory#getBestHarvestInfoExpectation(String, DomainHistory)}: going from the newest harvest, take
+     * the harvest that retrieved the most objects (the oldest one on ties), until a complete harvest is met.
+     * <p>
+     * The complete harvest met, if any, is marked by a negative stop reason, as history before it does not matter.
+     *
+     * @param res Rows of historyinfo_id, config_id, objectcount, bytecount, stopreason, ordered by configuration and
+     * with the newest harvest first.
+     * @param lastHistoryId The largest historyinfo_id known before these rows.
+     * @return The expectations of the configurations in the rows.
+     * @throws SQLException If the rows cannot be read.
+     */
+    private static HarvestExpectations fold(ResultSet res, long lastHistoryId) throws SQLException {
+        GrowingArrays arrays = new GrowingArrays();
+        long maxHistoryId = lastHistoryId;
+        long configId = 0;
+        boolean complete = false;
+        while (res.next()) {
+            maxHistoryId = Math.max(maxHistoryId, res.getLong(1));
+            long rowConfigId = res.getLong(2);
+            long objectCount = res.getLong(3);
+            int stopReason = res.getInt(5);
+            if (arrays.size == 0 || rowConfigId != configId) {
+                configId = rowConfigId;
+                complete = false;
+                arrays.add(configId, objectCount, res.getLong(4), stopReason);
+            } else if (!complete && arrays.objectCounts[arrays.size - 1] <= objectCount) {
+                arrays.set(arrays.size - 1, objectCount, res.getLong(4), stopReason);
+            }
+            if (!complete && stopReason == StopReason.DOWNLOAD_COMPLETE.ordinal()) {
+                complete = true;
+                arrays.stopReasons[arrays.size - 1] = (byte) ~arrays.stopReasons[arrays.size - 1];
+            }
+        }
+        return arrays.toExpectations(maxHistoryId);
+    }
+
+    /**
+     * Combine these expectations with those of later history.
+     *
+     * @param later Expectations of history added after these.
+     * @return The combined expectations.
+     */
+    private HarvestExpectations merge(HarvestExpectations later) {
+        GrowingArrays arrays = new GrowingArrays(configIds.length + later.configIds.length);
+        int i = 0;
+        int j = 0;
+        while (i < configIds.length || j < later.configIds.length) {
+            if (j == later.configIds.length || (i < configIds.length && configIds[i] < later.configIds[j])) {
+                arrays.add(configIds[i], objectCounts[i], byteCounts[i], stopReasons[i]);
+                i++;
+            } else if (i == configIds.length || later.configIds[j] < configIds[i]) {
+                arrays.add(later.configIds[j], later.objectCounts[j], later.byteCounts[j], later.stopReasons[j]);
+                j++;
+            } else {
+                // A complete later harvest ends the search; otherwise the older harvest wins ties
+                if (later.stopReasons[j] < 0 || later.objectCounts[j] > objectCounts[i]) {
+                    arrays.add(later.configIds[j], later.objectCounts[j], later.byteCounts[j], later.stopReasons[j]);
+                } else {
+                    arrays.add(configIds[i], objectCounts[i], byteCounts[i], stopReasons[i]);
+                }
+                i++;
+                j++;
+            }
+        }
+        return arrays.toExpectations(later.lastHistoryId);
+    }
+
+    /**
+     * @return The number of configurations with an expectation.
+     */
+    public int size() {
+        return configIds.length;
+    }
+
+    /**
+     * Let the given configuration use these expectations instead of its domain history.
+     *
+     * @param cfg A domain configuration.
+     */
+    public void applyTo(DomainConfiguration cfg) {
+        ArgumentNotValid.checkNotNull(cfg, "DomainConfiguration cfg");
+        cfg.setHarvestExpectations(this);
+    }
+
+    /**
+     * @param configId The id of a domain configuration.
+     * @return The index of the configuration, or a negative number if it has never been harvested.
+     */
+    int indexOf(long configId) {
+        return Arrays.binarySearch(configIds, configId);
+    }
+
+    /**
+     * @param index The index of a configuration.
+     * @return The number of objects retrieved by the best harvest of the configuration.
+     */
+    long getCountObjectRetrieved(int index) {
+        return objectCounts[index];
+    }
+
+    /**
+     * @param index The index of a configuration.
+     * @return The number of bytes retrieved by the best harvest of the configuration.
+     */
+    long getSizeDataRetrieved(int index) {
+        return byteCounts[index];
+    }
+
+    /**
+     * @param index The index of a configuration.
+     * @return The stop reason of the best harvest of the configuration.
+     */
+    StopReason getStopReason(int index) {
+        byte stopReason = stopReasons[index];
+        return StopReason.getStopReason(stopReason < 0 ? ~stopReason : stopReason);
+    }
+
+    /**
+     * Save the expectations to a file, replacing it atomically.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(File file) throws IOException {
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(lastHistoryId);
+            out.writeInt(configIds.length);
+            for (int i = 0; i < configIds.length; i++) {
+                out.writeLong(configIds[i]);
+                out.writeLong(objectCounts[i]);
+                out.writeLong(byteCounts[i]);
+                out.writeByte(stopReasons[i]);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            FileUtils.remove(file);
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to move '" + tmp + "' to '" + file + "'");
+            }
+        }
+    }
+
+    /**
+     * Read expectations saved by {@link #write(File)}.
+     *
+     * @param file The file to read.
+     * @return The expectations.
+     * @throws IOException If the file cannot be read, or is not a snapshot of this version.
+     */
+    static HarvestExpectations read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown harvest expectations snapshot version " + version + " in '" + file
+                        + "'");
+            }
+            long lastHistoryId = in.readLong();
+            int size = in.readInt();
+            long[] configIds = new long[size];
+            long[] objectCounts = new long[size];
+            long[] byteCounts = new long[size];
+            byte[] stopReasons = new byte[size];
+            for (int i = 0; i < size; i++) {
+                configIds[i] = in.readLong();
+                objectCounts[i] = in.readLong();
+                byteCounts[i] = in.readLong();
+                stopReasons[i] = in.readByte();
+            }
+            return new HarvestExpectations(lastHistoryId, configIds, objectCounts, byteCounts, stopReasons);
+        }
+    }
+
+    /**
+     * Arrays of expectations in configuration order, which grow as expectations are added.
+     */
+    private static final class GrowingArrays {
+        long[] configIds;
+        long[] objectCounts;
+        long[] byteCounts;
+        byte[] stopReasons;
+        int size;
+
+        /** Create empty arrays. */
+        GrowingArrays() {
+            this(1024);
+        }
+
+        /**
+         * Create empty arrays.
+         *
+         * @param capacity The initial capacity.
+         */
+        GrowingArrays(int capacity) {
+            capacity = Math.max(capacity, 16);
+            configIds = new long[capacity];
+            objectCounts = new long[capacity];
+            byteCounts = new long[capacity];
+            stopReasons = new byte[capacity];
+        }
+
+        /**
+         * Add an expectation for a configuration after all those added.
+         *
+         * @param configId The configuration id.
+         * @param objectCount The object count.
+         * @param byteCount The byte count.
+         * @param stopReason The stop reason number.
+         */
+        void add(long configId, long objectCount, long byteCount, int stopReason) {
+            if (size == configIds.length) {
+                int capacity = size * 2;
+                configIds = Arrays.copyOf(configIds, capacity);
+                objectCounts = Arrays.copyOf(objectCounts, capacity);
+                byteCounts = Arrays.copyOf(byteCounts, capacity);
+                stopReasons = Arrays.copyOf(stopReasons, capacity);
+            }
+            configIds[size] = configId;
+            set(size++, objectCount, byteCount, stopReason);
+        }
+
+        /**
+         * Replace the expectation at an index.
+         *
+         * @param index The index.
+         * @param objectCount The object count.
+         * @param byteCount The byte count.
+         * @param stopReason The stop reason number.
+         */
+        void set(int index, long objectCount, long byteCount, int stopReason) {
+            objectCounts[index] = objectCount;
+            byteCounts[index] = byteCount;
+            stopReasons[index] = (byte) stopReason;
+        }
+
+        /**
+         * @param lastHistoryId The largest historyinfo_id included.
+         * @return Expectations with the added contents.
+         */
+        HarvestExpectations toExpectations(long lastHistoryId) {
+            return new HarvestExpectations(lastHistoryId, Arrays.copyOf(configIds, size),
+                    Arrays.copyOf(objectCounts, size), Arrays.copyOf(byteCounts, size),
+                    Arrays.copyOf(stopReasons, size));
+        }
+    }
+
+}
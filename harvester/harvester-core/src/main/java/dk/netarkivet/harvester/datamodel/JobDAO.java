@@ -69,6 +69,16 @@ public abstract class JobDAO implements DAO, Iterable<Job> {
      */
     public abstract void create(Job job);
 
+    /**
+     * Creates instances in persistent storage of the given jobs, in the given order, using a single connection. Jobs
+     * without an ID get one generated for them.
+     *
+     * @param jobs the jobs to create in persistent storage.
+     * @throws PermissionDenied If a job already exists in persistent storage with id of one of the given jobs
+     * @throws IOFailure If some IOException occurs while writing the jobs
+     */
+    public abstract void create(List<Job> jobs);
+
     /**
      * Check whether a particular job exists.
      *
@@ -30,12 +30,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +66,9 @@ public class JobDBDAO extends JobDAO {
     /** The logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(JobDBDAO.class);
 
+    /** The edition of a newly created job. */
+    private static final long INITIAL_EDITION = 1;
+
     /**
      * Create a new JobDAO implemented using database. This constructor also tries to upgrade the jobs and jobs_configs
      * tables in the current database. throws and IllegalState exception, if it is impossible to make the necessary
@@ -90,32 +96,37 @@ public class JobDBDAO extends JobDAO {
      */
     public synchronized void create(Job job) {
         ArgumentNotValid.checkNotNull(job, "Job job");
-        // Check that job.getOrigHarvestDefinitionID() refers to existing harvestdefinition.
-        Long harvestId = job.getOrigHarvestDefinitionID();
-        if (!HarvestDefinitionDAO.getInstance().exists(harvestId)) {
-            throw new UnknownID("No harvestdefinition with ID=" + harvestId);
-        }
+        create(Collections.singletonList(job));
+    }
 
-        Connection connection = HarvestDBConnection.get();
-        if (job.getJobID() != null) {
-            log.warn("The jobId for the job is already set. This should probably never happen.");
-        } else {
-            job.setJobID(generateNextID(connection));
+    /**
+     * Creates instances in persistent storage of the given jobs, reusing one connection and one insert statement for
+     * all of them. Job IDs are generated as in {@link #create(Job)}, and every job is committed together with its
+     * job_configs entries, so a failure leaves the jobs before it created.
+     *
+     * @param jobs the jobs to add to persistent storage
+     * @throws UnknownID If a job refers to a harvestdefinition that does not exist
+     * @throws IOFailure If some IOException occurs while writing the jobs to persistent storage
+     */
+    @Override
+    public synchronized void create(List<Job> jobs) {
+        ArgumentNotValid.checkNotNull(jobs, "List<Job> jobs");
+        // Check that job.getOrigHarvestDefinitionID() refers to existing harvestdefinitions.
+        Set<Long> harvestIds = new HashSet<Long>();
+        for (Job job : jobs) {
+            ArgumentNotValid.checkNotNull(job, "Job job");
+            Long harvestId = job.getOrigHarvestDefinitionID();
+            if (harvestIds.add(harvestId) && !HarvestDefinitionDAO.getInstance().exists(harvestId)) {
+                throw new UnknownID("No harvestdefinition with ID=" + harvestId);
+            }
         }
-        // Set the harvestNamePrefix. Every current implementation depends on the JobID being set before
-        // being initialized.
-        job.setDefaultHarvestNamePrefix();
-        
-        
-        if (job.getCreationDate() != null) {
-            log.warn("The creation time for the job is already set. This should probably never happen.");
-        } else {
-            job.setCreationDate(new Date());
+        if (jobs.isEmpty()) {
+            return;
         }
 
-        log.debug("Creating " + job.toString());
-
+        Connection connection = HarvestDBConnection.get();
         PreparedStatement statement = null;
+        Job job = null;
         try {
             connection.setAutoCommit(false);
             statement = connection.prepareStatement("INSERT INTO jobs "
@@ -124,48 +135,84 @@ public class JobDBDAO extends JobDAO {
                     + "harvest_num, startdate, enddate, submitteddate, creationdate, "
                     + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
                     + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?," + "?, ?, ?, ?, ?, ?)");
+            Long nextID = null;
+            for (Job next : jobs) {
+                job = next;
+                if (job.getJobID() != null) {
+                    log.warn("The jobId for the job is already set. This should probably never happen.");
+                    nextID = null;
+                } else {
+                    if (nextID == null) {
+                        nextID = generateNextID(connection);
+                    }
+                    job.setJobID(nextID++);
+                }
+                // Set the harvestNamePrefix. Every current implementation depends on the JobID being set before
+                // being initialized.
+                job.setDefaultHarvestNamePrefix();
 
-            statement.setLong(1, job.getJobID());
-            statement.setLong(2, job.getOrigHarvestDefinitionID());
-            statement.setInt(3, job.getStatus().ordinal());
-            statement.setString(4, job.getChannel());
-            statement.setLong(5, job.getForceMaxObjectsPerDomain());
-            statement.setLong(6, job.getMaxBytesPerDomain());
-            statement.setLong(7, job.getMaxJobRunningTime());
-            DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(), Constants.MAX_NAME_SIZE, job,
-                    "order.xml name");
-            final String orderString = job.getOrderXMLdoc().getXML();
-            DBUtils.setClobMaxLength(statement, 9, orderString, Constants.MAX_ORDERXML_SIZE, job, "order.xml");
-            DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(), Constants.MAX_COMBINED_SEED_LIST_SIZE,
-                    job, "seedlist");
-            statement.setInt(11, job.getHarvestNum());
-            DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
-            DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
-            DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
-            DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
-
-            // The size of the configuration map == number of configurations
-            statement.setInt(16, job.getDomainConfigurationMap().size());
-            long initialEdition = 1;
-            statement.setLong(17, initialEdition);
-            DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
-            statement.setString(19, job.getHarvestFilenamePrefix());
-            statement.setBoolean(20, job.isSnapshot());
-            statement.executeUpdate();
-            createJobConfigsEntries(connection, job);
-            connection.commit();
-            job.setEdition(initialEdition);
+                if (job.getCreationDate() != null) {
+                    log.warn("The creation time for the job is already set. This should probably never happen.");
+                } else {
+                    job.setCreationDate(new Date());
+                }
+
+                log.debug("Creating " + job.toString());
+                insertJob(statement, job);
+                createJobConfigsEntries(connection, job);
+                connection.commit();
+                job.setEdition(INITIAL_EDITION);
+                JobStatusCache.statusChanged(job.getJobID(), job.getStatus());
+            }
         } catch (SQLException e) {
             String message = "SQL error creating job " + job + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
             log.warn(message, e);
             throw new IOFailure(message, e);
         } finally {
+            DBUtils.closeStatementIfOpen(statement);
             DBUtils.rollbackIfNeeded(connection, "create job", job);
             HarvestDBConnection.release(connection);
         }
     }
 
+    /**
+     * Insert the row of a new job in the jobs table.
+     *
+     * @param statement The prepared INSERT INTO jobs statement
+     * @param job The job to insert
+     * @throws SQLException If the row cannot be inserted
+     */
+    private void insertJob(PreparedStatement statement, Job job) throws SQLException {
+        statement.clearParameters();
+        statement.setLong(1, job.getJobID());
+        statement.setLong(2, job.getOrigHarvestDefinitionID());
+        statement.setInt(3, job.getStatus().ordinal());
+        statement.setString(4, job.getChannel());
+        statement.setLong(5, job.getForceMaxObjectsPerDomain());
+        statement.setLong(6, job.getMaxBytesPerDomain());
+        statement.setLong(7, job.getMaxJobRunningTime());
+        DBUtils.setStringMaxLength(statement, 8, job.getOrderXMLName(), Constants.MAX_NAME_SIZE, job,
+                "order.xml name");
+        final String orderString = job.getOrderXMLdoc().getXML();
+        DBUtils.setClobMaxLength(statement, 9, orderString, Constants.MAX_ORDERXML_SIZE, job, "order.xml");
+        DBUtils.setClobMaxLength(statement, 10, job.getSeedListAsString(), Constants.MAX_COMBINED_SEED_LIST_SIZE,
+                job, "seedlist");
+        statement.setInt(11, job.getHarvestNum());
+        DBUtils.setDateMaybeNull(statement, 12, job.getActualStart());
+        DBUtils.setDateMaybeNull(statement, 13, job.getActualStop());
+        DBUtils.setDateMaybeNull(statement, 14, job.getSubmittedDate());
+        DBUtils.setDateMaybeNull(statement, 15, job.getCreationDate());
+
+        // The size of the configuration map == number of configurations
+        statement.setInt(16, job.getDomainConfigurationMap().size());
+        statement.setLong(17, INITIAL_EDITION);
+        DBUtils.setLongMaybeNull(statement, 18, job.getResubmittedAsJob());
+        statement.setString(19, job.getHarvestFilenamePrefix());
+        statement.setBoolean(20, job.isSnapshot());
+        statement.executeUpdate();
+    }
+
     /**
      * Create the entries in the job_configs table for this job. Since some jobs have up to 10000 configs, this must be
      * optimized. The entries are only created, if job.configsChanged is true.
@@ -341,6 +388,7 @@ public class JobDBDAO extends JobDAO {
             createJobConfigsEntries(connection, job);
             connection.commit();
             job.setEdition(edition);
+            JobStatusCache.statusChanged(jobID, job.getStatus());
         } catch (SQLException e) {
             String message = "SQL error updating job " + job + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
@@ -893,6 +941,8 @@ public class JobDBDAO extends JobDAO {
             statement.setLong(3, oldJobID);
             statement.executeUpdate();
             connection.commit();
+            JobStatusCache.statusChanged(oldJobID, JobStatus.RESUBMITTED);
+            JobStatusCache.statusChanged(newJobID, JobStatus.NEW);
         } catch (SQLException e) {
             String message = "SQL error rescheduling job #" + oldJobID + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
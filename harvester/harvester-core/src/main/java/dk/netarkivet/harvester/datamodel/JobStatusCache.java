@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * A cache of the statuses of jobs, so the status of a job can be looked up for every progress message of a running
+ * job without reading the job. The cache is fed with the status transitions made through the {@link JobDAO} of this
+ * application and with those announced to it, e.g. by messages of ended jobs. Other statuses are read with
+ * {@link JobDAO#getJobStatus(Long)}, and kept for {@link HarvesterSettings#HARVEST_MONITOR_JOB_STATUS_CACHE_TIME}
+ * seconds.
+ */
+public final class JobStatusCache {
+
+    /** The maximum number of job statuses cached. */
+    private static final int MAX_ENTRIES = 10000;
+
+    /** The cached statuses, by job ID, least recently used first. */
+    private static final Map<Long, CachedStatus> statuses = new LinkedHashMap<Long, CachedStatus>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedStatus> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /** Utility class, do not instantiate. */
+    private JobStatusCache() {
+    }
+
+    /**
+     * Get the status of a job, from the cache if it was cached within the cache time.
+     *
+     * @param jobID the ID of a job.
+     * @return the status of the job.
+     * @throws UnknownID if no job exists with the given ID.
+     */
+    public static JobStatus getStatus(Long jobID) {
+        ArgumentNotValid.checkNotNull(jobID, "Long jobID");
+        long now = System.currentTimeMillis();
+        synchronized (statuses) {
+            CachedStatus cached = statuses.get(jobID);
+            if (cached != null && now < cached.expires) {
+                return cached.status;
+            }
+        }
+        JobStatus status = JobDAO.getInstance().getJobStatus(jobID);
+        put(jobID, status, now);
+        return status;
+    }
+
+    /**
+     * Register the new status of a job.
+     *
+     * @param jobID the ID of a job.
+     * @param status the new status of the job.
+     */
+    public static void statusChanged(Long jobID, JobStatus status) {
+        ArgumentNotValid.checkNotNull(jobID, "Long jobID");
+        ArgumentNotValid.checkNotNull(status, "JobStatus status");
+        put(jobID, status, System.currentTimeMillis());
+    }
+
+    /**
+     * Forget the status of a job, so it is read again when needed.
+     *
+     * @param jobID the ID of a job.
+     */
+    public static void remove(Long jobID) {
+        synchronized (statuses) {
+            statuses.remove(jobID);
+        }
+    }
+
+    /** Forget all cached statuses. */
+    public static void reset() {
+        synchronized (statuses) {
+            statuses.clear();
+        }
+    }
+
+    /**
+     * Cache the status of a job.
+     *
+     * @param jobID the ID of a job.
+     * @param status the status of the job.
+     * @param now the current time in milliseconds.
+     */
+    private static void put(Long jobID, JobStatus status, long now) {
+        long expires = now + 1000L * Settings.getLong(HarvesterSettings.HARVEST_MONITOR_JOB_STATUS_CACHE_TIME);
+        synchronized (statuses) {
+            statuses.put(jobID, new CachedStatus(status, expires));
+        }
+    }
+
+    /** A cached status and when it expires. */
+    private static final class CachedStatus {
+        /** The status of the job. */
+        private final JobStatus status;
+        /** The time the status expires, in milliseconds since the epoch. */
+        private final long expires;
+
+        CachedStatus(JobStatus status, long expires) {
+            this.status = status;
+            this.expires = expires;
+        }
+    }
+
+}
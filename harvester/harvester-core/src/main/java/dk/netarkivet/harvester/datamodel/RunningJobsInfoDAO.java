@@ -22,6 +22,7 @@
  */
 package dk.netarkivet.harvester.datamodel;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -68,6 +69,14 @@ public abstract class RunningJobsInfoDAO implements DAO {
      */
     public abstract void store(StartedJobInfo startedJobInfo);
 
+    /**
+     * Stores {@link StartedJobInfo} records to the persistent storage, as {@link #store(StartedJobInfo)} does for each
+     * of them. If several records are given for the same job, only the last one is stored in the monitor table.
+     *
+     * @param startedJobInfos the records to store.
+     */
+    public abstract void store(Collection<StartedJobInfo> startedJobInfos);
+
     /**
      * Returns the most recent record for every job, partitioned by harvest definition name.
      *
@@ -29,9 +29,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -95,6 +97,30 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         }
     }
 
+    /** Updates the row of a job in the runningJobsMonitor table. */
+    private static final String UPDATE_MONITOR_SQL;
+
+    static {
+        StringBuffer columns = new StringBuffer();
+        for (HM_COLUMN setCol : HM_COLUMN.values()) {
+            columns.append(setCol.name() + "=?, ");
+        }
+        UPDATE_MONITOR_SQL = "UPDATE runningJobsMonitor SET " + columns.substring(0, columns.lastIndexOf(","))
+                + " WHERE jobId=? AND harvestName=?";
+    }
+
+    /** Selects the row of a job in the runningJobsMonitor table. */
+    private static final String SELECT_MONITOR_ROW_SQL = "SELECT jobId FROM runningJobsMonitor"
+            + " WHERE jobId=? AND harvestName=?";
+
+    /** Inserts the row of a job in the runningJobsMonitor table. */
+    private static final String INSERT_MONITOR_SQL = "INSERT INTO runningJobsMonitor ("
+            + HM_COLUMN.getColumnsInOrder() + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+    /** Inserts a history record in the runningJobsHistory table. */
+    private static final String INSERT_HISTORY_SQL = "INSERT INTO runningJobsHistory ("
+            + HM_COLUMN.getColumnsInOrder() + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
     /**
      * Date of last history record per job.
      */
@@ -133,148 +159,155 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
      * @param startedJobInfo the record to store.
      */
     @Override
-    public synchronized void store(StartedJobInfo startedJobInfo) {
+    public void store(StartedJobInfo startedJobInfo) {
         ArgumentNotValid.checkNotNull(startedJobInfo, "StartedJobInfo startedJobInfo");
+        store(Collections.singletonList(startedJobInfo));
+    }
 
-        Connection c = HarvestDBConnection.get();
-
-        try {
-            PreparedStatement stm = null;
+    /**
+     * Stores {@link StartedJobInfo} records to the persistent storage in one transaction. Only the last record given
+     * for each job and harvest is stored in the monitor table: the existing rows are updated in one batch, and the
+     * records without a row are inserted in another. Records for jobs whose last history sample is at least the history
+     * sample rate old are also added to the history table.
+     *
+     * @param startedJobInfos the records to store.
+     */
+    @Override
+    public synchronized void store(Collection<StartedJobInfo> startedJobInfos) {
+        ArgumentNotValid.checkNotNull(startedJobInfos, "Collection<StartedJobInfo> startedJobInfos");
+        // Keep the last record per primary key of the monitor table
+        Map<String, StartedJobInfo> latest = new LinkedHashMap<String, StartedJobInfo>();
+        for (StartedJobInfo startedJobInfo : startedJobInfos) {
+            ArgumentNotValid.checkNotNull(startedJobInfo, "StartedJobInfo startedJobInfo");
+            String key = startedJobInfo.getJobId() + " " + startedJobInfo.getHarvestName();
+            latest.remove(key);
+            latest.put(key, startedJobInfo);
+        }
+        if (latest.isEmpty()) {
+            return;
+        }
 
-            // First is there a record in the monitor table?
-            boolean update = false;
-            try {
-                stm = c.prepareStatement("SELECT jobId FROM runningJobsMonitor WHERE jobId=? AND harvestName=?");
-                stm.setLong(1, startedJobInfo.getJobId());
-                stm.setString(2, startedJobInfo.getHarvestName());
+        long time = System.currentTimeMillis();
+        List<StartedJobInfo> samples = new ArrayList<StartedJobInfo>();
+        for (StartedJobInfo startedJobInfo : latest.values()) {
+            Long lastHistoryStore = lastSampleDateByJobId.get(startedJobInfo.getJobId());
+            if (lastHistoryStore == null || time >= lastHistoryStore + HISTORY_SAMPLE_RATE) {
+                samples.add(startedJobInfo);
+            }
+        }
 
-                // One row expected, as per PK definition
-                update = stm.executeQuery().next();
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement stm = null;
+        try {
+            c.setAutoCommit(false);
 
-            } catch (SQLException e) {
-                String message = "SQL error checking running jobs monitor table" + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                throw new IOFailure(message, e);
+            // Update the latest progress information of the jobs already in the monitor table
+            List<StartedJobInfo> infos = new ArrayList<StartedJobInfo>(latest.values());
+            stm = c.prepareStatement(UPDATE_MONITOR_SQL);
+            for (StartedJobInfo startedJobInfo : infos) {
+                setColumns(stm, startedJobInfo);
+                stm.setLong(HM_COLUMN.values().length + 1, startedJobInfo.getJobId());
+                stm.setString(HM_COLUMN.values().length + 2, startedJobInfo.getHarvestName());
+                stm.addBatch();
             }
+            int[] updated = stm.executeBatch();
+            stm.close();
 
-            try {
-                // Update or insert latest progress information for this job
-                c.setAutoCommit(false);
-
-                StringBuffer sql = new StringBuffer();
-
-                if (update) {
-                    sql.append("UPDATE runningJobsMonitor SET ");
-
-                    StringBuffer columns = new StringBuffer();
-                    // FIXME Seriously, construct an identical SQL string every time and use an enum...?!
-                    for (HM_COLUMN setCol : HM_COLUMN.values()) {
-                        columns.append(setCol.name() + "=?, ");
-                    }
-                    sql.append(columns.substring(0, columns.lastIndexOf(",")));
-                    sql.append(" WHERE jobId=? AND harvestName=?");
-                } else {
-                    sql.append("INSERT INTO runningJobsMonitor (");
-                    sql.append(HM_COLUMN.getColumnsInOrder());
-                    sql.append(") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+            // and insert it for the others
+            List<StartedJobInfo> inserts = getRecordsNotUpdated(c, infos, updated);
+            if (!inserts.isEmpty()) {
+                stm = c.prepareStatement(INSERT_MONITOR_SQL);
+                for (StartedJobInfo startedJobInfo : inserts) {
+                    setColumns(stm, startedJobInfo);
+                    stm.addBatch();
                 }
+                stm.executeBatch();
+                stm.close();
+            }
 
-                stm = c.prepareStatement(sql.toString());
-                stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
-                stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
-                stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
-                stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
-                stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
-                stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
-                stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
-                stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
-                stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
-                stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
-                stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
-                stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
-                stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
-                stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
-                stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(),
-                        startedJobInfo.getCurrentProcessedDocsPerSec());
-                stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
-                stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
-                stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
-                stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
-	            stm.setLong(HM_COLUMN.totalBytesWritten.rank(), startedJobInfo.getTotalBytesWritten());
-                if (update) {
-                    stm.setLong(HM_COLUMN.values().length + 1, startedJobInfo.getJobId());
-                    stm.setString(HM_COLUMN.values().length + 2, startedJobInfo.getHarvestName());
+            if (!samples.isEmpty()) {
+                stm = c.prepareStatement(INSERT_HISTORY_SQL);
+                for (StartedJobInfo startedJobInfo : samples) {
+                    log.debug("Adding history Record for job {} to runningJobsHistory table",
+                            startedJobInfo.getJobId());
+                    setColumns(stm, startedJobInfo);
+                    stm.addBatch();
                 }
-
-                stm.executeUpdate();
-
-                c.commit();
-            } catch (SQLException e) {
-                String message = "SQL error storing started job info " + startedJobInfo + " in monitor table" + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                throw new IOFailure(message, e);
-            } finally {
-                DBUtils.closeStatementIfOpen(stm);
-                DBUtils.rollbackIfNeeded(c, "store started job info", startedJobInfo);
+                stm.executeBatch();
             }
 
-            // Should we store an history record?
-            Long lastHistoryStore = lastSampleDateByJobId.get(startedJobInfo.getJobId());
-
-            long time = System.currentTimeMillis();
-            boolean shouldSample = lastHistoryStore == null || time >= lastHistoryStore + HISTORY_SAMPLE_RATE;
-
-            if (!shouldSample) {
-                return; // we're done
-            }
-            log.debug("Adding history Record for job {} to runningJobsHistory table", startedJobInfo.getJobId());
-            try {
-                c.setAutoCommit(false);
+            c.commit();
+        } catch (SQLException e) {
+            String message = "SQL error storing " + latest.size() + " started job infos " + latest.values()
+                    + " in monitor and history tables" + "\n" + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(stm);
+            DBUtils.rollbackIfNeeded(c, "store started job infos", latest.values());
+            HarvestDBConnection.release(c);
+        }
 
-                stm = c.prepareStatement("INSERT INTO runningJobsHistory (" + HM_COLUMN.getColumnsInOrder()
-                        + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
-                stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
-                stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
-                stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
-                stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
-                stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
-                stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
-                stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
-                stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
-                stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
-                stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
-                stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
-                stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
-                stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
-                stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
-                stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(),
-                        startedJobInfo.getCurrentProcessedDocsPerSec());
-                stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
-                stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
-                stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
-                stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
-                stm.setLong(HM_COLUMN.totalBytesWritten.rank(), startedJobInfo.getTotalBytesWritten());
-                
-                stm.executeUpdate();
+        // Remember last sampling date
+        for (StartedJobInfo startedJobInfo : samples) {
+            lastSampleDateByJobId.put(startedJobInfo.getJobId(), time);
+        }
+    }
 
-                c.commit();
-            } catch (SQLException e) {
-                String message = "SQL error storing started job info " + startedJobInfo + " in history table" + "\n"
-                        + ExceptionUtils.getSQLExceptionCause(e);
-                log.warn(message, e);
-                throw new IOFailure(message, e);
-            } finally {
-                DBUtils.closeStatementIfOpen(stm);
-                DBUtils.rollbackIfNeeded(c, "store started job info", startedJobInfo);
+    /**
+     * Find the records whose row in the runningJobsMonitor table was not updated by a batch update, and so must be
+     * inserted. Some drivers report {@link Statement#SUCCESS_NO_INFO} instead of the number of rows updated by a
+     * statement of a batch, so the records with that result are looked up in the table.
+     *
+     * @param c the connection the batch update was executed on.
+     * @param infos the records of the batch update, in the order they were added.
+     * @param updated the update counts returned by the batch update.
+     * @return the records without a row in the runningJobsMonitor table.
+     * @throws IOFailure If looking up a row fails.
+     */
+    static List<StartedJobInfo> getRecordsNotUpdated(Connection c, List<StartedJobInfo> infos, int[] updated) {
+        List<StartedJobInfo> notUpdated = new ArrayList<StartedJobInfo>();
+        for (int i = 0; i < infos.size(); i++) {
+            StartedJobInfo startedJobInfo = infos.get(i);
+            int count = i < updated.length ? updated[i] : Statement.SUCCESS_NO_INFO;
+            if (count == 0
+                    || (count == Statement.SUCCESS_NO_INFO && !DBUtils.selectAny(c, SELECT_MONITOR_ROW_SQL,
+                            startedJobInfo.getJobId(), startedJobInfo.getHarvestName()))) {
+                notUpdated.add(startedJobInfo);
             }
-
-            // Remember last sampling date
-            lastSampleDateByJobId.put(startedJobInfo.getJobId(), time);
-        } finally {
-            HarvestDBConnection.release(c);
         }
+        return notUpdated;
+    }
+
+    /**
+     * Set the parameters of the columns of the runningJobsMonitor and runningJobsHistory tables, in the order given by
+     * {@link HM_COLUMN}.
+     *
+     * @param stm an INSERT or UPDATE statement listing the columns in order.
+     * @param startedJobInfo the record whose values to set.
+     * @throws SQLException If a parameter cannot be set.
+     */
+    private static void setColumns(PreparedStatement stm, StartedJobInfo startedJobInfo) throws SQLException {
+        stm.setLong(HM_COLUMN.jobId.rank(), startedJobInfo.getJobId());
+        stm.setString(HM_COLUMN.harvestName.rank(), startedJobInfo.getHarvestName());
+        stm.setLong(HM_COLUMN.elapsedSeconds.rank(), startedJobInfo.getElapsedSeconds());
+        stm.setString(HM_COLUMN.hostUrl.rank(), startedJobInfo.getHostUrl());
+        stm.setDouble(HM_COLUMN.progress.rank(), startedJobInfo.getProgress());
+        stm.setLong(HM_COLUMN.queuedFilesCount.rank(), startedJobInfo.getQueuedFilesCount());
+        stm.setLong(HM_COLUMN.totalQueuesCount.rank(), startedJobInfo.getTotalQueuesCount());
+        stm.setLong(HM_COLUMN.activeQueuesCount.rank(), startedJobInfo.getActiveQueuesCount());
+        stm.setLong(HM_COLUMN.retiredQueuesCount.rank(), startedJobInfo.getRetiredQueuesCount());
+        stm.setLong(HM_COLUMN.exhaustedQueuesCount.rank(), startedJobInfo.getExhaustedQueuesCount());
+        stm.setLong(HM_COLUMN.alertsCount.rank(), startedJobInfo.getAlertsCount());
+        stm.setLong(HM_COLUMN.downloadedFilesCount.rank(), startedJobInfo.getDownloadedFilesCount());
+        stm.setLong(HM_COLUMN.currentProcessedKBPerSec.rank(), startedJobInfo.getCurrentProcessedKBPerSec());
+        stm.setLong(HM_COLUMN.processedKBPerSec.rank(), startedJobInfo.getProcessedKBPerSec());
+        stm.setDouble(HM_COLUMN.currentProcessedDocsPerSec.rank(), startedJobInfo.getCurrentProcessedDocsPerSec());
+        stm.setDouble(HM_COLUMN.processedDocsPerSec.rank(), startedJobInfo.getProcessedDocsPerSec());
+        stm.setInt(HM_COLUMN.activeToeCount.rank(), startedJobInfo.getActiveToeCount());
+        stm.setInt(HM_COLUMN.status.rank(), startedJobInfo.getStatus().ordinal());
+        stm.setTimestamp(HM_COLUMN.tstamp.rank(), new Timestamp(startedJobInfo.getTimestamp().getTime()));
+        stm.setLong(HM_COLUMN.totalBytesWritten.rank(), startedJobInfo.getTotalBytesWritten());
     }
 
     /**
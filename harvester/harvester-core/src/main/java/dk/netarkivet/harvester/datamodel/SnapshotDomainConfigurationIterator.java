@@ -0,0 +1,362 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.antiaction.raptor.dao.AttributeTypeBase;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.DomainUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.harvester.datamodel.eav.EAV;
+import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
+
+/**
+ * Iterator over the default configurations of all domains that are not aliases, in the order expected by snapshot
+ * harvest job generation: configurations with EAV attributes first, then by template name, then byte limit
+ * (descending), then domain name.
+ * <p>
+ * The configurations are read through a single database cursor with a JDBC fetch size, so only a batch of them is held
+ * in memory at a time. Seedlists and passwords are read for a whole batch of configurations at a time, instead of
+ * reading every domain in full. The harvest history is not read: the configurations are given an empty history, as job
+ * generation takes their expectations from {@link HarvestExpectations}.
+ * <p>
+ * The iterator holds a database connection until it is exhausted or {@link #close()} is called.
+ */
+final class SnapshotDomainConfigurationIterator implements Iterator<DomainConfiguration>, AutoCloseable {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(SnapshotDomainConfigurationIterator.class);
+
+    /**
+     * The default configurations of all domains that are not aliases (or whose alias has expired), with the
+     * configurations with attributes first.
+     */
+    private static final String SNAPSHOT_CONFIGURATIONS_QUERY = "SELECT domains.name, domains.crawlertraps,"
+            + " configurations.config_id, configurations.name, configurations.comments, ordertemplates.name,"
+            + " configurations.maxobjects, configurations.maxrate, configurations.maxbytes,"
+            + " CASE WHEN attributed.entity_id IS NULL THEN 1 ELSE 0 END AS attributeorder"
+            + " FROM domains"
+            + " JOIN configurations ON domains.defaultconfig = configurations.config_id"
+            + " JOIN ordertemplates ON configurations.template_id = ordertemplates.template_id"
+            + " LEFT OUTER JOIN (SELECT DISTINCT entity_id FROM eav_attribute WHERE tree_id = " + EAV.DOMAIN_TREE_ID
+            + ") attributed ON attributed.entity_id = configurations.config_id"
+            + " WHERE (domains.alias IS NULL OR domains.lastaliasupdate < ?)"
+            + " ORDER BY attributeorder, ordertemplates.name, configurations.maxbytes DESC, domains.name";
+
+    /** The number of configurations read at a time. */
+    private final int batchSize;
+    /** The connection holding the cursor, or null when closed. */
+    private Connection connection;
+    /** The statement of the cursor. */
+    private PreparedStatement statement;
+    /** The cursor over the configurations. */
+    private ResultSet cursor;
+    /** The attribute types of domain configurations, used for configurations without attributes. */
+    private final List<AttributeTypeBase> attributeTypes;
+    /** Configurations read but not yet returned. */
+    private final ArrayDeque<DomainConfiguration> batch = new ArrayDeque<DomainConfiguration>();
+    /** The number of configurations returned so far. */
+    private long count;
+
+    /**
+     * Open the cursor over the snapshot configurations.
+     *
+     * @param batchSize The JDBC fetch size, and the number of configurations read at a time.
+     * @throws ArgumentNotValid if batchSize is not positive.
+     * @throws IOFailure if the configurations cannot be selected.
+     */
+    SnapshotDomainConfigurationIterator(int batchSize) {
+        ArgumentNotValid.checkPositive(batchSize, "int batchSize");
+        this.batchSize = batchSize;
+        this.attributeTypes = EAV.getInstance().getAttributeTypes(EAV.DOMAIN_TREE_ID);
+        Date aliasExpiry = new Date(System.currentTimeMillis() - Constants.ALIAS_TIMEOUT_IN_MILLISECONDS);
+        connection = HarvestDBConnection.get();
+        try {
+            statement = DBUtils.prepareStatement(connection, batchSize, SNAPSHOT_CONFIGURATIONS_QUERY, aliasExpiry);
+            cursor = statement.executeQuery();
+        } catch (SQLException e) {
+            close();
+            throw new IOFailure("Error selecting the domain configurations for snapshot harvesting\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        }
+        log.info("Started reading the default configurations of all domains for snapshot harvesting, {} at a time",
+                batchSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (batch.isEmpty() && connection != null) {
+            try {
+                readBatch();
+            } catch (SQLException e) {
+                close();
+                throw new IOFailure("Error reading the domain configurations for snapshot harvesting\n"
+                        + ExceptionUtils.getSQLExceptionCause(e), e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+        return !batch.isEmpty();
+    }
+
+    @Override
+    public DomainConfiguration next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        count++;
+        return batch.poll();
+    }
+
+    /**
+     * Release the cursor and its connection. Called automatically when the iterator is exhausted.
+     */
+    @Override
+    public void close() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (cursor != null) {
+                cursor.close();
+            }
+            DBUtils.closeStatementIfOpen(statement);
+            connection.commit();
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            log.warn("Error closing the cursor over snapshot configurations\n{}",
+                    ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            HarvestDBConnection.release(connection);
+            connection = null;
+        }
+    }
+
+    /**
+     * Read the next batch of configurations from the cursor, along with their seedlists, passwords and attributes.
+     * Closes the iterator if the cursor is exhausted.
+     *
+     * @throws SQLException If the database cannot be read.
+     */
+    private void readBatch() throws SQLException {
+        Map<Long, ConfigurationRow> rows = new HashMap<Long, ConfigurationRow>(batchSize * 2);
+        List<ConfigurationRow> ordered = new ArrayList<ConfigurationRow>(batchSize);
+        while (ordered.size() < batchSize && cursor.next()) {
+            ConfigurationRow row = new ConfigurationRow(cursor);
+            if (DomainUtils.isValidDomainName(row.domainName)) {
+                rows.put(row.configId, row);
+                ordered.add(row);
+            } else {
+                log.debug("Skipping invalid domain name '{}' in snapshot harvest", row.domainName);
+            }
+        }
+        if (ordered.isEmpty()) {
+            log.info("Read the default configurations of {} domains for snapshot harvesting", count);
+            close();
+            return;
+        }
+        String ids = placeholders(ordered.size());
+        readSeedlists(rows, ordered, ids);
+        readPasswords(rows, ordered, ids);
+        for (ConfigurationRow row : ordered) {
+            batch.add(row.toDomainConfiguration());
+        }
+    }
+
+    /**
+     * Read the seedlists of a batch of configurations.
+     *
+     * @param rows The configurations by id.
+     * @param ordered The configurations in order; their ids are the query arguments.
+     * @param ids The placeholders for the ids.
+     * @throws SQLException If the database cannot be read.
+     */
+    private void readSeedlists(Map<Long, ConfigurationRow> rows, List<ConfigurationRow> ordered, String ids)
+            throws SQLException {
+        try (PreparedStatement s = prepareBatchQuery("SELECT seedlists.seedlist_id, seedlists.name,"
+                + " seedlists.comments, seedlists.seeds, config_seedlists.config_id"
+                + " FROM config_seedlists JOIN seedlists ON config_seedlists.seedlist_id = seedlists.seedlist_id"
+                + " WHERE config_seedlists.config_id IN (" + ids + ")", ordered)) {
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                rows.get(res.getLong(5)).seedlists.add(DomainDBDAO.getSeedListFromResultset(res));
+            }
+        }
+    }
+
+    /**
+     * Read the passwords of a batch of configurations.
+     *
+     * @param rows The configurations by id.
+     * @param ordered The configurations in order; their ids are the query arguments.
+     * @param ids The placeholders for the ids.
+     * @throws SQLException If the database cannot be read.
+     */
+    private void readPasswords(Map<Long, ConfigurationRow> rows, List<ConfigurationRow> ordered, String ids)
+            throws SQLException {
+        try (PreparedStatement s = prepareBatchQuery("SELECT passwords.password_id, passwords.name,"
+                + " passwords.comments, passwords.url, passwords.realm, passwords.username, passwords.password,"
+                + " config_passwords.config_id"
+                + " FROM config_passwords JOIN passwords ON config_passwords.password_id = passwords.password_id"
+                + " WHERE config_passwords.config_id IN (" + ids + ")", ordered)) {
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                final Password pwd = new Password(res.getString(2), res.getString(3), res.getString(4),
+                        res.getString(5), res.getString(6), res.getString(7));
+                pwd.setID(res.getLong(1));
+                rows.get(res.getLong(8)).passwords.add(pwd);
+            }
+        }
+    }
+
+    /**
+     * Prepare a query with the ids of a batch of configurations as arguments.
+     *
+     * @param query The query with a placeholder for each configuration.
+     * @param ordered The configurations.
+     * @return The prepared statement.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    private PreparedStatement prepareBatchQuery(String query, List<ConfigurationRow> ordered) throws SQLException {
+        PreparedStatement s = connection.prepareStatement(query);
+        int i = 1;
+        for (ConfigurationRow row : ordered) {
+            s.setLong(i++, row.configId);
+        }
+        return s;
+    }
+
+    /**
+     * @param n A number of arguments.
+     * @return A comma separated list of n placeholders.
+     */
+    private static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder(n * 2);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The columns read from the cursor for a configuration, and the seedlists and passwords read for it.
+     */
+    private final class ConfigurationRow {
+        final String domainName;
+        final String crawlertraps;
+        final long configId;
+        final String configName;
+        final String comments;
+        final String orderXmlName;
+        final long maxObjects;
+        final int maxRate;
+        final long maxBytes;
+        final boolean hasAttributes;
+        final List<SeedList> seedlists = new ArrayList<SeedList>();
+        final List<Password> passwords = new ArrayList<Password>();
+
+        /**
+         * Read the current row of the cursor.
+         *
+         * @param res The cursor.
+         * @throws SQLException If the row cannot be read.
+         */
+        ConfigurationRow(ResultSet res) throws SQLException {
+            domainName = res.getString(1);
+            crawlertraps = res.getString(2);
+            configId = res.getLong(3);
+            configName = res.getString(4);
+            comments = res.getString(5);
+            orderXmlName = res.getString(6);
+            maxObjects = res.getLong(7);
+            maxRate = res.getInt(8);
+            maxBytes = res.getLong(9);
+            hasAttributes = res.getInt(10) == 0;
+        }
+
+        /**
+         * @return The configuration described by this row.
+         * @throws IOFailure If the configuration has no seedlists.
+         * @throws SQLException If the attributes of the configuration cannot be read.
+         */
+        DomainConfiguration toDomainConfiguration() throws SQLException {
+            if (seedlists.isEmpty()) {
+                String message = "Configuration " + configName + " of domain '" + domainName + "' has no seedlists";
+                log.warn(message);
+                throw new IOFailure(message);
+            }
+            List<String> traps = new ArrayList<String>();
+            if (crawlertraps != null) {
+                for (String trap : crawlertraps.split("\n")) {
+                    if (!trap.isEmpty()) { // Ignore empty traps (NAS-2480)
+                        traps.add(trap);
+                    }
+                }
+            }
+            DomainConfiguration dc = new DomainConfiguration(configName, domainName, new DomainHistory(), traps,
+                    seedlists, passwords);
+            dc.setOrderXmlName(orderXmlName);
+            dc.setMaxObjects(maxObjects);
+            dc.setMaxRequestRate(maxRate);
+            dc.setComments(comments);
+            dc.setMaxBytes(maxBytes);
+            dc.setID(configId);
+            if (hasAttributes) {
+                dc.setAttributesAndTypes(EAV.getInstance().getAttributesAndTypes(EAV.DOMAIN_TREE_ID, (int) configId));
+            } else {
+                // Without attributes, every type has its default value
+                List<AttributeAndType> defaults = new ArrayList<AttributeAndType>(attributeTypes.size());
+                for (AttributeTypeBase attributeType : attributeTypes) {
+                    defaults.add(new AttributeAndType(attributeType, null));
+                }
+                Collections.sort(defaults);
+                dc.setAttributesAndTypes(defaults);
+            }
+            return dc;
+        }
+    }
+
+}
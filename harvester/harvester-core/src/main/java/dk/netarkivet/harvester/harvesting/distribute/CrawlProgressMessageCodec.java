@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * NetarchiveSuite - harvester - core
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.distribute;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dk.netarkivet.common.distribute.ChannelID;
+import dk.netarkivet.common.distribute.MessageCodecs;
+import dk.netarkivet.common.distribute.NetarkivetMessageCodec;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlServiceInfo;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlServiceJobInfo;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlStatus;
+
+/**
+ * Binary codec for {@link CrawlProgressMessage}, which every harvester sends to the HarvestMonitor at short
+ * intervals. Enabled by adding this class to the setting settings.common.jms.messageCodecs.
+ */
+public class CrawlProgressMessageCodec implements NetarkivetMessageCodec<CrawlProgressMessage> {
+
+    @Override
+    public Class<CrawlProgressMessage> getMessageClass() {
+        return CrawlProgressMessage.class;
+    }
+
+    @Override
+    public void writeMessage(CrawlProgressMessage msg, DataOutput out) throws IOException {
+        out.writeLong(msg.getHarvestID());
+        out.writeLong(msg.getJobID());
+        MessageCodecs.writeString(out, msg.getProgressStatisticsLegend());
+        MessageCodecs.writeString(out, msg.getHostUrl());
+        out.writeInt(msg.getStatus() == null ? -1 : msg.getStatus().ordinal());
+
+        CrawlServiceInfo heritrixStatus = msg.getHeritrixStatus();
+        out.writeInt(heritrixStatus.getAlertCount());
+        out.writeBoolean(heritrixStatus.isCrawling());
+        MessageCodecs.writeString(out, heritrixStatus.getCurrentJob());
+
+        CrawlServiceJobInfo jobStatus = msg.getJobStatus();
+        out.writeLong(jobStatus.getDiscoveredFilesCount());
+        out.writeLong(jobStatus.getDownloadedFilesCount());
+        MessageCodecs.writeString(out, jobStatus.getFrontierShortReport());
+        out.writeLong(jobStatus.getElapsedSeconds());
+        out.writeLong(jobStatus.getCurrentProcessedKBPerSec());
+        out.writeLong(jobStatus.getProcessedKBPerSec());
+        out.writeDouble(jobStatus.getCurrentProcessedDocsPerSec());
+        out.writeDouble(jobStatus.getProcessedDocsPerSec());
+        out.writeInt(jobStatus.getActiveToeCount());
+        MessageCodecs.writeString(out, jobStatus.getProgressStatistics());
+        MessageCodecs.writeString(out, jobStatus.getStatus());
+        out.writeLong(jobStatus.getSizeOnDisk());
+    }
+
+    @Override
+    public CrawlProgressMessage readMessage(ChannelID to, ChannelID replyTo, DataInput in) throws IOException {
+        long harvestID = in.readLong();
+        long jobID = in.readLong();
+        CrawlProgressMessage msg = new CrawlProgressMessage(harvestID, jobID, MessageCodecs.readString(in));
+        msg.setHostUrl(MessageCodecs.readString(in));
+        int status = in.readInt();
+        if (status >= CrawlStatus.values().length) {
+            throw new IOException("Unknown crawl status " + status);
+        }
+        msg.setStatus(status < 0 ? null : CrawlStatus.values()[status]);
+
+        CrawlServiceInfo heritrixStatus = msg.getHeritrixStatus();
+        heritrixStatus.setAlertCount(in.readInt());
+        heritrixStatus.setCrawling(in.readBoolean());
+        heritrixStatus.setCurrentJob(MessageCodecs.readString(in));
+
+        CrawlServiceJobInfo jobStatus = msg.getJobStatus();
+        jobStatus.setDiscoveredFilesCount(in.readLong());
+        jobStatus.setDownloadedFilesCount(in.readLong());
+        jobStatus.setFrontierShortReport(MessageCodecs.readString(in));
+        jobStatus.setElapsedSeconds(in.readLong());
+        jobStatus.setCurrentProcessedKBPerSec(in.readLong());
+        jobStatus.setProcessedKBPerSec(in.readLong());
+        jobStatus.setCurrentProcessedDocsPerSec(in.readDouble());
+        jobStatus.setProcessedDocsPerSec(in.readDouble());
+        jobStatus.setActiveToeCount(in.readInt());
+        jobStatus.setProgressStatistics(MessageCodecs.readString(in));
+        jobStatus.setStatus(MessageCodecs.readString(in));
+        jobStatus.setSizeOnDisk(in.readLong());
+        return msg;
+    }
+
+}
@@ -24,6 +24,9 @@
 package dk.netarkivet.harvester.harvesting.distribute;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import dk.netarkivet.common.distribute.Channels;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
@@ -57,6 +60,9 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
     /** upload errors encountered with details. */
     private String uploadErrorDetails;
 
+    /** The time spent in each stage of post-processing, in milliseconds, in the order the stages were run. */
+    private LinkedHashMap<String, Long> postProcessingTimings = new LinkedHashMap<String, Long>();
+
     /**
      * Creates an instance of this class corresponding to a job.
      *
@@ -135,8 +141,13 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
             dhr = harvestReport.toString();
         }
 
-        return "CrawlStatusMessage:\n" + "JobID: " + jobID + '\n' + "StatusCode: " + statusCode + '\n' + dhr + '\n'
-                + super.toString();
+        String timings = "";
+        if (!getPostProcessingTimings().isEmpty()) {
+            timings = "PostProcessingTimings: " + getPostProcessingTimings() + '\n';
+        }
+
+        return "CrawlStatusMessage:\n" + "JobID: " + jobID + '\n' + "StatusCode: " + statusCode + '\n' + timings + dhr
+                + '\n' + super.toString();
     }
 
     /**
@@ -219,4 +230,28 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
         this.uploadErrorDetails = uploadErrorDetails;
     }
 
+    /**
+     * Returns the time spent in each stage of post-processing the crawl, in the order the stages were run.
+     *
+     * @return the time spent in each stage in milliseconds, by stage name. Empty if no timings were recorded.
+     */
+    public Map<String, Long> getPostProcessingTimings() {
+        if (postProcessingTimings == null) {
+            // Sent by a harvester not recording timings
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(postProcessingTimings);
+    }
+
+    /**
+     * Records the time spent in the stages of post-processing the crawl.
+     *
+     * @param postProcessingTimings the time spent in each stage in milliseconds, by stage name.
+     * @throws ArgumentNotValid if null argument
+     */
+    public void setPostProcessingTimings(Map<String, Long> postProcessingTimings) {
+        ArgumentNotValid.checkNotNull(postProcessingTimings, "Map<String, Long> postProcessingTimings");
+        this.postProcessingTimings = new LinkedHashMap<String, Long>(postProcessingTimings);
+    }
+
 }
@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * NetarchiveSuite - harvester - core
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.distribute;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import dk.netarkivet.common.distribute.ChannelID;
+import dk.netarkivet.common.distribute.MessageCodecs;
+import dk.netarkivet.common.distribute.NetarkivetMessageCodec;
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
+import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
+
+/**
+ * Binary codec for {@link FrontierReportMessage}, whose reports may hold thousands of lines. Enabled by adding this
+ * class to the setting settings.common.jms.messageCodecs.
+ */
+public class FrontierReportMessageCodec implements NetarkivetMessageCodec<FrontierReportMessage> {
+
+    @Override
+    public Class<FrontierReportMessage> getMessageClass() {
+        return FrontierReportMessage.class;
+    }
+
+    @Override
+    public void writeMessage(FrontierReportMessage msg, DataOutput out) throws IOException {
+        MessageCodecs.writeString(out, msg.getFilterId());
+        out.writeBoolean(msg.getJobID() != null);
+        if (msg.getJobID() != null) {
+            out.writeLong(msg.getJobID());
+        }
+        InMemoryFrontierReport report = msg.getReport();
+        out.writeBoolean(report != null);
+        if (report == null) {
+            return;
+        }
+        MessageCodecs.writeString(out, report.getJobName());
+        out.writeLong(report.getTimestamp());
+        FrontierReportLine[] lines = report.getLines();
+        out.writeInt(lines.length);
+        for (FrontierReportLine line : lines) {
+            MessageCodecs.writeString(out, line.getDomainName());
+            out.writeLong(line.getCurrentSize());
+            out.writeLong(line.getPrecedence());
+            out.writeLong(line.getTotalEnqueues());
+            out.writeLong(line.getSessionBalance());
+            out.writeDouble(line.getLastCost());
+            out.writeDouble(line.getAverageCost());
+            MessageCodecs.writeString(out, line.getLastDequeueTime());
+            MessageCodecs.writeString(out, line.getWakeTime());
+            out.writeLong(line.getTotalSpend());
+            out.writeLong(line.getTotalBudget());
+            out.writeLong(line.getErrorCount());
+            MessageCodecs.writeString(out, line.getLastPeekUri());
+            MessageCodecs.writeString(out, line.getLastQueuedUri());
+        }
+    }
+
+    @Override
+    public FrontierReportMessage readMessage(ChannelID to, ChannelID replyTo, DataInput in) throws IOException {
+        String filterId = MessageCodecs.readString(in);
+        Long jobID = in.readBoolean() ? in.readLong() : null;
+        InMemoryFrontierReport report = null;
+        if (in.readBoolean()) {
+            report = new InMemoryFrontierReport(MessageCodecs.readString(in));
+            report.setTimestamp(in.readLong());
+            int lineCount = in.readInt();
+            for (int i = 0; i < lineCount; i++) {
+                FrontierReportLine line = new FrontierReportLine();
+                line.setDomainName(MessageCodecs.readString(in));
+                line.setCurrentSize(in.readLong());
+                line.setPrecedence(in.readLong());
+                line.setTotalEnqueues(in.readLong());
+                line.setSessionBalance(in.readLong());
+                line.setLastCost(in.readDouble());
+                line.setAverageCost(in.readDouble());
+                line.setLastDequeueTime(MessageCodecs.readString(in));
+                line.setWakeTime(MessageCodecs.readString(in));
+                line.setTotalSpend(in.readLong());
+                line.setTotalBudget(in.readLong());
+                line.setErrorCount(in.readLong());
+                line.setLastPeekUri(MessageCodecs.readString(in));
+                line.setLastQueuedUri(MessageCodecs.readString(in));
+                report.addLine(line);
+            }
+        }
+        return new FrontierReportMessage(filterId, report, jobID);
+    }
+
+}
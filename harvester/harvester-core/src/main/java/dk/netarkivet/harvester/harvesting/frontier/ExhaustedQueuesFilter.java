@@ -22,6 +22,8 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
+import java.util.Comparator;
+
 import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.ReportIterator;
 
 /**
@@ -37,14 +39,28 @@ public class ExhaustedQueuesFilter extends MaxSizeFrontierReportExtract {
         FullFrontierReport full = (FullFrontierReport) initialFrontier;
         ReportIterator iter = full.iterateOnDuplicateCurrentSize(0L);
 
-        int maxSize = getMaxSize();
-        int addedLines = 0;
-        while (addedLines <= maxSize && iter.hasNext()) {
-            result.addLine(new FrontierReportLine(iter.next()));
-            addedLines++;
+        try {
+            int maxSize = getMaxSize();
+            int addedLines = 0;
+            while (addedLines < maxSize && iter.hasNext()) {
+                result.addLine(new FrontierReportLine(iter.next()));
+                addedLines++;
+            }
+        } finally {
+            iter.close();
         }
 
         return result;
     }
 
+    @Override
+    boolean accepts(FrontierReportLine line) {
+        return line.getCurrentSize() == 0;
+    }
+
+    @Override
+    Comparator<FrontierReportLine> getOrder() {
+        return Comparator.naturalOrder();
+    }
+
 }
@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Computes the extract of a {@link StreamingFrontierReportFilter} while the lines of a frontier report are read. Only
+ * the lines accepted by the filter are considered, and only the first lines in a given order are kept, in a bounded
+ * heap, so memory use does not depend on the size of the full report.
+ */
+public class FrontierReportExtract {
+
+    /** The Heritrix job name. */
+    private final String jobName;
+
+    /** The maximum number of lines to keep. */
+    private final int maxSize;
+
+    /** The lines to consider. */
+    private final Predicate<FrontierReportLine> accepted;
+
+    /** The order in which the first lines are kept. */
+    private final Comparator<FrontierReportLine> order;
+
+    /** The lines kept so far, with the last one in the given order at the head. */
+    private final PriorityQueue<FrontierReportLine> heap;
+
+    /**
+     * Builds an empty extract.
+     *
+     * @param jobName the Heritrix job name
+     * @param maxSize the maximum number of lines to keep.
+     * @param accepted the lines to consider.
+     * @param order the order in which the first lines are kept.
+     */
+    public FrontierReportExtract(String jobName, int maxSize, Predicate<FrontierReportLine> accepted,
+            Comparator<FrontierReportLine> order) {
+        ArgumentNotValid.checkNotNullOrEmpty(jobName, "String jobName");
+        ArgumentNotValid.checkNotNegative(maxSize, "int maxSize");
+        ArgumentNotValid.checkNotNull(accepted, "Predicate<FrontierReportLine> accepted");
+        ArgumentNotValid.checkNotNull(order, "Comparator<FrontierReportLine> order");
+        this.jobName = jobName;
+        this.maxSize = maxSize;
+        this.accepted = accepted;
+        this.order = order;
+        this.heap = new PriorityQueue<FrontierReportLine>(Math.min(maxSize, 1024) + 1, order.reversed());
+    }
+
+    /**
+     * Considers a line of the full report, keeping it if it is accepted and among the first lines seen so far.
+     *
+     * @param line a line of the full report.
+     */
+    public void addLine(FrontierReportLine line) {
+        if (maxSize == 0 || !accepted.test(line)) {
+            return;
+        }
+        if (heap.size() < maxSize) {
+            heap.add(line);
+        } else if (order.compare(line, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(line);
+        }
+    }
+
+    /**
+     * Returns the extract, i.e. the lines kept.
+     *
+     * @return the extract as an in-memory report.
+     */
+    public InMemoryFrontierReport getReport() {
+        InMemoryFrontierReport report = new InMemoryFrontierReport(jobName);
+        for (FrontierReportLine line : heap) {
+            report.addLine(line);
+        }
+        return report;
+    }
+
+}
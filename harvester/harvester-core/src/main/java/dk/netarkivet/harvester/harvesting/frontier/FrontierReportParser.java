@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Reads the lines of an Heritrix frontier report as a stream, handing each parsed {@link FrontierReportLine} to a
+ * consumer as soon as it is read. Neither the report text nor the lines are kept in memory, so reports with millions
+ * of queues can be processed without building a DOM or a string of the whole report.
+ * <p>
+ * The first line of a report is a header, and is discarded. Blank lines are ignored, and lines that can not be parsed
+ * are logged and skipped.
+ */
+public final class FrontierReportParser {
+
+    /** The logger for this class. */
+    private static final Logger LOG = LoggerFactory.getLogger(FrontierReportParser.class);
+
+    /** The factory for XML stream readers, configured once. */
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /** Utility class, do not instantiate. */
+    private FrontierReportParser() {
+    }
+
+    /**
+     * Parses the frontier report contained as text in the first element with the given name below the document element
+     * of an XML document, e.g. the response to an Heritrix 3 REST script call.
+     *
+     * @param in the XML document. It is not closed by this method.
+     * @param tagName the name of the element containing the report.
+     * @param consumer the consumer to hand the report lines to.
+     * @return the number of report lines handed to the consumer.
+     * @throws ArgumentNotValid if an argument is null, or tagName is empty.
+     * @throws IOFailure if the XML document can not be read.
+     */
+    public static long parseXML(InputStream in, String tagName, Consumer<FrontierReportLine> consumer) {
+        ArgumentNotValid.checkNotNull(in, "InputStream in");
+        ArgumentNotValid.checkNotNullOrEmpty(tagName, "String tagName");
+        ArgumentNotValid.checkNotNull(consumer, "Consumer<FrontierReportLine> consumer");
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth > 1 && tagName.equals(reader.getLocalName())) {
+                        return readElementLines(reader, consumer);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            LOG.warn("Found no element '{}' containing a frontier report", tagName);
+            return 0;
+        } catch (XMLStreamException e) {
+            throw new IOFailure("Failed to parse frontier report XML", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    LOG.debug("Failed to close XML stream reader", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a frontier report given as plain text, e.g. the string returned by the Heritrix 1 JMX controller.
+     *
+     * @param in the report text. It is not closed by this method.
+     * @param consumer the consumer to hand the report lines to.
+     * @return the number of report lines handed to the consumer.
+     * @throws ArgumentNotValid if an argument is null.
+     * @throws IOFailure if the text can not be read.
+     */
+    public static long parseText(Reader in, Consumer<FrontierReportLine> consumer) {
+        ArgumentNotValid.checkNotNull(in, "Reader in");
+        ArgumentNotValid.checkNotNull(consumer, "Consumer<FrontierReportLine> consumer");
+        LineSplitter lines = new LineSplitter(consumer);
+        BufferedReader reader = new BufferedReader(in);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.handleLine(line);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Failed to read frontier report", e);
+        }
+        return lines.getLineCount();
+    }
+
+    /**
+     * Reads the text of the current element, and of the elements nested in it, as report lines.
+     *
+     * @param reader a reader positioned on the start of the element.
+     * @param consumer the consumer to hand the report lines to.
+     * @return the number of report lines handed to the consumer.
+     * @throws XMLStreamException if the XML can not be read.
+     */
+    private static long readElementLines(XMLStreamReader reader, Consumer<FrontierReportLine> consumer)
+            throws XMLStreamException {
+        LineSplitter lines = new LineSplitter(consumer);
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                lines.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                break;
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            default:
+                break;
+            }
+        }
+        lines.finish();
+        return lines.getLineCount();
+    }
+
+    /**
+     * Splits text given in chunks into lines, and parses them into report lines.
+     */
+    private static class LineSplitter {
+
+        /** The consumer of the report lines. */
+        private final Consumer<FrontierReportLine> consumer;
+        /** The start of the line being read, up to the last chunk. */
+        private final StringBuilder currentLine = new StringBuilder();
+        /** Whether the header line has been read. */
+        private boolean headerRead = false;
+        /** The number of lines handed to the consumer. */
+        private long lineCount = 0;
+
+        /**
+         * @param consumer the consumer of the report lines.
+         */
+        LineSplitter(Consumer<FrontierReportLine> consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * Adds a chunk of text, handling the lines completed by it.
+         *
+         * @param chars the buffer holding the chunk.
+         * @param start the start of the chunk in the buffer.
+         * @param length the length of the chunk.
+         */
+        void append(char[] chars, int start, int length) {
+            int lineStart = start;
+            int end = start + length;
+            for (int i = start; i < end; i++) {
+                if (chars[i] == '\n') {
+                    currentLine.append(chars, lineStart, i - lineStart);
+                    handleLine(currentLine.toString());
+                    currentLine.setLength(0);
+                    lineStart = i + 1;
+                }
+            }
+            currentLine.append(chars, lineStart, end - lineStart);
+        }
+
+        /**
+         * Handles the last line, if it was not terminated.
+         */
+        void finish() {
+            if (currentLine.length() > 0) {
+                handleLine(currentLine.toString());
+                currentLine.setLength(0);
+            }
+        }
+
+        /**
+         * Parses a line and hands it to the consumer, unless it is the header line.
+         *
+         * @param line a line of the report.
+         */
+        void handleLine(String line) {
+            if (!headerRead) {
+                headerRead = true;
+                return;
+            }
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                return;
+            }
+            FrontierReportLine reportLine;
+            try {
+                reportLine = new FrontierReportLine(trimmed);
+            } catch (RuntimeException e) {
+                LOG.warn("Skipping frontier report line that could not be parsed: '{}'", trimmed, e);
+                return;
+            }
+            consumer.accept(reportLine);
+            lineCount++;
+        }
+
+        /**
+         * @return the number of lines handed to the consumer.
+         */
+        long getLineCount() {
+            return lineCount;
+        }
+
+    }
+
+}
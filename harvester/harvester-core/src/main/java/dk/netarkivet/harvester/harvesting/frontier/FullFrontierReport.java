@@ -22,25 +22,14 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.util.Iterator;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.Environment;
@@ -247,6 +236,8 @@ public class FullFrontierReport extends AbstractFrontierReport {
 
             StoreConfig storeConfig = new StoreConfig();
             storeConfig.setAllowCreate(true);
+            // The store only lives as long as this report, so lines are not written to the log one by one.
+            storeConfig.setDeferredWrite(true);
 
             store = new EntityStore(dbEnvironment, FrontierReportLine.class.getSimpleName() + "-" + jobName,
                     storeConfig);
@@ -386,27 +377,31 @@ public class FullFrontierReport extends AbstractFrontierReport {
      * controller as XML
      *
      * @param jobName the Heritrix job name
-     * @param contentsAsString the text returned by the http REST call
+     * @param contentsAsXML the XML returned by the http REST call
+     * @param tagName the name of the element containing the report
      * @return the report wrapper object
      */
     public static FullFrontierReport parseContentsAsXML(String jobName, byte[] contentsAsXML, String tagName) {
-    	//FIXME : instanciate an unique dBuilder
-    	DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-    	DocumentBuilder dBuilder;
-		try {
-			dBuilder = dbFactory.newDocumentBuilder();
-			Document doc = dBuilder.parse((new ByteArrayInputStream(contentsAsXML)));
-			
-			Element e = doc.getDocumentElement();
-	    	NodeList nList = e.getElementsByTagName(tagName);
-	    	//get first (and normally unique) item
-	    	Node nNode = nList.item(0);
-	    	String contentAsString = nNode.getTextContent();
-	    	return FullFrontierReport.parseContentsAsString(jobName, contentAsString);
-		} catch (Exception e) {
-			LOG.error("Failed to parse XML content", e);
-			return new FullFrontierReport(jobName);
-		}
+        return parseContentsAsXML(jobName, new ByteArrayInputStream(contentsAsXML), tagName);
+    }
+
+    /**
+     * Generates an Heritrix frontier report wrapper object by parsing the frontier report returned by the REST API
+     * controller as XML, while it is read from the given stream.
+     *
+     * @param jobName the Heritrix job name
+     * @param contentsAsXML the XML returned by the http REST call. It is not closed by this method.
+     * @param tagName the name of the element containing the report
+     * @return the report wrapper object
+     */
+    public static FullFrontierReport parseContentsAsXML(String jobName, InputStream contentsAsXML, String tagName) {
+        FullFrontierReport report = new FullFrontierReport(jobName);
+        try {
+            FrontierReportParser.parseXML(contentsAsXML, tagName, report::addLine);
+        } catch (IOFailure e) {
+            LOG.error("Failed to parse XML content", e);
+        }
+        return report;
     }
 
     /**
@@ -418,46 +413,12 @@ public class FullFrontierReport extends AbstractFrontierReport {
      * @return the report wrapper object
      */
     public static FullFrontierReport parseContentsAsString(String jobName, String contentsAsString) {
-
         FullFrontierReport report = new FullFrontierReport(jobName);
-
-        // First dump this possibly huge string to a file
-        File tmpDir = Settings.getFile(CommonSettings.CACHE_DIR);
-        File tmpFile = new File(tmpDir, jobName + "-" + System.currentTimeMillis() + ".txt");
-        try {
-            tmpFile.createNewFile();
-            BufferedWriter out = new BufferedWriter(new FileWriter(tmpFile));
-            out.write(contentsAsString);
-            out.close();
-        } catch (IOException e) {
-            LOG.error("Failed to create temporary file", e);
-            return report;
-        }
-
-        BufferedReader br;
         try {
-            br = new BufferedReader(new FileReader(tmpFile));
-        } catch (FileNotFoundException e) {
-            LOG.error("Failed to read temporary file", e);
-            return report;
+            FrontierReportParser.parseText(new StringReader(contentsAsString), report::addLine);
+        } catch (IOFailure e) {
+            LOG.error("Failed to parse frontier report", e);
         }
-
-        try {
-            String lineToken = br.readLine(); // Discard header line
-            while ((lineToken = br.readLine()) != null) {
-                report.addLine(new FrontierReportLine(lineToken));
-            }
-
-            br.close();
-        } catch (IOException e) {
-            LOG.warn("Failed to close reader", e);
-        } catch (Throwable t) {
-            LOG.error("",t);
-            t.printStackTrace(System.err);
-        } finally {
-            FileUtils.remove(tmpFile);
-        }
-
         return report;
     }
 
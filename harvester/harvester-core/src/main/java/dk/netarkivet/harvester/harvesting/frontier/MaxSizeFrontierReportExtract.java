@@ -22,12 +22,15 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
+import java.util.Comparator;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 
-abstract class MaxSizeFrontierReportExtract extends AbstractFrontierReportFilter {
+abstract class MaxSizeFrontierReportExtract extends AbstractFrontierReportFilter implements
+        StreamingFrontierReportFilter {
 
     /** The logger to use. */
 	private static final Logger LOG = LoggerFactory.getLogger(MaxSizeFrontierReportExtract.class);
@@ -52,6 +55,27 @@ abstract class MaxSizeFrontierReportExtract extends AbstractFrontierReportFilter
     @Override
     public abstract InMemoryFrontierReport process(FrontierReport initialFrontier);
 
+    @Override
+    public FrontierReportExtract newExtract(String jobName) {
+        return new FrontierReportExtract(jobName, getMaxSize(), this::accepts, getOrder());
+    }
+
+    /**
+     * Tells whether a line of the full report may be part of the extract.
+     *
+     * @param line a line of the full report.
+     * @return true if the line may be part of the extract.
+     */
+    abstract boolean accepts(FrontierReportLine line);
+
+    /**
+     * Returns the order in which the full report is read by {@link #process(FrontierReport)}, i.e. the order of which
+     * the first accepted lines make up the extract.
+     *
+     * @return the order of the lines of the full report.
+     */
+    abstract Comparator<FrontierReportLine> getOrder();
+
     /**
      * Returns the list maximum size.
      *
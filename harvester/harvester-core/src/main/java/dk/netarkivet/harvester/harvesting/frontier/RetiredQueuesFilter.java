@@ -22,6 +22,8 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
+import java.util.Comparator;
+
 import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.ReportIterator;
 
 public class RetiredQueuesFilter extends MaxSizeFrontierReportExtract {
@@ -35,9 +37,9 @@ public class RetiredQueuesFilter extends MaxSizeFrontierReportExtract {
         try {
             int addedLines = 0;
             int maxSize = getMaxSize();
-            while (addedLines <= maxSize && iter.hasNext()) {
+            while (addedLines < maxSize && iter.hasNext()) {
                 FrontierReportLine l = iter.next();
-                if (isOverBudget(l)) {
+                if (accepts(l)) {
                     result.addLine(new FrontierReportLine(l));
                     addedLines++;
                 }
@@ -58,9 +60,18 @@ public class RetiredQueuesFilter extends MaxSizeFrontierReportExtract {
      * @return true if the queue is retired, false otherwise.
      * @see WorkQueue#isOverBudget()
      */
-    private boolean isOverBudget(FrontierReportLine l) {
+    @Override
+    boolean accepts(FrontierReportLine l) {
         long totalBudget = l.getTotalBudget();
         return totalBudget >= 0 && l.getTotalSpend() >= totalBudget;
     }
 
+    /**
+     * Orders by increasing totalSpend, then by natural order, as the spent budget index.
+     */
+    @Override
+    Comparator<FrontierReportLine> getOrder() {
+        return Comparator.comparingLong(FrontierReportLine::getTotalSpend).thenComparing(Comparator.naturalOrder());
+    }
+
 }
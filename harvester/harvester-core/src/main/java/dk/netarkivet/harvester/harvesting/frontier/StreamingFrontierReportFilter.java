@@ -0,0 +1,40 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+/**
+ * A frontier report filter that can compute its result while the lines of the full report are read, so the full
+ * report does not have to be stored and sorted first.
+ */
+public interface StreamingFrontierReportFilter extends FrontierReportFilter {
+
+    /**
+     * Starts a new extract. Feeding it all the lines of a full report gives the same lines as
+     * {@link #process(FrontierReport)} on that report.
+     *
+     * @param jobName the Heritrix job name
+     * @return an empty extract.
+     */
+    FrontierReportExtract newExtract(String jobName);
+
+}
@@ -22,6 +22,8 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
+import java.util.Comparator;
+
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.ReportIterator;
 
@@ -53,12 +55,9 @@ public class TopTotalEnqueuesFilter extends MaxSizeFrontierReportExtract {
                 }
 
                 FrontierReportLine fetch = iter.next();
-                long totalBudget = fetch.getTotalBudget();
 
                 // Add only lines that are neither retired or exhausted
-                if (fetch.getCurrentSize() > 0
-                        && fetch.getSessionBalance() > 0
-                        && (totalBudget == Constants.HERITRIX_MAXOBJECTS_INFINITY || fetch.getTotalSpend() < totalBudget)) {
+                if (accepts(fetch)) {
                     topRep.addLine(new FrontierReportLine(fetch));
                     addedLines++;
                 }
@@ -73,4 +72,16 @@ public class TopTotalEnqueuesFilter extends MaxSizeFrontierReportExtract {
         return topRep;
     }
 
+    @Override
+    boolean accepts(FrontierReportLine line) {
+        long totalBudget = line.getTotalBudget();
+        return line.getCurrentSize() > 0 && line.getSessionBalance() > 0
+                && (totalBudget == Constants.HERITRIX_MAXOBJECTS_INFINITY || line.getTotalSpend() < totalBudget);
+    }
+
+    @Override
+    Comparator<FrontierReportLine> getOrder() {
+        return Comparator.naturalOrder();
+    }
+
 }
@@ -27,6 +27,7 @@ import java.io.FilenameFilter;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -215,7 +216,9 @@ public abstract class MetadataFileWriter {
      */
     public void insertFiles(File parentDir, FilenameFilter filter, String mimetype, long harvestId, long jobId) {
         // For each metadata source file in the parentDir that matches the filter ..
+        // Sorted, so the order of the records does not depend on the file system
         File[] metadataSourceFiles = parentDir.listFiles(filter);
+        Arrays.sort(metadataSourceFiles);
         log.debug("Now inserting " + metadataSourceFiles.length + " files from " + parentDir.getAbsolutePath() + "'.");
         for (File metadataSourceFile : metadataSourceFiles) {
             // ...write its content to the MetadataFileWriter
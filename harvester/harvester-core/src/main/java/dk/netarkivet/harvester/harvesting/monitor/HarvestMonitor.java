@@ -23,9 +23,12 @@
 package dk.netarkivet.harvester.harvesting.monitor;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -39,11 +42,13 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.distribute.ChannelID;
 import dk.netarkivet.common.distribute.JMSConnectionFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.lifecycle.PeriodicTaskExecutor;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.JobStatus;
+import dk.netarkivet.harvester.datamodel.JobStatusCache;
 import dk.netarkivet.harvester.datamodel.RunningJobsInfoDAO;
 import dk.netarkivet.harvester.distribute.HarvesterChannels;
 import dk.netarkivet.harvester.distribute.HarvesterMessageHandler;
@@ -76,6 +81,15 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
 
     private Set<Long> runningJobs = new TreeSet<Long>();
 
+    /** The latest progress of each running job, not yet stored. */
+    private final Map<Long, StartedJobInfo> pendingInfos = new LinkedHashMap<Long, StartedJobInfo>();
+
+    /** Held while progress is stored or removed, so the progress of an ended job is not stored after its removal. */
+    private final Object storeLock = new Object();
+
+    /** Stores the pending progress at regular intervals, or null if progress is stored when received. */
+    private PeriodicTaskExecutor progressStoreExec;
+
     private HarvestMonitor() {
     	refreshInterval = Settings.getInt(HarvesterSettings.HARVEST_MONITOR_REFRESH_INTERVAL);
     	LOG.info("Initializing HarvestMonitor with refreshInterval={} seconds", refreshInterval);
@@ -83,6 +97,20 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
         // Perform initial cleanup (in case apps crashed)
         cleanOnStartup();
 
+        long progressStoreInterval = Settings.getLong(HarvesterSettings.HARVEST_MONITOR_PROGRESS_STORE_INTERVAL);
+        if (progressStoreInterval > 0) {
+            progressStoreExec = new PeriodicTaskExecutor("HarvestMonitorProgressStore", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        storePendingInfos();
+                    } catch (Exception e) {
+                        LOG.warn("Failed to store the progress of running jobs", e);
+                    }
+                }
+            }, progressStoreInterval, progressStoreInterval);
+        }
+
         // Register for listening JMS messages
         JMSConnectionFactory.getInstance().setListener(HARVEST_MONITOR_CHANNEL_ID, this);
         LOG.info("Started listening to queue {}", HARVEST_MONITOR_CHANNEL_ID);
@@ -97,6 +125,11 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
     public void cleanup() {
         JMSConnectionFactory.getInstance().removeListener(HARVEST_MONITOR_CHANNEL_ID, this);
 
+        if (progressStoreExec != null) {
+            progressStoreExec.shutdown();
+        }
+        storePendingInfos();
+
         for (StartedJobHistoryChartGen chartGen : chartGenByJobId.values()) {
             chartGen.cleanup();
         }
@@ -119,7 +152,7 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
         ArgumentNotValid.checkNotNull(msg, "msg");
         Long jobId = Long.valueOf(msg.getJobID());
         
-        JobStatus jobStatus = JobDAO.getInstance().read(jobId).getStatus();
+        JobStatus jobStatus = JobStatusCache.getStatus(jobId);
         if (!JobStatus.STARTED.equals(jobStatus)) {
             //CrawlProgress messages are read by the GUI, but CrawlStatus messages are read by the HarvestJobManager so
             //they can sometimes be read out of sequence eg CrawlProgress is read for a job that is already in state DONE
@@ -130,7 +163,13 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
         
         StartedJobInfo info = StartedJobInfo.build(msg);
         LOG.trace("Received CrawlProgressMessage for jobId {}: {}", jobId, info);
-        RunningJobsInfoDAO.getInstance().store(info);
+        if (progressStoreExec == null) {
+            RunningJobsInfoDAO.getInstance().store(info);
+        } else {
+            synchronized (pendingInfos) {
+                pendingInfos.put(jobId, info);
+            }
+        }
 
         runningJobs.add(jobId);
 
@@ -151,10 +190,17 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
 
         JobStatus newStatus = msg.getJobStatus();
         long jobId = msg.getJobId();
+        JobStatusCache.statusChanged(jobId, newStatus);
 
-        // Delete records in the DB
+        // Delete records in the DB, after any progress of the job being stored
         RunningJobsInfoDAO dao = RunningJobsInfoDAO.getInstance();
-        int delCount = dao.removeInfoForJob(jobId);
+        int delCount;
+        synchronized (storeLock) {
+            synchronized (pendingInfos) {
+                pendingInfos.remove(jobId);
+            }
+            delCount = dao.removeInfoForJob(jobId);
+        }
         LOG.info("Processing JobEndedMessage. Deleted {} running job info records for job ID {} on transition to status {}", delCount, jobId,
                 newStatus.name());
 
@@ -307,6 +353,23 @@ public class HarvestMonitor extends HarvesterMessageHandler implements MessageLi
         return EMPTY_CHART_FILE;
     }
 
+    /**
+     * Store the latest progress of each running job received since the last time, in one batch.
+     */
+    private void storePendingInfos() {
+        synchronized (storeLock) {
+            List<StartedJobInfo> infos;
+            synchronized (pendingInfos) {
+                infos = new ArrayList<StartedJobInfo>(pendingInfos.values());
+                pendingInfos.clear();
+            }
+            if (!infos.isEmpty()) {
+                LOG.trace("Storing the progress of {} running jobs", infos.size());
+                RunningJobsInfoDAO.getInstance().store(infos);
+            }
+        }
+    }
+
     private void cleanOnStartup() {
         Set<Long> idsToRemove = new TreeSet<Long>();
 
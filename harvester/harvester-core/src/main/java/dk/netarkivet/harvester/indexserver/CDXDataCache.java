@@ -23,12 +23,15 @@
 
 package dk.netarkivet.harvester.indexserver;
 
+import java.io.File;
 import java.util.regex.Pattern;
 
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.harvester.harvesting.metadata.MetadataFile;
 
 /**
- * A RawDataCache that serves files with CDX data.
+ * A RawDataCache that serves files with CDX data. The files are sorted when they are cached, so the files for several
+ * jobs can be merged without sorting them again, see {@link CDXIndexCache}.
  */
 public class CDXDataCache extends RawMetadataCache {
 
@@ -40,4 +43,21 @@ public class CDXDataCache extends RawMetadataCache {
         super("cdxdata", Pattern.compile(MetadataFile.CDX_PATTERN), Pattern.compile("application/x-cdx"));
     }
 
+    /**
+     * Sort the CDX data extracted for a job.
+     *
+     * @param file The file with the CDX data for a job.
+     * @see FileUtils#sortCDX(File, File)
+     */
+    @Override
+    protected void prepareCacheFile(File file) {
+        File sortedFile = new File(file.getAbsolutePath() + ".sorted");
+        try {
+            FileUtils.sortCDX(file, sortedFile);
+            FileUtils.moveFile(sortedFile, file);
+        } finally {
+            FileUtils.remove(sortedFile);
+        }
+    }
+
 }
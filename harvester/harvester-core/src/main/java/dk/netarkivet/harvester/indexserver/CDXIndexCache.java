@@ -23,18 +23,16 @@
 
 package dk.netarkivet.harvester.indexserver;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import dk.netarkivet.common.distribute.indexserver.JobIndexCache;
-import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.NotImplementedException;
 import dk.netarkivet.common.utils.FileUtils;
 
@@ -45,13 +43,16 @@ import dk.netarkivet.common.utils.FileUtils;
  * to what was asked for. For instance, if asking for data for IDs 2, 3, and 4, and 3 fails, a cached file for IDs 2 and
  * 4 will be returned. There is currently no way to tell if you got everything you asked for.
  * <p>
- * This cache uses the Unix sort(1) command as an external process call, as that one is optimized for handling large,
- * disk-based sorts.
+ * The CDX files of the jobs are cached sorted by {@link CDXDataCache}, so the index is made by merging them in one
+ * streaming pass instead of sorting all their lines again.
  */
 public class CDXIndexCache extends CombiningMultiFileBasedCache<Long> implements JobIndexCache {
 
-    /** A suffix used by the sortFile method in the sorting process. */
-    private static final String WORK_SUFFIX = ".unsorted";
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(CDXIndexCache.class);
+
+    /** A suffix used for the sorted copies of unsorted files. */
+    private static final String SORTED_SUFFIX = ".sorted";
 
     /**
      * Creates a new cache for CDX index files.
@@ -61,56 +62,34 @@ public class CDXIndexCache extends CombiningMultiFileBasedCache<Long> implements
     }
 
     /**
-     * Combine parts of an index into one big index.
+     * Combine parts of an index into one big index. The parts are merged, after sorting any of them that are not
+     * sorted, such as files cached before CDXDataCache sorted its files.
      *
      * @param filesFound A map of IDs and the files caching their content.
      */
     protected void combine(Map<Long, File> filesFound) {
         File resultFile = getCacheFile(filesFound.keySet());
-        concatenateFiles(filesFound.values(), resultFile);
-        File workFile = new File(resultFile.getAbsolutePath() + WORK_SUFFIX);
-        workFile.deleteOnExit();
+        List<File> sortedFiles = new ArrayList<File>();
+        List<File> workFiles = new ArrayList<File>();
         try {
-            FileUtils.sortCDX(resultFile, workFile);
-            workFile.renameTo(resultFile);
-        } finally {
-            FileUtils.remove(workFile);
-        }
-    }
-
-    /**
-     * Concatenate a set of files into a single file.
-     *
-     * @param files The files to concatenate.
-     * @param resultFile The file where the files are concatenated into.
-     */
-    private static void concatenateFiles(Collection<File> files, File resultFile) {
-        try {
-            BufferedWriter out = null;
-            try {
-                out = new BufferedWriter(new FileWriter(resultFile));
-                for (File f : files) {
-                    BufferedReader in = null;
-                    try {
-                        in = new BufferedReader(new FileReader(f));
-                        String s;
-                        while ((s = in.readLine()) != null) {
-                            out.write(s);
-                            out.newLine();
-                        }
-                    } finally {
-                        if (in != null) {
-                            in.close();
-                        }
-                    }
-                }
-            } finally {
-                if (out != null) {
-                    out.close();
+            for (Map.Entry<Long, File> entry : filesFound.entrySet()) {
+                File file = entry.getValue();
+                if (!FileUtils.isSortedCDX(file)) {
+                    log.debug("The CDX data for job {} in '{}' is not sorted. Sorting it before merging",
+                            entry.getKey(), file);
+                    File workFile = new File(resultFile.getAbsolutePath() + "-" + entry.getKey() + SORTED_SUFFIX);
+                    workFile.deleteOnExit();
+                    workFiles.add(workFile);
+                    FileUtils.sortCDX(file, workFile);
+                    file = workFile;
                 }
+                sortedFiles.add(file);
+            }
+            FileUtils.mergeSortedCDX(sortedFiles, resultFile);
+        } finally {
+            for (File workFile : workFiles) {
+                FileUtils.remove(workFile);
             }
-        } catch (IOException e) {
-            throw new IOFailure("Couldn't combine indexes for " + files.size() + " jobs into " + resultFile, e);
         }
     }
 
@@ -26,12 +26,16 @@ package dk.netarkivet.harvester.indexserver;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -39,12 +43,14 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.lucene.index.IndexFileNames;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.SimpleFSDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.distribute.indexserver.Index;
 import dk.netarkivet.common.distribute.indexserver.JobIndexCache;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
@@ -54,12 +60,17 @@ import dk.netarkivet.common.utils.ZipUtils;
 import dk.netarkivet.harvester.HarvesterSettings;
 import is.hi.bok.deduplicator.CrawlDataIterator;
 import is.hi.bok.deduplicator.DigestIndexer;
+import is.hi.bok.deduplicator.DigestTable;
+import is.hi.bok.deduplicator.DigestTableWriter;
 
 /**
  * A cache that serves Lucene indices of crawl logs for given job IDs. Uses the DigestIndexer in the deduplicator
  * software: http://deduplicator.sourceforge.net/apidocs/is/hi/bok/deduplicator/DigestIndexer.html Upon combination of
  * underlying files, each file in the Lucene index is gzipped and the compressed versions are stored in the directory
  * given by getCacheFile(). The subclass has to determine in its constructor call which mime types are included.
+ * <p>
+ * The index of each single job is kept in a {@link JobSubIndexStore} while it is in use, so a job is usually only
+ * indexed once, and each combined index is started from the largest cached index of a subset of its jobs.
  */
 public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Long> implements JobIndexCache {
 
@@ -82,6 +93,18 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
     /** Number to separate logs the different combine tasks. */
     private int indexingJobCount = 0;
 
+    /** The name of the directory in the cache dir holding the sub-index of each job. */
+    private static final String SUBINDEX_DIR_NAME = "subindices";
+
+    /** The suffix of the files listing the jobs of each combined index in the cache dir. */
+    private static final String JOBS_FILE_SUFFIX = ".jobs";
+
+    /** The number of sub-indices added to the total index at a time. */
+    private static final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
+
+    /** The sub-indices of single jobs, that combined indices are assembled from. */
+    private final JobSubIndexStore subIndexStore;
+
     /**
      * Constructor for the CrawlLogIndexCache class.
      *
@@ -93,38 +116,68 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         super(name, new CrawlLogDataCache());
         useBlacklist = blacklist;
         this.mimeFilter = mimeFilter;
+        subIndexStore = new JobSubIndexStore(new File(getCacheDir(), SUBINDEX_DIR_NAME));
     }
 
     /**
-     * Prepare data for combining. This class overrides prepareCombine to make sure that CDX data is available.
+     * Prepare data for combining. This class overrides prepareCombine to reuse what has already been indexed: the
+     * largest combined index in the cache made from a subset of the jobs, and the stored sub-indices of single jobs.
+     * Crawl logs and CDX data are only fetched for the remaining jobs.
      *
      * @param ids Set of IDs that will be combined.
-     * @return Map of ID->File of data to combine for the IDs where we could find data.
+     * @return Map of ID->File of data to combine for the IDs where we could find data. The file is either a cached
+     * combined index, a stored sub-index or a crawl.log.
      */
     protected Map<Long, File> prepareCombine(Set<Long> ids) {
         log.info("Starting to generate {} for the {} jobs: {}", getCacheDir().getName(), ids.size(), ids);
-        Map<Long, File> returnMap = super.prepareCombine(ids);
+        Map<Long, File> returnMap = new HashMap<Long, File>();
+        Set<Long> remaining = new HashSet<Long>(ids);
+        Index<Set<Long>> cachedSubset = findLargestCachedSubset(ids);
+        if (cachedSubset != null) {
+            for (Long id : cachedSubset.getIndexSet()) {
+                returnMap.put(id, cachedSubset.getIndexFile());
+            }
+            remaining.removeAll(cachedSubset.getIndexSet());
+        }
+        for (Iterator<Long> it = remaining.iterator(); it.hasNext();) {
+            Long id = it.next();
+            File subIndex = subIndexStore.getSubIndex(id);
+            if (subIndex != null) {
+                returnMap.put(id, subIndex);
+                it.remove();
+            }
+        }
+        log.info("Reusing {} jobs from a cached index and {} stored sub-indices, {} jobs remain to be indexed",
+                cachedSubset == null ? 0 : cachedSubset.getIndexSet().size(),
+                ids.size() - remaining.size() - (cachedSubset == null ? 0 : cachedSubset.getIndexSet().size()),
+                remaining.size());
+        Map<Long, File> crawlLogs = super.prepareCombine(remaining);
         Set<Long> missing = new HashSet<Long>();
-        for (Long id : returnMap.keySet()) {
-            Long cached = cdxcache.cache(id);
-            if (cached == null) {
-                missing.add(id);
+        for (Map.Entry<Long, File> cdxFile : cdxcache.get(crawlLogs.keySet()).entrySet()) {
+            if (cdxFile.getValue() == null) {
+                missing.add(cdxFile.getKey());
             }
         }
         if (!missing.isEmpty()) {
             log.warn("Data not found for {} jobs: {}", missing.size(), missing);
         }
         for (Long id : missing) {
-            returnMap.remove(id);
+            crawlLogs.remove(id);
         }
+        returnMap.putAll(crawlLogs);
         return returnMap;
     }
 
     /**
      * Combine a number of crawl.log files into one Lucene index. This index is placed as gzip files under the directory
      * returned by getCacheFile().
+     * <p>
+     * The index of each crawl.log is kept in the sub-index store, and is reused when later indices contain the same
+     * job. If the map refers to a cached combined index, the new index is made by adding the other jobs to a copy of
+     * it, and the gzipped files of its segments are reused.
      *
-     * @param rawfiles The map from job ID into crawl.log contents. No null values are allowed in this map.
+     * @param rawfiles The map from job ID into crawl.log contents, stored sub-index or cached combined index, as
+     * returned by {@link #prepareCombine(Set)}. No null values are allowed in this map.
      */
     protected void combine(Map<Long, File> rawfiles) {
         ++indexingJobCount;
@@ -137,7 +190,31 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         String indexLocation = resultDir.getAbsolutePath() + ".luceneDir";
         ThreadPoolExecutor executor = null;
         try {
-            DigestIndexer indexer = createStandardIndexer(indexLocation);
+            File cachedIndex = null;
+            Set<Long> indexedJobs = new HashSet<Long>();
+            List<File> storedSubIndices = new ArrayList<File>();
+            Map<Long, File> crawlLogs = new HashMap<Long, File>();
+            for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
+                if (subIndexStore.isSubIndex(entry.getValue())) {
+                    storedSubIndices.add(entry.getValue());
+                    indexedJobs.add(entry.getKey());
+                } else if (entry.getValue().isDirectory()) {
+                    cachedIndex = entry.getValue();
+                    indexedJobs.add(entry.getKey());
+                } else {
+                    crawlLogs.put(entry.getKey(), entry.getValue());
+                }
+            }
+            Set<String> cachedIndexFiles = new HashSet<String>();
+            DigestIndexer indexer;
+            if (cachedIndex != null) {
+                log.info("Starting from the cached index '{}' (combine task #{})", cachedIndex, indexingJobCount);
+                ZipUtils.gunzipFiles(cachedIndex, new File(indexLocation));
+                cachedIndexFiles.addAll(Arrays.asList(new File(indexLocation).list()));
+                indexer = createStandardIndexer(indexLocation, true);
+            } else {
+                indexer = createStandardIndexer(indexLocation);
+            }
             final boolean verboseIndexing = false;
             DigestOptions indexingOptions = new DigestOptions(this.useBlacklist, verboseIndexing, this.mimeFilter);
             long count = 0;
@@ -148,11 +225,11 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
 
             executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
 
-            for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
+            for (Map.Entry<Long, File> entry : crawlLogs.entrySet()) {
                 Long jobId = entry.getKey();
                 File crawlLog = entry.getValue();
-                // Generate UUID to ensure a unique filedir for the index.
-                File tmpFile = new File(FileUtils.getTempDir(), UUID.randomUUID().toString());
+                // Build in the sub-index store, so the finished sub-index can be moved into place.
+                File tmpFile = subIndexStore.getBuildLocation(jobId);
                 tmpfiles.add(tmpFile);
                 String localindexLocation = tmpFile.getAbsolutePath();
                 Long cached = cdxcache.cache(jobId);
@@ -167,7 +244,7 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                 // handles the sorting of the logfiles and the generation
                 // of a lucene index for this crawllog and cdxfile.
                 ++count;
-                String taskID = count + " out of " + datasetSize;
+                String taskID = count + " out of " + crawlLogs.size();
                 log.debug("Making subthread for indexing job " + jobId + " - task " + taskID);
                 Callable<Boolean> task = new DigestIndexerWorker(localindexLocation, jobId, crawlLog, cachedCDXFile,
                         indexingOptions, taskID);
@@ -184,11 +261,16 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
 
             // The indexwriter for the totalindex.
             IndexWriter totalIndex = indexer.getIndex();
-            int subindicesInTotalIndex = 0;
             // Max number of segments in totalindex.
             int maxSegments = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
 
-            final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
+            // The stored sub-indices are ready, so add them while the crawl logs are being indexed.
+            for (File subIndex : storedSubIndices) {
+                subindices.add(new SimpleFSDirectory(subIndex));
+                if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
+                    addSubIndices(totalIndex, subindices, maxSegments);
+                }
+            }
 
             while (outstandingJobs.size() > 0) {
                 log.info("Outstanding jobs in combine task #{} is now {}", indexingJobCount, outstandingJobs.size());
@@ -207,7 +289,10 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                         try {
                             // check, if the indexing failed
                             if (nextResult.get()) {
-                                subindices.add(new SimpleFSDirectory(new File(next.getIndex())));
+                                File subIndex = subIndexStore.store(next.getJobIdentifier(),
+                                        new File(next.getIndex()));
+                                subindices.add(new SimpleFSDirectory(subIndex));
+                                indexedJobs.add(next.getJobIdentifier());
                             } else {
                                 log.warn("Indexing of job {} failed.", next.getJobIdentifier());
                             }
@@ -223,37 +308,15 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                 }
 
                 if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
-
-                    log.info(
-                            "Adding {} subindices to main index. Forcing index to contain max {} files (related to combine task #{})",
-                            subindices.size(), maxSegments, indexingJobCount);
-                    totalIndex.addIndexes(subindices.toArray(new Directory[0]));
-                    totalIndex.forceMerge(maxSegments);
-                    totalIndex.commit();
-                    for (Directory luceneDir : subindices) {
-                        luceneDir.close();
-                    }
-                    subindicesInTotalIndex += subindices.size();
-                    log.info(
-                            "Completed adding {} subindices to main index, now containing {} subindices(related to combine task #{})",
-                            subindices.size(), subindicesInTotalIndex, indexingJobCount);
-                    subindices.clear();
+                    addSubIndices(totalIndex, subindices, maxSegments);
                 } else {
                     sleepAwhile();
                 }
             }
 
-            log.info("Adding the final {} subindices to main index. "
-                    + "Forcing index to contain max {} files (related to combine task #{})", subindices.size(),
-                    maxSegments, indexingJobCount);
-
-            totalIndex.addIndexes(subindices.toArray(new Directory[0]));
-            totalIndex.forceMerge(maxSegments);
-            totalIndex.commit();
-            for (Directory luceneDir : subindices) {
-                luceneDir.close();
-            }
-            subindices.clear();
+            log.info("Adding the final {} subindices to main index (related to combine task #{})", subindices.size(),
+                    indexingJobCount);
+            addSubIndices(totalIndex, subindices, maxSegments);
 
             log.info("Adding operation completed (combine task #{})!", indexingJobCount);
             long docsInIndex = totalIndex.numDocs();
@@ -261,11 +324,25 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             indexer.close();
             log.info("Closed index (related to combine task #{}", indexingJobCount);
 
-            // Now the index is made, gzip it up.
+            // Now the index is made, gzip it up. Lucene never changes a file once written, except for the segments
+            // files, so the other files left from the cached index need not be compressed again.
             File totalIndexDir = new File(indexLocation);
-            log.info("Gzip-compressing the individual {} index files of combine task # {}",
-                    totalIndexDir.list().length, indexingJobCount);
-            ZipUtils.gzipFiles(totalIndexDir, resultDir);
+            File digestTableFile = new File(totalIndexDir, DigestTable.FILE_NAME);
+            FileUtils.remove(digestTableFile);
+            if (Settings.getBoolean(HarvesterSettings.INDEXSERVER_INDEXING_DIGEST_TABLE)) {
+                DigestTableWriter.write(totalIndexDir, digestTableFile);
+            }
+            Set<String> unchangedFiles = new HashSet<String>();
+            for (String name : totalIndexDir.list()) {
+                if (cachedIndexFiles.contains(name) && !name.startsWith(IndexFileNames.SEGMENTS)
+                        && !name.equals(IndexWriter.WRITE_LOCK_NAME) && !name.equals(DigestTable.FILE_NAME)) {
+                    unchangedFiles.add(name);
+                }
+            }
+            log.info("Gzip-compressing the individual {} index files of combine task # {}, reusing {} of them",
+                    totalIndexDir.list().length, indexingJobCount, unchangedFiles.size());
+            ZipUtils.gzipFiles(totalIndexDir, resultDir, cachedIndex, unchangedFiles);
+            writeJobsFile(resultDir, indexedJobs);
             log.info(
                     "Completed combine task #{} that combined a dataset with {} crawl logs (entries in combined index: {}) - compressed index has size {}",
                     indexingJobCount, datasetSize, docsInIndex, FileUtils.getHumanReadableFileSize(resultDir));
@@ -278,9 +355,84 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             for (File temporaryFile : tmpfiles) {
                 FileUtils.removeRecursively(temporaryFile);
             }
+            subIndexStore.removeUnusedSubIndices();
         }
     }
 
+    /**
+     * Add sub-indices to the total index and close them.
+     *
+     * @param totalIndex The total index.
+     * @param subindices The sub-indices. The set is emptied.
+     * @param maxSegments The maximum number of segments in the total index.
+     * @throws IOException If adding the sub-indices fails.
+     */
+    private void addSubIndices(IndexWriter totalIndex, Set<Directory> subindices, int maxSegments)
+            throws IOException {
+        log.info("Adding {} subindices to main index. Forcing index to contain max {} files (related to combine task "
+                + "#{})", subindices.size(), maxSegments, indexingJobCount);
+        totalIndex.addIndexes(subindices.toArray(new Directory[0]));
+        totalIndex.forceMerge(maxSegments);
+        totalIndex.commit();
+        for (Directory luceneDir : subindices) {
+            luceneDir.close();
+        }
+        log.info("Completed adding {} subindices to main index, now containing {} documents (related to combine task "
+                + "#{})", subindices.size(), totalIndex.numDocs(), indexingJobCount);
+        subindices.clear();
+    }
+
+    /**
+     * Find the combined index in the cache made from the most jobs, all of which are among the given jobs.
+     *
+     * @param ids The IDs of some jobs.
+     * @return The gzipped index and its jobs, or null if there is no such index.
+     */
+    private Index<Set<Long>> findLargestCachedSubset(Set<Long> ids) {
+        Index<Set<Long>> largest = null;
+        File[] jobsFiles = getCacheDir().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(JOBS_FILE_SUFFIX);
+            }
+        });
+        for (File jobsFile : jobsFiles) {
+            String path = jobsFile.getAbsolutePath();
+            File indexDir = new File(path.substring(0, path.length() - JOBS_FILE_SUFFIX.length()));
+            if (!indexDir.isDirectory() || jobsFile.length() == 0) {
+                continue;
+            }
+            Set<Long> jobs = new HashSet<Long>();
+            try {
+                for (String line : FileUtils.readListFromFile(jobsFile)) {
+                    jobs.add(Long.valueOf(line.trim()));
+                }
+            } catch (IOFailure | NumberFormatException e) {
+                log.warn("Ignoring unreadable list of jobs '{}'", jobsFile, e);
+                continue;
+            }
+            if (jobs.size() < ids.size() && ids.containsAll(jobs)
+                    && (largest == null || jobs.size() > largest.getIndexSet().size())) {
+                largest = new Index<Set<Long>>(indexDir, jobs);
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Record which jobs a combined index was made from, so it can be reused for later indices.
+     *
+     * @param resultDir The directory of the gzipped index.
+     * @param jobs The jobs actually in the index.
+     */
+    private static void writeJobsFile(File resultDir, Set<Long> jobs) {
+        List<String> lines = new ArrayList<String>(jobs.size());
+        for (Long job : jobs) {
+            lines.add(job.toString());
+        }
+        FileUtils.writeCollectionToFile(new File(resultDir.getAbsolutePath() + JOBS_FILE_SUFFIX), lines);
+    }
+
     /**
      * Try to release all resources connected to the given ThreadPoolExecutor.
      *
@@ -400,6 +552,19 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
      * @throws IOException If unable to open the index.
      */
     protected static DigestIndexer createStandardIndexer(String indexLocation) throws IOException {
+        return createStandardIndexer(indexLocation, false);
+    }
+
+    /**
+     * Create standard deduplication indexer.
+     *
+     * @param indexLocation The full path to the indexing directory
+     * @param addToExistingIndex Whether to add to the index already at indexLocation, rather than overwrite it.
+     * @return the created deduplication indexer.
+     * @throws IOException If unable to open the index.
+     */
+    protected static DigestIndexer createStandardIndexer(String indexLocation, boolean addToExistingIndex)
+            throws IOException {
         // Setup Lucene for indexing our crawllogs
         // MODE_BOTH: Both URL's and Hash are indexed: Alternatives:
         // DigestIndexer.MODE_HASH or DigestIndexer.MODE_URL
@@ -410,7 +575,6 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         boolean includeTimestamp = true;
         // used to be 'etag' setting
         boolean includeEtag = true;
-        boolean addToExistingIndex = false;
         DigestIndexer indexer = new DigestIndexer(indexLocation, indexingMode, includeNormalizedURL, includeTimestamp,
                 includeEtag, addToExistingIndex);
         return indexer;
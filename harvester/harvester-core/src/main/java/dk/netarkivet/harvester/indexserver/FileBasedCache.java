@@ -31,6 +31,18 @@ import java.nio.channels.OverlappingFileLockException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,10 +53,15 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 
 /**
  * A generic cache that stores items in files. This abstract superclass handles placement of the cache directory and
  * adding/getting files using the subclasses' methods for generating filenames.
+ * <p>
+ * Entries missing when getting several entries at once are filled in parallel, by a pool of
+ * {@link HarvesterSettings#INDEXSERVER_INDEXING_CACHE_FILL_THREADS} threads shared by all caches in this JVM. Each
+ * cache counts its hits and misses, and the time spent filling entries.
  *
  * @param <T> The type of cache.
  */
@@ -53,9 +70,32 @@ public abstract class FileBasedCache<T> {
     /** Logger. */
     private static final Logger log = LoggerFactory.getLogger(FileBasedCache.class);
 
+    /**
+     * The fills in progress in this JVM, by the path of the cache file being filled. Threads wanting a file that is
+     * being filled wait for the fill to complete instead of competing for the lock on the file. Caches using the same
+     * directory share their entries here.
+     */
+    private static final ConcurrentMap<String, CompletableFuture<Void>> fillsInProgress =
+            new ConcurrentHashMap<String, CompletableFuture<Void>>();
+
+    /** Whether the current thread is one of the fill threads, which must not wait for other fill threads. */
+    private static final ThreadLocal<Boolean> isFillThread = new ThreadLocal<Boolean>();
+
+    /** The pool filling entries in parallel, created when first needed. */
+    private static ThreadPoolExecutor fillPool;
+
     /** Cache directory. */
     protected File cacheDir;
 
+    /** The number of entries found in the cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of entries not found in the cache, which were then filled. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The total time spent filling entries, in milliseconds. */
+    private final AtomicLong fillTimeMillis = new AtomicLong();
+
     /**
      * Creates a new FileBasedCache object. This creates a directory under the main cache directory holding cached
      * files.
@@ -106,56 +146,137 @@ public abstract class FileBasedCache<T> {
      * that subset (barring catastrophic failure).
      * <p>
      * Locking: If the file is not immediately found, we enter a file-creation state. To avoid corrupted data, we must
-     * ensure that only one cache instance, and only one thread within any instance, creates the file. Thus as long as
-     * somebody else seems to be creating the file, we wait and see if they finish. This is checked by having an
-     * exclusive lock on a ".working" file (we cannot use the result file, as it has to be created to be locked, and we
-     * may end up with a different cached file than we thought, see above). The .working file itself is irrelevant, only
-     * the lock on it matters.
+     * ensure that only one cache instance, and only one thread within any instance, creates the file. Within this JVM,
+     * the thread creating the file registers the fill, and other threads wanting the same file wait for it to complete
+     * and then try again, at which point they will usually find the file. Between processes, this is checked by having
+     * an exclusive lock on a ".working" file (we cannot use the result file, as it has to be created to be locked, and
+     * we may end up with a different cached file than we thought, see above). The .working file itself is irrelevant,
+     * only the lock on it matters.
      *
      * @param id Some sort of id that uniquely identifies the item within the cache.
      * @return The id given if it was successfully fetched, otherwise null if the type parameter I does not allow
      * subsets, or a subset of id if it does. This subset should be immediately cacheable.
      */
-    public T cache(T id) {
+    public T cache(final T id) {
         ArgumentNotValid.checkNotNull(id, "id");
-        File cachedFile = getCacheFile(id);
+        final File cachedFile = getCacheFile(id);
+        return whileFilling(cachedFile, new Callable<T>() {
+            @Override
+            public T call() {
+                // Now we know nobody else touches the file.
+                // If the file already exists, just return it.
+                if (cachedFile.exists()) {
+                    hits.incrementAndGet();
+                    return id;
+                }
+                misses.incrementAndGet();
+                long started = System.currentTimeMillis();
+                try {
+                    return cacheData(id);
+                } finally {
+                    fillTimeMillis.addAndGet(System.currentTimeMillis() - started);
+                }
+            }
+        });
+    }
+
+    /**
+     * Make a file holding the data for an ID the cache file of the ID, unless the ID is cached already. This is for
+     * subclasses that get the data for several IDs at once. The file is moved under the same locks as those taken by
+     * {@link #cache}, so it never replaces a cache file that is being filled.
+     *
+     * @param id Some sort of id that uniquely identifies the item within the cache.
+     * @param file A file with the data for the ID, in the cache directory.
+     * @return true if the file was moved to the cache file, false if the ID was cached already, in which case the file
+     * is left in place.
+     * @throws IOFailure If the lock cannot be obtained, or the file cannot be moved.
+     */
+    protected boolean putCacheFile(T id, final File file) {
+        ArgumentNotValid.checkNotNull(id, "id");
+        ArgumentNotValid.checkExistsNormalFile(file, "file");
+        final File cachedFile = getCacheFile(id);
+        return whileFilling(cachedFile, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (cachedFile.exists()) {
+                    return false;
+                }
+                FileUtils.moveFile(file, cachedFile);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Fill a cache file, as the one thread in this JVM that does so, while holding an exclusive lock on its ".working"
+     * file. Threads wanting to fill a file that is being filled wait for that fill to complete and then fill it
+     * themselves.
+     *
+     * @param cachedFile The cache file.
+     * @param fill Fills the cache file, unless it exists.
+     * @param <R> The result of the fill.
+     * @return The result of the fill.
+     * @throws IOFailure If the lock cannot be obtained.
+     */
+    private <R> R whileFilling(File cachedFile, Callable<R> fill) {
+        String path = cachedFile.getAbsolutePath();
+        while (true) {
+            CompletableFuture<Void> ownFill = new CompletableFuture<Void>();
+            CompletableFuture<Void> otherFill = fillsInProgress.putIfAbsent(path, ownFill);
+            if (otherFill == null) {
+                try {
+                    return lockAndFill(cachedFile, fill);
+                } finally {
+                    fillsInProgress.remove(path, ownFill);
+                    ownFill.complete(null);
+                }
+            }
+            log.debug("Waiting for another thread to fill '{}'", path);
+            otherFill.join();
+        }
+    }
+
+    /**
+     * Fill a cache file while holding an exclusive lock on its ".working" file. Must only be called by the one thread
+     * in this JVM that has registered a fill for the file.
+     *
+     * @param cachedFile The cache file.
+     * @param fill Fills the cache file, unless it exists.
+     * @param <R> The result of the fill.
+     * @return The result of the fill.
+     * @throws IOFailure If the lock cannot be obtained.
+     */
+    private <R> R lockAndFill(File cachedFile, Callable<R> fill) {
+        File fileBehindLockFile = new File(cachedFile.getAbsolutePath() + ".working");
         try {
-            File fileBehindLockFile = new File(cachedFile.getAbsolutePath() + ".working");
             FileOutputStream lockFile = new FileOutputStream(fileBehindLockFile);
             FileLock lock = null;
-            // Make sure no other thread tries to create this
-            // FIXME welcome to a memory leak, intern strings are never freed from memory again!
-            log.debug("Waiting to enter synchronization on {}", fileBehindLockFile.getAbsolutePath().intern());
-            // FIXME Potential memory leak. intern() remembers all strings until JVM exits.
-            synchronized (fileBehindLockFile.getAbsolutePath().intern()) {
+            try {
+                // Make sure no other process tries to create this.
+                log.debug("locking filechannel for file '{}' (thread = {})", fileBehindLockFile.getAbsolutePath(),
+                        Thread.currentThread().getName());
                 try {
-                    // Make sure no other process tries to create this.
-                    log.debug("locking filechannel for file '{}' (thread = {})", fileBehindLockFile.getAbsolutePath(),
-                            Thread.currentThread().getName());
-                    try {
-                        lock = lockFile.getChannel().lock();
-                    } catch (OverlappingFileLockException e) {
-                        // Exception is logged below
-                        throw new IOException(e.getMessage(), e);
-                    }
-                    // Now we know nobody else touches the file.
-                    // If the file already exists, just return it.
-                    if (cachedFile.exists()) {
-                        return id;
-                    }
-                    return cacheData(id);
-                } finally {
-                    if (lock != null) {
-                        log.debug("release lock on filechannel {}", lockFile.getChannel());
-                        lock.release();
-                    }
-                    lockFile.close();
+                    lock = lockFile.getChannel().lock();
+                } catch (OverlappingFileLockException e) {
+                    // Exception is logged below
+                    throw new IOException(e.getMessage(), e);
                 }
+                return fill.call();
+            } finally {
+                if (lock != null) {
+                    log.debug("release lock on filechannel {}", lockFile.getChannel());
+                    lock.release();
+                }
+                lockFile.close();
             }
         } catch (IOException e) {
             String errMsg = "Error obtaining lock for file '" + cachedFile.getAbsolutePath() + "'.";
             log.warn(errMsg, e);
             throw new IOFailure(errMsg, e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOFailure("Error filling file '" + cachedFile.getAbsolutePath() + "'.", e);
         }
     }
 
@@ -169,17 +290,105 @@ public abstract class FileBasedCache<T> {
      */
     public Map<T, File> get(Set<T> ids) {
         ArgumentNotValid.checkNotNull(ids, "Set<I> ids");
+        long started = System.currentTimeMillis();
+        long hitsBefore = hits.get();
+        long missesBefore = misses.get();
         Map<T, File> result = new HashMap<T, File>(ids.size());
-        for (T id : ids) {
-            if (id.equals(cache(id))) {
-                result.put(id, getCacheFile(id));
-            } else {
-                result.put(id, null);
+        ThreadPoolExecutor pool = ids.size() > 1 && !Boolean.TRUE.equals(isFillThread.get()) ? getFillPool() : null;
+        if (pool == null) {
+            for (T id : ids) {
+                result.put(id, id.equals(cache(id)) ? getCacheFile(id) : null);
+            }
+        } else {
+            Map<T, Future<T>> fills = new HashMap<T, Future<T>>(ids.size());
+            try {
+                for (final T id : ids) {
+                    fills.put(id, pool.submit(new Callable<T>() {
+                        @Override
+                        public T call() {
+                            return cache(id);
+                        }
+                    }));
+                }
+                for (Map.Entry<T, Future<T>> fill : fills.entrySet()) {
+                    T id = fill.getKey();
+                    result.put(id, id.equals(fill.getValue().get()) ? getCacheFile(id) : null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOFailure("Interrupted while filling cache '" + getCacheDir().getName() + "'", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOFailure("Error filling cache '" + getCacheDir().getName() + "'", e.getCause());
+            } finally {
+                for (Future<T> fill : fills.values()) {
+                    fill.cancel(false);
+                }
             }
         }
+        log.info("Got {} entries from cache '{}' in {} ms: {} were cached, {} were filled. Totals for the cache: "
+                + "{} hits, {} misses, {} ms spent filling", ids.size(), getCacheDir().getName(),
+                System.currentTimeMillis() - started, hits.get() - hitsBefore, misses.get() - missesBefore, getHits(),
+                getMisses(), getFillTimeMillis());
         return result;
     }
 
+    /**
+     * Get the pool shared by all caches for filling entries in parallel, creating it if necessary.
+     *
+     * @return The pool, or null if entries are to be filled by the calling thread.
+     */
+    private static synchronized ThreadPoolExecutor getFillPool() {
+        if (fillPool == null) {
+            int threads = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_CACHE_FILL_THREADS);
+            if (threads <= 1) {
+                return null;
+            }
+            fillPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    isFillThread.set(Boolean.TRUE);
+                                    r.run();
+                                }
+                            }, "FileBasedCache-fill-" + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            fillPool.allowCoreThreadTimeOut(true);
+        }
+        return fillPool;
+    }
+
+    /**
+     * @return The number of entries that were found in this cache, since it was created.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of entries that were not found in this cache and had to be filled, since it was created.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The total time spent filling entries of this cache in milliseconds, since it was created.
+     */
+    public long getFillTimeMillis() {
+        return fillTimeMillis.get();
+    }
+
     /**
      * Forgiving index generating method, that returns a file with an index, of the greatest possible subset of a given
      * id, and the subset.
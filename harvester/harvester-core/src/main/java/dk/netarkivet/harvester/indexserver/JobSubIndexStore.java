@@ -0,0 +1,223 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.File;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * Keeps the Lucene index made from the crawl log of each job, so that combined indices containing the job can be
+ * assembled from it without sorting and indexing the crawl log again. Each sub-index is stored uncompressed in a
+ * directory named after the job. Sub-indices are built in a temporary directory next to it and moved into place when
+ * complete, so a stored sub-index is always complete.
+ * <p>
+ * A sub-index is removed when it has not been used for
+ * {@link HarvesterSettings#INDEXSERVER_INDEXING_SUBINDEX_MAX_AGE_DAYS} days, so the store does not grow with every job
+ * ever indexed. Its last use is recorded as the modification time of its directory. If the job is needed again, it is
+ * indexed again from its crawl log.
+ */
+public class JobSubIndexStore {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(JobSubIndexStore.class);
+
+    /** The suffix of the directories of sub-indices being built. */
+    private static final String BUILD_SUFFIX = ".building";
+
+    /** The least time between two searches for unused sub-indices, in milliseconds. */
+    private static final long REMOVAL_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /** The directory holding the sub-indices. */
+    private final File storeDir;
+
+    /** How long a sub-index is kept after it was last used, in milliseconds, or 0 or less to keep it forever. */
+    private final long maxAge;
+
+    /** When unused sub-indices were last searched for. */
+    private long lastRemoval;
+
+    /**
+     * Create a store in the given directory, keeping the sub-indices for the number of days given by the setting
+     * {@link HarvesterSettings#INDEXSERVER_INDEXING_SUBINDEX_MAX_AGE_DAYS}.
+     *
+     * @param storeDir The directory holding the sub-indices.
+     * @see #JobSubIndexStore(File, long)
+     */
+    public JobSubIndexStore(File storeDir) {
+        this(storeDir, TimeUnit.DAYS.toMillis(
+                Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_SUBINDEX_MAX_AGE_DAYS)));
+    }
+
+    /**
+     * Create a store in the given directory, creating the directory if needed. Leftovers from builds that were never
+     * completed, e.g. because the JVM died, are removed, and so are sub-indices that have not been used for too long.
+     *
+     * @param storeDir The directory holding the sub-indices.
+     * @param maxAge How long a sub-index is kept after it was last used, in milliseconds, or 0 or less to keep it
+     * forever.
+     */
+    public JobSubIndexStore(File storeDir, long maxAge) {
+        ArgumentNotValid.checkNotNull(storeDir, "File storeDir");
+        this.storeDir = storeDir.getAbsoluteFile();
+        this.maxAge = maxAge;
+        FileUtils.createDir(this.storeDir);
+        for (File f : this.storeDir.listFiles()) {
+            if (f.getName().endsWith(BUILD_SUFFIX)) {
+                log.info("Removing unfinished sub-index '{}'", f);
+                FileUtils.removeRecursively(f);
+            }
+        }
+        removeUnusedSubIndices();
+    }
+
+    /**
+     * @return The directory holding the sub-indices.
+     */
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * Get the stored sub-index of a job, and record that it is used now.
+     *
+     * @param jobId The ID of a job.
+     * @return The directory of the Lucene index of the job, or null if none has been stored.
+     */
+    public File getSubIndex(Long jobId) {
+        ArgumentNotValid.checkNotNull(jobId, "Long jobId");
+        File subIndex = getSubIndexDir(jobId);
+        if (subIndex.isDirectory()) {
+            markUsed(subIndex);
+            return subIndex;
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a file is a sub-index stored here.
+     *
+     * @param f A file.
+     * @return true if f is the directory of a stored sub-index.
+     */
+    public boolean isSubIndex(File f) {
+        ArgumentNotValid.checkNotNull(f, "File f");
+        return f.isDirectory() && storeDir.equals(f.getAbsoluteFile().getParentFile())
+                && !f.getName().endsWith(BUILD_SUFFIX);
+    }
+
+    /**
+     * Get a new directory to build the sub-index of a job in. The directory is in the store, so that it can be moved
+     * into place atomically by {@link #store(Long, File)}.
+     *
+     * @param jobId The ID of a job.
+     * @return A directory that does not exist yet.
+     */
+    public File getBuildLocation(Long jobId) {
+        ArgumentNotValid.checkNotNull(jobId, "Long jobId");
+        return new File(storeDir, jobId + "-" + UUID.randomUUID() + BUILD_SUFFIX);
+    }
+
+    /**
+     * Store a completed sub-index built in a directory given by {@link #getBuildLocation(Long)}. If a sub-index has
+     * been stored for the job in the meantime, e.g. by a concurrent combine task, that one is kept and the given one is
+     * removed.
+     *
+     * @param jobId The ID of the job.
+     * @param builtIndex The directory holding the completed sub-index.
+     * @return The directory of the stored sub-index.
+     * @throws IOFailure If the sub-index cannot be moved into place.
+     */
+    public File store(Long jobId, File builtIndex) {
+        ArgumentNotValid.checkNotNull(jobId, "Long jobId");
+        ArgumentNotValid.checkNotNull(builtIndex, "File builtIndex");
+        File subIndex = getSubIndexDir(jobId);
+        if (!builtIndex.renameTo(subIndex)) {
+            if (!subIndex.isDirectory()) {
+                throw new IOFailure("Unable to move sub-index '" + builtIndex + "' to '" + subIndex + "'");
+            }
+            log.debug("Sub-index of job {} was stored by another task, discarding '{}'", jobId, builtIndex);
+            FileUtils.removeRecursively(builtIndex);
+        }
+        markUsed(subIndex);
+        return subIndex;
+    }
+
+    /**
+     * Remove the sub-indices that have not been used for longer than the maximum age. Does nothing if the maximum age
+     * is 0 or less, or if this was done less than an hour ago. A sub-index in use by a task that started to use it
+     * more than the maximum age ago may be removed under it, so the maximum age must be much longer than the time it
+     * takes to assemble an index.
+     */
+    public void removeUnusedSubIndices() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (maxAge <= 0 || now - lastRemoval < REMOVAL_INTERVAL) {
+                return;
+            }
+            lastRemoval = now;
+        }
+        int removed = 0;
+        for (File f : storeDir.listFiles()) {
+            if (isSubIndex(f) && f.lastModified() < now - maxAge) {
+                log.debug("Removing sub-index '{}', last used {}", f, new Date(f.lastModified()));
+                FileUtils.removeRecursively(f);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            log.info("Removed {} sub-indices from '{}' not used for {} days", removed, storeDir,
+                    TimeUnit.MILLISECONDS.toDays(maxAge));
+        }
+    }
+
+    /**
+     * Record that a sub-index is used now.
+     *
+     * @param subIndex The directory of the sub-index.
+     */
+    private static void markUsed(File subIndex) {
+        if (!subIndex.setLastModified(System.currentTimeMillis())) {
+            log.debug("Unable to record the use of sub-index '{}'", subIndex);
+        }
+    }
+
+    /**
+     * @param jobId The ID of a job.
+     * @return The directory for the sub-index of the job.
+     */
+    private File getSubIndexDir(Long jobId) {
+        return new File(storeDir, jobId.toString());
+    }
+
+}
@@ -22,14 +22,28 @@
  */
 package dk.netarkivet.harvester.indexserver;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,6 +51,9 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.math3.util.Pair;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,6 +88,8 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
 
     /** A regular expression object that matches everything. */
     public static final Pattern MATCH_ALL_PATTERN = Pattern.compile(".*");
+    /** The maximum number of cache files kept open while splitting the output of a multi-job extraction. */
+    private static final int MAX_OPEN_CACHE_FILES = 16;
     /** The prefix (cache name) that this cache uses. */
     private final String prefix;
     /**
@@ -143,10 +162,224 @@ public class RawMetadataCache extends FileBasedCache<Long> implements RawDataCac
      * @see FileBasedCache#cacheData(Object)
      */
     protected Long cacheData(Long id) {
+        Long cachedId;
         if (Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND)) {
-            return cacheDataHadoop(id);
+            cachedId = cacheDataHadoop(id);
         } else {
-            return cacheDataBatch(id);
+            cachedId = cacheDataBatch(id);
+        }
+        File cacheFile = getCacheFile(id);
+        if (cachedId != null && cacheFile.exists()) {
+            prepareCacheFile(cacheFile);
+        }
+        return cachedId;
+    }
+
+    /**
+     * Prepare a file holding all the data extracted for a job, before it is used as the cache file of the job. Does
+     * nothing here; subclasses may override it to e.g. sort the data.
+     *
+     * @param file The file with the data for a job. This is either the cache file of the job, or a temporary file
+     * that will be moved to the cache file.
+     */
+    protected void prepareCacheFile(File file) {
+    }
+
+    /**
+     * Get cached data for a number of jobs. When the Hadoop backend is used, the data for the jobs not cached already
+     * is first extracted by one Hadoop job for up to
+     * {@link HarvesterSettings#INDEXSERVER_INDEXING_MAX_JOBS_PER_EXTRACTION} jobs at a time, instead of one Hadoop job
+     * for each job. Jobs that could not be extracted this way are then
+     * cached one at a time as usual.
+     *
+     * @param ids The IDs of the jobs to get cached data for.
+     * @return A map from ID to the files containing cached data for those IDs.
+     * @see FileBasedCache#get(Set)
+     */
+    @Override
+    public Map<Long, File> get(Set<Long> ids) {
+        ArgumentNotValid.checkNotNull(ids, "Set<Long> ids");
+        final int maxJobsPerExtraction = Settings
+                .getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_JOBS_PER_EXTRACTION);
+        // Migration of duplication records needs a second extraction for each job, so it is done one job at a time.
+        if (Settings.getBoolean(CommonSettings.USE_BITMAG_HADOOP_BACKEND) && maxJobsPerExtraction > 1
+                && !tryToMigrateDuplicationRecords) {
+            List<Long> uncachedIds = new ArrayList<Long>();
+            for (Long id : new TreeSet<Long>(ids)) {
+                if (!getCacheFile(id).exists()) {
+                    uncachedIds.add(id);
+                }
+            }
+            if (uncachedIds.size() > 1) {
+                for (int i = 0; i < uncachedIds.size(); i += maxJobsPerExtraction) {
+                    cacheDataHadoop(uncachedIds.subList(i, Math.min(i + maxJobsPerExtraction, uncachedIds.size())));
+                }
+            }
+        }
+        return super.get(ids);
+    }
+
+    /**
+     * Cache data for several jobs using a single Hadoop job. The mapper prefixes every extracted line with the ID of
+     * the job it belongs to, and the output is split into the cache files of the jobs. The cache files are only
+     * created if the Hadoop job succeeds, and never replace existing cache files. Failures are logged, leaving the
+     * jobs to be cached one at a time.
+     *
+     * @param ids The sorted IDs of jobs that are not cached yet.
+     */
+    private void cacheDataHadoop(List<Long> ids) {
+        final String metadataFilePatternSuffix = Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX);
+        final String specifiedPattern = "(.*-)?(" + StringUtils.join(ids, "|") + ")(-.*)?" + metadataFilePatternSuffix;
+        final Long firstId = ids.get(0);
+        final Long lastId = ids.get(ids.size() - 1);
+        Configuration conf = HadoopJobUtils.getConf();
+        conf.setPattern(GetMetadataMapper.URL_PATTERN, urlPattern);
+        conf.setPattern(GetMetadataMapper.MIME_PATTERN, mimePattern);
+        conf.set(GetMetadataMapper.JOB_IDS, StringUtils.join(ids, ","));
+        conf.set(GetMetadataMapper.FILENAME_SUFFIX_PATTERN, metadataFilePatternSuffix);
+
+        try (FileSystem fileSystem = FileSystem.newInstance(conf)) {
+            HadoopJobStrategy jobStrategy = new MetadataExtractionStrategy(firstId, fileSystem);
+            HadoopJob job = new HadoopJob(firstId, jobStrategy);
+            job.processOnlyFilesMatching(specifiedPattern);
+            job.prepareJobInputOutput(fileSystem);
+            log.info("Extracting data for {} jobs from {} to {} for '{}' in one Hadoop job", ids.size(), firstId,
+                    lastId, prefix);
+            job.run();
+            splitHadoopOutput(ids, fileSystem, job.getJobOutputDir());
+            log.debug("Cached data for {} jobs from {} to {} for '{}'", ids.size(), firstId, lastId, prefix);
+        } catch (IOException | IOFailure e) {
+            log.warn("Failed extracting data for {} jobs from {} to {} for '{}' in one Hadoop job. "
+                    + "The jobs will be cached one at a time.", ids.size(), firstId, lastId, prefix, e);
+        }
+    }
+
+    /**
+     * Split the output of a multi-job extraction into the cache files of the jobs. The lines for each job are written
+     * to a temporary file, which is moved to the cache file of the job when all output has been read, unless the job
+     * has been cached meanwhile. The move takes the same locks as {@link #cache}.
+     *
+     * @param ids The IDs of the jobs extracted.
+     * @param fileSystem The filesystem holding the output.
+     * @param outputDir The output directory of the Hadoop job. It is deleted afterwards.
+     * @throws IOException If the output cannot be read, or the cache files cannot be written.
+     */
+    void splitHadoopOutput(List<Long> ids, FileSystem fileSystem, Path outputDir) throws IOException {
+        Map<Long, File> tmpFiles = new HashMap<Long, File>();
+        try {
+            for (Long id : ids) {
+                tmpFiles.put(id, File.createTempFile(prefix + "-" + id + "-", ".tmp", getCacheDir()));
+            }
+            long lines = 0;
+            try (CacheFileWriters writers = new CacheFileWriters(tmpFiles)) {
+                RemoteIterator<LocatedFileStatus> iterator = fileSystem.listFiles(outputDir, false);
+                while (iterator.hasNext()) {
+                    Path subPath = iterator.next().getPath();
+                    if (!subPath.getName().startsWith("part-m")) {
+                        continue;
+                    }
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(fileSystem.open(subPath),
+                            StandardCharsets.UTF_8))) {
+                        for (String line = in.readLine(); line != null; line = in.readLine()) {
+                            int tab = line.indexOf('\t');
+                            Long id = tab > 0 ? parseId(line.substring(0, tab)) : null;
+                            if (id == null || !tmpFiles.containsKey(id)) {
+                                log.warn("Ignoring output line not keyed by a requested job ID: '{}'", line);
+                                continue;
+                            }
+                            writers.write(id, line.substring(tab + 1));
+                            ++lines;
+                        }
+                    }
+                }
+            }
+            for (Long id : ids) {
+                if (!getCacheFile(id).exists()) {
+                    prepareCacheFile(tmpFiles.get(id));
+                    if (putCacheFile(id, tmpFiles.get(id))) {
+                        tmpFiles.remove(id);
+                    }
+                }
+            }
+            log.info("Collected {} lines of hadoop output for {} jobs from {}", lines, ids.size(), outputDir);
+        } finally {
+            for (File tmpFile : tmpFiles.values()) {
+                FileUtils.remove(tmpFile);
+            }
+            fileSystem.delete(outputDir, true);
+        }
+    }
+
+    /**
+     * Parse the job ID prefixed to an output line.
+     *
+     * @param key The prefix.
+     * @return The job ID, or null if the prefix is not a number.
+     */
+    private static Long parseId(String key) {
+        try {
+            return Long.valueOf(key);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Appends lines to the files of a number of jobs, keeping only the most recently used files open. The output of a
+     * Hadoop job holds the lines of each metadata file together, so the files are rarely reopened.
+     */
+    private static class CacheFileWriters implements Closeable {
+        /** The files to write, by job ID. */
+        private final Map<Long, File> files;
+        /** The open writers, least recently used first. */
+        private final LinkedHashMap<Long, Writer> writers = new LinkedHashMap<Long, Writer>(MAX_OPEN_CACHE_FILES,
+                0.75f, true);
+
+        /**
+         * @param files The files to write, by job ID. They are appended to.
+         */
+        CacheFileWriters(Map<Long, File> files) {
+            this.files = files;
+        }
+
+        /**
+         * Append a line to the file of a job.
+         *
+         * @param id The job ID.
+         * @param line The line, without line ending.
+         * @throws IOException If the line cannot be written.
+         */
+        void write(Long id, String line) throws IOException {
+            Writer writer = writers.get(id);
+            if (writer == null) {
+                if (writers.size() >= MAX_OPEN_CACHE_FILES) {
+                    Iterator<Writer> eldest = writers.values().iterator();
+                    Writer evicted = eldest.next();
+                    eldest.remove();
+                    evicted.close();
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(files.get(id), true),
+                        StandardCharsets.UTF_8));
+                writers.put(id, writer);
+            }
+            writer.write(line);
+            writer.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (Writer writer : writers.values()) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            writers.clear();
+            if (failure != null) {
+                throw failure;
+            }
         }
     }
 
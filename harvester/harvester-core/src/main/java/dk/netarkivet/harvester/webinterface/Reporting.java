@@ -36,6 +36,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -58,7 +59,6 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
-import dk.netarkivet.common.utils.SettingsFactory;
 import dk.netarkivet.common.utils.batch.ArchiveBatchFilter;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.common.utils.batch.FileListJob;
@@ -67,6 +67,7 @@ import dk.netarkivet.common.utils.cdx.CDXRecord;
 import dk.netarkivet.common.utils.hadoop.HadoopJob;
 import dk.netarkivet.common.utils.hadoop.HadoopJobStrategy;
 import dk.netarkivet.common.utils.hadoop.HadoopJobUtils;
+import dk.netarkivet.common.utils.service.CachingFileResolver;
 import dk.netarkivet.common.utils.service.FileResolver;
 import dk.netarkivet.viewerproxy.webinterface.hadoop.CrawlLogExtractionStrategy;
 import dk.netarkivet.viewerproxy.webinterface.hadoop.MetadataCDXExtractionStrategy;
@@ -116,7 +117,7 @@ public class Reporting {
 	}
 
 	private static List<String> getFilesForJobFileResolver(long jobid, String harvestprefix) {
-		FileResolver fileResolver = SettingsFactory.getInstance(CommonSettings.FILE_RESOLVER_CLASS);
+		FileResolver fileResolver = CachingFileResolver.getInstance();
 		String metadataFilePatternForJobId = getMetadataFilePatternForJobId(jobid);
 		log.debug("Looking for metadata files matching {}.", metadataFilePatternForJobId);
 		List<Path> metadataPaths = fileResolver.getPaths(Pattern.compile(metadataFilePatternForJobId));
@@ -128,10 +129,12 @@ public class Reporting {
 		//What is this? When using getPaths() with a pattern we get all files in the installation matching the pattern.
 		//When using getPath() with an exact filename we include filtering by collectionId. This should only make a
 		//difference in the case of test installations where we have multiple collections with overlapping filenames. It's
-		//irritating to have to do this but the overhead should be low.
-		List<String> filteredFiles = Stream.concat(metadataPaths.stream(), archivePaths.stream())
-				.filter(path -> fileResolver.getPath(path.getFileName().toString()) != null)
+		//irritating to have to do this, so all the filenames are resolved in one call, and the results are cached.
+		List<String> filenames = Stream.concat(metadataPaths.stream(), archivePaths.stream())
 				.map(path -> path.getFileName().toString()).distinct().sorted().collect(Collectors.toList());
+		Map<String, Path> resolvedPaths = fileResolver.getPaths(filenames);
+		List<String> filteredFiles = filenames.stream().filter(filename -> resolvedPaths.get(filename) != null)
+				.collect(Collectors.toList());
 		log.debug("After filtering by collection we have the following files: {}", filteredFiles);
 		return filteredFiles;
 	}
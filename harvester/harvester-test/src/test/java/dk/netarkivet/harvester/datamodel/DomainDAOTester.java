@@ -33,6 +33,7 @@ import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -754,6 +755,48 @@ public class DomainDAOTester extends DataModelTestCase {
         }
     }
 
+    /** Test that the snapshot configurations are the default configurations, in snapshot harvest order. */
+    @Category(SlowTest.class)
+    @Test
+    public void testGetSnapshotDomainConfigurations() {
+        DomainDAO dao = DomainDAO.getInstance();
+        Domain d1 = dao.read("dr.dk");
+        d1.getDefaultConfiguration().setOrderXmlName("FullSite-order");
+        d1.getDefaultConfiguration().setMaxBytes(2000000);
+        dao.update(d1);
+        Domain d2 = dao.read("kb.dk");
+        d2.getDefaultConfiguration().setOrderXmlName("Max_20_2-order");
+        d2.getDefaultConfiguration().setMaxBytes(1000000);
+        dao.update(d2);
+
+        List<String> domainNames = new ArrayList<String>();
+        DomainConfiguration reference = null;
+        HarvestExpectations expectations = HarvestExpectations.refresh();
+        Iterator<DomainConfiguration> i = dao.getSnapshotDomainConfigurations();
+        while (i.hasNext()) {
+            DomainConfiguration cfg = i.next();
+            expectations.applyTo(cfg);
+            Domain domain = dao.read(cfg.getDomainName());
+            DomainConfiguration expected = domain.getDefaultConfiguration();
+            assertEquals("Should get the default configuration of " + domain, expected.getName(), cfg.getName());
+            assertEquals("Should get the seedlists of the configuration", IteratorUtils.toList(expected.getSeedLists())
+                    .size(), IteratorUtils.toList(cfg.getSeedLists()).size());
+            assertEquals("Should get the expectation of the configuration", expected.getExpectedNumberOfObjects(-1L,
+                    -1L), cfg.getExpectedNumberOfObjects(-1L, -1L));
+            if (reference != null) {
+                assertTrue("Order should be right, comparing " + reference + " and " + cfg,
+                        reference.getOrderXmlName().compareTo(cfg.getOrderXmlName()) < 0
+                                || (reference.getOrderXmlName().compareTo(cfg.getOrderXmlName()) == 0)
+                                && reference.getMaxBytes() >= cfg.getMaxBytes());
+            }
+            domainNames.add(cfg.getDomainName());
+            reference = cfg;
+        }
+        assertTrue("Should contain dr.dk", domainNames.contains("dr.dk"));
+        assertTrue("Should contain kb.dk", domainNames.contains("kb.dk"));
+        assertEquals("Should contain each domain once", domainNames.size(), new HashSet<String>(domainNames).size());
+    }
+
     /** Check constructor of DomainHarvestInfo(). */
     @Category(SlowTest.class)
     @Test
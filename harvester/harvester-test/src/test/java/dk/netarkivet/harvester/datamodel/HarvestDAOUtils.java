@@ -38,5 +38,7 @@ public class HarvestDAOUtils {
         ScheduleDAOTester.resetDAO();
         JobDAOTester.resetDAO();
         GlobalCrawlerTrapListDBDAO.reset();
+        HarvestExpectations.reset();
+        JobStatusCache.reset();
     }
 }
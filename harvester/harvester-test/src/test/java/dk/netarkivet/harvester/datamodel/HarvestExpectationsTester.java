@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.Date;
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Tests of the harvest expectations read from the harvest history.
+ */
+public class HarvestExpectationsTester extends DataModelTestCase {
+
+    /** The time of the last harvest added to the history. */
+    private long harvestTime = System.currentTimeMillis() / 1000 * 1000;
+
+    /** Test that the expectations give the same expected sizes as the domain histories. */
+    @Category(SlowTest.class)
+    @Test
+    public void testExpectationsMatchDomainHistory() {
+        addHistory("kb.dk", 1000L, 100L, StopReason.OBJECT_LIMIT);
+        addHistory("kb.dk", 500L, 50L, StopReason.DOWNLOAD_COMPLETE);
+        addHistory("netarkivet.dk", 2000L, 10L, StopReason.DOWNLOAD_COMPLETE);
+        HarvestExpectations expectations = HarvestExpectations.refresh();
+        assertTrue("Should have expectations for the harvested configurations", expectations.size() >= 2);
+        assertMatchesDomainHistory(expectations);
+    }
+
+    /** Test that reading only the new history gives the same expectations as reading it all. */
+    @Category(SlowTest.class)
+    @Test
+    public void testIncrementalLoad() {
+        addHistory("kb.dk", 1000L, 100L, StopReason.OBJECT_LIMIT);
+        Connection c = HarvestDBConnection.get();
+        try {
+            HarvestExpectations first = HarvestExpectations.load(c, null, 10);
+            assertSame("Should reuse expectations when there is no new history", first,
+                    HarvestExpectations.load(c, first, 10));
+
+            addHistory("kb.dk", 2000L, 200L, StopReason.OBJECT_LIMIT);
+            addHistory("netarkivet.dk", 500L, 50L, StopReason.DOWNLOAD_COMPLETE);
+            HarvestExpectations incremental = HarvestExpectations.load(c, first, 10);
+            HarvestExpectations full = HarvestExpectations.load(c, null, 10);
+            assertSameExpectations(full, incremental);
+
+            addHistory("kb.dk", 100L, 10L, StopReason.DOWNLOAD_COMPLETE);
+            assertSameExpectations(HarvestExpectations.load(c, null, 10), HarvestExpectations.load(c, full, 10));
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    /** Test that expectations are written to and read from a snapshot file. */
+    @Test
+    public void testWriteAndRead() throws Exception {
+        addHistory("kb.dk", 1000L, 100L, StopReason.OBJECT_LIMIT);
+        addHistory("netarkivet.dk", 500L, 50L, StopReason.DOWNLOAD_COMPLETE);
+        HarvestExpectations expectations = HarvestExpectations.refresh();
+        File snapshot = new File(TestInfo.TEMPDIR, "expectations.bin");
+        expectations.write(snapshot);
+        assertSameExpectations(expectations, HarvestExpectations.read(snapshot));
+    }
+
+    /**
+     * Add a harvest to the history of the default configuration of a domain, later than all other harvests.
+     *
+     * @param domainName The domain.
+     * @param bytes The number of bytes harvested.
+     * @param objects The number of objects harvested.
+     * @param stopReason The stop reason of the harvest.
+     */
+    private void addHistory(String domainName, long bytes, long objects, StopReason stopReason) {
+        DomainDAO dao = DomainDAO.getInstance();
+        Domain domain = dao.read(domainName);
+        // milliseconds cleared since they disappear in the DAO
+        harvestTime += 1000L;
+        Date date = new Date(harvestTime);
+        domain.getHistory().addHarvestInfo(new HarvestInfo(42L, domainName, domain.getDefaultConfiguration().getName(),
+                date, bytes, objects, stopReason));
+        dao.update(domain);
+    }
+
+    /**
+     * Assert that all configurations get the same expected size with the expectations as with their domain history.
+     *
+     * @param expectations The expectations.
+     */
+    private static void assertMatchesDomainHistory(HarvestExpectations expectations) {
+        Iterator<Domain> domains = DomainDAO.getInstance().getAllDomains();
+        while (domains.hasNext()) {
+            Iterator<DomainConfiguration> configs = domains.next().getAllConfigurations();
+            while (configs.hasNext()) {
+                DomainConfiguration cfg = configs.next();
+                long expected = cfg.getExpectedNumberOfObjects(Constants.HERITRIX_MAXOBJECTS_INFINITY,
+                        Constants.HERITRIX_MAXBYTES_INFINITY);
+                expectations.applyTo(cfg);
+                assertEquals("Should expect the same size for " + cfg, expected, cfg.getExpectedNumberOfObjects(
+                        Constants.HERITRIX_MAXOBJECTS_INFINITY, Constants.HERITRIX_MAXBYTES_INFINITY));
+            }
+        }
+    }
+
+    /**
+     * Assert that two sets of expectations are the same.
+     *
+     * @param expected The expected expectations.
+     * @param actual The actual expectations.
+     */
+    private static void assertSameExpectations(HarvestExpectations expected, HarvestExpectations actual) {
+        assertEquals("Should have the same number of configurations", expected.size(), actual.size());
+        Iterator<Domain> domains = DomainDAO.getInstance().getAllDomains();
+        while (domains.hasNext()) {
+            Iterator<DomainConfiguration> configs = domains.next().getAllConfigurations();
+            while (configs.hasNext()) {
+                long id = configs.next().getID();
+                int index = expected.indexOf(id);
+                assertEquals("Should have the same configurations", index, actual.indexOf(id));
+                if (index >= 0) {
+                    assertEquals(expected.getCountObjectRetrieved(index), actual.getCountObjectRetrieved(index));
+                    assertEquals(expected.getSizeDataRetrieved(index), actual.getSizeDataRetrieved(index));
+                    assertEquals(expected.getStopReason(index), actual.getStopReason(index));
+                }
+            }
+        }
+    }
+
+}
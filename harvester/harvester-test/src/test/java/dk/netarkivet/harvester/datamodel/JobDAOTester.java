@@ -131,6 +131,25 @@ public class JobDAOTester extends DataModelTestCase {
         // - but we probably do (at least nice to have)
     }
 
+    /**
+     * Test that the job status cache follows the status changes made through the DAO, and reads the statuses not
+     * cached from the DB.
+     */
+    @Test
+    public void testJobStatusCache() {
+        Job job = createDefaultJobInDB(0);
+        assertEquals(JobStatus.NEW, JobStatusCache.getStatus(job.getJobID()));
+        job.setStatus(JobStatus.SUBMITTED);
+        jobDAO.update(job);
+        assertEquals(JobStatus.SUBMITTED, JobStatusCache.getStatus(job.getJobID()));
+        long newJobID = jobDAO.rescheduleJob(job.getJobID());
+        assertEquals(JobStatus.RESUBMITTED, JobStatusCache.getStatus(job.getJobID()));
+        assertEquals(JobStatus.NEW, JobStatusCache.getStatus(newJobID));
+        JobStatusCache.reset();
+        assertEquals("A status not cached should be read from the DB", JobStatus.RESUBMITTED,
+                JobStatusCache.getStatus(job.getJobID()));
+    }
+
     @Test(expected = UnknownID.class)
     public void testJobReadUnknownID() {
         jobDAO.read(42424242);
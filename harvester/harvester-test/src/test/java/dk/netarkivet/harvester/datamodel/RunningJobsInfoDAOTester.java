@@ -22,6 +22,13 @@
  */
 package dk.netarkivet.harvester.datamodel;
 
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.After;
@@ -60,4 +67,65 @@ public class RunningJobsInfoDAOTester extends DataModelTestCase {
         dao.removeInfoForJob(42L);
         // jobDAO.storeFrontierReport(filterId, report);
     }
+
+    /**
+     * Test that storing several records at once keeps only the last record of each job in the monitor table, both when
+     * inserting and when updating the rows.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testStoreMany() {
+        RunningJobsInfoDAO dao = RunningJobsInfoDAO.getInstance();
+        List<StartedJobInfo> infos = new ArrayList<StartedJobInfo>();
+        infos.add(createInfo("harvest", 1042L, 10L));
+        infos.add(createInfo("otherharvest", 1043L, 20L));
+        infos.add(createInfo("harvest", 1042L, 30L));
+        dao.store(infos);
+        assertEquals(Long.valueOf(30L), dao.getMostRecentByJobId(1042L).getElapsedSeconds());
+        assertEquals(Long.valueOf(20L), dao.getMostRecentByJobId(1043L).getElapsedSeconds());
+
+        dao.store(Arrays.asList(createInfo("otherharvest", 1043L, 40L), createInfo("harvest", 1044L, 50L)));
+        assertEquals(Long.valueOf(30L), dao.getMostRecentByJobId(1042L).getElapsedSeconds());
+        assertEquals(Long.valueOf(40L), dao.getMostRecentByJobId(1043L).getElapsedSeconds());
+        assertEquals(Long.valueOf(50L), dao.getMostRecentByJobId(1044L).getElapsedSeconds());
+        assertEquals("Every job should have one row in the monitor table", 2,
+                dao.getMostRecentByHarvestName().get("harvest").size());
+        assertEquals("The first records of the jobs should be sampled to the history", 1,
+                dao.getFullJobHistory(1042L).length);
+
+        for (long jobId = 1042L; jobId <= 1044L; jobId++) {
+            dao.removeInfoForJob(jobId);
+        }
+    }
+
+    /**
+     * Test that the records not updated by a batch update are found both from the update counts, and by looking up the
+     * rows of the records whose update count is unknown.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testGetRecordsNotUpdated() {
+        RunningJobsInfoDAO dao = RunningJobsInfoDAO.getInstance();
+        dao.store(createInfo("harvest", 1045L, 10L));
+        List<StartedJobInfo> infos = Arrays.asList(createInfo("harvest", 1045L, 20L),
+                createInfo("harvest", 1046L, 20L), createInfo("harvest", 1047L, 20L), createInfo("harvest", 1048L, 20L),
+                createInfo("harvest", 1049L, 20L));
+        int[] updated = {Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO, 1, 0};
+
+        Connection c = HarvestDBConnection.get();
+        try {
+            assertEquals("Records not updated or without a row, and records without an update count, should be found",
+                    Arrays.asList(infos.get(1), infos.get(3), infos.get(4)),
+                    RunningJobsInfoDBDAO.getRecordsNotUpdated(c, infos, updated));
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+        dao.removeInfoForJob(1045L);
+    }
+
+    private static StartedJobInfo createInfo(String harvestName, long jobId, long elapsedSeconds) {
+        StartedJobInfo sji = new StartedJobInfo(harvestName, jobId);
+        sji.setElapsedSeconds(elapsedSeconds);
+        return sji;
+    }
 }
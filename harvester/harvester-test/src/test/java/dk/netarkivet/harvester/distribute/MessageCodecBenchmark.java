@@ -0,0 +1,223 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.distribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
+import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessageCodec;
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.MessageCodecs;
+import dk.netarkivet.common.distribute.NetarkivetMessage;
+import dk.netarkivet.common.distribute.NullRemoteFile;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlStatus;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessageCodec;
+import dk.netarkivet.harvester.harvesting.distribute.FrontierReportMessage;
+import dk.netarkivet.harvester.harvesting.distribute.FrontierReportMessageCodec;
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
+import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
+import dk.netarkivet.harvester.harvesting.frontier.TopTotalEnqueuesFilter;
+
+/**
+ * Microbenchmark comparing the cost of Java serialization with the binary codecs of the messages sent most often or
+ * with the largest content. The sizes on the wire of both forms are printed during setup, e.g.
+ *
+ * <pre>
+ * java -cp ... dk.netarkivet.harvester.distribute.MessageCodecBenchmark -p messageType=FrontierReportMessage
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    /** The type of message to encode. */
+    @Param({"CrawlProgressMessage", "FrontierReportMessage", "BatchReplyMessage"})
+    public String messageType;
+
+    /** The number of lines in frontier reports, and of failed files in batch replies. */
+    @Param("1000")
+    public int size;
+
+    /** The message to encode. */
+    private NetarkivetMessage message;
+
+    /** The message serialized with Java serialization. */
+    private byte[] serialized;
+
+    /** The message encoded with its codec. */
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        MessageCodecs.register(new CrawlProgressMessageCodec());
+        MessageCodecs.register(new FrontierReportMessageCodec());
+        MessageCodecs.register(new BatchReplyMessageCodec());
+        if ("CrawlProgressMessage".equals(messageType)) {
+            message = createCrawlProgressMessage();
+        } else if ("FrontierReportMessage".equals(messageType)) {
+            message = createFrontierReportMessage(size);
+        } else if ("BatchReplyMessage".equals(messageType)) {
+            message = createBatchReplyMessage(size);
+        } else {
+            throw new IllegalArgumentException("Unknown message type " + messageType);
+        }
+        serialized = javaSerialize();
+        encoded = codecEncode();
+        System.out.printf("%n%s: %d bytes serialized, %d bytes encoded%n", messageType, serialized.length,
+                encoded.length);
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object javaDeserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return MessageCodecs.encode(message);
+    }
+
+    @Benchmark
+    public NetarkivetMessage codecDecode() {
+        return MessageCodecs.decode(encoded);
+    }
+
+    /**
+     * @return A progress message like the ones sent by a harvester during a crawl.
+     */
+    private static CrawlProgressMessage createCrawlProgressMessage() {
+        CrawlProgressMessage msg = new CrawlProgressMessage(12L, 3456L, "timestamp discovered queued downloaded");
+        msg.setHostUrl("https://sb-prod-har-001.statsbiblioteket.dk:8443");
+        msg.setStatus(CrawlStatus.CRAWLER_ACTIVE);
+        msg.getHeritrixStatus().setCrawling(true);
+        msg.getHeritrixStatus().setCurrentJob("3456_1538390400000");
+        msg.getJobStatus().setDiscoveredFilesCount(1234567L);
+        msg.getJobStatus().setDownloadedFilesCount(456789L);
+        msg.getJobStatus().setFrontierShortReport("1234 URI queues: 50 active (50 in-process; 0 ready; 0 snoozed)");
+        msg.getJobStatus().setElapsedSeconds(86400L);
+        msg.getJobStatus().setProcessedDocsPerSec(42.5);
+        msg.getJobStatus().setActiveToeCount(50);
+        msg.getJobStatus().setProgressStatistics("2018-10-01T12:00:00Z 1234567 777778 456789 42.5(40.1) 1024(980)");
+        msg.getJobStatus().setStatus("RUNNING");
+        msg.getJobStatus().setSizeOnDisk(12345678901L);
+        return msg;
+    }
+
+    /**
+     * @param lines The number of lines in the report.
+     * @return A frontier report message with the given number of lines.
+     */
+    private static FrontierReportMessage createFrontierReportMessage(int lines) {
+        InMemoryFrontierReport report = new InMemoryFrontierReport("3456_1538390400000");
+        for (int i = 0; i < lines; i++) {
+            FrontierReportLine line = new FrontierReportLine();
+            line.setDomainName("domain" + i + ".dk");
+            line.setCurrentSize(i % 500);
+            line.setPrecedence(1);
+            line.setTotalEnqueues(i * 7L);
+            line.setSessionBalance(i % 100);
+            line.setLastCost(1.0);
+            line.setAverageCost(1.0);
+            line.setLastDequeueTime("20181001120000");
+            line.setWakeTime("");
+            line.setTotalSpend(i * 3L);
+            line.setTotalBudget(-1);
+            line.setErrorCount(i % 3);
+            line.setLastPeekUri("http://www.domain" + i + ".dk/index.html");
+            line.setLastQueuedUri("http://www.domain" + i + ".dk/page" + i + ".html");
+            report.addLine(line);
+        }
+        return new FrontierReportMessage(new TopTotalEnqueuesFilter(), report, 3456L);
+    }
+
+    /**
+     * @param failedFiles The number of failed files in the reply.
+     * @return A batch reply message with the given number of failed files.
+     */
+    private static BatchReplyMessage createBatchReplyMessage(int failedFiles) {
+        List<File> failed = new ArrayList<File>(failedFiles);
+        for (int i = 0; i < failedFiles; i++) {
+            failed.add(new File(String.format("/netarkiv/0001/filedir/3456-12-20181001120000-%05d-sb-prod-har-001.warc",
+                    i)));
+        }
+        return new BatchReplyMessage(Channels.getTheRepos(), Channels.getTheBamon(), "ID:batch-4711", 50000, failed,
+                new NullRemoteFile());
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args JMH command line options, e.g. parameters or the number of threads.
+     * @throws CommandLineOptionException If the options cannot be parsed.
+     * @throws RunnerException If the benchmark fails.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(MessageCodecBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+
+}
@@ -23,9 +23,12 @@
 package dk.netarkivet.harvester.harvesting.distribute;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import dk.netarkivet.common.distribute.MessageCodecs;
 import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlStatus;
 
 /**
@@ -43,4 +46,40 @@ public class CrawlProgressMessageTester {
         assertEquals(CrawlStatus.PRE_CRAWL, msg.getStatus());
         assertEquals("", msg.getProgressStatisticsLegend());
     }
+
+    @Test
+    public void testCodecRoundTrip() {
+        CrawlProgressMessage msg = new CrawlProgressMessage(2L, 42L, "legend");
+        msg.setHostUrl("http://harvester.netarkivet.dk:8443");
+        msg.setStatus(CrawlStatus.CRAWLER_ACTIVE);
+        msg.getHeritrixStatus().setAlertCount(3);
+        msg.getHeritrixStatus().setCrawling(true);
+        msg.getHeritrixStatus().setCurrentJob("job42");
+        msg.getJobStatus().setDiscoveredFilesCount(1000L);
+        msg.getJobStatus().setDownloadedFilesCount(400L);
+        msg.getJobStatus().setFrontierShortReport("1 queues: 1 active");
+        msg.getJobStatus().setProcessedDocsPerSec(12.5);
+        msg.getJobStatus().setActiveToeCount(25);
+        msg.getJobStatus().setStatus("RUNNING");
+        msg.getJobStatus().setSizeOnDisk(123456789L);
+
+        MessageCodecs.register(new CrawlProgressMessageCodec());
+        CrawlProgressMessage decoded = (CrawlProgressMessage) MessageCodecs.decode(MessageCodecs.encode(msg));
+        assertEquals(2L, decoded.getHarvestID());
+        assertEquals(42L, decoded.getJobID());
+        assertEquals("legend", decoded.getProgressStatisticsLegend());
+        assertEquals(msg.getHostUrl(), decoded.getHostUrl());
+        assertEquals(CrawlStatus.CRAWLER_ACTIVE, decoded.getStatus());
+        assertEquals(3, decoded.getHeritrixStatus().getAlertCount());
+        assertTrue(decoded.getHeritrixStatus().isCrawling());
+        assertEquals("job42", decoded.getHeritrixStatus().getCurrentJob());
+        assertEquals(600L, decoded.getJobStatus().getQueuedUriCount());
+        assertEquals("1 queues: 1 active", decoded.getJobStatus().getFrontierShortReport());
+        assertEquals(12.5, decoded.getJobStatus().getProcessedDocsPerSec(), 0.0);
+        assertEquals(25, decoded.getJobStatus().getActiveToeCount());
+        assertEquals("RUNNING", decoded.getJobStatus().getStatus());
+        assertEquals(123456789L, decoded.getJobStatus().getSizeOnDisk());
+        assertEquals(msg.getTo(), decoded.getTo());
+        assertFalse(decoded.hasBeenSent());
+    }
 }
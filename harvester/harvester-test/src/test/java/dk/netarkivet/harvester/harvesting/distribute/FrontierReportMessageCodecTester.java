@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.distribute.MessageCodecs;
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
+import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
+
+/**
+ * Unit tests for the class {@link FrontierReportMessageCodec}.
+ */
+public class FrontierReportMessageCodecTester {
+
+    @Test
+    public void testRoundTrip() {
+        InMemoryFrontierReport report = new InMemoryFrontierReport("job42");
+        report.setTimestamp(1234567890L);
+        for (int i = 0; i < 50; i++) {
+            FrontierReportLine line = new FrontierReportLine();
+            line.setDomainName("domain" + i + ".dk");
+            line.setCurrentSize(i);
+            line.setTotalEnqueues(i * 10L);
+            line.setAverageCost(i / 2.0);
+            line.setWakeTime(i % 2 == 0 ? null : "1m");
+            line.setLastPeekUri("http://domain" + i + ".dk/");
+            report.addLine(line);
+        }
+        FrontierReportMessage msg = new FrontierReportMessage("ActiveQueuesFilter", report, 42L);
+
+        MessageCodecs.register(new FrontierReportMessageCodec());
+        FrontierReportMessage decoded = (FrontierReportMessage) MessageCodecs.decode(MessageCodecs.encode(msg));
+        assertEquals("ActiveQueuesFilter", decoded.getFilterId());
+        assertEquals(Long.valueOf(42L), decoded.getJobID());
+        assertEquals("job42", decoded.getReport().getJobName());
+        assertEquals(1234567890L, decoded.getReport().getTimestamp());
+        assertEquals(50, decoded.getReport().getSize());
+        FrontierReportLine line = decoded.getReport().getLineForDomain("domain7.dk");
+        assertEquals(7L, line.getCurrentSize());
+        assertEquals(70L, line.getTotalEnqueues());
+        assertEquals(3.5, line.getAverageCost(), 0.0);
+        assertEquals("1m", line.getWakeTime());
+        assertEquals("http://domain7.dk/", line.getLastPeekUri());
+        assertNull(decoded.getReport().getLineForDomain("domain8.dk").getWakeTime());
+
+        FrontierReportMessage empty = (FrontierReportMessage) MessageCodecs.decode(MessageCodecs
+                .encode(new FrontierReportMessage("ActiveQueuesFilter", null, null)));
+        assertNull(empty.getReport());
+        assertNull(empty.getJobID());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link FrontierReportParser} and the streamed filter extracts.
+ */
+public class FrontierReportParserTester {
+
+    private static final File XML_SAMPLE = new File(
+            "tests/dk/netarkivet/harvester/harvesting/frontier/data/frontierReport_all_xml_sample_1.xml");
+
+    @Test
+    public void testParseXML() throws IOException {
+        List<FrontierReportLine> lines = new ArrayList<FrontierReportLine>();
+        try (InputStream in = new FileInputStream(XML_SAMPLE)) {
+            assertEquals(12L, FrontierReportParser.parseXML(in, "rawOutput", lines::add));
+        }
+        assertEquals(12, lines.size());
+        assertEquals("ajax.googleapis.com", lines.get(0).getDomainName());
+        assertEquals("xiti.com", lines.get(11).getDomainName());
+        // Entities in the URIs are replaced
+        assertEquals("http://logp.xiti.com/hit.xiti?s=18798&s2=3&p=Repro_Sommaire::Tarifs&", lines.get(11)
+                .getLastPeekUri());
+    }
+
+    @Test
+    public void testParseText() {
+        String report = "queue precedence currentSize totalEnqueues sessionBalance lastCost (averageCost) "
+                + "lastDequeueTime wakeTime totalSpend/totalBudget errorCount lastPeekUri lastQueuedUri\n"
+                + "a.dk 3 0 4 2996 1(1) 2016-09-14T14:26:03.094Z - 4/5000 0 http://a.dk/1 http://a.dk/2\r\n"
+                + "\n" + "not a frontier report line\n"
+                + "b.dk 3 2 7 2996 1(1) 2016-09-14T14:26:03.094Z - 5/5 0 http://b.dk/1 http://b.dk/2";
+        List<FrontierReportLine> lines = new ArrayList<FrontierReportLine>();
+        assertEquals(2L, FrontierReportParser.parseText(new StringReader(report), lines::add));
+        assertEquals("a.dk", lines.get(0).getDomainName());
+        assertEquals("http://b.dk/2", lines.get(1).getLastQueuedUri());
+    }
+
+    @Test
+    public void testStreamedExtracts() throws IOException {
+        ExhaustedQueuesFilter exhaustedFilter = new ExhaustedQueuesFilter();
+        exhaustedFilter.init(new String[] {"3"});
+        TopTotalEnqueuesFilter topFilter = new TopTotalEnqueuesFilter();
+        topFilter.init(new String[] {"3"});
+        RetiredQueuesFilter retiredFilter = new RetiredQueuesFilter();
+        retiredFilter.init(new String[] {"3"});
+        FrontierReportExtract exhausted = exhaustedFilter.newExtract("job");
+        FrontierReportExtract top = topFilter.newExtract("job");
+        FrontierReportExtract retired = retiredFilter.newExtract("job");
+        try (InputStream in = new FileInputStream(XML_SAMPLE)) {
+            FrontierReportParser.parseXML(in, "rawOutput", line -> {
+                exhausted.addLine(line);
+                top.addLine(line);
+                retired.addLine(line);
+            });
+        }
+
+        FrontierReportLine[] exhaustedLines = exhausted.getReport().getLines();
+        assertEquals(3, exhaustedLines.length);
+        assertEquals("xiti.com", exhaustedLines[0].getDomainName());
+        assertEquals("dublincore.org", exhaustedLines[1].getDomainName());
+        assertEquals("purl.org", exhaustedLines[2].getDomainName());
+
+        FrontierReportLine[] topLines = top.getReport().getLines();
+        assertEquals(1, topLines.length);
+        assertEquals("bnf.fr", topLines[0].getDomainName());
+
+        assertEquals(0, retired.getReport().getSize());
+    }
+
+}
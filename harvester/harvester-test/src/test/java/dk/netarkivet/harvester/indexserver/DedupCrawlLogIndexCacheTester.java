@@ -33,6 +33,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -79,6 +80,72 @@ public class DedupCrawlLogIndexCacheTester extends CacheTestCase {
     @Test
     public void testCombine() throws Exception {
         // These are the origins of job #4 and #1
+        Map<String, String> origins = getOrigins();
+
+        Map<Long, File> files = new HashMap<Long, File>();
+        files.put(1L, TestInfo.CRAWL_LOG_1);
+        files.put(4L, TestInfo.CRAWL_LOG_4);
+
+        Set<Long> requiredSet = new HashSet<Long>();
+        requiredSet.add(1L);
+        requiredSet.add(4L);
+
+        DedupCrawlLogIndexCache cache = new DedupCrawlLogIndexCache();
+        File resultFile = cache.getCacheFile(files.keySet());
+
+        cache.combine(files);
+
+        assertTrue("Result file should have contents after combining", resultFile.length() > 0);
+        assertFalse("Should not have left an unzipped lucene index",
+                new File(resultFile.getAbsolutePath().substring(0, resultFile.getAbsolutePath().length() - 4)).exists());
+        IndexSearcher index = openIndex(resultFile, new File(TestInfo.WORKING_DIR, "luceneindex"));
+
+        // Crawl log 1 has five entries for www.kb.dk, but two are robots
+        // and /, which the indexer ignores, leaving 3
+        // Crawl log 4 has five entries for www.kb.dk
+
+        verifySearchResult(origins, index);
+
+        assertTrue("Should have found all origins, but have still " + origins.size() + " left: " + origins,
+                origins.isEmpty());
+    }
+
+    /**
+     * Test that the index of each job is stored, and that an index can be made by adding jobs to a cached index of a
+     * subset of its jobs.
+     */
+    @Test
+    public void testCombineReusesIndices() throws Exception {
+        DedupCrawlLogIndexCache cache = new DedupCrawlLogIndexCache();
+        Map<Long, File> files = new HashMap<Long, File>();
+        files.put(1L, TestInfo.CRAWL_LOG_1);
+        cache.combine(files);
+        File subsetIndex = cache.getCacheFile(files.keySet());
+        assertTrue("Should have cached the index of job 1", subsetIndex.isDirectory());
+        assertTrue("Should have stored the sub-index of job 1",
+                new File(new File(cache.getCacheDir(), "subindices"), "1").isDirectory());
+        assertEquals("Should have recorded the jobs of the index", Collections.singletonList("1"),
+                FileUtils.readListFromFile(new File(subsetIndex.getAbsolutePath() + ".jobs")));
+
+        files.put(1L, subsetIndex);
+        files.put(4L, TestInfo.CRAWL_LOG_4);
+        cache.combine(files);
+        File resultFile = cache.getCacheFile(files.keySet());
+        assertTrue("Should have stored the sub-index of job 4",
+                new File(new File(cache.getCacheDir(), "subindices"), "4").isDirectory());
+        assertEquals("Should have recorded the jobs of the index", new HashSet<String>(Arrays.asList("1", "4")),
+                new HashSet<String>(FileUtils.readListFromFile(new File(resultFile.getAbsolutePath() + ".jobs"))));
+
+        Map<String, String> origins = getOrigins();
+        verifySearchResult(origins, openIndex(resultFile, new File(TestInfo.WORKING_DIR, "luceneindex")));
+        assertTrue("Should have found all origins, but have still " + origins.size() + " left: " + origins,
+                origins.isEmpty());
+    }
+
+    /**
+     * @return The origins of the URLs of job #4 and #1.
+     */
+    private static Map<String, String> getOrigins() {
         Map<String, String> origins = new HashMap<String, String>(8);
 
         // "job" #4
@@ -96,24 +163,17 @@ public class DedupCrawlLogIndexCacheTester extends CacheTestCase {
         origins.put("http://www.kb.dk/clear.gif", "54-8-20050620183552-00016-kb-prod-har-001.kb.dk.arc,55983420,20050506114732000");
         origins.put("http://www.kb.dk/dither.gif", "54-8-20050620183552-00016-kb-prod-har-001.kb.dk.arc,53985420,20050506114736000");
         origins.put("http://www.kb.dk/dither_blaa.gif", "54-8-20050620183552-00016-kb-prod-har-001.kb.dk.arc,58593420,20050506114734000");
+        return origins;
+    }
 
-        Map<Long, File> files = new HashMap<Long, File>();
-        files.put(1L, TestInfo.CRAWL_LOG_1);
-        files.put(4L, TestInfo.CRAWL_LOG_4);
-
-        Set<Long> requiredSet = new HashSet<Long>();
-        requiredSet.add(1L);
-        requiredSet.add(4L);
-
-        DedupCrawlLogIndexCache cache = new DedupCrawlLogIndexCache();
-        File resultFile = cache.getCacheFile(files.keySet());
-
-        cache.combine(files);
-
-        assertTrue("Result file should have contents after combining", resultFile.length() > 0);
-        assertFalse("Should not have left an unzipped lucene index",
-                new File(resultFile.getAbsolutePath().substring(0, resultFile.getAbsolutePath().length() - 4)).exists());
-        File unzipDir = new File(TestInfo.WORKING_DIR, "luceneindex");
+    /**
+     * Unzip a gzipped index and open it for searching.
+     *
+     * @param resultFile The directory of the gzipped index.
+     * @param unzipDir A directory to unzip it into, which must not exist.
+     * @return A searcher for the index.
+     */
+    private static IndexSearcher openIndex(File resultFile, File unzipDir) throws IOException {
         if (!unzipDir.mkdir()) {
             fail("Unable to create unzipDir '" + unzipDir.getAbsolutePath() + "' for luceneindex: ");
         }
@@ -129,33 +189,7 @@ public class DedupCrawlLogIndexCacheTester extends CacheTestCase {
 
         Directory luceneDirectory = new MMapDirectory(unzipDir);
         IndexReader reader = DirectoryReader.open(luceneDirectory);
-
-        // System.out.println("doc-count: " + reader.maxDoc());
-        IndexSearcher index = new IndexSearcher(reader);
-        // QueryParser queryParser = new QueryParser("url",
-        // new WhitespaceAnalyzer(dk.netarkivet.common.constants.LUCENE_VERSION));
-        // QueryParser queryParser = new QueryParser(dk.netarkivet.common.Constants.LUCENE_VERSION, "url",
-        // new WhitespaceAnalyzer(dk.netarkivet.common.Constants.LUCENE_VERSION));
-        // Query q = queryParser.parse("http\\://www.kb.dk*");
-
-        // Crawl log 1 has five entries for www.kb.dk, but two are robots
-        // and /, which the indexer ignores, leaving 3
-        // Crawl log 4 has five entries for www.kb.dk
-
-        // System.out.println("Found hits: " + hits.size());
-        // for (ScoreDoc hit : hits) {
-        // int docID = hit.doc;
-        // Document doc = index.doc(docID);
-        //
-        // String url = doc.get("url");
-        // String origin = doc.get("origin");
-        // System.out.println("url,origin = " + url + ", " + origin);
-        // }
-
-        verifySearchResult(origins, index);
-
-        assertTrue("Should have found all origins, but have still " + origins.size() + " left: " + origins,
-                origins.isEmpty());
+        return new IndexSearcher(reader);
     }
 
     private void verifySearchResult(Map<String, String> origins, IndexSearcher index) throws IOException {
@@ -23,19 +23,117 @@
 
 package dk.netarkivet.harvester.indexserver;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import ch.qos.logback.classic.Level;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.testutils.LogbackRecorder;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 
 /**
  * Unit tests for the abstract class FileBasedCache.
  */
 public class FileBasedCacheTester {
 
+    ReloadSettings rs = new ReloadSettings();
+
+    /** The directory of the caches of the tests. */
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        rs.setUp();
+        cacheDir = Files.createTempDirectory("FileBasedCacheTester").toFile();
+        Settings.set(CommonSettings.CACHE_DIR, cacheDir.getAbsolutePath());
+        Settings.set(HarvesterSettings.INDEXSERVER_INDEXING_CACHE_FILL_THREADS, "4");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(cacheDir);
+        rs.tearDown();
+    }
+
+    /**
+     * Test that concurrent requests for the same entries fill each entry once, in parallel, and that hits and misses
+     * are counted.
+     */
+    @Test
+    public void testConcurrentGetFillsEachEntryOnce() throws Exception {
+        final ConcurrentMap<String, AtomicInteger> fills = new ConcurrentHashMap<String, AtomicInteger>();
+        final Set<String> fillThreads = ConcurrentHashMap.newKeySet();
+        final FileBasedCache<String> cache = new FileBasedCache<String>("Test") {
+            public File getCacheFile(String id) {
+                return new File(getCacheDir(), id);
+            }
+
+            protected String cacheData(String id) {
+                fills.putIfAbsent(id, new AtomicInteger());
+                fills.get(id).incrementAndGet();
+                fillThreads.add(Thread.currentThread().getName());
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (id.equals("missing")) {
+                    return null;
+                }
+                FileUtils.writeBinaryFile(getCacheFile(id), id.getBytes());
+                return id;
+            }
+        };
+        final Set<String> ids = new HashSet<String>(Arrays.asList("a", "b", "c", "d", "missing"));
+        ExecutorService requesters = Executors.newFixedThreadPool(2);
+        try {
+            Future<Map<String, File>> first = requesters.submit(() -> cache.get(ids));
+            Future<Map<String, File>> second = requesters.submit(() -> cache.get(ids));
+            for (Map<String, File> result : Arrays.asList(first.get(), second.get())) {
+                assertEquals("Should get all entries", ids, result.keySet());
+                assertEquals("Should get the cache file", cache.getCacheFile("a"), result.get("a"));
+                assertNull("Should get no file for data not found", result.get("missing"));
+            }
+        } finally {
+            requesters.shutdown();
+        }
+        for (String id : Arrays.asList("a", "b", "c", "d")) {
+            assertEquals("Entry '" + id + "' should be filled once", 1, fills.get(id).get());
+        }
+        assertTrue("Entries should be filled by several threads, but were filled by " + fillThreads,
+                fillThreads.size() > 1);
+        assertEquals("All lookups should be counted", 2 * ids.size(), cache.getHits() + cache.getMisses());
+        assertEquals("Every fill should be counted as a miss", 4 + fills.get("missing").get(), cache.getMisses());
+        assertTrue("Time spent filling should be counted", cache.getFillTimeMillis() >= 100);
+
+        long hits = cache.getHits();
+        cache.get(ids);
+        assertEquals("Cached entries should be hits", hits + 4, cache.getHits());
+    }
+
     @Test
     @Ignore("Log file does not contain expected string")
     public void testGetIndex() throws Exception {
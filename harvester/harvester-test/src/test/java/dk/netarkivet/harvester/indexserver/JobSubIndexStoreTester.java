@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the JobSubIndexStore.
+ */
+public class JobSubIndexStoreTester {
+
+    /** A maximum age of the sub-indices in the tests. */
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    /** The directory of the store. */
+    private File storeDir;
+
+    @Before
+    public void setUp() throws IOException {
+        storeDir = Files.createTempDirectory("JobSubIndexStoreTester").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(storeDir);
+    }
+
+    /**
+     * Test that a stored sub-index is found, and that unfinished builds are removed when the store is created.
+     */
+    @Test
+    public void testStoreAndGet() throws IOException {
+        JobSubIndexStore store = new JobSubIndexStore(storeDir, MAX_AGE);
+        assertNull("Should not find a sub-index not stored", store.getSubIndex(1L));
+        File subIndex = store.store(1L, build(store, 1L));
+        assertEquals("Should find the stored sub-index", subIndex, store.getSubIndex(1L));
+        assertTrue(store.isSubIndex(subIndex));
+
+        File unfinished = store.getBuildLocation(2L);
+        assertTrue(unfinished.mkdir());
+        assertFalse("A build should not be a sub-index", store.isSubIndex(unfinished));
+        new JobSubIndexStore(storeDir, MAX_AGE);
+        assertFalse("Should remove the unfinished build", unfinished.exists());
+        assertTrue("Should keep the stored sub-index", subIndex.isDirectory());
+    }
+
+    /**
+     * Test that sub-indices not used for longer than the maximum age are removed, and that getting a sub-index counts
+     * as using it.
+     */
+    @Test
+    public void testRemoveUnusedSubIndices() throws IOException {
+        JobSubIndexStore store = new JobSubIndexStore(storeDir, MAX_AGE);
+        File unused = store.store(1L, build(store, 1L));
+        File used = store.store(2L, build(store, 2L));
+        File recent = store.store(3L, build(store, 3L));
+        long longAgo = System.currentTimeMillis() - MAX_AGE - TimeUnit.DAYS.toMillis(1);
+        assertTrue(unused.setLastModified(longAgo));
+        assertTrue(used.setLastModified(longAgo));
+        assertNotNull(store.getSubIndex(2L));
+
+        new JobSubIndexStore(storeDir, MAX_AGE);
+        assertFalse("Should remove the sub-index not used for too long", unused.exists());
+        assertTrue("Should keep the sub-index just used", used.isDirectory());
+        assertTrue("Should keep the sub-index just stored", recent.isDirectory());
+
+        assertTrue(recent.setLastModified(longAgo));
+        new JobSubIndexStore(storeDir, 0);
+        assertTrue("Should keep all sub-indices without a maximum age", recent.isDirectory());
+    }
+
+    /**
+     * Build a fake sub-index for a job.
+     *
+     * @param store The store.
+     * @param jobId The ID of the job.
+     * @return The directory of the built sub-index.
+     */
+    private static File build(JobSubIndexStore store, Long jobId) throws IOException {
+        File dir = store.getBuildLocation(jobId);
+        assertTrue(dir.mkdir());
+        Files.write(new File(dir, "segments_1").toPath(), new byte[] {1, 2, 3});
+        return dir;
+    }
+
+}
@@ -23,14 +23,23 @@
 package dk.netarkivet.harvester.indexserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.regex.Pattern;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -192,4 +201,43 @@ public class RawMetadataCacheTester extends CacheTestCase {
         arcrepfield.set(rmc, tarc);
         rmc.cache(4L);
     }
+
+    /**
+     * Check that the output of a Hadoop job extracting the metadata of several jobs is split into the cache files of
+     * the jobs, that jobs without output get empty cache files, and that existing cache files are kept.
+     */
+    @Test
+    public void testSplitHadoopOutput() throws Exception {
+        RawMetadataCache rmc = new RawMetadataCache("test9", null, null);
+        File cachedFile = rmc.getCacheFile(3L);
+        Files.write(cachedFile.toPath(), Arrays.asList("cached before"), StandardCharsets.UTF_8);
+        File outputDir = new File(TestInfo.WORKING_DIR, "hadoop-output");
+        outputDir.mkdirs();
+        Files.write(new File(outputDir, "part-m-00000").toPath(),
+                Arrays.asList("1\tfirst line of 1", "2\tfirst line of 2", "3\tline of 3", "1\tsecond line of 1"),
+                StandardCharsets.UTF_8);
+        Files.write(new File(outputDir, "part-m-00001").toPath(),
+                Arrays.asList("2\tsecond line of 2", "5\tline of a job not requested", "line without a job"),
+                StandardCharsets.UTF_8);
+        Files.write(new File(outputDir, "_SUCCESS").toPath(), Arrays.asList("1\tnot output"),
+                StandardCharsets.UTF_8);
+
+        FileSystem fileSystem = FileSystem.getLocal(new Configuration());
+        rmc.splitHadoopOutput(Arrays.asList(1L, 2L, 3L, 4L), fileSystem, new Path(outputDir.toURI()));
+
+        assertEquals("Should have the lines of job 1 in order", Arrays.asList("first line of 1", "second line of 1"),
+                Files.readAllLines(rmc.getCacheFile(1L).toPath(), StandardCharsets.UTF_8));
+        assertEquals("Should have the lines of job 2 from all output files",
+                new HashSet<String>(Arrays.asList("first line of 2", "second line of 2")),
+                new HashSet<String>(Files.readAllLines(rmc.getCacheFile(2L).toPath(), StandardCharsets.UTF_8)));
+        assertEquals("Should keep the existing cache file of job 3", Arrays.asList("cached before"),
+                Files.readAllLines(cachedFile.toPath(), StandardCharsets.UTF_8));
+        assertTrue("Should have an empty cache file for job 4", rmc.getCacheFile(4L).isFile());
+        assertEquals("Should have an empty cache file for job 4", 0, rmc.getCacheFile(4L).length());
+        assertFalse("Should not have a cache file for job 5", rmc.getCacheFile(5L).exists());
+        assertFalse("Should delete the output", outputDir.exists());
+        for (File file : rmc.getCacheDir().listFiles()) {
+            assertFalse("Should leave no temporary files, but found " + file, file.getName().endsWith(".tmp"));
+        }
+    }
 }
@@ -3,10 +3,13 @@ package dk.netarkivet.harvester.indexserver.hadoop;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -15,7 +18,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.hadoop.HadoopMiniClusterTestCase;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.ZipUtils;
 import dk.netarkivet.common.utils.hadoop.GetMetadataMapper;
 import dk.netarkivet.common.utils.hadoop.HadoopJobTool;
@@ -100,6 +106,86 @@ public class GetMetadataMapperTester extends HadoopMiniClusterTestCase {
         }
     }
 
+    /**
+     * Test that when metadata for several jobs is extracted in one Hadoop job, every line is keyed by the ID of the job
+     * whose metadata file it came from, and the lines are those extracted for each job alone.
+     */
+    @Test
+    public void testMetadataKeyedByJobIDs() throws Exception {
+        File warcFile = getTestFiles()[0];
+        File otherJobFile = new File(TestInfo.WORKING_DIR, "2-metadata-1.warc");
+        FileUtils.copyFile(warcFile, otherJobFile);
+
+        Configuration unkeyedConf = new Configuration(conf);
+        unkeyedConf.set(GetMetadataMapper.URL_PATTERN, MetadataFile.CRAWL_LOG_PATTERN);
+        unkeyedConf.set(GetMetadataMapper.MIME_PATTERN, "text/plain");
+        List<String> unkeyedLines = runJob(unkeyedConf, warcFile);
+        Assert.assertFalse("Should extract the crawl log", unkeyedLines.isEmpty());
+
+        Configuration keyedConf = new Configuration(unkeyedConf);
+        keyedConf.set(GetMetadataMapper.JOB_IDS, "1,2,3");
+        keyedConf.set(GetMetadataMapper.FILENAME_SUFFIX_PATTERN,
+                Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX));
+        List<String> linesOfJob1 = new ArrayList<String>();
+        List<String> linesOfJob2 = new ArrayList<String>();
+        for (String line : runJob(keyedConf, warcFile, otherJobFile)) {
+            if (line.startsWith("1\t")) {
+                linesOfJob1.add(line.substring(2));
+            } else if (line.startsWith("2\t")) {
+                linesOfJob2.add(line.substring(2));
+            } else {
+                Assert.fail("Line should be keyed by job 1 or 2: " + line);
+            }
+        }
+        Collections.sort(unkeyedLines);
+        Collections.sort(linesOfJob1);
+        Collections.sort(linesOfJob2);
+        Assert.assertEquals("Job 1 should have the lines of its metadata file", unkeyedLines, linesOfJob1);
+        Assert.assertEquals("Job 2 should have the lines of its metadata file", unkeyedLines, linesOfJob2);
+    }
+
+    /**
+     * Test that metadata files of jobs not requested are skipped when the output is keyed by job ID.
+     */
+    @Test
+    public void testMetadataKeyedByJobIDsWithoutMatches() throws Exception {
+        File[] files = getTestFiles();
+        Configuration keyedConf = new Configuration(conf);
+        keyedConf.set(GetMetadataMapper.URL_PATTERN, MetadataFile.CRAWL_LOG_PATTERN);
+        keyedConf.set(GetMetadataMapper.MIME_PATTERN, "text/plain");
+        keyedConf.set(GetMetadataMapper.JOB_IDS, "3,11");
+        keyedConf.set(GetMetadataMapper.FILENAME_SUFFIX_PATTERN,
+                Settings.get(CommonSettings.METADATAFILE_REGEX_SUFFIX));
+        Assert.assertEquals("Should extract nothing from the metadata files of job 1", Collections.emptyList(),
+                runJob(keyedConf, files));
+    }
+
+    /**
+     * Run a Hadoop job with a GetMetadataMapper on some files.
+     *
+     * @param jobConf The configuration of the job.
+     * @param files The input files.
+     * @return The output lines.
+     */
+    private List<String> runJob(Configuration jobConf, File... files) throws Exception {
+        String outputURI = "hdfs://localhost:" + hdfsCluster.getNameNodePort() + "/" + UUID.randomUUID().toString();
+        java.nio.file.Path jobInputFile = Files.createTempFile("", UUID.randomUUID().toString());
+        List<String> inputLines = new ArrayList<String>();
+        for (File file : files) {
+            inputLines.add("file://" + file.getAbsolutePath());
+        }
+        Files.write(jobInputFile, inputLines);
+        jobInputFile.toFile().deleteOnExit();
+        try {
+            Tool job = new HadoopJobTool(jobConf, new GetMetadataMapper());
+            int exitCode = ToolRunner.run(jobConf, job, new String[] {"file://" + jobInputFile.toString(), outputURI});
+            Assert.assertEquals(0, exitCode); // job success
+            return HadoopJobUtils.collectOutputLines(fileSystem, new Path(outputURI));
+        } finally {
+            fileSystem.delete(new Path(outputURI), true);
+        }
+    }
+
     /**
      * Unzip the compressed test files and return their insides.
      * @return The non-compressed archive files
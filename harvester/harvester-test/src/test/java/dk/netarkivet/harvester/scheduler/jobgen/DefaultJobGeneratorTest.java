@@ -3,23 +3,37 @@ package dk.netarkivet.harvester.scheduler.jobgen;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.Test;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.IteratorUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.Constants;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.DomainConfigurationTest;
 import dk.netarkivet.harvester.datamodel.H1HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.HarvestChannel;
+import dk.netarkivet.harvester.datamodel.HarvestDBConnection;
+import dk.netarkivet.harvester.datamodel.HarvestDefinition;
+import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
 import dk.netarkivet.harvester.datamodel.JobTest;
+import dk.netarkivet.harvester.datamodel.PartialHarvest;
 import dk.netarkivet.harvester.datamodel.TestInfo;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.test.utils.OrderXmlBuilder;
@@ -130,6 +144,172 @@ public class DefaultJobGeneratorTest extends AbstractJobGeneratorTest {
         assertFalse(Collections.indexOfSubList(sortedNames, expected2) == -1);
     }
 
+    /**
+     * Verify that packing the subsets of domain configurations in parallel creates the same jobs as packing them one at
+     * a time, and that the progress is reported.
+     */
+    @Test
+    public void testGenerateJobsWithParallelPacking() {
+        Settings.set(HarvesterSettings.JOBS_MAX_RELATIVE_SIZE_DIFFERENCE, "50");
+        Settings.set(HarvesterSettings.JOBS_MAX_TOTAL_JOBSIZE, "40000");
+        Settings.set(HarvesterSettings.JOBS_MIN_ABSOLUTE_SIZE_DIFFERENCE, "10000");
+        Settings.set(HarvesterSettings.JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE, "2");
+        HarvestDefinitionDAO hdao = HarvestDefinitionDAO.getInstance();
+        PartialHarvest sequentialHd = TestInfo.getMultipleOrderXmlConfig();
+        sequentialHd.setSubmissionDate(new Date());
+        hdao.create(sequentialHd);
+        PartialHarvest parallelHd = createHarvestDefinition(sequentialHd, "DifferentOrderXmlInParallel");
+
+        int sequentialJobs = new DefaultJobGenerator().generateJobs(hdao.read(sequentialHd.getOid()));
+
+        Settings.set(HarvesterSettings.JOBGEN_PACKER_THREADS, "3");
+        JobGenerationProgress progress = new JobGenerationProgress();
+        int parallelJobs = new DefaultJobGenerator().generateJobs(hdao.read(parallelHd.getOid()), progress);
+
+        assertEquals("Packing in parallel should create the same number of jobs", sequentialJobs, parallelJobs);
+        assertEquals("Packing in parallel should create the same jobs", getDomainsOfJobs(sequentialHd.getOid()),
+                getDomainsOfJobs(parallelHd.getOid()));
+        assertEquals("All configurations should be read", 4, progress.getConfigurationsRead());
+        assertEquals("All subsets should be packed", 2, progress.getSubsetsPacked());
+        assertEquals("All jobs should be counted", parallelJobs, progress.getJobsCreated());
+    }
+
+    /**
+     * Verify that when a subset fails to be packed in parallel, the failure is rethrown, and only the jobs of the
+     * subsets read before it are created and counted, as when packing them one at a time.
+     */
+    @Test
+    public void testGenerateJobsWithParallelPackingStopsAtFailure() {
+        Settings.set(HarvesterSettings.JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE, "1");
+        Settings.set(HarvesterSettings.JOBGEN_PACKER_THREADS, "3");
+        HarvestDefinitionDAO hdao = HarvestDefinitionDAO.getInstance();
+        PartialHarvest hd = TestInfo.getMultipleOrderXmlConfig();
+        hd.setSubmissionDate(new Date());
+        hdao.create(hd);
+        hd = (PartialHarvest) hdao.read(hd.getOid());
+
+        // The subsets are read in the order of the configurations of the harvest definition. Let the second fail.
+        Iterator<DomainConfiguration> configurations = hd.getDomainConfigurations();
+        Set<String> domainsBefore = new HashSet<String>();
+        domainsBefore.add(configurations.next().getDomainName());
+        final String failingDomain = configurations.next().getDomainName();
+
+        DefaultJobGenerator jobGen = new DefaultJobGenerator() {
+            @Override
+            protected List<Job> packDomainConfigurationSubset(HarvestDefinition harvest,
+                    Iterator<DomainConfiguration> domainConfSubset) {
+                List<DomainConfiguration> subset = IteratorUtils.toList(domainConfSubset);
+                if (subset.get(0).getDomainName().equals(failingDomain)) {
+                    throw new IOFailure("Failed to pack " + failingDomain);
+                }
+                return super.packDomainConfigurationSubset(harvest, subset.iterator());
+            }
+        };
+        JobGenerationProgress progress = new JobGenerationProgress();
+        try {
+            jobGen.generateJobs(hd, progress);
+            fail("The failure to pack a subset should be rethrown");
+        } catch (IOFailure e) {
+            assertEquals("The failure to pack the subset should be rethrown", "Failed to pack " + failingDomain,
+                    e.getMessage());
+        }
+
+        Set<String> domainsCreated = new HashSet<String>();
+        List<Set<String>> jobsCreated = getDomainsOfJobs(hd.getOid());
+        for (Set<String> domains : jobsCreated) {
+            domainsCreated.addAll(domains);
+        }
+        assertEquals("Only the jobs of the subsets before the failing one should be created", domainsBefore,
+                domainsCreated);
+        assertEquals("Only the subsets before the failing one should be counted", 1, progress.getSubsetsPacked());
+        assertEquals("Only the jobs created should be counted", jobsCreated.size(), progress.getJobsCreated());
+    }
+
+    /**
+     * Verify that the database connection used to read the domain configurations of a snapshot harvest is returned to
+     * the pool when packing fails, both when packing one subset at a time and in parallel.
+     */
+    @Test
+    public void testGenerateJobsReleasesConnectionOnFailure() {
+        Settings.set(HarvesterSettings.JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE, "1");
+        assertConnectionReleasedOnFailure("FailingSnapshot");
+        Settings.set(HarvesterSettings.JOBGEN_PACKER_THREADS, "3");
+        assertConnectionReleasedOnFailure("FailingSnapshotInParallel");
+    }
+
+    /**
+     * Generate the jobs of a new snapshot harvest with a job generator that fails to pack any subset, and check that no
+     * connections are left busy.
+     *
+     * @param name the name of the harvest definition
+     */
+    private static void assertConnectionReleasedOnFailure(String name) {
+        HarvestDefinition hd = HarvestDefinition.createFullHarvest(name, "Fails to pack", null,
+                Constants.DEFAULT_MAX_OBJECTS, Constants.DEFAULT_MAX_BYTES, Constants.DEFAULT_MAX_JOB_RUNNING_TIME);
+        hd.setSubmissionDate(new Date());
+        HarvestDefinitionDAO hdao = HarvestDefinitionDAO.getInstance();
+        hdao.create(hd);
+        hd = hdao.read(hd.getOid());
+        int busyBefore = HarvestDBConnection.getNumBusyConnections();
+
+        DefaultJobGenerator jobGen = new DefaultJobGenerator() {
+            @Override
+            protected List<Job> packDomainConfigurationSubset(HarvestDefinition harvest,
+                    Iterator<DomainConfiguration> domainConfSubset) {
+                throw new IOFailure("Failed to pack");
+            }
+        };
+        try {
+            jobGen.generateJobs(hd);
+            fail("The failure to pack a subset should be rethrown");
+        } catch (IOFailure e) {
+            assertEquals("The failure to pack the subset should be rethrown", "Failed to pack", e.getMessage());
+        }
+        assertEquals("The connection reading the configurations should be returned to the pool", busyBefore,
+                HarvestDBConnection.getNumBusyConnections());
+    }
+
+    /**
+     * Create a harvest definition with the same domain configurations as another one.
+     *
+     * @param hd the harvest definition to copy the configurations of
+     * @param name the name of the new harvest definition
+     * @return the new harvest definition
+     */
+    private static PartialHarvest createHarvestDefinition(PartialHarvest hd, String name) {
+        PartialHarvest copy = HarvestDefinition.createPartialHarvest(
+                new ArrayList<DomainConfiguration>(hd.getDomainConfigurationsAsList()), hd.getSchedule(), name,
+                hd.getComments(), TestInfo.DEFAULT_HARVEST_AUDIENCE);
+        copy.setSubmissionDate(new Date());
+        HarvestDefinitionDAO.getInstance().create(copy);
+        return copy;
+    }
+
+    /**
+     * Get the domains of the jobs created for a harvest definition, in the order the jobs were created.
+     *
+     * @param harvestId the ID of the harvest definition
+     * @return the domain names of each job
+     */
+    private static List<Set<String>> getDomainsOfJobs(Long harvestId) {
+        List<Job> jobs = new ArrayList<Job>();
+        for (Job job : IteratorUtils.toList(JobDAO.getInstance().getAll())) {
+            if (job.getOrigHarvestDefinitionID().equals(harvestId)) {
+                jobs.add(job);
+            }
+        }
+        Collections.sort(jobs, new Comparator<Job>() {
+            public int compare(Job job1, Job job2) {
+                return job1.getJobID().compareTo(job2.getJobID());
+            }
+        });
+        List<Set<String>> domains = new ArrayList<Set<String>>();
+        for (Job job : jobs) {
+            domains.add(job.getDomainConfigurationMap().keySet());
+        }
+        return domains;
+    }
+
     public static DomainConfiguration getDomainConfiguration(String name, Long maxBytes, int maxHops,
             boolean obeyRobots, boolean extractJS) {
         DomainConfiguration dc1 = DomainConfigurationTest.createDefaultDomainConfiguration(name);
@@ -171,11 +171,61 @@ public class HarvestDocumentation {
             ArchiveProfile profile) {
         moveAwayForeignFiles(profile, archiveDir, files);
         File cdxFilesDir = FileUtils.createUniqueTempDir(files.getTmpMetadataDir(), "cdx");
-        CDXUtils.generateCDX(profile, archiveDir, cdxFilesDir);
+        makeCDXes(profile, archiveDir, files.getCdxDir(), cdxFilesDir);
         writer.insertFiles(cdxFilesDir, FileUtils.CDX_FILE_FILTER, Constants.CDX_MIME_TYPE, 
         		files.getHarvestID(), files.getJobId());
     }
 
+    /**
+     * Put a CDX file for every archive file in the given directory. The CDX files written while crawling are used if
+     * they are all complete, otherwise all archive files are indexed with {@link CDXUtils}.
+     *
+     * @param profile archive profile including filters, patterns, etc.
+     * @param archiveDir The directory with the archive files.
+     * @param crawlTimeCdxDir The directory with CDX files written while crawling.
+     * @param cdxFilesDir The directory to put the CDX files in.
+     */
+    static void makeCDXes(ArchiveProfile profile, File archiveDir, File crawlTimeCdxDir, File cdxFilesDir) {
+        if (!useCrawlTimeCDXes(profile, archiveDir, crawlTimeCdxDir, cdxFilesDir)) {
+            CDXUtils.generateCDX(profile, archiveDir, cdxFilesDir,
+                    Settings.getInt(HarvesterSettings.POSTPROCESSING_CDX_THREADS));
+        }
+    }
+
+    /**
+     * Use the CDX files written while crawling (by NasCDXWARCProcessor) instead of indexing the archive files again,
+     * if there is a complete CDX file for every archive file. The CDX files are moved to the given directory. They are
+     * written in the order of the records in the archive file, like those generated by {@link CDXUtils}.
+     *
+     * @param profile archive profile including filters, patterns, etc.
+     * @param archiveDir The directory with the archive files.
+     * @param crawlTimeCdxDir The directory with CDX files written while crawling.
+     * @param cdxFilesDir The directory to move the CDX files to.
+     * @return true if the CDX files were used, false if the archive files must be indexed.
+     */
+    private static boolean useCrawlTimeCDXes(ArchiveProfile profile, File archiveDir, File crawlTimeCdxDir,
+            File cdxFilesDir) {
+        if (!crawlTimeCdxDir.isDirectory()) {
+            return false;
+        }
+        File[] archiveFiles = archiveDir.listFiles(profile.filename_filter);
+        List<File> cdxFiles = new ArrayList<File>(archiveFiles.length);
+        for (File archiveFile : archiveFiles) {
+            File cdxFile = new File(crawlTimeCdxDir, archiveFile.getName() + FileUtils.CDX_EXTENSION);
+            if (!cdxFile.isFile()) {
+                log.info("No complete CDX file written while crawling for '{}'. Indexing all files in '{}'",
+                        archiveFile.getName(), archiveDir);
+                return false;
+            }
+            cdxFiles.add(cdxFile);
+        }
+        for (File cdxFile : cdxFiles) {
+            FileUtils.moveFile(cdxFile, new File(cdxFilesDir, cdxFile.getName()));
+        }
+        log.info("Using {} CDX files written while crawling from '{}'", cdxFiles.size(), crawlTimeCdxDir);
+        return true;
+    }
+
     /**
      * Restore serialized MetadataEntry objects from the "metadata" subdirectory of the crawldir.
      *
@@ -257,6 +257,13 @@ public class IngestableFiles {
         return new File(heritrixJobDir, "latest/" + Constants.WARCDIRECTORY_NAME);
     }
 
+    /**
+     * @return the dir in our crawl directory with the CDX files written by heritrix while crawling.
+     */
+    public File getCdxDir() {
+        return new File(heritrixJobDir, "latest/" + Constants.CDXDIRECTORY_NAME);
+    }
+
     /**
      * @return the warcs dir in the our crawl directory.
      */
@@ -24,7 +24,16 @@ package dk.netarkivet.harvester.heritrix3;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +64,15 @@ public class PostProcessing {
     /** The max time to wait for heritrix to close last ARC or WARC files (in secs). */
     private static final int WAIT_FOR_HERITRIX_TIMEOUT_SECS = 5;
 
+    /** The stage closing the archive files and writing the metadata file, including the CDX files. */
+    private static final String STAGE_DOCUMENTATION = "documentation";
+    /** The stage uploading the ARC and WARC files. */
+    private static final String STAGE_ARCHIVE_UPLOAD = "archiveUpload";
+    /** The stage uploading the metadata files. */
+    private static final String STAGE_METADATA_UPLOAD = "metadataUpload";
+    /** The stage generating the harvest report from the crawl log. */
+    private static final String STAGE_HARVEST_REPORT = "harvestReport";
+
     /** The JMSConnection to use. */
     private JMSConnection jmsConnection;
 
@@ -153,12 +171,13 @@ public class PostProcessing {
         StringBuilder errorMessage = new StringBuilder();
         HarvestReport dhr = null;
         List<File> failedFiles = new ArrayList<File>();
+        Map<String, Long> timings = new LinkedHashMap<String, Long>();
 
         Heritrix3Files files = Heritrix3Files.getH3HeritrixFiles(crawlDir, harvestInfo);
         
         try {
             log.info("Store files in directory '{}' " + "from jobID: {}.", crawlDir, jobID);
-            dhr = storeFiles(files, errorMessage, failedFiles);
+            dhr = storeFiles(files, errorMessage, failedFiles, timings);
         } catch (Exception e) {
             String msg = "Trouble occurred during postprocessing (including upload of files) in '" + crawlDir.getAbsolutePath() + "'";
             log.warn(msg, e);
@@ -181,6 +200,7 @@ public class PostProcessing {
                 csm = new CrawlStatusMessage(jobID, JobStatus.FAILED, dhr);
                 setErrorMessages(csm, crawlException, errorMessage.toString(), dhr == null, failedFiles.size());
             }
+            csm.setPostProcessingTimings(timings);
             
             try { // TODO What kind of errors are we actually catching here if any
             	if (jmsConnection != null) {
@@ -245,22 +265,26 @@ public class PostProcessing {
      * @param files The HeritrixFiles object for this crawl. Not Null.
      * @param errorMessage A place where error messages accumulate. Not Null.
      * @param failedFiles List of files that failed to upload. Not Null.
+     * @param timings Accumulator for the time spent in each stage, in milliseconds. Not Null.
      * @return An object containing info about the domains harvested.
      * @throws ArgumentNotValid if an argument isn't valid.
      */
-    private HarvestReport storeFiles(Heritrix3Files files, StringBuilder errorMessage, List<File> failedFiles)
-            throws ArgumentNotValid {
+    private HarvestReport storeFiles(Heritrix3Files files, StringBuilder errorMessage, List<File> failedFiles,
+            Map<String, Long> timings) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(files, "Heritrix3Files files");
         ArgumentNotValid.checkNotNull(errorMessage, "StringBuilder errorMessage");
         ArgumentNotValid.checkNotNull(failedFiles, "List<File> failedFiles");
+        ArgumentNotValid.checkNotNull(timings, "Map<String, Long> timings");
         long jobID = files.getJobID();
         log.info("Store the files from harvest in '{}'", files.getCrawlDir());
         try {
             IngestableFiles inf = new IngestableFiles(files);
 
+            long stageStart = System.currentTimeMillis();
             inf.closeOpenFiles(WAIT_FOR_HERITRIX_TIMEOUT_SECS);
             // Create a metadata archive file
             HarvestDocumentation.documentHarvest(inf);
+            stageStart = recordTiming(timings, STAGE_DOCUMENTATION, stageStart);
             // Upload all files 
 
             // Check, if arcsdir or warcsdir is empty
@@ -280,16 +304,20 @@ public class PostProcessing {
                     uploadFiles(inf.getWarcFiles(), errorMessage, failedFiles);
                 }
             }
+            stageStart = recordTiming(timings, STAGE_ARCHIVE_UPLOAD, stageStart);
 
             // Now the ARC/WARC files have been uploaded,
             // we finally upload the metadata archive file.
             log.info("Beginning upload of the {} metadafile(s) ", inf.getMetadataArcFiles().size());
             uploadFiles(inf.getMetadataArcFiles(), errorMessage, failedFiles);
+            stageStart = recordTiming(timings, STAGE_METADATA_UPLOAD, stageStart);
             
             // Make the harvestReport ready for transfer back to the scheduler 
             DomainStatsReport dsr =  HarvestReportGenerator.getDomainStatsReport(files);
             		 
-            return HarvestReportFactory.generateHarvestReport(dsr);
+            HarvestReport harvestReport = HarvestReportFactory.generateHarvestReport(dsr);
+            recordTiming(timings, STAGE_HARVEST_REPORT, stageStart);
+            return harvestReport;
         } catch (IOFailure e) {
             String errMsg = "IOFailure occurred, while trying to upload files";
             log.warn(errMsg, e);
@@ -298,7 +326,24 @@ public class PostProcessing {
     }
 
     /**
-     * Upload given files to the archive repository.
+     * Records the time spent in a stage of the post-processing.
+     *
+     * @param timings Accumulator for the time spent in each stage.
+     * @param stage The name of the stage.
+     * @param stageStart The time the stage started.
+     * @return The time the stage ended, i.e. the start of the next stage.
+     */
+    private static long recordTiming(Map<String, Long> timings, String stage, long stageStart) {
+        long stageEnd = System.currentTimeMillis();
+        timings.put(stage, stageEnd - stageStart);
+        log.info("Post-processing stage '{}' took {} ms", stage, stageEnd - stageStart);
+        return stageEnd;
+    }
+
+    /**
+     * Upload given files to the archive repository. Up to {@link HarvesterSettings#POSTPROCESSING_UPLOAD_THREADS}
+     * files are uploaded at once. Failures are accumulated in the order of the given files, whichever order the
+     * uploads finish in.
      *
      * @param files List of (ARC/WARC) files to upload.
      * @param errorMessage Accumulator for error messages.
@@ -306,27 +351,111 @@ public class PostProcessing {
      */
     private void uploadFiles(List<File> files, StringBuilder errorMessage, List<File> failedFiles) {
         // Upload all archive files
-        if (files != null) {
-        	int count=0;
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+        int threads = Math.min(Settings.getInt(HarvesterSettings.POSTPROCESSING_UPLOAD_THREADS), files.size());
+        if (threads <= 1) {
+            int count = 0;
             for (File f : files) {
-            	count++;
-                try {
-                    log.info("Uploading file #{} - '{}' to arcrepository.", count, f.getName());
-                    arcRepController.store(f);
-                    log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
-                } catch (Exception e) {
-                    File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
-                    String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
-                            + oldJobsDir.getAbsolutePath() + "'";
-                    //TODO To make upload errors non fatal, simply don't append an errorMessage here. Use a flag.
-                    boolean allowUploadFailures = Settings.getBoolean(HarvesterSettings.ALLOW_UPLOAD_FAILURES);
-                    if (!allowUploadFailures) {
-                        errorMessage.append(errorMsg).append("\n").append(e.toString()).append("\n");
+                count++;
+                handleUploadResult(f, upload(f, count), errorMessage, failedFiles);
+            }
+            return;
+        }
+        log.info("Uploading {} files on {} threads", files.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new UploadThreadFactory());
+        try {
+            List<Future<Exception>> results = new ArrayList<Future<Exception>>(files.size());
+            int count = 0;
+            for (final File f : files) {
+                final int number = ++count;
+                results.add(executor.submit(new Callable<Exception>() {
+                    @Override
+                    public Exception call() {
+                        return upload(f, number);
                     }
-                    log.warn(errorMsg, e);
-                    failedFiles.add(f);
+                }));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                Exception failure;
+                try {
+                    failure = results.get(i).get();
+                } catch (ExecutionException e) {
+                    failure = e;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = e;
                 }
+                handleUploadResult(files.get(i), failure, errorMessage, failedFiles);
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Upload a file to the archive repository, retrying up to {@link HarvesterSettings#POSTPROCESSING_UPLOAD_RETRIES}
+     * times.
+     *
+     * @param f The file to upload.
+     * @param number The number of the file among those being uploaded, for the log.
+     * @return null if the file was uploaded, and the exception of the last attempt otherwise.
+     */
+    private Exception upload(File f, int number) {
+        int attempts = 1 + Math.max(0, Settings.getInt(HarvesterSettings.POSTPROCESSING_UPLOAD_RETRIES));
+        Exception failure = null;
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            try {
+                log.info("Uploading file #{} - '{}' to arcrepository.", number, f.getName());
+                arcRepController.store(f);
+                log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
+                return null;
+            } catch (Exception e) {
+                failure = e;
+                if (attempt < attempts) {
+                    log.warn("Attempt {} of {} to upload file '{}' failed, retrying.", attempt, attempts,
+                            f.getName(), e);
+                }
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Accumulate the failure of an upload, if it failed.
+     *
+     * @param f The file uploaded.
+     * @param failure The exception of the failed upload, or null if the upload succeeded.
+     * @param errorMessage Accumulator for error messages.
+     * @param failedFiles Accumulator for failed files.
+     */
+    private void handleUploadResult(File f, Exception failure, StringBuilder errorMessage, List<File> failedFiles) {
+        if (failure == null) {
+            return;
+        }
+        File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
+        String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
+                + oldJobsDir.getAbsolutePath() + "'";
+        //TODO To make upload errors non fatal, simply don't append an errorMessage here. Use a flag.
+        boolean allowUploadFailures = Settings.getBoolean(HarvesterSettings.ALLOW_UPLOAD_FAILURES);
+        if (!allowUploadFailures) {
+            errorMessage.append(errorMsg).append("\n").append(failure.toString()).append("\n");
+        }
+        log.warn(errorMsg, failure);
+        failedFiles.add(f);
+    }
+
+    /** Creates the daemon threads uploading files. */
+    private static class UploadThreadFactory implements ThreadFactory {
+        /** The number of threads created so far. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "PostProcessingUpload-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
         }
     }
 
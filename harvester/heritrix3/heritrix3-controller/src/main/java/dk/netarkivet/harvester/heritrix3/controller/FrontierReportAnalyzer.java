@@ -22,22 +22,27 @@
  */
 package dk.netarkivet.harvester.heritrix3.controller;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.distribute.JMSConnectionFactory;
 import dk.netarkivet.common.exceptions.HarvestingAbort;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.harvesting.distribute.FrontierReportMessage;
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportExtract;
 import dk.netarkivet.harvester.harvesting.frontier.FrontierReportFilter;
 import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport;
 import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
+import dk.netarkivet.harvester.harvesting.frontier.StreamingFrontierReportFilter;
 import dk.netarkivet.harvester.harvesting.monitor.HarvestMonitor;
 
 /**
@@ -77,6 +82,7 @@ public class FrontierReportAnalyzer implements Runnable {
                 FrontierReportFilter filter = (FrontierReportFilter) Class.forName(fClass).newInstance();
                 filter.init(fArgs);
                 filters.add(filter);
+                fullReportNeeded |= !(filter instanceof StreamingFrontierReportFilter);
             } catch (InstantiationException e) {
                 LOG.error("Failed to instantiate filter of class " + fClass, e);
             } catch (IllegalAccessException e) {
@@ -95,6 +101,12 @@ public class FrontierReportAnalyzer implements Runnable {
      */
     private List<FrontierReportFilter> filters = new LinkedList<FrontierReportFilter>();
 
+    /**
+     * Whether some filter needs the full report to be stored before it is applied, i.e. is not a
+     * {@link StreamingFrontierReportFilter}.
+     */
+    private boolean fullReportNeeded = false;
+
     @Override
     public void run() {
         long startTime = System.currentTimeMillis();
@@ -102,6 +114,20 @@ public class FrontierReportAnalyzer implements Runnable {
         LOG.info("Will generate full Heritrix frontier report, "
                 + StringUtils.formatDuration(elapsed / TimeUtils.SECOND_IN_MILLIS)
                 + " elapsed since last generation started.");
+        if (fullReportNeeded) {
+            filterFullReport(startTime);
+        } else {
+            filterStreamedReport(startTime);
+        }
+    }
+
+    /**
+     * Stores the full frontier report, then applies the filters to it. Used when some filter cannot compute its result
+     * while the report is read.
+     *
+     * @param startTime the time the analysis started.
+     */
+    private void filterFullReport(long startTime) {
         FullFrontierReport ffr = null;
         LOG.debug("Trying to retrieve full frontier-reports from Heritrix3");
         try {
@@ -111,10 +137,7 @@ public class FrontierReportAnalyzer implements Runnable {
             return;
         }
         long endTime = System.currentTimeMillis();
-        elapsed = endTime - startTime;
-        LOG.info("Generated full Heritrix frontier report in "
-                + (elapsed < TimeUtils.SECOND_IN_MILLIS ? elapsed + " ms" : StringUtils.formatDuration(elapsed
-                        / TimeUtils.SECOND_IN_MILLIS)) + ".");
+        LOG.info("Generated full Heritrix frontier report in " + formatElapsed(endTime - startTime) + ".");
 
         lastExecTime = endTime;
 
@@ -122,12 +145,8 @@ public class FrontierReportAnalyzer implements Runnable {
             startTime = System.currentTimeMillis();
             InMemoryFrontierReport filtered = filter.process(ffr);
             endTime = System.currentTimeMillis();
-            elapsed = endTime - startTime;
-            LOG.info("Applied filter "
-                    + filter.getClass().getName()
-                    + " to full frontier report, this took "
-                    + (elapsed < TimeUtils.SECOND_IN_MILLIS ? elapsed + " ms" : StringUtils.formatDuration(elapsed
-                            / TimeUtils.SECOND_IN_MILLIS)) + ".");
+            LOG.info("Applied filter " + filter.getClass().getName() + " to full frontier report, this took "
+                    + formatElapsed(endTime - startTime) + ".");
             Long jobId = heritrixController.getFiles().getJobID();
             JMSConnectionFactory.getInstance().send(new FrontierReportMessage(filter, filtered, jobId));
         }
@@ -135,4 +154,53 @@ public class FrontierReportAnalyzer implements Runnable {
         ffr.dispose();
     }
 
+    /**
+     * Applies all filters to the lines of the full frontier report while it is read, without storing it.
+     *
+     * @param startTime the time the analysis started.
+     */
+    private void filterStreamedReport(long startTime) {
+        Map<FrontierReportFilter, FrontierReportExtract> extracts = new LinkedHashMap<>();
+        for (FrontierReportFilter filter : filters) {
+            extracts.put(filter, ((StreamingFrontierReportFilter) filter).newExtract(heritrixController.getJobName()));
+        }
+        long lineCount;
+        LOG.debug("Trying to retrieve full frontier-reports from Heritrix3");
+        try {
+            lineCount = heritrixController.readFullFrontierReport(line -> {
+                for (FrontierReportExtract extract : extracts.values()) {
+                    extract.addLine(line);
+                }
+            });
+        } catch (HarvestingAbort e) {
+            LOG.debug("Unable to retrieve full frontier-reports from Heritrix3", e);
+            return;
+        } catch (IOFailure e) {
+            LOG.warn("Unable to parse full frontier-report from Heritrix3", e);
+            return;
+        }
+        long endTime = System.currentTimeMillis();
+        LOG.info("Read full Heritrix frontier report of " + lineCount + " queues and applied " + filters.size()
+                + " filters in " + formatElapsed(endTime - startTime) + ".");
+
+        lastExecTime = endTime;
+
+        Long jobId = heritrixController.getFiles().getJobID();
+        for (Map.Entry<FrontierReportFilter, FrontierReportExtract> entry : extracts.entrySet()) {
+            JMSConnectionFactory.getInstance().send(
+                    new FrontierReportMessage(entry.getKey(), entry.getValue().getReport(), jobId));
+        }
+    }
+
+    /**
+     * Formats a duration for the log.
+     *
+     * @param elapsed a duration in milliseconds.
+     * @return the duration in milliseconds if shorter than a second, and in seconds or more otherwise.
+     */
+    private static String formatElapsed(long elapsed) {
+        return elapsed < TimeUtils.SECOND_IN_MILLIS ? elapsed + " ms" : StringUtils.formatDuration(elapsed
+                / TimeUtils.SECOND_IN_MILLIS);
+    }
+
 }
@@ -21,12 +21,14 @@
  */
 package dk.netarkivet.harvester.heritrix3.controller;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 import dk.netarkivet.common.utils.ExceptionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -51,6 +53,8 @@ import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage;
 import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlServiceInfo;
 import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlServiceJobInfo;
 import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlStatus;
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportParser;
 import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport;
 import dk.netarkivet.harvester.heritrix3.Heritrix3Files;
 
@@ -589,12 +593,42 @@ public class HeritrixController extends AbstractRestHeritrixController {
         
     }
 
+    /**
+     * @return the name that Heritrix3 gives to the job.
+     */
+    public String getJobName() {
+        return jobName;
+    }
+
     /**
      * Generates a full frontier report from H3 using an REST call (Groovy script)
      *
      * @return a Full frontier report.
      */
     public FullFrontierReport getFullFrontierReport() {
+        return FullFrontierReport.parseContentsAsXML(jobName, getFrontierReportContents(),
+                dk.netarkivet.harvester.heritrix3.Constants.XML_RAWOUT_TAG);
+    }
+
+    /**
+     * Reads a full frontier report from H3 using an REST call (Groovy script), handing each line to the given consumer
+     * as it is parsed. The report is not stored.
+     *
+     * @param consumer the consumer of the report lines.
+     * @return the number of report lines read.
+     * @throws IOFailure if the report could not be parsed.
+     */
+    public long readFullFrontierReport(Consumer<FrontierReportLine> consumer) {
+        return FrontierReportParser.parseXML(new ByteArrayInputStream(getFrontierReportContents()),
+                dk.netarkivet.harvester.heritrix3.Constants.XML_RAWOUT_TAG, consumer);
+    }
+
+    /**
+     * Executes the frontier report script in H3.
+     *
+     * @return the XML response to the script call.
+     */
+    private byte[] getFrontierReportContents() {
         // construct script request to send
         HttpPost postRequest = new HttpPost(baseUrl + "job/" + jobName + "/script");
         StringEntity postEntity = null;
@@ -608,8 +642,7 @@ public class HeritrixController extends AbstractRestHeritrixController {
         postRequest.addHeader("Accept", "application/xml");
         postRequest.setEntity(postEntity);
         ScriptResult result = h3wrapper.scriptResult(postRequest);
-        return FullFrontierReport.parseContentsAsXML(jobName, result.response,
-                dk.netarkivet.harvester.heritrix3.Constants.XML_RAWOUT_TAG);
+        return result.response;
     }
 
     @Override
@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.archive.ArchiveProfile;
+import dk.netarkivet.common.utils.cdx.CDXUtils;
+
+/**
+ * Tests of how {@link HarvestDocumentation} chooses between the CDX files written while crawling and CDX files
+ * generated from the WARC files.
+ */
+public class HarvestDocumentationTest {
+
+    private File workingDir;
+    private File warcDir;
+    private File crawlTimeCdxDir;
+    private File cdxFilesDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("HarvestDocumentationTest").toFile();
+        warcDir = new File(workingDir, "warcs");
+        crawlTimeCdxDir = new File(workingDir, "cdx");
+        cdxFilesDir = new File(workingDir, "metadata-cdx");
+        assertTrue(warcDir.mkdir());
+        assertTrue(cdxFilesDir.mkdir());
+        writeWarcFile("1-1-20181105140044-00000-test.warc", "http://netarkivet.dk/");
+        writeWarcFile("1-1-20181105140044-00001-test.warc", "http://netarkivet.dk/robots.txt");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(workingDir);
+    }
+
+    /**
+     * When every WARC file has a complete CDX file written while crawling, those files are used as they are.
+     */
+    @Test
+    public void testUsesCompleteCrawlTimeCDXes() throws IOException {
+        assertTrue(crawlTimeCdxDir.mkdir());
+        writeCrawlTimeCDX("1-1-20181105140044-00000-test.warc.cdx");
+        writeCrawlTimeCDX("1-1-20181105140044-00001-test.warc.cdx");
+
+        HarvestDocumentation.makeCDXes(ArchiveProfile.WARC_PROFILE, warcDir, crawlTimeCdxDir, cdxFilesDir);
+
+        assertEquals(Arrays.asList("1-1-20181105140044-00000-test.warc.cdx", "1-1-20181105140044-00001-test.warc.cdx"),
+                listFiles(cdxFilesDir));
+        for (File cdxFile : cdxFilesDir.listFiles()) {
+            assertEquals("The CDX file written while crawling should be used", "crawl time " + cdxFile.getName(),
+                    FileUtils.readFile(cdxFile).trim());
+        }
+        assertEquals("The CDX files should be moved", 0, crawlTimeCdxDir.list().length);
+    }
+
+    /**
+     * A CDX file still named ".open" was not finished, so all WARC files are indexed again.
+     */
+    @Test
+    public void testFallsBackOnOpenCrawlTimeCDX() throws IOException {
+        assertTrue(crawlTimeCdxDir.mkdir());
+        writeCrawlTimeCDX("1-1-20181105140044-00000-test.warc.cdx");
+        writeCrawlTimeCDX("1-1-20181105140044-00001-test.warc.cdx.open");
+
+        HarvestDocumentation.makeCDXes(ArchiveProfile.WARC_PROFILE, warcDir, crawlTimeCdxDir, cdxFilesDir);
+
+        assertGeneratedCDXes();
+        assertEquals("No CDX file written while crawling should be moved when they are not all used",
+                Arrays.asList("1-1-20181105140044-00000-test.warc.cdx", "1-1-20181105140044-00001-test.warc.cdx.open"),
+                listFiles(crawlTimeCdxDir));
+    }
+
+    /**
+     * A missing CDX file, or a missing CDX directory, means that all WARC files are indexed.
+     */
+    @Test
+    public void testFallsBackOnMissingCrawlTimeCDX() throws IOException {
+        HarvestDocumentation.makeCDXes(ArchiveProfile.WARC_PROFILE, warcDir, crawlTimeCdxDir, cdxFilesDir);
+        assertGeneratedCDXes();
+
+        FileUtils.removeRecursively(cdxFilesDir);
+        assertTrue(cdxFilesDir.mkdir());
+        assertTrue(crawlTimeCdxDir.mkdir());
+        writeCrawlTimeCDX("1-1-20181105140044-00001-test.warc.cdx");
+
+        HarvestDocumentation.makeCDXes(ArchiveProfile.WARC_PROFILE, warcDir, crawlTimeCdxDir, cdxFilesDir);
+        assertGeneratedCDXes();
+        assertTrue(new File(crawlTimeCdxDir, "1-1-20181105140044-00001-test.warc.cdx").isFile());
+    }
+
+    /** Check that the CDX files in cdxFilesDir are those CDXUtils makes from the WARC files. */
+    private void assertGeneratedCDXes() throws IOException {
+        assertEquals(Arrays.asList("1-1-20181105140044-00000-test.warc.cdx", "1-1-20181105140044-00001-test.warc.cdx"),
+                listFiles(cdxFilesDir));
+        for (File warcFile : warcDir.listFiles()) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            CDXUtils.writeCDXInfo(warcFile, expected);
+            String cdx = FileUtils.readFile(new File(cdxFilesDir, warcFile.getName() + FileUtils.CDX_EXTENSION));
+            assertTrue("The CDX file should index the WARC file, but was " + cdx,
+                    cdx.startsWith("http://netarkivet.dk/") && cdx.contains(" " + warcFile.getName() + " "));
+            assertEquals(new String(expected.toByteArray(), StandardCharsets.UTF_8), cdx);
+        }
+    }
+
+    private void writeCrawlTimeCDX(String name) {
+        FileUtils.writeBinaryFile(new File(crawlTimeCdxDir, name),
+                ("crawl time " + name + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a WARC file with a single response record.
+     *
+     * @param name The name of the WARC file.
+     * @param url The URL of the response.
+     */
+    private void writeWarcFile(String name, String url) {
+        String http = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 5\r\n\r\nHello";
+        byte[] block = http.getBytes(StandardCharsets.US_ASCII);
+        String record = "WARC/1.0\r\n"
+                + "WARC-Type: response\r\n"
+                + "WARC-Target-URI: " + url + "\r\n"
+                + "WARC-Date: 2018-11-05T14:00:43Z\r\n"
+                + "WARC-IP-Address: 192.0.2.1\r\n"
+                + "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n"
+                + "Content-Type: application/http; msgtype=response\r\n"
+                + "Content-Length: " + block.length + "\r\n"
+                + "\r\n" + http + "\r\n\r\n";
+        FileUtils.writeBinaryFile(new File(warcDir, name), record.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static List<String> listFiles(File dir) {
+        String[] names = dir.list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.harvester.harvesting;
+
+import static org.archive.format.warc.WARCConstants.HEADER_KEY_IP;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.io.WriterPoolMember;
+import org.archive.io.warc.WARCRecordInfo;
+import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPool;
+import org.archive.io.warc.WARCWriterPoolSettings;
+import org.archive.modules.CrawlURI;
+import org.archive.util.anvl.ANVLRecord;
+import org.jwat.common.ContentType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.archive.ArchiveDateConverter;
+
+/**
+ * A {@link NasWARCProcessor} that also writes a CDX line for every response record as it is written. The lines are
+ * written to one CDX file per WARC file, named like the WARC file with a ".cdx" suffix, in the directory
+ * {@link Constants#CDXDIRECTORY_NAME} next to the WARC directory. They have the same fields as the CDX files made by
+ * {@link dk.netarkivet.common.utils.cdx.ArchiveExtractCDXJob} from the finished WARC file, so post-processing can use
+ * them instead of reading the WARC files again.
+ * <p>
+ * A CDX file has the suffix ".open" until its WARC file is closed, whether because the writer moves on to a new file,
+ * the pool retires the writer, or the processor is stopped. If a CDX file cannot be written, it is removed, and
+ * post-processing falls back to indexing the WARC file.
+ * <p>
+ * Use it in place of NasWARCProcessor in the warcWriter bean:
+ * <bean id="warcWriter" class="dk.netarkivet.harvester.harvesting.NasCDXWARCProcessor">
+ */
+public class NasCDXWARCProcessor extends NasWARCProcessor {
+
+    /** Logger instance. */
+    private static final Logger logger = LoggerFactory.getLogger(NasCDXWARCProcessor.class);
+
+    /** The suffix of CDX files still being written. */
+    private static final String OPEN_SUFFIX = ".open";
+
+    public NasCDXWARCProcessor() {
+        super();
+    }
+
+    /**
+     * Use a pool of {@link CDXWARCWriter}s, so every CDX file is closed together with its WARC file.
+     */
+    @Override
+    protected void setupPool(final AtomicInteger serialNo) {
+        setPool(new WARCWriterPool(serialNo, this, getPoolMaxActive(), getMaxWaitForIdleMs()) {
+            @Override
+            protected WriterPoolMember makeWriter() {
+                return new CDXWARCWriter(serialNo, (WARCWriterPoolSettings) settings,
+                        new File(getDirectory().getFile(), Constants.CDXDIRECTORY_NAME));
+            }
+        });
+    }
+
+    /**
+     * Write the response record, and a CDX line for it. The writer is borrowed from the pool by the calling thread,
+     * so no other thread writes to the same WARC file, or to its CDX file, meanwhile.
+     */
+    @Override
+    protected URI writeResponse(final WARCWriter w, final String timestamp, final String mimetype, final URI baseid,
+            final CrawlURI curi, final ANVLRecord namedFields) throws IOException {
+        URI recordId = super.writeResponse(w, timestamp, mimetype, baseid, curi, namedFields);
+        if (!(w instanceof CDXWARCWriter)) {
+            return recordId;
+        }
+        WARCRecordInfo response = null;
+        for (WARCRecordInfo recordInfo : w.getTmpRecordLog()) {
+            if (recordInfo.getType() == WARCRecordType.response) {
+                response = recordInfo;
+            }
+        }
+        if (response != null) {
+            ((CDXWARCWriter) w).writeCDXLine(response, curi);
+        }
+        return recordId;
+    }
+
+    /**
+     * Make the CDX line for a response record. The fields are the same as those written by
+     * {@link dk.netarkivet.common.utils.cdx.ArchiveExtractCDXJob}: URL, IP, date, mimetype, length, WARC file name,
+     * offset and MD5 of the payload.
+     *
+     * @param response The response record as written.
+     * @param curi The URI the record was written for.
+     * @return The CDX line, including the line ending.
+     * @throws IOException If the recorded payload cannot be read.
+     */
+    private static String getCDXLine(WARCRecordInfo response, CrawlURI curi) throws IOException {
+        String ip = response.getExtraHeaders() == null ? null : response.getExtraHeaders().asMap().get(HEADER_KEY_IP);
+        String mimeType = response.getMimetype();
+        ContentType contentType = ContentType.parseContentType(mimeType);
+        boolean httpResponse = false;
+        if (contentType != null) {
+            httpResponse = "application".equals(contentType.contentType) && "http".equals(contentType.mediaType)
+                    && "response".equals(contentType.getParameter("msgtype"));
+            mimeType = contentType.toStringShort();
+        }
+        InputStream payload;
+        if (httpResponse) {
+            if (curi.getContentType() != null) {
+                contentType = ContentType.parseContentType(curi.getContentType());
+                if (contentType != null) {
+                    mimeType = contentType.toStringShort();
+                }
+            }
+            payload = curi.getRecorder().getMessageBodyReplayInputStream();
+        } else {
+            payload = curi.getRecorder().getRecordedInput().getReplayInputStream();
+        }
+        String md5;
+        try {
+            md5 = ChecksumCalculator.calculateMd5(payload);
+        } finally {
+            payload.close();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(response.getUrl()).append(' ');
+        sb.append(ip == null ? "-" : ip).append(' ');
+        sb.append(getArcDate(response.getCreate14DigitDate())).append(' ');
+        sb.append(mimeType == null ? "-" : mimeType).append(' ');
+        sb.append(getCDXLength(response)).append(' ');
+        sb.append(response.getWARCFilename()).append(' ');
+        sb.append(response.getWARCFileOffset()).append(' ');
+        sb.append(md5).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Get the length field of the CDX line for a record. ArchiveExtractCDXJob takes it from the Heritrix WARC reader,
+     * which cannot tell where the record header ends when reading a WARC file from start to end, and so reports the
+     * Content-Length of the record less one. The same length is used here, so the lines are the same.
+     *
+     * @param record The record as written.
+     * @return The length field of the CDX line.
+     */
+    private static long getCDXLength(WARCRecordInfo record) {
+        return record.getContentLength() - 1;
+    }
+
+    /**
+     * Convert the WARC-Date of a record to the 14 digit date of the CDX line, the way
+     * {@link dk.netarkivet.common.utils.archive.HeritrixArchiveHeaderWrapper#getArcDateStr()} does.
+     *
+     * @param warcDate The WARC-Date of the record.
+     * @return The date as yyyyMMddHHmmss, or the WARC-Date as it is if it cannot be parsed.
+     */
+    private static String getArcDate(String warcDate) {
+        try {
+            return ArchiveDateConverter.getArcDateFormat().format(
+                    ArchiveDateConverter.getWarcDateFormat().parse(warcDate));
+        } catch (ParseException e) {
+            return warcDate;
+        }
+    }
+
+    /**
+     * A WARC writer that keeps the CDX file of its current WARC file, and closes it when the WARC file is closed.
+     * The pool hands a writer to one thread at a time, and only closes writers that are not borrowed, so the CDX file
+     * is never used by two threads at once.
+     */
+    static class CDXWARCWriter extends WARCWriter {
+        /** The directory of CDX files. */
+        private final File cdxDir;
+        /** The CDX file of the current WARC file, or null before its first line. */
+        private LiveCDXFile cdxFile;
+
+        /**
+         * @param serialNo The serial number shared by the writers of the pool.
+         * @param settings The settings of the pool.
+         * @param cdxDir The directory of CDX files.
+         */
+        CDXWARCWriter(AtomicInteger serialNo, WARCWriterPoolSettings settings, File cdxDir) {
+            super(serialNo, settings);
+            this.cdxDir = cdxDir;
+        }
+
+        /**
+         * Write the CDX line for a response record to the CDX file for its WARC file. Failures are logged, and the
+         * CDX file dropped, but never fail the crawl.
+         *
+         * @param response The response record as written.
+         * @param curi The URI the record was written for.
+         */
+        void writeCDXLine(WARCRecordInfo response, CrawlURI curi) {
+            if (cdxFile == null || !cdxFile.warcFilename.equals(response.getWARCFilename())) {
+                closeCDXFile();
+                cdxFile = new LiveCDXFile(cdxDir, response.getWARCFilename());
+            }
+            if (cdxFile.failed) {
+                return;
+            }
+            try {
+                cdxFile.write(getCDXLine(response, curi));
+            } catch (IOException e) {
+                logger.warn("Could not write CDX line for '{}' to '{}'. The WARC file will be indexed after the "
+                        + "harvest", curi, cdxFile.openFile, e);
+                cdxFile.fail();
+            }
+        }
+
+        /**
+         * Close the WARC file, and then its CDX file, so it gets its final name. This is called when the writer
+         * moves on to a new WARC file, and when the pool retires the writer, as it does with all writers when the
+         * processor is stopped.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } catch (IOException e) {
+                if (cdxFile != null) {
+                    cdxFile.fail();
+                    cdxFile = null;
+                }
+                throw e;
+            }
+            closeCDXFile();
+        }
+
+        /** Close the CDX file of the current WARC file, if any. */
+        private void closeCDXFile() {
+            if (cdxFile != null) {
+                cdxFile.close();
+                cdxFile = null;
+            }
+        }
+    }
+
+    /** The CDX file written for one WARC file. */
+    private static class LiveCDXFile {
+        /** The name of the WARC file, without the ".open" suffix. */
+        private final String warcFilename;
+        /** The CDX file while it is being written. */
+        private final File openFile;
+        /** The CDX file when it is complete. */
+        private final File file;
+        /** The writer of the open file, or null before the first line. */
+        private Writer out;
+        /** Whether writing the file has failed, so no more lines are written. */
+        private boolean failed;
+
+        /**
+         * @param dir The directory of CDX files.
+         * @param warcFilename The name of the WARC file indexed.
+         */
+        LiveCDXFile(File dir, String warcFilename) {
+            this.warcFilename = warcFilename;
+            this.file = new File(dir, warcFilename + FileUtils.CDX_EXTENSION);
+            this.openFile = new File(dir, file.getName() + OPEN_SUFFIX);
+        }
+
+        /**
+         * Append a line to the file, opening it first if necessary.
+         *
+         * @param line The line to write.
+         * @throws IOException If the line cannot be written.
+         */
+        void write(String line) throws IOException {
+            if (out == null) {
+                File dir = openFile.getParentFile();
+                if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("Could not create directory '" + dir + "'");
+                }
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(openFile),
+                        StandardCharsets.UTF_8));
+            }
+            out.write(line);
+        }
+
+        /** Stop writing the file, and remove it. */
+        void fail() {
+            failed = true;
+            closeWriter();
+            if (openFile.exists() && !openFile.delete()) {
+                logger.warn("Could not remove the incomplete CDX file '{}'", openFile);
+            }
+        }
+
+        /** Close the file, and give it its final name. */
+        void close() {
+            if (failed || out == null) {
+                return;
+            }
+            if (!closeWriter()) {
+                fail();
+            } else if (!openFile.renameTo(file)) {
+                logger.warn("Could not rename '{}' to '{}'", openFile, file);
+                fail();
+            }
+        }
+
+        /**
+         * Close the writer of the open file, if any.
+         *
+         * @return true if everything written was flushed to the file.
+         */
+        private boolean closeWriter() {
+            if (out == null) {
+                return true;
+            }
+            try {
+                out.close();
+                return true;
+            } catch (IOException e) {
+                logger.warn("Could not close the CDX file '{}'", openFile, e);
+                return false;
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+}
@@ -29,17 +29,28 @@ import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_FETCH_HIST
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.ConstantScoreQuery;
@@ -88,6 +99,7 @@ import dk.netarkivet.common.utils.AllDocsCollector;
         <property name="originHandling" value="INDEX"/> Other options: NONE,PROCESSOR
         <property name="statsPerHost" value="true"/>
         <property name="revisitInWarcs" value="true"/>
+        <property name="useDigestTable" value="false"/> Only used if the index has a digesttable.bin
 
 //          	/**
 //					(FROM deduplicator-commons/src/main/java/is/landsbokasafn/deduplicator/IndexFields.java)
@@ -327,6 +339,19 @@ public class DeDuplicator extends Processor implements InitializingBean {
     public Boolean getRevisitInWarcs() {
         return (Boolean) kp.get(ATTR_REVISIT_IN_WARCS);
     }
+
+    /* Should exact matches be looked up in the digest table next to the index, if there is one? */
+    public final static String ATTR_USE_DIGEST_TABLE = "use-digest-table";
+    {
+    	setUseDigestTable(false);
+    }
+    public Boolean getUseDigestTable() {
+        return (Boolean) kp.get(ATTR_USE_DIGEST_TABLE);
+    }
+    /** SPRING SETTER */
+    public void setUseDigestTable(Boolean useDigestTable) {
+    	kp.put(ATTR_USE_DIGEST_TABLE, useDigestTable);
+    }
     
     // Spring configured access to Heritrix resources
     
@@ -345,6 +370,8 @@ public class DeDuplicator extends Processor implements InitializingBean {
     // Member variables.
     protected IndexSearcher indexSearcher = null;
     protected IndexReader indexReader = null;
+    /** The table of digests of the index, or null if exact matches are looked up with Lucene. */
+    protected DigestTable digestTable = null;
     
     
     protected boolean lookupByURL = true;
@@ -355,7 +382,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
     protected boolean useOriginFromIndex = false;
 
     protected Statistics stats = null;
-    protected HashMap<String, Statistics> perHostStats = null;
+    protected ConcurrentMap<String, Statistics> perHostStats = null;
+    /** The name of the MXBean publishing the statistics, or null if it is not registered. */
+    protected ObjectName mxBeanName = null;
 
 
     public void afterPropertiesSet() throws Exception {
@@ -376,6 +405,19 @@ public class DeDuplicator extends Processor implements InitializingBean {
         } catch (Exception e) {
         	throw new IllegalArgumentException("Unable to find/open index at " + indexLocation,e);
         } 
+        if (getUseDigestTable()) {
+            File tableFile = new File(indexLocation, DigestTable.FILE_NAME);
+            if (tableFile.isFile()) {
+                try {
+                    digestTable = new DigestTable(tableFile);
+                    logger.info("Using digest table " + tableFile + " with " + digestTable.size() + " entries");
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Unable to open digest table " + tableFile + ", using the index only", e);
+                }
+            } else {
+                logger.warning("No digest table found at " + tableFile + ", using the index only");
+            }
+        }
         
         // Matching method
         MatchingMethod matchingMethod = getMatchingMethod();
@@ -398,8 +440,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
         // Initialize some internal variables:
         stats = new Statistics();
         if (statsPerHost) {
-            perHostStats = new HashMap<String, Statistics>();
+            perHostStats = new ConcurrentHashMap<String, Statistics>();
         }
+        registerMXBean();
     }
     
 
@@ -494,20 +537,17 @@ public class DeDuplicator extends Processor implements InitializingBean {
         logger.finest("Processing " + curi.toString() + "(" + 
                 curi.getContentType() + ")");
 
-        stats.handledNumber++;
-        stats.totalAmount += curi.getContentSize();
+        stats.handledNumber.increment();
+        stats.totalAmount.add(curi.getContentSize());
         Statistics currHostStats = null;
         if(statsPerHost){
-            synchronized (this) {
-                String host = getServerCache().getHostFor(curi.getUURI()).getHostName();
-                currHostStats = perHostStats.get(host);
-                if(currHostStats==null){
-                    currHostStats = new Statistics();
-                    perHostStats.put(host,currHostStats);
-                }
+            String host = getServerCache().getHostFor(curi.getUURI()).getHostName();
+            currHostStats = perHostStats.get(host);
+            if(currHostStats==null){
+                currHostStats = perHostStats.computeIfAbsent(host, h -> new Statistics());
             }
-            currHostStats.handledNumber++;
-            currHostStats.totalAmount += curi.getContentSize();
+            currHostStats.handledNumber.increment();
+            currHostStats.totalAmount.add(curi.getContentSize());
         }
         
         Document duplicate = null; 
@@ -543,11 +583,11 @@ public class DeDuplicator extends Processor implements InitializingBean {
 
 
             // Increment statistics counters
-            stats.duplicateAmount += curi.getContentSize();
-            stats.duplicateNumber++;
+            stats.duplicateAmount.add(curi.getContentSize());
+            stats.duplicateNumber.increment();
             if(statsPerHost){ 
-                currHostStats.duplicateAmount+=curi.getContentSize();
-                currHostStats.duplicateNumber++;
+                currHostStats.duplicateAmount.add(curi.getContentSize());
+                currHostStats.duplicateNumber.increment();
             }
 
             String jumpTo = getJumpTo(); 
@@ -611,11 +651,23 @@ public class DeDuplicator extends Processor implements InitializingBean {
         try {
             Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
             AllDocsCollector collectAllCollector = new AllDocsCollector();
-            indexSearcher.search(query, collectAllCollector);
-
-            List<ScoreDoc> hits = collectAllCollector.getHits();
+            List<ScoreDoc> hits = null;
             Document doc = null;
             String currentDigest = getDigestAsString(curi);
+            if (canUseDigestTable(curi)) {
+                doc = lookupInDigestTable(curi);
+                if (doc != null) {
+                    stats.exactURLDuplicates.increment();
+                    if (statsPerHost) {
+                        currHostStats.exactURLDuplicates.increment();
+                    }
+                    logger.finest("Found exact match for " + curi.toString() + " in digest table");
+                    return doc;
+                }
+            } else {
+                indexSearcher.search(query, collectAllCollector);
+                hits = collectAllCollector.getHits();
+            }
             if (hits != null && hits.size() > 0) {
                 // Typically there should only be one it, but we'll allow for
                 // multiple hits.
@@ -628,9 +680,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                     String oldDigest = doc.get(DigestIndexer.FIELD_DIGEST);
 
                     if (oldDigest.equalsIgnoreCase(currentDigest)) {
-                        stats.exactURLDuplicates++;
+                        stats.exactURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.exactURLDuplicates++;
+                            currHostStats.exactURLDuplicates.increment();
                         }
 
                         logger.finest("Found exact match for " + curi.toString());
@@ -659,9 +711,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                         String equivURL = doc1.get(DigestIndexer.FIELD_URL);
                         curi.getAnnotations().add("equivalentURL:\"" + equivURL + "\"");
                         // Increment statistics counters
-                        stats.equivalentURLDuplicates++;
+                        stats.equivalentURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.equivalentURLDuplicates++;
+                            currHostStats.equivalentURLDuplicates.increment();
                         }
                         logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
                                 + normalizedURL + ". Equivalent to: " + equivURL);
@@ -696,6 +748,24 @@ public class DeDuplicator extends Processor implements InitializingBean {
             logger.warning("Digest received from CrawlURI is null. Null Document returned");
             return null;
         }
+        if (canUseDigestTable(curi) && !getTryEquivalent()) {
+            // Without equivalent matching, the table can tell exact matches and mirrors apart on its own.
+            duplicate = lookupInDigestTable(curi);
+            if (duplicate != null) {
+                stats.exactURLDuplicates.increment();
+                if (statsPerHost) {
+                    currHostStats.exactURLDuplicates.increment();
+                }
+                logger.finest("Found exact match for " + curi.toString() + " in digest table");
+            } else if (digestTable.containsDigest((byte[]) digest)) {
+                stats.mirrorNumber.increment();
+                if (statsPerHost) {
+                    currHostStats.mirrorNumber.increment();
+                }
+                logger.finest("Found mirror URLs for " + curi.toString() + " in digest table");
+            }
+            return duplicate;
+        }
 
         Query query = queryField(DigestIndexer.FIELD_DIGEST, currentDigest);
         try {
@@ -720,9 +790,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                     // See if the current hit is an exact match.
                     if (curi.toString().equals(indexURL)) {
                         duplicate = doc;
-                        stats.exactURLDuplicates++;
+                        stats.exactURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.exactURLDuplicates++;
+                            currHostStats.exactURLDuplicates.increment();
                         }
                         logger.finest("Found exact match for " + curi.toString());
                     }
@@ -734,9 +804,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                         String indexNormalURL = doc.get(DigestIndexer.FIELD_URL_NORMALIZED);
                         if (normalURL.equals(indexNormalURL)) {
                             duplicate = doc;
-                            stats.equivalentURLDuplicates++;
+                            stats.equivalentURLDuplicates.increment();
                             if (statsPerHost) {
-                                currHostStats.equivalentURLDuplicates++;
+                                currHostStats.equivalentURLDuplicates.increment();
                             }
                             curi.getAnnotations().add("equivalentURL:\"" + indexURL + "\"");
                             logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
@@ -751,9 +821,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
                     }
                 }
                 if (duplicate == null) {
-                    stats.mirrorNumber++;
+                    stats.mirrorNumber.increment();
                     if (statsPerHost) {
-                        currHostStats.mirrorNumber++;
+                        currHostStats.mirrorNumber.increment();
                     }
                     logger.log(Level.FINEST, "Found mirror URLs for " + curi.toString() + ". " + mirrors);
                 }
@@ -764,6 +834,43 @@ public class DeDuplicator extends Processor implements InitializingBean {
         return duplicate;
     }
 
+    /**
+     * Check whether the digest table can be used for looking up a CrawlURI.
+     *
+     * @param curi The CrawlURI to process
+     * @return true if a digest table is in use and the CrawlURI has a SHA-1 digest.
+     */
+    protected boolean canUseDigestTable(CrawlURI curi) {
+        Object digest = curi.getContentDigest();
+        return digestTable != null && digest instanceof byte[]
+                && ((byte[]) digest).length == DigestTable.DIGEST_LENGTH;
+    }
+
+    /**
+     * Look up the URL and content digest of a CrawlURI in the digest table.
+     *
+     * @param curi The CrawlURI to process
+     * @return A document with the fields of the exact match in the table, or null if there is none.
+     */
+    protected Document lookupInDigestTable(CrawlURI curi) {
+        long slot = digestTable.find((byte[]) curi.getContentDigest(), curi.toString());
+        if (slot < 0) {
+            return null;
+        }
+        Document doc = new Document();
+        doc.add(new StoredField(DigestIndexer.FIELD_URL, digestTable.getURL(slot)));
+        doc.add(new StoredField(DigestIndexer.FIELD_DIGEST, getDigestAsString(curi)));
+        String timestamp = digestTable.getTimestamp(slot);
+        if (timestamp != null) {
+            doc.add(new StoredField(DigestIndexer.FIELD_TIMESTAMP, timestamp));
+        }
+        String origin = digestTable.getOrigin(slot);
+        if (origin != null) {
+            doc.add(new StoredField(DigestIndexer.FIELD_ORIGIN, origin));
+        }
+        return doc;
+    }
+
     public String report() {
         StringBuffer ret = new StringBuffer();
         ret.append("Processor: is.hi.bok.digest.DeDuplicator\n");
@@ -775,30 +882,30 @@ public class DeDuplicator extends Processor implements InitializingBean {
         }
         ret.append("                     - Lookup by " + 
         		(lookupByURL?"url":"digest") + " in use\n");
-        ret.append("  Total handled:     " + stats.handledNumber + "\n");
-        ret.append("  Duplicates found:  " + stats.duplicateNumber + " " + 
-        		getPercentage(stats.duplicateNumber,stats.handledNumber) + "\n");
-        ret.append("  Bytes total:       " + stats.totalAmount + " (" + 
-        		ArchiveUtils.formatBytesForDisplay(stats.totalAmount) + ")\n");
-        ret.append("  Bytes discarded:   " + stats.duplicateAmount + " (" + 
-        		ArchiveUtils.formatBytesForDisplay(stats.duplicateAmount) + ") " + 
-        		getPercentage(stats.duplicateAmount, stats.totalAmount) + "\n");
+        ret.append("  Total handled:     " + stats.handledNumber.sum() + "\n");
+        ret.append("  Duplicates found:  " + stats.duplicateNumber.sum() + " " + 
+        		getPercentage(stats.duplicateNumber.sum(),stats.handledNumber.sum()) + "\n");
+        ret.append("  Bytes total:       " + stats.totalAmount.sum() + " (" + 
+        		ArchiveUtils.formatBytesForDisplay(stats.totalAmount.sum()) + ")\n");
+        ret.append("  Bytes discarded:   " + stats.duplicateAmount.sum() + " (" + 
+        		ArchiveUtils.formatBytesForDisplay(stats.duplicateAmount.sum()) + ") " + 
+        		getPercentage(stats.duplicateAmount.sum(), stats.totalAmount.sum()) + "\n");
         
-    	ret.append("  New (no hits):     " + (stats.handledNumber-
-    			(stats.mirrorNumber+stats.exactURLDuplicates+stats.equivalentURLDuplicates)) + "\n");
-    	ret.append("  Exact hits:        " + stats.exactURLDuplicates + "\n");
-    	ret.append("  Equivalent hits:   " + stats.equivalentURLDuplicates + "\n");
+    	ret.append("  New (no hits):     " + (stats.handledNumber.sum()-
+    			(stats.mirrorNumber.sum()+stats.exactURLDuplicates.sum()+stats.equivalentURLDuplicates.sum())) + "\n");
+    	ret.append("  Exact hits:        " + stats.exactURLDuplicates.sum() + "\n");
+    	ret.append("  Equivalent hits:   " + stats.equivalentURLDuplicates.sum() + "\n");
         if(lookupByURL==false){
-        	ret.append("  Mirror hits:       " + stats.mirrorNumber + "\n");
+        	ret.append("  Mirror hits:       " + stats.mirrorNumber.sum() + "\n");
         }
         
         if(getAnalyzeTimestamp()){
         	ret.append("  Timestamp predicts: (Where exact URL existed in the index)\n");
-        	ret.append("  Change correctly:  " + stats.timestampChangeCorrect + "\n");
-        	ret.append("  Change falsely:     " + stats.timestampChangeFalse + "\n");
-        	ret.append("  Non-change correct:" + stats.timestampNoChangeCorrect + "\n");
-        	ret.append("  Non-change falsely: " + stats.timestampNoChangeFalse + "\n");
-        	ret.append("  Missing timpestamp:" + stats.timestampMissing + "\n");
+        	ret.append("  Change correctly:  " + stats.timestampChangeCorrect.sum() + "\n");
+        	ret.append("  Change falsely:     " + stats.timestampChangeFalse.sum() + "\n");
+        	ret.append("  Non-change correct:" + stats.timestampNoChangeCorrect.sum() + "\n");
+        	ret.append("  Non-change falsely: " + stats.timestampNoChangeFalse.sum() + "\n");
+        	ret.append("  Missing timpestamp:" + stats.timestampMissing.sum() + "\n");
         	
         }
         
@@ -814,48 +921,45 @@ public class DeDuplicator extends Processor implements InitializingBean {
                 ret.append(" [no timestamp]");
             }
             ret.append("\n");
-            synchronized (this) {
-                Iterator<String> it = perHostStats.keySet().iterator();
-                while(it.hasNext()){
-                    String key = it.next();
-                    Statistics curr = perHostStats.get(key);
-                    ret.append("  " +key);
-                    ret.append(" ");
-                    ret.append(curr.handledNumber);
+            for (Map.Entry<String, Statistics> entry : perHostStats.entrySet()) {
+                String key = entry.getKey();
+                Statistics curr = entry.getValue();
+                ret.append("  " +key);
+                ret.append(" ");
+                ret.append(curr.handledNumber.sum());
+                ret.append(" ");
+                ret.append(curr.duplicateNumber.sum());
+                ret.append(" ");
+                ret.append(curr.totalAmount.sum());
+                ret.append(" ");
+                ret.append(curr.duplicateAmount.sum());
+                ret.append(" ");
+                ret.append(curr.handledNumber.sum()-
+                        (curr.mirrorNumber.sum()+
+                         curr.exactURLDuplicates.sum()+
+                         curr.equivalentURLDuplicates.sum()));
+                ret.append(" ");
+                ret.append(curr.exactURLDuplicates.sum());
+                ret.append(" ");
+                ret.append(curr.equivalentURLDuplicates.sum());
+
+                if(lookupByURL==false){
                     ret.append(" ");
-                    ret.append(curr.duplicateNumber);
+                    ret.append(curr.mirrorNumber.sum());
+                }    
+                if(getAnalyzeTimestamp()){
                     ret.append(" ");
-                    ret.append(curr.totalAmount);
+                    ret.append(curr.timestampChangeCorrect.sum());
                     ret.append(" ");
-                    ret.append(curr.duplicateAmount);
+                    ret.append(curr.timestampChangeFalse.sum());
                     ret.append(" ");
-                    ret.append(curr.handledNumber-
-                            (curr.mirrorNumber+
-                             curr.exactURLDuplicates+
-                             curr.equivalentURLDuplicates));
+                    ret.append(curr.timestampNoChangeCorrect.sum());
                     ret.append(" ");
-                    ret.append(curr.exactURLDuplicates);
+                    ret.append(curr.timestampNoChangeFalse.sum());
                     ret.append(" ");
-                    ret.append(curr.equivalentURLDuplicates);
-
-                    if(lookupByURL==false){
-                        ret.append(" ");
-                        ret.append(curr.mirrorNumber);
-                    }    
-                    if(getAnalyzeTimestamp()){
-                        ret.append(" ");
-                        ret.append(curr.timestampChangeCorrect);
-                        ret.append(" ");
-                        ret.append(curr.timestampChangeFalse);
-                        ret.append(" ");
-                        ret.append(curr.timestampNoChangeCorrect);
-                        ret.append(" ");
-                        ret.append(curr.timestampNoChangeFalse);
-                        ret.append(" ");
-                        ret.append(curr.timestampMissing);
-                    }
-                    ret.append("\n");
+                    ret.append(curr.timestampMissing.sum());
                 }
+                ret.append("\n");
             }
         }
         
@@ -863,6 +967,132 @@ public class DeDuplicator extends Processor implements InitializingBean {
         return ret.toString();
 	}
 	
+    /**
+     * Register the MXBean publishing the statistics of this processor. A bean left by an earlier instance with the
+     * same name is replaced.
+     */
+    protected void registerMXBean() {
+        String name = getBeanName() != null ? getBeanName() : getClass().getSimpleName();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName("is.hi.bok.deduplicator:type=DeDuplicator,name="
+                    + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new StandardMBean(new StatisticsMXBean(), DeDuplicatorMXBean.class, true),
+                    objectName);
+            mxBeanName = objectName;
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Unable to register the statistics of " + name + " over JMX", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (mxBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mxBeanName);
+            } catch (JMException e) {
+                logger.log(Level.FINE, "Unable to unregister " + mxBeanName, e);
+            }
+            mxBeanName = null;
+        }
+    }
+
+    /**
+     * @return The counters for all URIs handled, by name.
+     */
+    public Map<String, Long> getStatisticsSnapshot() {
+        if (stats == null) {
+            return Collections.emptyMap();
+        }
+        return stats.snapshot();
+    }
+
+    /**
+     * @return The counters for the URIs of each host, by host name and counter name, sorted by host name. Empty
+     * unless statistics are tracked per host.
+     */
+    public Map<String, Map<String, Long>> getPerHostStatisticsSnapshot() {
+        Map<String, Map<String, Long>> snapshot = new TreeMap<String, Map<String, Long>>();
+        if (perHostStats != null) {
+            for (Map.Entry<String, Statistics> entry : perHostStats.entrySet()) {
+                snapshot.put(entry.getKey(), entry.getValue().snapshot());
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Write the statistics in the Prometheus text exposition format. Each counter becomes a metric named
+     * <code>deduplicator_&lt;counter&gt;_total</code>, with a sample for all URIs and, if statistics are tracked per
+     * host, a sample labelled with the host for each host.
+     *
+     * @return The statistics as Prometheus metrics.
+     */
+    public String getMetrics() {
+        Map<String, Long> totals = getStatisticsSnapshot();
+        Map<String, Map<String, Long>> hosts = getPerHostStatisticsSnapshot();
+        StringBuilder metrics = new StringBuilder();
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            String metric = "deduplicator_" + toMetricName(total.getKey()) + "_total";
+            metrics.append("# TYPE ").append(metric).append(" counter\n");
+            metrics.append(metric).append(' ').append(total.getValue()).append('\n');
+            for (Map.Entry<String, Map<String, Long>> host : hosts.entrySet()) {
+                metrics.append(metric).append("{host=\"").append(escapeLabelValue(host.getKey())).append("\"} ")
+                        .append(host.getValue().get(total.getKey())).append('\n');
+            }
+        }
+        return metrics.toString();
+    }
+
+    /**
+     * @param counter The name of a counter, in camel case.
+     * @return The name in lower case with underscores between words, e.g. exact_url_duplicates.
+     */
+    static String toMetricName(String counter) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < counter.length(); i++) {
+            char c = counter.charAt(i);
+            boolean wordStart = Character.isUpperCase(c) && i > 0
+                    && (Character.isLowerCase(counter.charAt(i - 1))
+                            || (i + 1 < counter.length() && Character.isLowerCase(counter.charAt(i + 1))));
+            if (wordStart) {
+                name.append('_');
+            }
+            name.append(Character.toLowerCase(c));
+        }
+        return name.toString();
+    }
+
+    /**
+     * @param value The value of a label.
+     * @return The value with backslashes, quotes and newlines escaped.
+     */
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** Publishes the statistics of the enclosing processor over JMX. */
+    private class StatisticsMXBean implements DeDuplicatorMXBean {
+        @Override
+        public Map<String, Long> getStatisticsSnapshot() {
+            return DeDuplicator.this.getStatisticsSnapshot();
+        }
+
+        @Override
+        public Map<String, Map<String, Long>> getPerHostStatisticsSnapshot() {
+            return DeDuplicator.this.getPerHostStatisticsSnapshot();
+        }
+
+        @Override
+        public String getMetrics() {
+            return DeDuplicator.this.getMetrics();
+        }
+    }
+
 	protected static String getPercentage(double portion, double total){
 		double value = portion / total;
 		value = value*100;
@@ -939,9 +1169,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 				return;
 			}
         } else {
-            stats.timestampMissing++;
+            stats.timestampMissing.increment();
             if (statsPerHost) {
-                currHostStats.timestampMissing++;
+                currHostStats.timestampMissing.increment();
                 logger.finest("Missing timestamp on " + curi.toString());
             }
         	return;
@@ -962,16 +1192,16 @@ public class DeDuplicator extends Processor implements InitializingBean {
 			// Header predicts change
 			if(isDuplicate){
 				// But the DeDuplicator did not notice a change.
-                stats.timestampChangeFalse++;
+                stats.timestampChangeFalse.increment();
                 if (statsPerHost){
-                    currHostStats.timestampChangeFalse++;
+                    currHostStats.timestampChangeFalse.increment();
                 }
                 logger.finest("Last-modified falsly predicts change on " + 
                         curi.toString());
 			} else {
-                stats.timestampChangeCorrect++;
+                stats.timestampChangeCorrect.increment();
                 if (statsPerHost){
-                    currHostStats.timestampChangeCorrect++;
+                    currHostStats.timestampChangeCorrect.increment();
                 }
                 logger.finest("Last-modified correctly predicts change on " + 
                         curi.toString());
@@ -980,9 +1210,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 			// Header does not predict change.
 			if(isDuplicate){
 				// And the DeDuplicator verifies that no change had occurred
-                stats.timestampNoChangeCorrect++;
+                stats.timestampNoChangeCorrect.increment();
                 if (statsPerHost){
-                    currHostStats.timestampNoChangeCorrect++;
+                    currHostStats.timestampNoChangeCorrect.increment();
                 }
                 logger.finest("Last-modified correctly predicts no-change on " + 
                         curi.toString());
@@ -992,9 +1222,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 						"no-change on " + curi.toString() + " " + 
 						curi.getContentType() + ". last-modified: " + 
                         lastModified + ". Last fetched: " + lastFetch);
-                stats.timestampNoChangeFalse++;
+                stats.timestampNoChangeFalse.increment();
                 if (statsPerHost){
-                    currHostStats.timestampNoChangeFalse++;
+                    currHostStats.timestampNoChangeFalse.increment();
                 }
 			}
 		}
@@ -1021,58 +1251,3 @@ public class DeDuplicator extends Processor implements InitializingBean {
 	}
 	
 }
-
-class Statistics{
-    // General statistics
-    
-    /** Number of URIs that make it through the processors exclusion rules
-     *  and are processed by it.
-     */
-    long handledNumber = 0;
-    
-    /** Number of URIs that are deemed duplicates and further processing is
-     *  aborted
-     */
-    long duplicateNumber = 0;
-    
-    /** Then number of URIs that turned out to have exact URL and content 
-     *  digest matches.
-     */
-    long exactURLDuplicates = 0;
-    
-    /** The number of URIs that turned out to have equivalent URL and content
-     *  digest matches.
-     */
-    long equivalentURLDuplicates = 0;
-    
-    /** The number of URIs that, while having no exact or equivalent matches,  
-     *  do have exact content digest matches against non-equivalent URIs.
-     */
-    long mirrorNumber = 0;
-    
-    /** The total amount of data represented by the documents who were deemed
-     *  duplicates and excluded from further processing.
-     */
-    long duplicateAmount = 0;
-    
-    /** The total amount of data represented by all the documents processed **/
-    long totalAmount = 0;
-    
-    // Timestamp analysis
-    
-    long timestampChangeCorrect = 0;
-    long timestampChangeFalse = 0;
-    long timestampNoChangeCorrect = 0;
-    long timestampNoChangeFalse = 0;
-    long timestampMissing = 0;
-
-    // ETag analysis;
-    
-    long ETagChangeCorrect = 0;
-    long ETagChangeFalse = 0;
-    long ETagNoChangeCorrect = 0;
-    long ETagNoChangeFalse = 0;
-    long ETagMissingIndex = 0;
-    long ETagMissingCURI = 0;
-}
-
@@ -0,0 +1,27 @@
+package is.hi.bok.deduplicator;
+
+import java.util.Map;
+
+/**
+ * The statistics of a {@link DeDuplicator}, as published over JMX under the name
+ * <code>is.hi.bok.deduplicator:type=DeDuplicator,name=&lt;bean name&gt;</code>.
+ */
+public interface DeDuplicatorMXBean {
+
+    /**
+     * @return The counters for all URIs handled, by name.
+     */
+    Map<String, Long> getStatisticsSnapshot();
+
+    /**
+     * @return The counters for the URIs of each host, by host name and counter name. Empty unless statistics are
+     * tracked per host.
+     */
+    Map<String, Map<String, Long>> getPerHostStatisticsSnapshot();
+
+    /**
+     * @return The counters in the Prometheus text exposition format, with the per host counters labelled by host.
+     */
+    String getMetrics();
+
+}
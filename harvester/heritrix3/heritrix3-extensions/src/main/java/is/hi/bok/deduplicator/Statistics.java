@@ -0,0 +1,95 @@
+package is.hi.bok.deduplicator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of the DeDuplicator, for all URIs or for the URIs of one host.
+ * <p>
+ * The counters are LongAdders, so the ToeThreads can update them concurrently without locking and without losing
+ * updates. A {@link #snapshot()} reads each counter once; counters updated while it is taken may be off by the URIs
+ * being processed at that moment, but never lose counts.
+ */
+class Statistics {
+    // General statistics
+
+    /** Number of URIs that make it through the processors exclusion rules
+     *  and are processed by it.
+     */
+    final LongAdder handledNumber = new LongAdder();
+
+    /** Number of URIs that are deemed duplicates and further processing is
+     *  aborted
+     */
+    final LongAdder duplicateNumber = new LongAdder();
+
+    /** Then number of URIs that turned out to have exact URL and content 
+     *  digest matches.
+     */
+    final LongAdder exactURLDuplicates = new LongAdder();
+
+    /** The number of URIs that turned out to have equivalent URL and content
+     *  digest matches.
+     */
+    final LongAdder equivalentURLDuplicates = new LongAdder();
+
+    /** The number of URIs that, while having no exact or equivalent matches,  
+     *  do have exact content digest matches against non-equivalent URIs.
+     */
+    final LongAdder mirrorNumber = new LongAdder();
+
+    /** The total amount of data represented by the documents who were deemed
+     *  duplicates and excluded from further processing.
+     */
+    final LongAdder duplicateAmount = new LongAdder();
+
+    /** The total amount of data represented by all the documents processed **/
+    final LongAdder totalAmount = new LongAdder();
+
+    // Timestamp analysis
+
+    final LongAdder timestampChangeCorrect = new LongAdder();
+    final LongAdder timestampChangeFalse = new LongAdder();
+    final LongAdder timestampNoChangeCorrect = new LongAdder();
+    final LongAdder timestampNoChangeFalse = new LongAdder();
+    final LongAdder timestampMissing = new LongAdder();
+
+    // ETag analysis;
+
+    final LongAdder ETagChangeCorrect = new LongAdder();
+    final LongAdder ETagChangeFalse = new LongAdder();
+    final LongAdder ETagNoChangeCorrect = new LongAdder();
+    final LongAdder ETagNoChangeFalse = new LongAdder();
+    final LongAdder ETagMissingIndex = new LongAdder();
+    final LongAdder ETagMissingCURI = new LongAdder();
+
+    /**
+     * Read the counters.
+     *
+     * @return The value of each counter, by the name of its field, in the order the fields are declared.
+     */
+    Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+        snapshot.put("handledNumber", handledNumber.sum());
+        snapshot.put("duplicateNumber", duplicateNumber.sum());
+        snapshot.put("exactURLDuplicates", exactURLDuplicates.sum());
+        snapshot.put("equivalentURLDuplicates", equivalentURLDuplicates.sum());
+        snapshot.put("mirrorNumber", mirrorNumber.sum());
+        snapshot.put("duplicateAmount", duplicateAmount.sum());
+        snapshot.put("totalAmount", totalAmount.sum());
+        snapshot.put("timestampChangeCorrect", timestampChangeCorrect.sum());
+        snapshot.put("timestampChangeFalse", timestampChangeFalse.sum());
+        snapshot.put("timestampNoChangeCorrect", timestampNoChangeCorrect.sum());
+        snapshot.put("timestampNoChangeFalse", timestampNoChangeFalse.sum());
+        snapshot.put("timestampMissing", timestampMissing.sum());
+        snapshot.put("ETagChangeCorrect", ETagChangeCorrect.sum());
+        snapshot.put("ETagChangeFalse", ETagChangeFalse.sum());
+        snapshot.put("ETagNoChangeCorrect", ETagNoChangeCorrect.sum());
+        snapshot.put("ETagNoChangeFalse", ETagNoChangeFalse.sum());
+        snapshot.put("ETagMissingIndex", ETagMissingIndex.sum());
+        snapshot.put("ETagMissingCURI", ETagMissingCURI.sum());
+        return snapshot;
+    }
+
+}
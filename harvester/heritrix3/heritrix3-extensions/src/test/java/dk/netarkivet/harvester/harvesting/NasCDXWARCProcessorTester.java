@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.format.warc.WARCConstants;
+import org.archive.io.warc.WARCWriter;
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.Recorder;
+import org.archive.util.anvl.ANVLRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.cdx.CDXUtils;
+
+/**
+ * Tests of the CDX files written by {@link NasCDXWARCProcessor} while harvesting.
+ */
+public class NasCDXWARCProcessorTester {
+
+    private File workingDir;
+    private File warcDir;
+    private File cdxDir;
+    private NasCDXWARCProcessor processor;
+    private int recorderCount;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("NasCDXWARCProcessorTester").toFile();
+        warcDir = new File(workingDir, "warcs");
+        cdxDir = new File(workingDir, Constants.CDXDIRECTORY_NAME);
+        processor = new NasCDXWARCProcessor();
+        processor.setDirectory(new ConfigPath("test", workingDir.getAbsolutePath()));
+        processor.setPrefix("test");
+        processor.setTemplate("${prefix}-${serialno}");
+        processor.setCompress(false);
+        processor.setWriteMetadata(false);
+        processor.setMetadataProvider(new CrawlMetadata());
+    }
+
+    @After
+    public void tearDown() {
+        processor.stop();
+        FileUtils.removeRecursively(workingDir);
+    }
+
+    /**
+     * The CDX lines written during the harvest must be the lines ArchiveExtractCDXJob makes from the WARC file: one
+     * per response, with the mimetype of the HTTP response and the MD5 of its payload.
+     */
+    @Test
+    public void testCDXLinesMatchArchiveExtractCDXJob() throws IOException, InterruptedException {
+        assertCDXLinesMatchArchiveExtractCDXJob();
+    }
+
+    /**
+     * The CDX lines of a compressed WARC file must also be the lines ArchiveExtractCDXJob makes from it.
+     */
+    @Test
+    public void testCDXLinesMatchArchiveExtractCDXJobCompressed() throws IOException, InterruptedException {
+        processor.setCompress(true);
+        assertCDXLinesMatchArchiveExtractCDXJob();
+    }
+
+    private void assertCDXLinesMatchArchiveExtractCDXJob() throws IOException, InterruptedException {
+        processor.start();
+        processor.process(fetch("http://netarkivet.dk/", "text/html; charset=UTF-8", 200,
+                "<html><body>Netarkivet</body></html>"));
+        processor.process(fetch("http://netarkivet.dk/robots.txt", "text/plain", 200, "User-agent: *\n"));
+        processor.process(fetch("http://netarkivet.dk/missing.gif", "text/html", 404, "Not found"));
+        assertEquals("Nothing should be ready before the processor is stopped", 0, listCDXFiles().size());
+        assertEquals("The CDX file should be open while its WARC file is written", 1, cdxDir.list().length);
+
+        processor.stop();
+
+        List<File> cdxFiles = listCDXFiles();
+        assertEquals("There should be one CDX file for the one WARC file", 1, cdxFiles.size());
+        File warcFile = new File(warcDir, cdxFiles.get(0).getName().replaceFirst("\\.cdx$", ""));
+        assertEquals(processor.getCompress(), warcFile.getName().endsWith(".gz"));
+        assertTrue("The CDX file should be named after " + warcFile, warcFile.isFile());
+        List<String> lines = readLines(cdxFiles.get(0));
+        assertEquals("There should be a line for each response, but not for the requests", 3, lines.size());
+        assertEquals("The CDX lines should be those ArchiveExtractCDXJob makes from the WARC file",
+                getCDXLines(warcFile), lines);
+        assertTrue("The mimetype should come from the HTTP response, but was " + lines.get(0),
+                lines.get(0).startsWith("http://netarkivet.dk/ 192.0.2.1 ") && lines.get(0).contains(" text/html "));
+    }
+
+    /**
+     * A CDX file gets its final name when its WARC file is closed, and every WARC file gets its own CDX file. With a
+     * tiny maximum file size every record is written to a new WARC file.
+     */
+    @Test
+    public void testCDXFileIsRenamedWhenWARCFileIsClosed() throws IOException, InterruptedException {
+        processor.setMaxFileSizeBytes(1);
+        processor.start();
+        processor.process(fetch("http://netarkivet.dk/a", "text/plain", 200, "a"));
+        processor.process(fetch("http://netarkivet.dk/b", "text/plain", 200, "b"));
+        assertTrue("The CDX file of the first WARC file should be closed when the second is started",
+                listCDXFiles().size() >= 1);
+
+        processor.process(fetch("http://netarkivet.dk/c", "text/plain", 200, "c"));
+        processor.stop();
+
+        List<File> cdxFiles = listCDXFiles();
+        assertEquals("Every CDX file should be closed when the processor is stopped", 3, cdxFiles.size());
+        assertEquals(3, cdxDir.list().length);
+        for (File cdxFile : cdxFiles) {
+            File warcFile = new File(warcDir, cdxFile.getName().replaceFirst("\\.cdx$", ""));
+            assertTrue("The CDX file should be named after " + warcFile, warcFile.isFile());
+            List<String> lines = readLines(cdxFile);
+            assertEquals(1, lines.size());
+            assertEquals(getCDXLines(warcFile), lines);
+        }
+    }
+
+    /**
+     * A writer that rolls over to a new WARC file closes the CDX file of the old one, and keeps writing lines to a
+     * new CDX file.
+     */
+    @Test
+    public void testCDXFileIsRenamedOnRollover() throws IOException {
+        processor.setMaxFileSizeBytes(1);
+        NasCDXWARCProcessor.CDXWARCWriter w = new NasCDXWARCProcessor.CDXWARCWriter(new AtomicInteger(), processor,
+                cdxDir);
+        writeResponse(w, fetch("http://netarkivet.dk/a", "text/plain", 200, "a"));
+        assertEquals(0, listCDXFiles().size());
+        assertTrue("The CDX file should be open", cdxDir.list()[0].endsWith(".cdx.open"));
+
+        writeResponse(w, fetch("http://netarkivet.dk/b", "text/plain", 200, "b"));
+        List<File> cdxFiles = listCDXFiles();
+        assertEquals("The CDX file of the first WARC file should be closed on rollover", 1, cdxFiles.size());
+        assertEquals(2, cdxDir.list().length);
+        assertEquals(getCDXLines(new File(warcDir, cdxFiles.get(0).getName().replaceFirst("\\.cdx$", ""))),
+                readLines(cdxFiles.get(0)));
+
+        w.close();
+        assertEquals("The CDX file should be closed with its WARC file", 2, listCDXFiles().size());
+        assertEquals(2, cdxDir.list().length);
+    }
+
+    /**
+     * Stopping the processor twice, or without having written anything, must leave no files behind.
+     */
+    @Test
+    public void testStopWithoutRecords() {
+        processor.start();
+        processor.stop();
+        processor.stop();
+        assertFalse("No CDX directory should be made when nothing is written", cdxDir.exists());
+    }
+
+    /**
+     * Make a fetched CrawlURI, recorded the way FetchHTTP records it.
+     *
+     * @param url The URL fetched.
+     * @param contentType The Content-Type of the response.
+     * @param status The HTTP status of the response.
+     * @param body The body of the response.
+     * @return The fetched CrawlURI.
+     */
+    private CrawlURI fetch(String url, String contentType, int status, String body) throws IOException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(url));
+        Recorder recorder = new Recorder(workingDir, "recorder" + (recorderCount++));
+        byte[] request = ("GET " + curi.getUURI().getPath() + " HTTP/1.1\r\nHost: netarkivet.dk\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        byte[] headers = ("HTTP/1.1 " + status + " Whatever\r\nContent-Type: " + contentType
+                + "\r\nContent-Length: " + payload.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        OutputStream out = recorder.outputWrap(new ByteArrayOutputStream());
+        out.write(request);
+        out.flush();
+        InputStream in = recorder.inputWrap(new ByteArrayInputStream(concat(headers, payload)));
+        readFully(in, headers.length);
+        recorder.markContentBegin();
+        readFully(in, payload.length);
+        recorder.close();
+        curi.setRecorder(recorder);
+        curi.setContentType(contentType);
+        curi.setFetchType(CrawlURI.FetchType.HTTP_GET);
+        curi.setFetchStatus(status);
+        curi.setFetchBeginTime(System.currentTimeMillis());
+        curi.setContentSize(recorder.getRecordedInput().getSize());
+        curi.setServerIP("192.0.2.1");
+        return curi;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static void readFully(InputStream in, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            read += n;
+        }
+    }
+
+    /**
+     * Write a response record the way the processor does for every URI it is given.
+     *
+     * @param w The writer to write the record with.
+     * @param curi The fetched URI.
+     */
+    private void writeResponse(WARCWriter w, CrawlURI curi) throws IOException {
+        w.checkSize();
+        w.resetTmpRecordLog();
+        ANVLRecord headers = new ANVLRecord();
+        headers.addLabelValue(WARCConstants.HEADER_KEY_IP, curi.getServerIP());
+        processor.writeResponse(w, ArchiveUtils.getLog14Date(curi.getFetchBeginTime()),
+                WARCConstants.HTTP_RESPONSE_MIMETYPE, processor.getRecordIDGenerator().getRecordID(),
+                curi, headers);
+    }
+
+    /** @return The finished CDX files in the CDX directory. */
+    private List<File> listCDXFiles() {
+        List<File> result = new ArrayList<File>();
+        File[] files = cdxDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(FileUtils.CDX_EXTENSION)) {
+                    result.add(f);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return The CDX lines ArchiveExtractCDXJob makes from the given WARC file. */
+    private static List<String> getCDXLines(File warcFile) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CDXUtils.writeCDXInfo(warcFile, out);
+        return toLines(new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static List<String> readLines(File f) throws IOException {
+        return toLines(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static List<String> toLines(String s) {
+        List<String> lines = new ArrayList<String>();
+        for (String line : s.split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+}
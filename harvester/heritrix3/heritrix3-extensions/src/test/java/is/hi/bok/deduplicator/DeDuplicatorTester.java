@@ -4,6 +4,10 @@ import static org.junit.Assert.*;
 import is.hi.bok.deduplicator.DeDuplicator;
 import is.hi.bok.deduplicator.DeDuplicator.FilterMode;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Test;
 
 public class DeDuplicatorTester {
@@ -66,6 +70,44 @@ public class DeDuplicatorTester {
 	}
 	
 	*/
-	}	
+	}
+
+	/**
+	 * Test that the counters lose no updates when many threads update them at once.
+	 */
+	@Test
+	public void testStatisticsAreCountedConcurrently() throws InterruptedException {
+		final Statistics stats = new Statistics();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread t = new Thread() {
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						stats.handledNumber.increment();
+						stats.totalAmount.add(10);
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Map<String, Long> snapshot = stats.snapshot();
+		assertEquals(800000L, snapshot.get("handledNumber").longValue());
+		assertEquals(8000000L, snapshot.get("totalAmount").longValue());
+		assertEquals(0L, snapshot.get("duplicateNumber").longValue());
+	}
+
+	/**
+	 * Test that counter names become Prometheus metric names.
+	 */
+	@Test
+	public void testMetricNames() {
+		assertEquals("handled_number", DeDuplicator.toMetricName("handledNumber"));
+		assertEquals("exact_url_duplicates", DeDuplicator.toMetricName("exactURLDuplicates"));
+		assertEquals("e_tag_missing_curi", DeDuplicator.toMetricName("ETagMissingCURI"));
+	}
 
 }
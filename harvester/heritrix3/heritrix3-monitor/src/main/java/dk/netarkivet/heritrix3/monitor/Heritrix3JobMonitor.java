@@ -26,6 +26,8 @@ package dk.netarkivet.heritrix3.monitor;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -79,9 +81,20 @@ public class Heritrix3JobMonitor implements Pageable {
 
     public RandomAccessFile idxRaf;
 
-    public long lastIndexed = 0;
-    
-    public long totalCachedLines = 0;
+    /** The offset in the cached crawllog after the last indexed line. Published after the index is written. */
+    public volatile long lastIndexed = 0;
+
+    /** The number of indexed lines in the cached crawllog. Published after the index is written. */
+    public volatile long totalCachedLines = 0;
+
+    /** The number of line offsets buffered before they are written to the index file. */
+    protected static final int INDEX_BUFFER_ENTRIES = 8192;
+
+    /**
+     * Lock held while the crawllog is mirrored, so the monitor thread and the GUI do not update at the same time.
+     * Paging and searching do not take this lock, they only read the lines already indexed.
+     */
+    protected final Object updateLock = new Object();
 
     protected Heritrix3JobMonitor() {
     }
@@ -121,17 +134,7 @@ public class Heritrix3JobMonitor implements Pageable {
                     crawlLogFilePath = jobResult.job.crawlLogFilePath;
                 }
                 if (crawlLogFilePath != null) {
-                    logRaf = new RandomAccessFile(logFile, "rw");
-                    idxRaf = new RandomAccessFile(idxFile, "rw");
-                    if (idxRaf.length() == 0) {
-                        idxRaf.writeLong(0);
-                    } else {
-                        idxRaf.seek(idxRaf.length() - 8);
-                        lastIndexed = idxRaf.readLong();
-                    	totalCachedLines = (idxRaf.length() / 8) - 1;
-                    }
-                    idxRaf.seek(idxRaf.length());
-                    logRaf.seek(logRaf.length());
+                    openCachedFiles();
                     bInitialized = true;
                 }
             }
@@ -139,6 +142,41 @@ public class Heritrix3JobMonitor implements Pageable {
     	}
     }
 
+    /**
+     * Open the cached crawllog and its index, and drop what an interrupted update may have left behind: a partially
+     * written offset, offsets past the end of the cached crawllog and bytes after the last indexed line.
+     *
+     * @throws IOException if the files cannot be opened or truncated
+     */
+    protected void openCachedFiles() throws IOException {
+        logRaf = new RandomAccessFile(logFile, "rw");
+        idxRaf = new RandomAccessFile(idxFile, "rw");
+        long logLength = logRaf.length();
+        // Ignore a partially written offset.
+        long idxLength = idxRaf.length() - (idxRaf.length() % 8);
+        long offset = 0;
+        while (idxLength > 0) {
+            idxRaf.seek(idxLength - 8);
+            offset = idxRaf.readLong();
+            if (offset <= logLength) {
+                break;
+            }
+            // The offset was written, but not the line.
+            idxLength -= 8;
+        }
+        if (idxLength == 0) {
+            offset = 0;
+            idxRaf.setLength(0);
+            idxRaf.writeLong(0);
+            idxLength = 8;
+        }
+        idxRaf.setLength(idxLength);
+        lastIndexed = offset;
+        totalCachedLines = (idxLength / 8) - 1;
+        // Bytes after the last indexed line are downloaded again.
+        logRaf.setLength(lastIndexed);
+    }
+
     public synchronized void update() {
     	try {
             if (job != null) {
@@ -157,59 +195,62 @@ public class Heritrix3JobMonitor implements Pageable {
     	}
     }
 
-    public synchronized void updateCrawlLog(byte[] tmpBuf) {
+    /**
+     * Mirror the new part of the crawllog from heritrix, and index its lines. The bytes are appended to the cached
+     * crawllog and the line offsets to the index file with positional writes. Once both are written, the new number of
+     * lines is published, so {@link #readPage(long, long, boolean)} and searches never read past the indexed lines and
+     * do not wait for the update.
+     *
+     * @param tmpBuf buffer used for downloading
+     */
+    public void updateCrawlLog(byte[] tmpBuf) {
         long pos;
         long to;
-        int idx;
         boolean bLoop;
         ByteRange byteRange;
-        try {
-            if (bActive && !bInitialized) {
-                init();
-            }
-            if (bActive && bInitialized) {
-                bLoop = true;
-                while (bLoop) {
-                    idxRaf.seek(idxRaf.length());
-                    pos = logRaf.length();
-                    to = pos;
-                    if (jobResult != null && jobResult.job != null && jobResult.job.crawlLogFilePath != null) {
-                    	long rangeFrom = pos;
-                    	long rangeTo = pos + tmpBuf.length - 1;
-                        StreamResult anypathResult = h3wrapper.anypath(jobResult.job.crawlLogFilePath, null, null, true);
-                        if (anypathResult != null && rangeFrom < anypathResult.contentLength) {
-                            LOG.info("Crawllog length for job {}={}.", jobId, anypathResult.contentLength);
-                        	if (rangeTo >= anypathResult.contentLength) {
-                        		rangeTo = anypathResult.contentLength - 1;
-                        	}
-                        	anypathResult = h3wrapper.anypath(jobResult.job.crawlLogFilePath, rangeFrom, rangeTo);
-                            LOG.info("Crawllog byterange download for job {}. ({}-{})", jobId, rangeFrom, rangeTo);
-                            if (anypathResult != null && anypathResult.byteRange != null && anypathResult.in != null) {
-                                byteRange = anypathResult.byteRange;
-                                if (byteRange.contentLength > 0) {
-                                    logRaf.seek(pos);
-                                    int read;
-                                    try {
-                                        while ((read = anypathResult.in.read(tmpBuf)) != -1) {
-                                            logRaf.write(tmpBuf, 0, read);
-                                            to += read;
-                                            idx = 0;
-                                            while (read > 0) {
-                                                ++pos;
-                                                --read;
-                                                if (tmpBuf[idx++] == '\n') {
-                                                    idxRaf.writeLong(pos);
-                                                    lastIndexed = pos;
-                                                    totalCachedLines++;
-                                                }
+        synchronized (updateLock) {
+            try {
+                if (bActive && !bInitialized) {
+                    init();
+                }
+                if (bActive && bInitialized) {
+                    FileChannel logChannel = logRaf.getChannel();
+                    FileChannel idxChannel = idxRaf.getChannel();
+                    ByteBuffer idxBuf = ByteBuffer.allocate(INDEX_BUFFER_ENTRIES * 8);
+                    bLoop = true;
+                    while (bLoop) {
+                        pos = logChannel.size();
+                        to = pos;
+                        if (jobResult != null && jobResult.job != null && jobResult.job.crawlLogFilePath != null) {
+                        	long rangeFrom = pos;
+                        	long rangeTo = pos + tmpBuf.length - 1;
+                            StreamResult anypathResult = h3wrapper.anypath(jobResult.job.crawlLogFilePath, null, null, true);
+                            if (anypathResult != null && rangeFrom < anypathResult.contentLength) {
+                                LOG.info("Crawllog length for job {}={}.", jobId, anypathResult.contentLength);
+                            	if (rangeTo >= anypathResult.contentLength) {
+                            		rangeTo = anypathResult.contentLength - 1;
+                            	}
+                            	anypathResult = h3wrapper.anypath(jobResult.job.crawlLogFilePath, rangeFrom, rangeTo);
+                                LOG.info("Crawllog byterange download for job {}. ({}-{})", jobId, rangeFrom, rangeTo);
+                                if (anypathResult != null && anypathResult.byteRange != null && anypathResult.in != null) {
+                                    byteRange = anypathResult.byteRange;
+                                    if (byteRange.contentLength > 0) {
+                                        int read;
+                                        try {
+                                            while ((read = anypathResult.in.read(tmpBuf)) != -1) {
+                                                writeFully(logChannel, ByteBuffer.wrap(tmpBuf, 0, read), to);
+                                                indexLines(idxChannel, idxBuf, tmpBuf, read, to);
+                                                to += read;
                                             }
                                         }
-                                    }
-                                    catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                    IOUtils.closeQuietly(anypathResult);
-                                    if (byteRange.contentLength == to) {
+                                        catch (IOException e) {
+                                            LOG.warn("Error mirroring the crawllog for job {}.", jobId, e);
+                                        }
+                                        IOUtils.closeQuietly(anypathResult);
+                                        if (byteRange.contentLength == to) {
+                                            bLoop = false;
+                                        }
+                                    } else {
                                         bLoop = false;
                                     }
                                 } else {
@@ -221,16 +262,83 @@ public class Heritrix3JobMonitor implements Pageable {
                         } else {
                             bLoop = false;
                         }
-                    } else {
-                        bLoop = false;
                     }
                 }
+            } catch (Throwable t) {
             }
-        } catch (Throwable t) {
         }
     }
 
-    public synchronized void cleanup(List<File> oldFilesList) {
+    /**
+     * Append the offsets after the newlines in a downloaded block to the index file, and publish the new lines.
+     *
+     * @param idxChannel the index file
+     * @param idxBuf buffer for offsets
+     * @param bytes the block, already written to the cached crawllog
+     * @param length the length of the block
+     * @param offset the offset of the block in the cached crawllog
+     * @throws IOException if the index cannot be written
+     */
+    protected void indexLines(FileChannel idxChannel, ByteBuffer idxBuf, byte[] bytes, int length, long offset)
+            throws IOException {
+        long lines = totalCachedLines;
+        long last = lastIndexed;
+        idxBuf.clear();
+        for (int i = 0; i < length; ++i) {
+            if (bytes[i] == '\n') {
+                last = offset + i + 1;
+                idxBuf.putLong(last);
+                if (!idxBuf.hasRemaining()) {
+                    lines = flushIndex(idxChannel, idxBuf, lines);
+                }
+            }
+        }
+        lines = flushIndex(idxChannel, idxBuf, lines);
+        lastIndexed = last;
+        totalCachedLines = lines;
+    }
+
+    /**
+     * Write buffered offsets after the indexed lines in the index file.
+     *
+     * @param idxChannel the index file
+     * @param idxBuf the buffered offsets
+     * @param lines the number of lines indexed before the buffered ones
+     * @return the number of lines indexed including the buffered ones
+     * @throws IOException if the index cannot be written
+     */
+    private static long flushIndex(FileChannel idxChannel, ByteBuffer idxBuf, long lines) throws IOException {
+        idxBuf.flip();
+        long written = idxBuf.remaining() / 8;
+        writeFully(idxChannel, idxBuf, (lines + 1) * 8);
+        idxBuf.clear();
+        return lines + written;
+    }
+
+    /**
+     * Write all of a buffer at a position in a file.
+     *
+     * @param channel the file
+     * @param buf the bytes to write
+     * @param position the position to write them at
+     * @throws IOException if the bytes cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    public void cleanup(List<File> oldFilesList) {
+        // Wait for any update of the crawllog to finish before closing the files.
+        synchronized (updateLock) {
+            synchronized (this) {
+                cleanupFiles(oldFilesList);
+            }
+        }
+    }
+
+    private void cleanupFiles(List<File> oldFilesList) {
     	try {
             bActive = false;
             bInitialized = false;
@@ -257,9 +365,12 @@ public class Heritrix3JobMonitor implements Pageable {
     	}
     }
 
+    /**
+     * @return the size of the index of the lines mirrored so far, which may be less than the size of the index file
+     */
     @Override
-    public synchronized long getIndexSize() {
-        return idxFile.length();
+    public long getIndexSize() {
+        return (totalCachedLines + 1) * 8;
     }
 
     @Override
@@ -272,8 +383,9 @@ public class Heritrix3JobMonitor implements Pageable {
     }
 
     @Override
-    public synchronized byte[] readPage(long page, long itemsPerPage, boolean descending) throws IOException {
-        return StringIndexFile.readPage(idxRaf, logRaf, page, itemsPerPage, descending);
+    public byte[] readPage(long page, long itemsPerPage, boolean descending) throws IOException {
+        return StringIndexFile.readPage(idxRaf.getChannel(), logRaf.getChannel(), getIndexSize(), page, itemsPerPage,
+                descending);
     }
 
     public synchronized boolean isReady() {
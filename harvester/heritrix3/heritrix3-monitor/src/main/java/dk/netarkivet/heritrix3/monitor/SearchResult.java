@@ -52,21 +52,32 @@ public class SearchResult implements Pageable {
     protected long lastIndexed;
 
     public SearchResult(NASEnvironment environment, Heritrix3JobMonitor h3Job, String q, int searchResultNr) throws IOException {
+        this(environment.tempPath, h3Job, q, searchResultNr);
+    }
+
+    SearchResult(File tempPath, Heritrix3JobMonitor h3Job, String q, int searchResultNr) throws IOException {
         this.h3Job = h3Job;
         p = Pattern.compile(q, Pattern.CASE_INSENSITIVE);
         // Create a reusable pattern matcher object for use with the reset method.
         m = p.matcher("42");
-        srLogFile = new File(environment.tempPath, "crawllog-" + h3Job.jobId + "-" + searchResultNr + ".log");
+        srLogFile = new File(tempPath, "crawllog-" + h3Job.jobId + "-" + searchResultNr + ".log");
         srLogRaf = new RandomAccessFile(srLogFile, "rw");
         srLogRaf.setLength(0);
-        srIdxFile = new File(environment.tempPath, "crawllog-" + h3Job.jobId + "-" + searchResultNr + ".idx");
+        srIdxFile = new File(tempPath, "crawllog-" + h3Job.jobId + "-" + searchResultNr + ".idx");
         srIdxRaf = new RandomAccessFile(srIdxFile, "rw");
         srIdxRaf.setLength(0);
         srIdxRaf.writeLong(0);
         lastIndexed = 0;
     }
 
+    /**
+     * Search the lines indexed in the cached crawllog since the last update. Lines still being mirrored are left for
+     * the next update.
+     *
+     * @throws IOException if the files cannot be read or written
+     */
     public synchronized void update() throws IOException {
+        long indexed = h3Job.getLastIndexed();
         RandomAccessFile logRaf = new RandomAccessFile(h3Job.logFile, "r");
         logRaf.seek(lastIndexed);
         srLogRaf.seek(srLogRaf.length());
@@ -74,6 +85,8 @@ public class SearchResult implements Pageable {
         FileChannel logChannel = logRaf.getChannel();
         byte[] bytes = new byte[1024*1024];
         ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        ByteBuffer idxBuf = ByteBuffer.allocate(Heritrix3JobMonitor.INDEX_BUFFER_ENTRIES * 8);
+        long unread = indexed - lastIndexed;
         String tmpStr;
         //long index = lastIndex;
         long index = srLogRaf.length();
@@ -82,7 +95,15 @@ public class SearchResult implements Pageable {
         int mark;
         int limit;
         boolean b;
-        while (logChannel.read(byteBuffer) != -1) {
+        while (unread > 0) {
+            if (byteBuffer.remaining() > unread) {
+                ((Buffer) byteBuffer).limit(byteBuffer.position() + (int) unread);
+            }
+            int read = logChannel.read(byteBuffer);
+            if (read == -1) {
+                break;
+            }
+            unread -= read;
             ((Buffer) byteBuffer).flip();
             pos = byteBuffer.position();
             mark = pos;
@@ -92,7 +113,7 @@ public class SearchResult implements Pageable {
                 if (pos < limit) {
                     if (bytes[pos++] == '\n') {
                         to = pos - 1;
-                        if (bytes[to - 1] == '\r') {
+                        if (to > mark && bytes[to - 1] == '\r') {
                             --to;
                         }
                         tmpStr = new String(bytes, mark, to - mark, "UTF-8");
@@ -100,7 +121,11 @@ public class SearchResult implements Pageable {
                         if (m.matches()) {
                             srLogRaf.write(bytes, mark, pos - mark);
                             index += pos - mark;
-                            srIdxRaf.writeLong(index);
+                            idxBuf.putLong(index);
+                            if (!idxBuf.hasRemaining()) {
+                                srIdxRaf.write(idxBuf.array(), 0, idxBuf.position());
+                                idxBuf.clear();
+                            }
                         }
                         lastIndexed += pos - mark;
                         // next
@@ -115,6 +140,7 @@ public class SearchResult implements Pageable {
             byteBuffer.position(mark);
             byteBuffer.compact();
         }
+        srIdxRaf.write(idxBuf.array(), 0, idxBuf.position());
         logRaf.close();
     }
 
@@ -135,6 +161,7 @@ public class SearchResult implements Pageable {
 
     public synchronized void cleanup() {
         IOUtils.closeQuietly(srIdxRaf);
+        IOUtils.closeQuietly(srLogRaf);
     }
 
 }
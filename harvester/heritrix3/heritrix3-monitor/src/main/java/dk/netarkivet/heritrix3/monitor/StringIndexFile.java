@@ -23,81 +23,84 @@
 
 package dk.netarkivet.heritrix3.monitor;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class StringIndexFile {
 
     public static byte[] readPage(RandomAccessFile idxRaf, RandomAccessFile logRaf, long page, long itemsPerPage, boolean descending) throws IOException {
-        byte[] bytes = null;;
+        return readPage(idxRaf.getChannel(), logRaf.getChannel(), idxRaf.length(), page, itemsPerPage, descending);
+    }
+
+    /**
+     * Read a page of lines using positional reads only, so lines can be appended to the files meanwhile.
+     *
+     * @param idxChannel the index file with the offset of each line, starting with 0
+     * @param logChannel the file with the lines
+     * @param length the number of bytes in the index file to use
+     * @param page the page number, starting at 1
+     * @param itemsPerPage the number of lines per page
+     * @param descending true to read the lines from the end
+     * @return the lines of the page, or null if there are no lines
+     * @throws IOException if the files cannot be read
+     */
+    public static byte[] readPage(FileChannel idxChannel, FileChannel logChannel, long length, long page, long itemsPerPage, boolean descending) throws IOException {
+        byte[] bytes = null;
         if (page < 1) {
             throw new IllegalArgumentException();
         }
         if (itemsPerPage < 25) {
             throw new IllegalArgumentException();
         }
-        long length = idxRaf.length();
         if (length > 8) {
             if (!descending) {
                 // Forwards.
                 long fromIdx = (page - 1) * (itemsPerPage * 8);
                 long toIdx = fromIdx + (itemsPerPage * 8);
-                if (toIdx > length) {
-                    toIdx = length;
+                if (toIdx > length - 8) {
+                    toIdx = length - 8;
                 }
-                idxRaf.seek(fromIdx);
-                fromIdx = idxRaf.readLong();
-                idxRaf.seek(toIdx);
-                toIdx = idxRaf.readLong();
-                logRaf.seek(fromIdx);
+                if (fromIdx >= toIdx) {
+                    // Past the last line.
+                    return null;
+                }
+                fromIdx = readLong(idxChannel, fromIdx);
+                toIdx = readLong(idxChannel, toIdx);
                 bytes = new byte[(int)(toIdx - fromIdx)];
-                logRaf.readFully(bytes, 0, (int)(toIdx - fromIdx));
+                readFully(logChannel, ByteBuffer.wrap(bytes), fromIdx);
             } else {
                 // Backwards.
                 long toIdx = length - ((page - 1) * itemsPerPage * 8);
                 long fromIdx = toIdx - (itemsPerPage * 8) - 8;
+                if (toIdx < 16) {
+                    // Past the first line.
+                    return null;
+                }
                 if (fromIdx < 0) {
                     fromIdx = 0;
                 }
                 // Read line indexes for page.
-                int pageIdxArrLen = (int)(toIdx - fromIdx);
-                byte[] pageIdxArr = new byte[pageIdxArrLen];
-                idxRaf.seek(fromIdx);
-                int pos = 0;
-                int limit = pageIdxArrLen;
-                int read = 0;
-                while (limit > 0 && read != -1) {
-                    read = idxRaf.read(pageIdxArr, pos, limit);
-                    if (read != -1) {
-                        pos += read;
-                        limit -= read;
-                    }
-                }
-                // Convert line indexes for page.
-                limit = pos;
-                pos = 0;
-                long[] idxArr = new long[limit / 8];
-                long l;
-                int dstIdx = 0;
-                while (pos < limit) {
-                    l = (pageIdxArr[pos++] & 255) << 56 | (pageIdxArr[pos++] & 255) << 48 | (pageIdxArr[pos++] & 255) << 40 | (pageIdxArr[pos++] & 255) << 32
-                            | (pageIdxArr[pos++] & 255) << 24 | (pageIdxArr[pos++] & 255) << 16 | (pageIdxArr[pos++] & 255) << 8 | (pageIdxArr[pos++] & 255);
-                    idxArr[dstIdx++] = l;
-                }
+                ByteBuffer pageIdxBuf = ByteBuffer.allocate((int)(toIdx - fromIdx));
+                readFully(idxChannel, pageIdxBuf, fromIdx);
+                pageIdxBuf.flip();
+                long[] idxArr = new long[pageIdxBuf.remaining() / 8];
+                pageIdxBuf.asLongBuffer().get(idxArr);
                 // Load the crawllog lines for page.
-                pos = 0;
-                limit /= 8;
+                int pos = 0;
+                int limit = idxArr.length;
                 fromIdx = idxArr[pos];
                 toIdx = idxArr[limit - 1];
-                logRaf.seek(fromIdx);
                 byte[] tmpBytes = new byte[(int)(toIdx - fromIdx)];
-                logRaf.readFully(tmpBytes, 0, (int)(toIdx - fromIdx));
+                readFully(logChannel, ByteBuffer.wrap(tmpBytes), fromIdx);
                 // Reverse crawllog lines for page.
                 bytes = new byte[tmpBytes.length];
                 long base = idxArr[pos++];
                 fromIdx = base;
                 int len;
-                dstIdx = bytes.length;
+                int dstIdx = bytes.length;
                 while (pos < limit) {
                     toIdx = idxArr[pos++];
                     len = (int)(toIdx - fromIdx);
@@ -110,4 +113,20 @@ public class StringIndexFile {
         return bytes;
     }
 
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        readFully(channel, buf, position);
+        return buf.getLong(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
 }
@@ -0,0 +1,266 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Tests of how {@link Heritrix3JobMonitor} indexes the cached crawllog, and of searching the indexed lines.
+ */
+public class Heritrix3JobMonitorTest {
+
+    private File workingDir;
+    private Heritrix3JobMonitor monitor;
+    private SearchResult searchResult;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("Heritrix3JobMonitorTest").toFile();
+        monitor = new Heritrix3JobMonitor();
+        monitor.jobId = 42;
+        monitor.logFile = new File(workingDir, "crawllog-42.log");
+        monitor.idxFile = new File(workingDir, "crawllog-42.idx");
+    }
+
+    @After
+    public void tearDown() {
+        if (searchResult != null) {
+            searchResult.cleanup();
+        }
+        IOUtils.closeQuietly(monitor.logRaf);
+        IOUtils.closeQuietly(monitor.idxRaf);
+        FileUtils.removeRecursively(workingDir);
+    }
+
+    @Test
+    public void testOpenNewCachedFiles() throws IOException {
+        monitor.openCachedFiles();
+        assertIndexed(0, 0);
+        assertEquals(0, monitor.logRaf.length());
+        assertEquals(8, monitor.idxRaf.length());
+        assertNull(monitor.readPage(1, 25, false));
+    }
+
+    /**
+     * Blocks ending in the middle of a line, and an offset buffer smaller than a block, must give the same index as
+     * indexing all lines at once.
+     */
+    @Test
+    public void testIndexLinesAcrossBlocksAndFlushes() throws IOException {
+        monitor.openCachedFiles();
+        ByteBuffer idxBuf = ByteBuffer.allocate(3 * 8);
+        String log = lines(0, 40);
+        append(log.substring(0, 17), idxBuf);
+        assertIndexed(2, offset(2));
+        append(log.substring(17, 200), idxBuf);
+        assertIndexed(26, offset(26));
+        append(log.substring(200), idxBuf);
+        assertIndexed(40, offset(40));
+        assertEquals(41 * 8, monitor.idxRaf.length());
+        for (int i = 0; i <= 40; ++i) {
+            monitor.idxRaf.seek(i * 8);
+            assertEquals("Offset of line " + i, offset(i), monitor.idxRaf.readLong());
+        }
+        assertEquals(lines(25, 40), readPage(2, false));
+        assertEquals(reversedLines(15, 40), readPage(1, true));
+    }
+
+    /**
+     * Bytes of a line not yet ended are not indexed or read until the rest of the line is appended.
+     */
+    @Test
+    public void testPartialLineIsNotPublished() throws IOException {
+        monitor.openCachedFiles();
+        ByteBuffer idxBuf = ByteBuffer.allocate(Heritrix3JobMonitor.INDEX_BUFFER_ENTRIES * 8);
+        append(lines(0, 30) + "line 3", idxBuf);
+        assertIndexed(30, offset(30));
+        assertEquals(lines(25, 30), readPage(2, false));
+        append("0\n", idxBuf);
+        assertIndexed(31, offset(31));
+        assertEquals(lines(25, 31), readPage(2, false));
+    }
+
+    /**
+     * An interrupted update may leave offsets of lines that were never written, a partial offset, and bytes after
+     * the last indexed line. They are dropped when the files are opened again.
+     */
+    @Test
+    public void testOpenCachedFilesDropsUnfinishedUpdate() throws IOException {
+        writeCachedFiles(lines(0, 30) + "line 30", 33, 4);
+        monitor.openCachedFiles();
+        assertIndexed(30, offset(30));
+        assertEquals(31 * 8, monitor.idxRaf.length());
+        assertEquals(offset(30), monitor.logRaf.length());
+        assertEquals(lines(25, 30), readPage(2, false));
+
+        // Mirroring continues after the last indexed line.
+        append(lines(30, 32), ByteBuffer.allocate(8));
+        assertIndexed(32, offset(32));
+        assertEquals(reversedLines(7, 32), readPage(1, true));
+    }
+
+    /**
+     * When no complete offset fits the cached crawllog, the files are started over.
+     */
+    @Test
+    public void testOpenCachedFilesWithoutValidOffset() throws IOException {
+        writeCachedFiles("line 0", 3, 0);
+        monitor.openCachedFiles();
+        assertIndexed(0, 0);
+        assertEquals(8, monitor.idxRaf.length());
+        assertEquals(0, monitor.logRaf.length());
+        IOUtils.closeQuietly(monitor.logRaf);
+        IOUtils.closeQuietly(monitor.idxRaf);
+
+        FileUtils.remove(monitor.idxFile);
+        writeCachedFiles("", -1, 4);
+        monitor.openCachedFiles();
+        assertIndexed(0, 0);
+        assertEquals(8, monitor.idxRaf.length());
+        monitor.idxRaf.seek(0);
+        assertEquals(0, monitor.idxRaf.readLong());
+    }
+
+    /**
+     * A search only reads the lines published by the monitor, and continues from there on the next update.
+     */
+    @Test
+    public void testSearchResultUpdateIsBoundedByLastIndexed() throws IOException {
+        monitor.openCachedFiles();
+        ByteBuffer idxBuf = ByteBuffer.allocate(Heritrix3JobMonitor.INDEX_BUFFER_ENTRIES * 8);
+        append(lines(0, 60), idxBuf);
+        // Lines mirrored, but not yet indexed.
+        writeLog(lines(60, 62));
+
+        searchResult = new SearchResult(workingDir, monitor, "line \\d*[05]", 1);
+        searchResult.update();
+        assertEquals(lines(0, 60, 5), readSearchResult());
+        assertEquals(12 + 1, searchResult.getIndexSize() / 8);
+
+        indexLines(lines(60, 62), offset(60), idxBuf);
+        append(lines(62, 66), idxBuf);
+        searchResult.update();
+        assertEquals(lines(0, 66, 5), readSearchResult());
+        assertEquals(14 + 1, searchResult.getIndexSize() / 8);
+    }
+
+    /**
+     * Write a cached crawllog and an index as an interrupted update may leave them.
+     *
+     * @param log the cached crawllog
+     * @param lines the number of lines to write offsets for, which may be more than the lines in the log
+     * @param partialOffset the number of bytes of an offset written after the others
+     */
+    private void writeCachedFiles(String log, int lines, int partialOffset) throws IOException {
+        writeLog(log);
+        try (RandomAccessFile idxRaf = new RandomAccessFile(monitor.idxFile, "rw")) {
+            for (int i = 0; i <= lines; ++i) {
+                idxRaf.writeLong(offset(i));
+            }
+            idxRaf.write(new byte[partialOffset]);
+        }
+    }
+
+    private void writeLog(String log) throws IOException {
+        try (RandomAccessFile logRaf = new RandomAccessFile(monitor.logFile, "rw")) {
+            logRaf.seek(logRaf.length());
+            logRaf.write(log.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Append a block to the cached crawllog and index it, the way a download does. */
+    private void append(String block, ByteBuffer idxBuf) throws IOException {
+        long offset = monitor.logRaf.length();
+        writeLog(block);
+        indexLines(block, offset, idxBuf);
+    }
+
+    private void indexLines(String block, long offset, ByteBuffer idxBuf) throws IOException {
+        byte[] bytes = block.getBytes(StandardCharsets.UTF_8);
+        FileChannel idxChannel = monitor.idxRaf.getChannel();
+        monitor.indexLines(idxChannel, idxBuf, bytes, bytes.length, offset);
+    }
+
+    private void assertIndexed(long lines, long lastIndexed) {
+        assertEquals(lines, monitor.totalCachedLines);
+        assertEquals(lastIndexed, monitor.getLastIndexed());
+        assertEquals((lines + 1) * 8, monitor.getIndexSize());
+    }
+
+    private String readPage(long page, boolean descending) throws IOException {
+        byte[] bytes = monitor.readPage(page, 25, descending);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private String readSearchResult() throws IOException {
+        byte[] bytes = searchResult.readPage(1, 25, false);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String line(int i) {
+        return "line " + i + "\n";
+    }
+
+    /** @return the offset in the log after the given number of lines */
+    private static long offset(int lines) {
+        return lines(0, lines).length();
+    }
+
+    private static String lines(int from, int to) {
+        return lines(from, to, 1);
+    }
+
+    private static String lines(int from, int to, int step) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i += step) {
+            sb.append(line(i));
+        }
+        return sb.toString();
+    }
+
+    private static String reversedLines(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = to - 1; i >= from; --i) {
+            sb.append(line(i));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * Netarchivesuite - heritrix 3 monitor
+ * %%
+ * Copyright (C) 2005 - 2018 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.heritrix3.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+public class StringIndexFileTest {
+
+    private static final int LINES = 60;
+
+    private File workingDir;
+    private RandomAccessFile logRaf;
+    private RandomAccessFile idxRaf;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("StringIndexFileTest").toFile();
+        logRaf = new RandomAccessFile(new File(workingDir, "crawllog.log"), "rw");
+        idxRaf = new RandomAccessFile(new File(workingDir, "crawllog.idx"), "rw");
+        idxRaf.writeLong(0);
+        for (int i = 0; i < LINES; ++i) {
+            logRaf.write(line(i).getBytes(StandardCharsets.UTF_8));
+            idxRaf.writeLong(logRaf.length());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        IOUtils.closeQuietly(logRaf);
+        IOUtils.closeQuietly(idxRaf);
+        FileUtils.removeRecursively(workingDir);
+    }
+
+    @Test
+    public void testReadPagesForwards() throws IOException {
+        assertEquals(lines(0, 25), readPage(1, false));
+        assertEquals(lines(25, 50), readPage(2, false));
+        // The last page is cut off at the last offset in the index.
+        assertEquals(lines(50, 60), readPage(3, false));
+        assertNull(readPage(4, false));
+    }
+
+    @Test
+    public void testReadPagesBackwards() throws IOException {
+        assertEquals(reversedLines(35, 60), readPage(1, true));
+        assertEquals(reversedLines(10, 35), readPage(2, true));
+        assertEquals(reversedLines(0, 10), readPage(3, true));
+        assertNull(readPage(4, true));
+    }
+
+    /**
+     * Offsets and lines appended after the given index length are not read, in either direction.
+     */
+    @Test
+    public void testReadPagesWithinIndexLength() throws IOException {
+        long length = (40 + 1) * 8;
+        assertEquals(lines(25, 40), readPage(length, 2, false));
+        assertNull(readPage(length, 3, false));
+        assertEquals(reversedLines(15, 40), readPage(length, 1, true));
+        assertEquals(reversedLines(0, 15), readPage(length, 2, true));
+    }
+
+    @Test
+    public void testReadPagesWithoutLines() throws IOException {
+        assertNull(readPage(8, 1, false));
+        assertNull(readPage(8, 1, true));
+        assertNull(readPage(0, 1, false));
+    }
+
+    @Test
+    public void testReadPageFromRandomAccessFiles() throws IOException {
+        byte[] bytes = StringIndexFile.readPage(idxRaf, logRaf, 3, 25, false);
+        assertEquals(lines(50, 60), new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadPageZero() throws IOException {
+        readPage(0, false);
+    }
+
+    private String readPage(long page, boolean descending) throws IOException {
+        return readPage(idxRaf.length(), page, descending);
+    }
+
+    private String readPage(long length, long page, boolean descending) throws IOException {
+        byte[] bytes = StringIndexFile.readPage(idxRaf.getChannel(), logRaf.getChannel(), length, page, 25,
+                descending);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static String line(int i) {
+        return "line " + i + "\n";
+    }
+
+    private static String lines(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; ++i) {
+            sb.append(line(i));
+        }
+        return sb.toString();
+    }
+
+    private static String reversedLines(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = to - 1; i >= from; --i) {
+            sb.append(line(i));
+        }
+        return sb.toString();
+    }
+
+}